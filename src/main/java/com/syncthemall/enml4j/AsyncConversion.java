@@ -0,0 +1,450 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import com.evernote.edam.type.Note;
+import com.fasterxml.aalto.AsyncByteArrayFeeder;
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * The conversion of a {@link ConversionSession} parsing the ENML content with the non-blocking parser of Aalto, used
+ * when Aalto is on the classpath.
+ * <p>
+ * Each chunk fed schedules a task on the {@code Executor}, which converts the events of the chunks fed so far and
+ * returns as soon as the parser needs more input. No thread waits for the chunks, so a session costs no thread while
+ * the caller reads the next one.
+ * <p>
+ * Aalto doesn't read the DTD: the references to its entities are replaced by an {@link EntityReferenceFilter} and its
+ * default attributes are added from the {@link ENMLTokenizer}, so the events are the same as with the blocking parser.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class AsyncConversion implements Runnable {
+
+	private static Logger log = Logger.getLogger(AsyncConversion.class.getName());
+
+	private static final AsyncXMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Note note;
+	private final Executor executor;
+	private final FeedInputStream input;
+	private final AsyncXMLStreamReader<AsyncByteArrayFeeder> parser;
+	private final DefaultAttributesReader reader;
+	private final TextEventReader eventReader;
+	private final EntityReferenceFilter filter;
+	private final ConversionFuture<OutputStream> future = new ConversionFuture<OutputStream>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final long start = System.currentTimeMillis();
+
+	/* Set before the first chunk is fed, and only used by the tasks afterward. */
+	private HTMLConversion conversion;
+	private OutputStream out;
+	private boolean endOfInput;
+
+	/**
+	 * @param note the {@code Note} which content is fed
+	 * @param tokenizer the {@code ENMLTokenizer} holding the entities and default attributes of the ENML DTD
+	 * @param eventFactory the {@code XMLEventFactory} creating the events of the ENML content
+	 * @param capacity the maximum number of bytes fed and not yet parsed
+	 * @param executor the {@code Executor} running the conversion
+	 */
+	AsyncConversion(final Note note, final ENMLTokenizer tokenizer, final XMLEventFactory eventFactory,
+			final int capacity, final Executor executor) {
+		this.note = note;
+		this.executor = executor;
+		this.input = new FeedInputStream(capacity, new Runnable() {
+			@Override
+			public void run() {
+				schedule();
+			}
+		});
+		this.parser = INPUT_FACTORY.createAsyncForByteArray();
+		this.reader = new DefaultAttributesReader(parser, tokenizer);
+		this.eventReader = new TextEventReader(new StreamEventReader(reader, eventFactory, false), reader,
+				eventFactory);
+		this.filter = new EntityReferenceFilter(tokenizer);
+	}
+
+	/**
+	 * @return the {@code XMLEventReader} of the ENML content, to give to the {@link HTMLConversion}
+	 */
+	XMLEventReader getReader() {
+		return eventReader;
+	}
+
+	/**
+	 * Opens the session feeding the conversion.
+	 * 
+	 * @param htmlConversion the {@code HTMLConversion} reading {@link #getReader()}
+	 * @param output the {@code OutputStream} in which the {@code HTMLConversion} writes
+	 * @return the {@code ConversionSession} to feed with the ENML content
+	 */
+	ConversionSession open(final HTMLConversion htmlConversion, final OutputStream output) {
+		this.conversion = htmlConversion;
+		this.out = output;
+		return new ConversionSession(input, future);
+	}
+
+	/**
+	 * Converts the events of the chunks fed so far.
+	 */
+	@Override
+	public void run() {
+		try {
+			convert();
+		} catch (XMLStreamException e) {
+			fail(e);
+		} catch (IOException e) {
+			fail(new XMLStreamException(e));
+		} catch (RuntimeException e) {
+			fail(e);
+		} finally {
+			scheduled.set(false);
+		}
+		// A chunk fed while this task was returning found it still scheduled
+		if (!future.isDone() && (input.available() > 0 || input.isEnded())) {
+			schedule();
+		}
+	}
+
+	private void schedule() {
+		if (!future.isDone() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				fail(e);
+			}
+		}
+	}
+
+	private void convert() throws XMLStreamException, IOException {
+		while (!future.isDone()) {
+			if (eventReader.isEventReady()) {
+				if (!conversion.step()) {
+					parser.close();
+					input.close();
+					future.complete(out);
+					log.fine("Note " + note.getGuid() + " has been converted in "
+							+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+				}
+			} else if (!feedParser()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gives the parser the bytes fed so far, or the end of the input.
+	 * 
+	 * @return false if there is no input to give yet
+	 * @throws XMLStreamException if the ENML content ends before the document is complete
+	 * @throws IOException if the session is closed
+	 */
+	private boolean feedParser() throws XMLStreamException, IOException {
+		int available = input.available();
+		if (available > 0) {
+			byte[] chunk = new byte[available];
+			int length = input.read(chunk, 0, available);
+			byte[] filtered = filter.filter(chunk, length, false);
+			if (filtered.length > 0) {
+				parser.getInputFeeder().feedInput(filtered, 0, filtered.length);
+			}
+			return true;
+		} else if (!input.isEnded()) {
+			return false;
+		} else if (endOfInput) {
+			throw new XMLStreamException("The ENML content of Note " + note.getGuid() + " is incomplete");
+		}
+		byte[] filtered = filter.filter(EMPTY, 0, true);
+		if (filtered.length > 0) {
+			parser.getInputFeeder().feedInput(filtered, 0, filtered.length);
+		}
+		parser.getInputFeeder().endOfInput();
+		endOfInput = true;
+		return true;
+	}
+
+	private void fail(final Throwable failure) {
+		input.close();
+		future.fail(failure);
+	}
+
+	private static AsyncXMLInputFactory createInputFactory() {
+		AsyncXMLInputFactory factory = new InputFactoryImpl();
+		// The references to the entities of the DTD are replaced before parsing, the others are reported as is
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+		return factory;
+	}
+
+	/**
+	 * The events of the non-blocking parser, with the consecutive text events merged in one. Aalto splits the text at
+	 * the end of each chunk, while the {@code Converter}s expect the whole text of an element in one event as given by
+	 * the blocking parser.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	private static final class TextEventReader extends EventReaderDelegate {
+
+		private final DefaultAttributesReader reader;
+		private final XMLEventFactory eventFactory;
+
+		/** The events ready to be returned. */
+		private final ArrayDeque<XMLEvent> events = new ArrayDeque<XMLEvent>(2);
+
+		/** The text events parsed and not merged yet. */
+		private final List<XMLEvent> text = new ArrayList<XMLEvent>();
+
+		TextEventReader(final XMLEventReader parent, final DefaultAttributesReader reader,
+				final XMLEventFactory eventFactory) {
+			super(parent);
+			this.reader = reader;
+			this.eventFactory = eventFactory;
+		}
+
+		/**
+		 * Parses the events until the next one is complete, a text being complete once the event following it is
+		 * parsed.
+		 * 
+		 * @return true if the next event, or the end of the document, is parsed, false if more input is needed
+		 * @throws XMLStreamException if the ENML content is malformed
+		 */
+		boolean isEventReady() throws XMLStreamException {
+			while (events.isEmpty()) {
+				if (!reader.isEventReady()) {
+					return false;
+				}
+				if (!getParent().hasNext()) {
+					mergeText();
+					return true;
+				}
+				XMLEvent event = getParent().nextEvent();
+				if (event.getEventType() == XMLStreamConstants.CHARACTERS) {
+					text.add(event);
+				} else {
+					mergeText();
+					events.add(event);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !events.isEmpty();
+		}
+
+		@Override
+		public XMLEvent nextEvent() {
+			XMLEvent event = events.poll();
+			if (event == null) {
+				throw new NoSuchElementException();
+			}
+			return event;
+		}
+
+		@Override
+		public Object next() {
+			return nextEvent();
+		}
+
+		@Override
+		public XMLEvent peek() {
+			return events.peek();
+		}
+
+		@Override
+		public String getElementText() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public XMLEvent nextTag() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void mergeText() {
+			if (text.size() == 1) {
+				events.add(text.get(0));
+			} else if (text.size() > 1) {
+				StringBuilder merged = new StringBuilder();
+				for (XMLEvent event : text) {
+					merged.append(event.asCharacters().getData());
+				}
+				events.add(eventFactory.createCharacters(merged.toString()));
+			}
+			text.clear();
+		}
+	}
+
+	/**
+	 * The non-blocking parser, with an event parsed ahead to know whether the next one is available, and the default
+	 * attributes of the ENML DTD added to the elements.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	private static final class DefaultAttributesReader extends StreamReaderDelegate {
+
+		private final AsyncXMLStreamReader<AsyncByteArrayFeeder> parser;
+		private final ENMLTokenizer tokenizer;
+
+		/** The event parsed and not yet returned by {@link #next()}, 0 if none. */
+		private int pending;
+
+		/** True once the doctype is parsed, as without it the DTD defines no default attributes. */
+		private boolean doctype;
+
+		/** The default attributes the current element doesn't specify. */
+		private List<ENMLTokenizer.Default> defaults = Collections.emptyList();
+
+		DefaultAttributesReader(final AsyncXMLStreamReader<AsyncByteArrayFeeder> parser,
+				final ENMLTokenizer tokenizer) {
+			super(parser);
+			this.parser = parser;
+			this.tokenizer = tokenizer;
+		}
+
+		/**
+		 * Parses the next event if not done yet.
+		 * 
+		 * @return true if the next event, or the end of the document, is parsed, false if more input is needed
+		 * @throws XMLStreamException if the ENML content is malformed
+		 */
+		boolean isEventReady() throws XMLStreamException {
+			if (pending != 0 || !parser.hasNext()) {
+				return true;
+			}
+			int event = parser.next();
+			if (event == AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+				return false;
+			}
+			pending = event;
+			if (event == XMLStreamConstants.DTD) {
+				doctype = true;
+			}
+			defaults = event == XMLStreamConstants.START_ELEMENT && doctype ? missingDefaults() : Collections
+					.<ENMLTokenizer.Default> emptyList();
+			return true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pending != 0;
+		}
+
+		@Override
+		public int next() {
+			if (pending == 0) {
+				throw new NoSuchElementException();
+			}
+			int event = pending;
+			pending = 0;
+			return event;
+		}
+
+		@Override
+		public int getAttributeCount() {
+			return parser.getAttributeCount() + defaults.size();
+		}
+
+		@Override
+		public QName getAttributeName(final int index) {
+			int specified = parser.getAttributeCount();
+			return index < specified ? parser.getAttributeName(index) : defaults.get(index - specified).getName();
+		}
+
+		@Override
+		public String getAttributeLocalName(final int index) {
+			return getAttributeName(index).getLocalPart();
+		}
+
+		@Override
+		public String getAttributeNamespace(final int index) {
+			return getAttributeName(index).getNamespaceURI();
+		}
+
+		@Override
+		public String getAttributePrefix(final int index) {
+			return getAttributeName(index).getPrefix();
+		}
+
+		@Override
+		public String getAttributeValue(final int index) {
+			int specified = parser.getAttributeCount();
+			return index < specified ? parser.getAttributeValue(index) : defaults.get(index - specified).getValue();
+		}
+
+		@Override
+		public String getAttributeType(final int index) {
+			return index < parser.getAttributeCount() ? parser.getAttributeType(index) : "CDATA";
+		}
+
+		@Override
+		public boolean isAttributeSpecified(final int index) {
+			return index < parser.getAttributeCount();
+		}
+
+		private List<ENMLTokenizer.Default> missingDefaults() throws XMLStreamException {
+			List<ENMLTokenizer.Default> all = tokenizer.getDefaultAttributes(parser.getLocalName(),
+					parser.isEmptyElement());
+			if (all.isEmpty()) {
+				return all;
+			}
+			List<ENMLTokenizer.Default> missing = new ArrayList<ENMLTokenizer.Default>(all.size());
+			for (ENMLTokenizer.Default attribute : all) {
+				if (parser.getAttributeValue(attribute.getName().getNamespaceURI(), attribute.getName()
+						.getLocalPart()) == null) {
+					missing.add(attribute);
+				}
+			}
+			return missing;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the primitives of the binary form of a {@link ParsedNote} written by a {@link BinaryOutput}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class BinaryInput {
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[8192];
+	private int position;
+	private int count;
+
+	BinaryInput(final InputStream in) {
+		this.in = in;
+	}
+
+	int readByte() throws IOException {
+		if (position == count) {
+			count = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (count <= 0) {
+				count = 0;
+				throw new EOFException("Unexpected end of the binary parsed note");
+			}
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	int readInt() throws IOException {
+		return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+	}
+
+	int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if (b < 0x80) {
+				if (value < 0) {
+					break;
+				}
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in the binary parsed note");
+	}
+
+	/**
+	 * @param maxLength the maximum length of the {@code String}, larger lengths meaning a corrupted binary form
+	 * @return the {@code String} read, possibly null
+	 * @throws IOException if the length exceeds the maximum or if an I/O error occurs
+	 */
+	String readString(final int maxLength) throws IOException {
+		int length = readVarint();
+		if (length == 0) {
+			return null;
+		}
+		if (length - 1 > maxLength) {
+			throw new IOException("Invalid string length " + (length - 1) + " in the binary parsed note");
+		}
+		char[] chars = new char[length - 1];
+		readUTF8(chars, 0, chars.length);
+		return new String(chars);
+	}
+
+	/**
+	 * Decodes chars encoded in UTF-8.
+	 * 
+	 * @param chars the array in which to decode the chars
+	 * @param start the index in the array of the first char decoded
+	 * @param length the number of chars to decode
+	 * @throws IOException if the bytes are not valid UTF-8 or if an I/O error occurs
+	 */
+	void readUTF8(final char[] chars, final int start, final int length) throws IOException {
+		int end = start + length;
+		int i = start;
+		while (i < end) {
+			int b = readByte();
+			if (b < 0x80) {
+				chars[i++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				chars[i++] = (char) (((b & 0x1F) << 6) | continuation());
+			} else if ((b & 0xF0) == 0xE0) {
+				chars[i++] = (char) (((b & 0x0F) << 12) | (continuation() << 6) | continuation());
+			} else if ((b & 0xF8) == 0xF0 && i + 1 < end) {
+				int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+				chars[i++] = Character.highSurrogate(codePoint);
+				chars[i++] = Character.lowSurrogate(codePoint);
+			} else {
+				throw new IOException("Malformed UTF-8 in the binary parsed note");
+			}
+		}
+	}
+
+	private int continuation() throws IOException {
+		int b = readByte();
+		if ((b & 0xC0) != 0x80) {
+			throw new IOException("Malformed UTF-8 in the binary parsed note");
+		}
+		return b & 0x3F;
+	}
+}
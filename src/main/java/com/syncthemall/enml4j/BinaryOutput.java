@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the primitives of the binary form of a {@link ParsedNote}: bytes, 4 bytes integers, variable length
+ * integers and UTF-8 text runs.
+ * <p>
+ * The output is buffered, {@link #flush()} has to be called once everything is written.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class BinaryOutput {
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[8192];
+	private int count;
+
+	BinaryOutput(final OutputStream out) {
+		this.out = out;
+	}
+
+	void writeByte(final int b) throws IOException {
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	void writeInt(final int value) throws IOException {
+		writeByte(value >>> 24);
+		writeByte(value >>> 16);
+		writeByte(value >>> 8);
+		writeByte(value);
+	}
+
+	/**
+	 * Writes a positive integer on 1 to 5 bytes, 7 bits per byte, the high bit set on all bytes but the last.
+	 */
+	void writeVarint(final int value) throws IOException {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative varint " + value);
+		}
+		int remaining = value;
+		while (remaining >= 0x80) {
+			writeByte((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		writeByte(remaining);
+	}
+
+	/**
+	 * Writes a number of chars followed by the chars encoded in UTF-8.
+	 */
+	void writeChars(final char[] chars, final int start, final int length) throws IOException {
+		writeVarint(length);
+		writeUTF8(chars, start, length);
+	}
+
+	/**
+	 * Writes a {@code String} that may be null, as its length plus one (0 for null) followed by its chars encoded in
+	 * UTF-8.
+	 */
+	void writeString(final String value) throws IOException {
+		if (value == null) {
+			writeVarint(0);
+		} else {
+			writeVarint(value.length() + 1);
+			writeUTF8(value.toCharArray(), 0, value.length());
+		}
+	}
+
+	/**
+	 * Encodes chars in UTF-8. An unpaired surrogate is written on 3 bytes, as any other char, so it is read back
+	 * unchanged.
+	 */
+	private void writeUTF8(final char[] chars, final int start, final int length) throws IOException {
+		int end = start + length;
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+			if (c < 0x80) {
+				writeByte(c);
+			} else if (c < 0x800) {
+				writeByte(0xC0 | (c >> 6));
+				writeByte(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+				int codePoint = Character.toCodePoint(c, chars[++i]);
+				writeByte(0xF0 | (codePoint >> 18));
+				writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+				writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+				writeByte(0x80 | (codePoint & 0x3F));
+			} else {
+				writeByte(0xE0 | (c >> 12));
+				writeByte(0x80 | ((c >> 6) & 0x3F));
+				writeByte(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, count);
+		count = 0;
+	}
+}
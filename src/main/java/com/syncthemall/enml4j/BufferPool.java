@@ -0,0 +1,120 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of byte buffers, to avoid allocating and growing a new buffer for each conversion producing a {@code String}.
+ * <p>
+ * The buffers are not bound to a thread, so a pool of a few buffers serves any number of threads. The buffers grown
+ * beyond the maximum retained size by a large {@code Note} are released rather than kept in the pool.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class BufferPool {
+
+	private final int capacity;
+	private final int maxRetainedSize;
+	private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * @param capacity the maximum number of idle buffers kept in the pool
+	 * @param maxRetainedSize the maximum size in bytes of a buffer kept in the pool
+	 */
+	BufferPool(final int capacity, final int maxRetainedSize) {
+		this.capacity = capacity;
+		this.maxRetainedSize = maxRetainedSize;
+	}
+
+	/**
+	 * Takes an empty buffer from the pool, or creates one if the pool is empty.
+	 * 
+	 * @param expectedSize the expected size in bytes of the data written in the buffer, to avoid growing it
+	 * @return a {@code Buffer} to give back with {@link #release(Buffer)}
+	 */
+	Buffer acquire(final int expectedSize) {
+		Buffer buffer = buffers.poll();
+		if (buffer == null) {
+			return new Buffer(expectedSize);
+		}
+		size.decrementAndGet();
+		buffer.prepare(expectedSize);
+		return buffer;
+	}
+
+	/**
+	 * Gives back a buffer to the pool, or releases it if the pool is full or if the buffer is too large to be kept.
+	 * 
+	 * @param buffer a {@code Buffer} obtained with {@link #acquire(int)}
+	 */
+	void release(final Buffer buffer) {
+		if (buffer.capacity() > maxRetainedSize) {
+			return;
+		}
+		if (size.incrementAndGet() <= capacity) {
+			buffers.offer(buffer);
+		} else {
+			size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A {@code ByteArrayOutputStream} that can be emptied and enlarged to be reused, and decoded without copying its
+	 * content.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	static final class Buffer extends ByteArrayOutputStream {
+
+		private Buffer(final int size) {
+			super(size);
+		}
+
+		private void prepare(final int expectedSize) {
+			reset();
+			if (buf.length < expectedSize) {
+				buf = new byte[expectedSize];
+			}
+		}
+
+		private int capacity() {
+			return buf.length;
+		}
+
+		/**
+		 * Decodes the content of the buffer.
+		 * 
+		 * @param charset the {@code Charset} of the content
+		 * @return the content of the buffer as a {@code String}
+		 */
+		String decode(final Charset charset) {
+			return new String(buf, 0, count, charset);
+		}
+	}
+}
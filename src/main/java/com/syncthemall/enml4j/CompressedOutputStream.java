@@ -0,0 +1,138 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * An {@code OutputStream} compressing the data written in another {@code OutputStream} in the gzip or zlib format,
+ * with a {@code Deflater} provided by the caller.
+ * <p>
+ * Unlike {@code GZIPOutputStream}, the gzip header and trailer are written here so that the raw deflate data can be
+ * produced by a pooled {@code Deflater}. Closing this stream doesn't release the {@code Deflater}.
+ * <p>
+ * The StAX {@code XMLEventWriter} writes its output byte by byte, so the data is buffered before being given to the
+ * {@code Deflater}, each call to which has a fixed cost.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class CompressedOutputStream extends DeflaterOutputStream {
+
+	/** Size of the buffers receiving the data to compress, and the compressed data. */
+	static final int BUFFER_SIZE = 8192;
+
+	/** gzip header: magic number, deflate method, no flags, no modification time, no extra flags, unknown OS. */
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final CRC32 crc;
+
+	/** The data written and not yet given to the {@code Deflater}. */
+	private final byte[] input = new byte[BUFFER_SIZE];
+	private int count;
+
+	/**
+	 * @param out the {@code OutputStream} in which to write the compressed data
+	 * @param compression the compressed format
+	 * @param deflater the {@code Deflater} compressing the data. It has to produce raw deflate data for the gzip
+	 *            format, zlib data otherwise.
+	 * @param syncFlush true if flushing this stream flushes the data compressed so far, false if it only flushes the
+	 *            {@code OutputStream} in parameter
+	 * @throws IOException if an I/O error occurs writing the gzip header
+	 */
+	CompressedOutputStream(final OutputStream out, final Compression compression, final Deflater deflater,
+			final boolean syncFlush) throws IOException {
+		super(out, deflater, BUFFER_SIZE, syncFlush);
+		if (compression == Compression.GZIP) {
+			crc = new CRC32();
+			out.write(GZIP_HEADER);
+		} else {
+			crc = null;
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (count == input.length) {
+			drain();
+		}
+		input[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (len > input.length - count) {
+			drain();
+			if (len >= input.length) {
+				compress(b, off, len);
+				return;
+			}
+		}
+		System.arraycopy(b, off, input, count, len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		super.flush();
+	}
+
+	/**
+	 * Writes the remaining compressed data, and the gzip trailer if any, without closing the {@code OutputStream}.
+	 * 
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void finish() throws IOException {
+		if (!def.finished()) {
+			drain();
+			super.finish();
+			if (crc != null) {
+				writeIntLE(crc.getValue());
+				writeIntLE(def.getBytesRead());
+			}
+		}
+	}
+
+	private void drain() throws IOException {
+		if (count > 0) {
+			compress(input, 0, count);
+			count = 0;
+		}
+	}
+
+	private void compress(final byte[] b, final int off, final int len) throws IOException {
+		super.write(b, off, len);
+		if (crc != null) {
+			crc.update(b, off, len);
+		}
+	}
+
+	private void writeIntLE(final long value) throws IOException {
+		out.write(new byte[] { (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) });
+	}
+}
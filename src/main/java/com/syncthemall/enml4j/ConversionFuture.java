@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The result of an asynchronous conversion started by {@link ENMLProcessor}.
+ * <p>
+ * In addition to the {@code Future} methods, listeners can be registered with {@link #addListener(Runnable, Executor)}
+ * to be notified when the conversion completes, so the caller doesn't have to block a thread on {@link #get()}.
+ * <p>
+ * Cancelling the {@code ConversionFuture} with {@code cancel(true)} interrupts the thread running the conversion,
+ * which stops at the next event it processes.
+ * 
+ * @param <V> the type of the result of the conversion
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class ConversionFuture<V> extends FutureTask<V> {
+
+	private static Logger log = Logger.getLogger(ConversionFuture.class.getName());
+
+	/** Listeners with their {@code Executor}, null once the conversion is done. */
+	private List<Object[]> listeners = new ArrayList<Object[]>(2);
+
+	ConversionFuture(final Callable<V> conversion) {
+		super(conversion);
+	}
+
+	/**
+	 * Creates a {@code ConversionFuture} completed by {@link #complete(Object)} or {@link #fail(Throwable)}, for a
+	 * conversion that isn't run as a single task.
+	 */
+	ConversionFuture() {
+		super(new Callable<V>() {
+			@Override
+			public V call() {
+				throw new IllegalStateException("The conversion is completed by its own tasks, not run");
+			}
+		});
+	}
+
+	/**
+	 * Completes the conversion successfully, unless it is already done or cancelled.
+	 * 
+	 * @param result the result of the conversion
+	 */
+	void complete(final V result) {
+		set(result);
+	}
+
+	/**
+	 * Completes the conversion with a failure, unless it is already done or cancelled.
+	 * 
+	 * @param failure the cause of the failure, thrown wrapped in an {@code ExecutionException} by {@link #get()}
+	 */
+	void fail(final Throwable failure) {
+		setException(failure);
+	}
+
+	/**
+	 * Registers a listener to run when the conversion completes, successfully or not, or is cancelled. If the
+	 * conversion is already done the listener runs immediately.
+	 * <p>
+	 * The listener typically calls {@link #get()}, which doesn't block once the conversion is done.
+	 * 
+	 * @param listener the listener to run
+	 * @param executor the {@code Executor} running the listener, or null to run it in the thread completing the
+	 *            conversion
+	 */
+	public void addListener(final Runnable listener, final Executor executor) {
+		synchronized (this) {
+			if (listeners != null) {
+				listeners.add(new Object[] { listener, executor });
+				return;
+			}
+		}
+		runListener(listener, executor);
+	}
+
+	@Override
+	protected void done() {
+		List<Object[]> toNotify;
+		synchronized (this) {
+			toNotify = listeners;
+			listeners = null;
+		}
+		for (Object[] listener : toNotify) {
+			runListener((Runnable) listener[0], (Executor) listener[1]);
+		}
+	}
+
+	private void runListener(final Runnable listener, final Executor executor) {
+		try {
+			if (executor != null) {
+				executor.execute(listener);
+			} else {
+				listener.run();
+			}
+		} catch (RuntimeException e) {
+			log.log(Level.WARNING, "Listener of a conversion failed", e);
+		}
+	}
+}
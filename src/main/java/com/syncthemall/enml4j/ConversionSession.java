@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A conversion to HTML fed with the ENML content of a {@code Note} as it arrives, for example from a socket or a
+ * {@code Channel}.
+ * <p>
+ * The chunks of ENML content given to {@link #feed(ByteBuffer)} are converted by an {@code Executor} thread while the
+ * next ones arrive, and the HTML is written in the {@code OutputStream} of the session as the conversion progresses.
+ * The ENML content therefore never has to be held entirely in memory, and the conversion overlaps the I/O. Once the
+ * whole content is fed, {@link #endOfInput()} has to be called for the conversion to complete.
+ * <p>
+ * Feeding a chunk never blocks, and at most {@link #CAPACITY} bytes fed and not yet converted are held. When
+ * {@code feed} returns false the caller stops reading, and resumes once {@link #awaitCapacity(long, TimeUnit)}
+ * returns, or when a later {@code feed} of the rest of the chunk succeeds.
+ * <p>
+ * When the non-blocking parser of Aalto is on the classpath, the chunks are converted by tasks of the
+ * {@code Executor} returning as soon as they are parsed, and no thread waits for the next chunk. Otherwise the
+ * conversion occupies a thread of the {@code Executor} until the end of the input is signaled or the session is
+ * closed.
+ * 
+ * @see ENMLProcessor#openHTMLSession(com.evernote.edam.type.Note, java.util.Map, OutputStream,
+ *      java.util.concurrent.Executor)
+ * @see ENMLProcessor#openInlineHTMLSession(com.evernote.edam.type.Note, OutputStream, java.util.concurrent.Executor)
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class ConversionSession implements Closeable {
+
+	/** The maximum number of bytes fed to a session and not yet converted. */
+	public static final int CAPACITY = 64 * 1024;
+
+	private final FeedInputStream input;
+	private final ConversionFuture<OutputStream> conversion;
+
+	/**
+	 * @param input the {@code FeedInputStream} read by the conversion
+	 * @param conversion the conversion reading the {@code FeedInputStream}
+	 */
+	ConversionSession(final FeedInputStream input, final ConversionFuture<OutputStream> conversion) {
+		this.input = input;
+		this.conversion = conversion;
+	}
+
+	/**
+	 * Feeds the next chunk of the ENML content, as much of it as the {@link #CAPACITY} allows. The bytes fed are
+	 * copied, so the {@code ByteBuffer} can be reused as soon as this method returns. If the conversion has already
+	 * failed, the bytes are discarded.
+	 * 
+	 * @param chunk the {@code ByteBuffer} containing the next bytes of the ENML content, from its position to its
+	 *            limit. Its position is advanced by the number of bytes fed
+	 * @return true if the whole chunk has been fed, false if the session is full and the rest of the chunk has to be
+	 *         fed again later
+	 * @throws IllegalStateException if {@link #endOfInput()} has already been called
+	 */
+	public boolean feed(final ByteBuffer chunk) {
+		return input.feed(chunk);
+	}
+
+	/**
+	 * Waits until the conversion has consumed some of the bytes fed, so {@link #feed(ByteBuffer)} accepts more.
+	 * 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if bytes can be fed, false if the timeout elapsed before
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean awaitCapacity(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return input.awaitCapacity(timeout, unit);
+	}
+
+	/**
+	 * Signals that the whole ENML content has been fed.
+	 */
+	public void endOfInput() {
+		input.end();
+	}
+
+	/**
+	 * @return the {@code ConversionFuture} completed with the {@code OutputStream} of the session once the HTML is
+	 *         written, or failed with the exception raised by the conversion
+	 */
+	public ConversionFuture<OutputStream> getConversion() {
+		return conversion;
+	}
+
+	/**
+	 * Cancels the conversion if the end of the input has not been signaled, otherwise does nothing.
+	 */
+	@Override
+	public void close() {
+		if (!input.isEnded()) {
+			conversion.cancel(true);
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * The state of an {@link HTMLConversion} that is reset and reused by the next conversion rather than allocated again:
+ * the stack of the converted elements, the events to insert after them and the {@link XHTMLEventWriter} with its
+ * buffer.
+ * <p>
+ * The StAX readers and writers can't be reset onto another content, so they are still created by each conversion.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class ConversionState {
+
+	/** Maximum number of entries of the map kept once cleared, to not retain the table grown by a large Note. */
+	private static final int MAX_RETAINED_ENTRIES = 256;
+
+	private final ArrayDeque<EndElement> stack = new ArrayDeque<EndElement>();
+	private Map<EndElement, List<XMLEvent>> toInsertAfter = new HashMap<EndElement, List<XMLEvent>>();
+	private XHTMLEventWriter writer;
+
+	/**
+	 * @return the stack of the end elements of the converted elements not ended yet
+	 */
+	ArrayDeque<EndElement> getStack() {
+		return stack;
+	}
+
+	/**
+	 * @return the events to insert after the end elements of the converted elements
+	 */
+	Map<EndElement, List<XMLEvent>> getInsertAfter() {
+		return toInsertAfter;
+	}
+
+	/**
+	 * @param out the {@code OutputStream} in which to write the XHTML
+	 * @return the {@code XHTMLEventWriter} of this state, reset to write in the {@code OutputStream}
+	 */
+	XHTMLEventWriter getWriter(final OutputStream out) {
+		if (writer == null) {
+			writer = new XHTMLEventWriter(out);
+		} else {
+			writer.reset(out);
+		}
+		return writer;
+	}
+
+	/**
+	 * Discards the state of the last conversion.
+	 */
+	void clear() {
+		stack.clear();
+		if (toInsertAfter.size() > MAX_RETAINED_ENTRIES) {
+			toInsertAfter = new HashMap<EndElement, List<XMLEvent>>();
+		} else {
+			toInsertAfter.clear();
+		}
+		if (writer != null) {
+			writer.reset(null);
+		}
+	}
+
+	/**
+	 * A pool of {@code ConversionState}s. As the {@link BufferPool}, the states are not bound to a thread, so a pool of
+	 * a few states serves any number of threads.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	static final class Pool {
+
+		private final int capacity;
+		private final Queue<ConversionState> states = new ConcurrentLinkedQueue<ConversionState>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * @param capacity the maximum number of idle states kept in the pool
+		 */
+		Pool(final int capacity) {
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Takes a state from the pool, or creates one if the pool is empty.
+		 * 
+		 * @return a {@code ConversionState} to give back with {@link #release(ConversionState)}
+		 */
+		ConversionState acquire() {
+			ConversionState state = states.poll();
+			if (state == null) {
+				return new ConversionState();
+			}
+			size.decrementAndGet();
+			return state;
+		}
+
+		/**
+		 * Clears a state and gives it back to the pool, or releases it if the pool is full.
+		 * 
+		 * @param state a {@code ConversionState} obtained with {@link #acquire()}, not used anymore by its conversion
+		 */
+		void release(final ConversionState state) {
+			state.clear();
+			if (size.incrementAndGet() <= capacity) {
+				states.offer(state);
+			} else {
+				size.decrementAndGet();
+			}
+		}
+	}
+}
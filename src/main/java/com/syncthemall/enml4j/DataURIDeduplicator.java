@@ -0,0 +1,183 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static com.syncthemall.enml4j.util.Constants.DATA;
+import static com.syncthemall.enml4j.util.Constants.HREF;
+import static com.syncthemall.enml4j.util.Constants.SRC;
+import static com.syncthemall.enml4j.util.Constants.TYPE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Replaces the repeated Data URIs of an HTML document by references to their first occurrence.
+ * <p>
+ * The first element with a given Data URI in its {@code src} or {@code href} attribute keeps it and gets an
+ * {@code id}. The following elements with the same Data URI get a {@code data-enml4j-src} or {@code data-enml4j-href}
+ * attribute with this {@code id} instead, and a script inserted at the end of the body copies the Data URI from the
+ * first element. The size of the HTML therefore grows with the distinct {@code Resource}s and icons rather than with
+ * the references to them. Without script the repeated images show their {@code alt} text.
+ * <p>
+ * The generated {@code id}s are unique against the {@code id}s of the elements seen so far. ENML doesn't allow the
+ * {@code id} attribute, but a content that isn't validated or a {@code Converter} can add some: an element coming
+ * after an element with the same generated {@code id} loses its own, so the references resolve to the Data URI.
+ * <p>
+ * Only the Data URIs of at least {@value #MIN_LENGTH} characters are replaced. This class is not thread-safe, an
+ * instance is used for one conversion.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class DataURIDeduplicator {
+
+	/** Minimal length of the Data URIs replaced, shorter ones are cheaper to repeat than to reference. */
+	static final int MIN_LENGTH = 256;
+
+	private static final String ID = "id";
+	private static final String ID_PREFIX = "enml4j-";
+	private static final String REFERENCE_PREFIX = "data-enml4j-";
+	private static final String SCRIPT = "script";
+
+	/** Copies the referenced attributes. Written without '<', '>' or '&' as the writer would escape them. */
+	private static final String SCRIPT_CONTENT = "(function(){var e=document.querySelectorAll('[" + REFERENCE_PREFIX
+			+ SRC + "],[" + REFERENCE_PREFIX + HREF + "]');for(var i=e.length;i--;){['" + SRC + "','" + HREF
+			+ "'].forEach(function(a){var r=e[i].getAttribute('" + REFERENCE_PREFIX
+			+ "'+a);if(r){e[i].setAttribute(a,document.getElementById(r).getAttribute(a));}});}})();";
+
+	private final XMLEventFactory eventFactory;
+	/** The {@code id} of the first element with each Data URI, by Data URI. */
+	private final Map<String, String> ids = new HashMap<String, String>();
+
+	/** The {@code id}s of the elements seen so far, not generated. */
+	private final Set<String> seenIds = new HashSet<String>();
+
+	/** The generated {@code id}s. */
+	private final Set<String> generatedIds = new HashSet<String>();
+
+	private int nextId;
+	private boolean referenced;
+
+	/**
+	 * @param eventFactory the {@code XMLEventFactory} used to create the modified elements
+	 */
+	DataURIDeduplicator(final XMLEventFactory eventFactory) {
+		this.eventFactory = eventFactory;
+	}
+
+	/**
+	 * Replaces the Data URI of a {@code StartElement} already seen by a reference, or records it if it's seen for the
+	 * first time.
+	 * 
+	 * @param event the event to write
+	 * @return the event to write instead
+	 */
+	XMLEvent process(final XMLEvent event) {
+		if (!event.isStartElement()) {
+			return event;
+		}
+		StartElement start = event.asStartElement();
+		Attribute existingId = start.getAttributeByName(new QName(ID));
+		boolean duplicateId = existingId != null && generatedIds.contains(existingId.getValue());
+		if (existingId != null && !duplicateId) {
+			seenIds.add(existingId.getValue());
+		}
+		Attribute dataURI = getDataURI(start, SRC);
+		if (dataURI == null) {
+			dataURI = getDataURI(start, HREF);
+		}
+		if (dataURI == null && !duplicateId) {
+			return event;
+		}
+
+		String id = dataURI != null ? ids.get(dataURI.getValue()) : null;
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		if (dataURI != null && id == null) {
+			if (existingId != null && !duplicateId) {
+				ids.put(dataURI.getValue(), existingId.getValue());
+				return event;
+			}
+			String newId = createId();
+			ids.put(dataURI.getValue(), newId);
+			attributes.add(eventFactory.createAttribute(ID, newId));
+		}
+		for (@SuppressWarnings("unchecked")
+		Iterator<Attribute> iterator = start.getAttributes(); iterator.hasNext();) {
+			Attribute attribute = iterator.next();
+			if (duplicateId && attribute.getName().equals(existingId.getName())) {
+				continue;
+			} else if (id != null && attribute.getName().equals(dataURI.getName())) {
+				attributes.add(eventFactory.createAttribute(REFERENCE_PREFIX + attribute.getName().getLocalPart(), id));
+				referenced = true;
+			} else {
+				attributes.add(attribute);
+			}
+		}
+		return eventFactory.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
+	}
+
+	/**
+	 * @return the events of the script resolving the references, to insert at the end of the body, or an empty
+	 *         {@code List} if no Data URI has been replaced
+	 */
+	List<XMLEvent> createScript() {
+		if (!referenced) {
+			return new ArrayList<XMLEvent>();
+		}
+		return Arrays.asList(
+				eventFactory.createStartElement("", "", SCRIPT,
+						Arrays.asList(eventFactory.createAttribute(TYPE, "text/javascript")).iterator(), null),
+				eventFactory.createCharacters(SCRIPT_CONTENT), eventFactory.createEndElement("", "", SCRIPT));
+	}
+
+	/**
+	 * @return a new {@code id}, different from the {@code id}s of the elements seen so far
+	 */
+	private String createId() {
+		String id;
+		do {
+			id = ID_PREFIX + nextId++;
+		} while (seenIds.contains(id));
+		generatedIds.add(id);
+		return id;
+	}
+
+	private static Attribute getDataURI(final StartElement start, final String name) {
+		Attribute attribute = start.getAttributeByName(new QName(name));
+		if (attribute != null && attribute.getValue().length() >= MIN_LENGTH && attribute.getValue().startsWith(DATA)) {
+			return attribute;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@code Deflater}s, to avoid allocating and releasing the native memory of a {@code Deflater} for each
+ * compressed conversion.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class DeflaterPool {
+
+	private final boolean nowrap;
+	private final int capacity;
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * @param nowrap true for {@code Deflater}s producing raw deflate data, false for the zlib format
+	 * @param capacity the maximum number of idle {@code Deflater}s kept in the pool
+	 */
+	DeflaterPool(final boolean nowrap, final int capacity) {
+		this.nowrap = nowrap;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Takes a {@code Deflater} from the pool, or creates one if the pool is empty.
+	 * 
+	 * @param level the compression level of the {@code Deflater}
+	 * @param strategy the compression strategy of the {@code Deflater}
+	 * @return a {@code Deflater} to give back with {@link #release(Deflater)}
+	 */
+	Deflater acquire(final int level, final int strategy) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, nowrap);
+		} else {
+			size.decrementAndGet();
+			deflater.setLevel(level);
+		}
+		deflater.setStrategy(strategy);
+		return deflater;
+	}
+
+	/**
+	 * Gives back a {@code Deflater} to the pool, or releases it if the pool is full.
+	 * 
+	 * @param deflater a {@code Deflater} obtained with {@link #acquire(int, int)}
+	 */
+	void release(final Deflater deflater) {
+		deflater.reset();
+		if (size.incrementAndGet() <= capacity) {
+			deflaters.offer(deflater);
+		} else {
+			size.decrementAndGet();
+			deflater.end();
+		}
+	}
+}
@@ -23,33 +23,55 @@
 package com.syncthemall.enml4j;
 
 import static com.syncthemall.enml4j.util.Constants.ALT;
+import static com.syncthemall.enml4j.util.Constants.BLOCK_TAGS;
+import static com.syncthemall.enml4j.util.Constants.BUFFER_SIZE;
+import static com.syncthemall.enml4j.util.Constants.CELL_TAGS;
 import static com.syncthemall.enml4j.util.Constants.CHARSET;
+import static com.syncthemall.enml4j.util.Constants.CHECKED;
 import static com.syncthemall.enml4j.util.Constants.CRYPT;
 import static com.syncthemall.enml4j.util.Constants.HASH;
 import static com.syncthemall.enml4j.util.Constants.HEIGHT;
-import static com.syncthemall.enml4j.util.Constants.HTML;
 import static com.syncthemall.enml4j.util.Constants.MEDIA;
 import static com.syncthemall.enml4j.util.Constants.NOTE;
 import static com.syncthemall.enml4j.util.Constants.TODO;
 import static com.syncthemall.enml4j.util.Constants.TYPE;
 import static com.syncthemall.enml4j.util.Constants.WIDTH;
-import static com.syncthemall.enml4j.util.Constants.XMLNS;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
@@ -57,24 +79,40 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLResolver;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.Characters;
-import javax.xml.stream.events.EndElement;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
+import org.apache.commons.codec.binary.Base64;
+
 import com.evernote.edam.type.Data;
 import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
 import com.evernote.edam.type.Resource;
+import com.evernote.edam.type.ResourceAttributes;
 import com.syncthemall.enml4j.converter.BaseConverter;
 import com.syncthemall.enml4j.converter.Converter;
+import com.syncthemall.enml4j.converter.MarkdownConverter;
 import com.syncthemall.enml4j.converter.MediaConverter;
+import com.syncthemall.enml4j.converter.TextConverter;
 import com.syncthemall.enml4j.impl.DefaultCryptTagConverter;
+import com.syncthemall.enml4j.impl.DefaultCryptTagMarkdownConverter;
+import com.syncthemall.enml4j.impl.DefaultCryptTagTextConverter;
 import com.syncthemall.enml4j.impl.DefaultInlineMediaTagConverter;
 import com.syncthemall.enml4j.impl.DefaultMediaTagConverter;
+import com.syncthemall.enml4j.impl.DefaultMediaTagMarkdownConverter;
+import com.syncthemall.enml4j.impl.DefaultMediaTagTextConverter;
 import com.syncthemall.enml4j.impl.DefaultNoteTagConverter;
+import com.syncthemall.enml4j.impl.DefaultNoteTagMarkdownConverter;
+import com.syncthemall.enml4j.impl.DefaultNoteTagTextConverter;
 import com.syncthemall.enml4j.impl.DefaultTodoTagConverter;
-import com.syncthemall.enml4j.util.Elements;
+import com.syncthemall.enml4j.impl.DefaultTodoTagMarkdownConverter;
+import com.syncthemall.enml4j.impl.DefaultTodoTagTextConverter;
+import com.syncthemall.enml4j.util.ContentEditor;
+import com.syncthemall.enml4j.util.MediaTagIndex;
+import com.syncthemall.enml4j.util.StAXFactories;
+import com.syncthemall.enml4j.util.TagScanner;
 import com.syncthemall.enml4j.util.Utils;
 
 /**
@@ -82,7 +120,8 @@ import com.syncthemall.enml4j.util.Utils;
  * 
  * This class should be instantiated and kept in reference (as a static for example) for better performances. When
  * converting a {@code Note} to HTML the Evernote DTD has to be parsed the first time, then stays in memory. Parsing the
- * DTD the first time is time-consuming.
+ * DTD the first time is time-consuming. This first-time cost can be paid in advance with
+ * {@link ENMLProcessor#warmUp(int)}.
  * <p>
  * This class rely on stAX to convert ENML to HTML. ENML4j will uses the default stAX implementation on the platform.
  * But implementation can be easily chosen : <a
@@ -104,6 +143,24 @@ import com.syncthemall.enml4j.util.Utils;
  * For specifics needs {@link BaseConverter} and {@link MediaConverter} can be implemented and set with
  * {@link ENMLProcessor#setConverters(BaseConverter, MediaConverter, BaseConverter, BaseConverter)} and
  * {@link ENMLProcessor#setInlineConverters(BaseConverter, MediaConverter, BaseConverter, BaseConverter)}.
+ * <p>
+ * The plain text extraction relies on {@link TextConverter}s that can be set with
+ * {@link ENMLProcessor#setTextConverters(TextConverter, TextConverter, TextConverter, TextConverter)} and the
+ * Markdown conversion on {@link MarkdownConverter}s that can be set with
+ * {@link ENMLProcessor#setMarkdownConverters(MarkdownConverter, MarkdownConverter, MarkdownConverter, MarkdownConverter)}
+ * .
+ * <p>
+ * An immutable {@code ENMLProcessor} can be created with a {@link Builder}, obtained with
+ * {@link ENMLProcessor#builder()}. Its converters and settings are fixed once it's built, so it can be shared freely
+ * between threads, and its setters throw an {@code IllegalStateException}.
+ * <p>
+ * Every operation accepts either a {@code Note} or a {@link ParsedNote} created with
+ * {@link ENMLProcessor#parseNote(Note)}. A {@code ParsedNote} is parsed once and used by all the operations of a
+ * workflow (conversion, update of the resources, text extraction) without parsing the ENML content again.
+ * <p>
+ * The conversions can also run asynchronously, on an {@code Executor} given by the caller or set with
+ * {@link ENMLProcessor#setExecutor(Executor)}, and return a {@link ConversionFuture}. A conversion running in an
+ * interrupted thread stops with a {@code CancellationException}.
  * 
  * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
  * @see <a href="http://docs.oracle.com/javaee/5/tutorial/doc/bnbdv.html">Streaming API for XML</a>
@@ -114,23 +171,82 @@ public class ENMLProcessor {
 
 	private static Logger log = Logger.getLogger(ENMLProcessor.class.getName());
 
-	/** XHTML Transitional doctype. */
-	private static final String XHTML_DOCTYPE = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">";
+	/** Maximum number of conversions waiting for a thread of the default {@code Executor}, per thread. */
+	private static final int QUEUED_CONVERSIONS_PER_THREAD = 256;
+
+	/** Idle time after which the threads of the default {@code Executor} are stopped, in seconds. */
+	private static final long THREAD_KEEP_ALIVE = 60;
+
+	/** Size in bytes of the HTML written around the content of a {@code Note}, head included. */
+	private static final int HTML_OVERHEAD = 1024;
+
+	/** Maximum size in bytes of a buffer kept for the next conversions, the larger ones being released after use. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName(CHARSET);
+
+	/** The resources of the ENML DTD and its entities, by system ID. */
+	private static final Map<String, String> DTD_RESOURCES = new HashMap<String, String>();
+
+	static {
+		DTD_RESOURCES.put("http://xml.evernote.com/pub/enml2.dtd", "/dtd/enml2.dtd");
+		DTD_RESOURCES.put("http://www.w3.org/TR/xhtml1/DTD/xhtml-lat1.ent", "/dtd/xhtml-lat1.ent");
+		DTD_RESOURCES.put("http://www.w3.org/TR/xhtml1/DTD/xhtml-symbol.ent", "/dtd/xhtml-symbol.ent");
+		DTD_RESOURCES.put("http://www.w3.org/TR/xhtml1/DTD/xhtml-special.ent", "/dtd/xhtml-special.ent");
+	}
+
+	/** The content of the DTD resources already read, read once rather than for each {@code Note} parsed. */
+	private static final ConcurrentHashMap<String, byte[]> DTD_CONTENTS = new ConcurrentHashMap<String, byte[]>();
+
+	/** The mime types of the icons loaded by {@link ENMLProcessor#warmUp(int)}, the most common attachments. */
+	private static final String[] WARM_UP_ICONS = { "application/pdf", "application/msword",
+			"application/vnd.openxmlformats-officedocument.wordprocessingml.document", "application/vnd.ms-excel",
+			"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "application/vnd.ms-powerpoint",
+			"application/vnd.openxmlformats-officedocument.presentationml.presentation", "application/zip",
+			"application/octet-stream", "text/plain", "text/html", "audio/mpeg", "audio/x-wav" };
+
+	/**
+	 * True if the non-blocking parser of Aalto is on the classpath, the {@link ConversionSession}s then using it rather
+	 * than blocking a thread on each session.
+	 */
+	private static final boolean ASYNC_PARSER = isAsyncParserAvailable();
+
+	/** The text replaced by the content of a {@code Note} converted with the fast path. */
+	private static final String PLAIN_CONTENT_PLACEHOLDER = "enml4j-plain-content-placeholder";
 
-	/** XHTML namespace. */
-	private static final String XHTML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+	/**
+	 * The converters and settings of this {@code ENMLProcessor}. The field is final so an {@code ENMLProcessor} created
+	 * by a {@link Builder} is seen with its settings by every thread, however it is published.
+	 */
+	private final Settings settings = new Settings();
 
-	private Map<String, Converter> converters = new HashMap<String, Converter>();
-	private Map<String, Converter> inlineConverters = new HashMap<String, Converter>();
+	/** True if this {@code ENMLProcessor} has been created by a {@link Builder}, and can't be modified. */
+	private final boolean immutable;
 
 	/** An instance of {@code XMLEventFactory} used to creates new {@link XMLEvent}s. */
-	private XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+	private final XMLEventFactory eventFactory = StAXFactories.newEventFactory();
 
 	/** An instance of {@code XMLInputFactory} used to read XML content. */
-	private XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+	private final XMLInputFactory inputFactory = StAXFactories.newInputFactory();
 
 	/** An instance of {@code XMLOutputFactory} used to write XML content. */
-	private XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	private final XMLOutputFactory outputFactory = StAXFactories.newOutputFactory();
+
+	/** The {@code ENMLTokenizer} reading the ENML content, created on first use. */
+	private volatile ENMLTokenizer tokenizer;
+
+	/** The {@code Deflater}s producing raw deflate data, for the gzip format. */
+	private final DeflaterPool gzipDeflaters = new DeflaterPool(true, Runtime.getRuntime().availableProcessors());
+
+	/** The {@code Deflater}s producing the zlib format. */
+	private final DeflaterPool zlibDeflaters = new DeflaterPool(false, Runtime.getRuntime().availableProcessors());
+
+	/** The state of the HTML conversions completed within a call, reused by the next ones. */
+	private final ConversionState.Pool states = new ConversionState.Pool(Runtime.getRuntime().availableProcessors());
+
+	/** The buffers receiving the HTML of the conversions to a {@code String}. */
+	private final BufferPool buffers = new BufferPool(Runtime.getRuntime().availableProcessors(),
+			MAX_RETAINED_BUFFER_SIZE);
 
 	/**
 	 * Construct an {@code ENMLProcessor} with default {@code Converter}s.
@@ -152,30 +268,43 @@ public class ENMLProcessor {
 	 * </ul>
 	 */
 	public ENMLProcessor() {
-		converters.put(NOTE, new DefaultNoteTagConverter().setEventFactory(eventFactory));
-		converters.put(MEDIA, new DefaultMediaTagConverter().setEventFactory(eventFactory));
-		converters.put(TODO, new DefaultTodoTagConverter().setEventFactory(eventFactory));
-		converters.put(CRYPT, new DefaultCryptTagConverter().setEventFactory(eventFactory));
+		this(new Builder(), false);
+	}
 
-		inlineConverters.put(NOTE, new DefaultNoteTagConverter().setEventFactory(eventFactory));
-		inlineConverters.put(MEDIA, new DefaultInlineMediaTagConverter().setEventFactory(eventFactory));
-		inlineConverters.put(TODO, new DefaultTodoTagConverter().setEventFactory(eventFactory));
-		inlineConverters.put(CRYPT, new DefaultCryptTagConverter().setEventFactory(eventFactory));
+	/**
+	 * Construct an {@code ENMLProcessor} with the converters and settings of a {@code Builder}.
+	 * 
+	 * @param builder the {@code Builder} holding the converters and settings, null ones meaning the defaults
+	 * @param immutable true to forbid any later modification
+	 */
+	private ENMLProcessor(final Builder builder, final boolean immutable) {
+		this.immutable = immutable;
+		settings.converters = createConverters(builder.noteConverter, builder.mediaConverter, builder.todoConverter,
+				builder.cryptConverter, false);
+		settings.inlineConverters = createConverters(builder.inlineNoteConverter, builder.inlineMediaConverter,
+				builder.inlineTodoConverter, builder.inlineCryptConverter, true);
+		settings.textConverters = createTextConverters(builder.textNoteConverter, builder.textMediaConverter,
+				builder.textTodoConverter, builder.textCryptConverter);
+		settings.markdownConverters = createMarkdownConverters(builder.markdownNoteConverter,
+				builder.markdownMediaConverter, builder.markdownTodoConverter, builder.markdownCryptConverter);
+		settings.executor = builder.executor;
+		settings.progressiveOutput = builder.progressiveOutput;
+		settings.inlineDeduplication = builder.inlineDeduplication;
+		settings.xhtmlSerializer = builder.xhtmlSerializer;
+		settings.enmlTokenizer = builder.enmlTokenizer;
+		settings.plainContentCopy = builder.plainContentCopy;
+		settings.compressionLevel = builder.compressionLevel;
+		settings.compressionStrategy = builder.compressionStrategy;
 
 		inputFactory.setXMLResolver(new XMLResolver() {
 			@Override
 			public Object resolveEntity(final String publicID, final String systemID, final String baseURI,
 					final String namespace) throws XMLStreamException {
-				if ("http://xml.evernote.com/pub/enml2.dtd".equals(systemID)) {
-					return getClass().getResourceAsStream("/dtd/enml2.dtd");
-				} else if ("http://www.w3.org/TR/xhtml1/DTD/xhtml-lat1.ent".equals(systemID)) {
-					return getClass().getResourceAsStream("/dtd/xhtml-lat1.ent");
-				} else if ("http://www.w3.org/TR/xhtml1/DTD/xhtml-symbol.ent".equals(systemID)) {
-					return getClass().getResourceAsStream("/dtd/xhtml-symbol.ent");
-				} else if ("http://www.w3.org/TR/xhtml1/DTD/xhtml-special.ent".equals(systemID)) {
-					return getClass().getResourceAsStream("/dtd/xhtml-special.ent");
+				String resource = DTD_RESOURCES.get(systemID);
+				if (resource == null) {
+					return null;
 				}
-				return null;
+				return new ByteArrayInputStream(getDTDResource(resource));
 			}
 		});
 	}
@@ -199,26 +328,8 @@ public class ENMLProcessor {
 	 */
 	public final void setConverters(final BaseConverter noteConverter, final MediaConverter mediaConverter,
 			final BaseConverter todoConverter, final BaseConverter cryptConverter) {
-		if (noteConverter != null) {
-			converters.put(NOTE, noteConverter.setEventFactory(eventFactory));
-		} else {
-			converters.put(NOTE, new DefaultNoteTagConverter().setEventFactory(eventFactory));
-		}
-		if (mediaConverter != null) {
-			converters.put(MEDIA, mediaConverter.setEventFactory(eventFactory));
-		} else {
-			converters.put(MEDIA, new DefaultMediaTagConverter().setEventFactory(eventFactory));
-		}
-		if (todoConverter != null) {
-			converters.put(TODO, todoConverter.setEventFactory(eventFactory));
-		} else {
-			converters.put(TODO, new DefaultTodoTagConverter().setEventFactory(eventFactory));
-		}
-		if (cryptConverter != null) {
-			converters.put(CRYPT, cryptConverter.setEventFactory(eventFactory));
-		} else {
-			converters.put(CRYPT, new DefaultCryptTagConverter().setEventFactory(eventFactory));
-		}
+		checkMutable();
+		settings.converters = createConverters(noteConverter, mediaConverter, todoConverter, cryptConverter, false);
 	}
 
 	/**
@@ -240,43 +351,291 @@ public class ENMLProcessor {
 	 */
 	public final void setInlineConverters(final BaseConverter noteConverter, final MediaConverter mediaConverter,
 			final BaseConverter todoConverter, final BaseConverter cryptConverter) {
+		checkMutable();
+		settings.inlineConverters = createConverters(noteConverter, mediaConverter, todoConverter, cryptConverter,
+				true);
+	}
 
-		if (noteConverter != null) {
-			inlineConverters.put(NOTE, noteConverter.setEventFactory(eventFactory));
-		} else {
-			inlineConverters.put(NOTE, new DefaultNoteTagConverter().setEventFactory(eventFactory));
-		}
-		if (mediaConverter != null) {
-			inlineConverters.put(MEDIA, mediaConverter.setEventFactory(eventFactory));
-		} else {
-			inlineConverters.put(MEDIA, new DefaultInlineMediaTagConverter().setEventFactory(eventFactory));
-		}
-		if (todoConverter != null) {
-			inlineConverters.put(TODO, todoConverter);
-		} else {
-			inlineConverters.put(TODO, new DefaultTodoTagConverter().setEventFactory(eventFactory));
-		}
-		if (cryptConverter != null) {
-			inlineConverters.put(CRYPT, cryptConverter.setEventFactory(eventFactory));
-		} else {
-			inlineConverters.put(CRYPT, new DefaultCryptTagConverter().setEventFactory(eventFactory));
-		}
+	/**
+	 * Set the {@code TextConverter}s for plain text conversion. If one the parameter is null the default
+	 * {@code TextConverter} will be used.
+	 * <p>
+	 * For plain text conversion the default {@code TextConverter} are :
+	 * <ul>
+	 * <li> {@link DefaultNoteTagTextConverter}</li>
+	 * <li> {@link DefaultMediaTagTextConverter}</li>
+	 * <li> {@link DefaultTodoTagTextConverter}</li>
+	 * <li> {@link DefaultCryptTagTextConverter}</li>
+	 * </ul>
+	 * 
+	 * @param noteConverter the {@code TextConverter} used to convert the ENML tag {@code <en-note>}
+	 * @param mediaConverter the {@code TextConverter} used to convert the ENML tag {@code <en-media>}
+	 * @param todoConverter the {@code TextConverter} used to convert the ENML tag {@code <en-todo>}
+	 * @param cryptConverter the {@code TextConverter} used to convert the ENML tag {@code <en-crypt>}
+	 */
+	public final void setTextConverters(final TextConverter noteConverter, final TextConverter mediaConverter,
+			final TextConverter todoConverter, final TextConverter cryptConverter) {
+		checkMutable();
+		settings.textConverters = createTextConverters(noteConverter, mediaConverter, todoConverter, cryptConverter);
+	}
+
+	/**
+	 * Set the {@code MarkdownConverter}s for Markdown conversion. If one the parameter is null the default
+	 * {@code MarkdownConverter} will be used.
+	 * <p>
+	 * For Markdown conversion the default {@code MarkdownConverter} are :
+	 * <ul>
+	 * <li> {@link DefaultNoteTagMarkdownConverter}</li>
+	 * <li> {@link DefaultMediaTagMarkdownConverter}</li>
+	 * <li> {@link DefaultTodoTagMarkdownConverter}</li>
+	 * <li> {@link DefaultCryptTagMarkdownConverter}</li>
+	 * </ul>
+	 * 
+	 * @param noteConverter the {@code MarkdownConverter} used to convert the ENML tag {@code <en-note>}
+	 * @param mediaConverter the {@code MarkdownConverter} used to convert the ENML tag {@code <en-media>}
+	 * @param todoConverter the {@code MarkdownConverter} used to convert the ENML tag {@code <en-todo>}
+	 * @param cryptConverter the {@code MarkdownConverter} used to convert the ENML tag {@code <en-crypt>}
+	 */
+	public final void setMarkdownConverters(final MarkdownConverter noteConverter,
+			final MarkdownConverter mediaConverter, final MarkdownConverter todoConverter,
+			final MarkdownConverter cryptConverter) {
+		checkMutable();
+		settings.markdownConverters = createMarkdownConverters(noteConverter, mediaConverter, todoConverter,
+				cryptConverter);
+	}
+
+	/**
+	 * Set the {@code Executor} running the asynchronous conversions when no {@code Executor} is given to the
+	 * conversion methods.
+	 * <p>
+	 * By default a pool of daemon threads, one per available processor, is created on first use. At most
+	 * {@value #QUEUED_CONVERSIONS_PER_THREAD} conversions per thread can wait for a thread, further conversions are
+	 * rejected with a {@code RejectedExecutionException}.
+	 * 
+	 * @param executor the {@code Executor} running the asynchronous conversions, null to use the default one
+	 */
+	public final void setExecutor(final Executor executor) {
+		checkMutable();
+		settings.executor = executor;
+	}
+
+	/**
+	 * Set the progressive output of the HTML written in an {@code OutputStream}.
+	 * <p>
+	 * By default the HTML is flushed only once the whole {@code Note} is converted. With a {@link ProgressiveOutput}
+	 * the HTML is flushed right after the {@code <head>}, then at the intervals it defines, so that a browser can
+	 * start rendering a large {@code Note} before its conversion is complete.
+	 * 
+	 * @param progressiveOutput the settings of the progressive output, null to disable it
+	 */
+	public final void setProgressiveOutput(final ProgressiveOutput progressiveOutput) {
+		checkMutable();
+		settings.progressiveOutput = progressiveOutput;
+	}
+
+	/**
+	 * Set whether the {@code Resource}s and icons repeated in an inline HTML are embedded only once.
+	 * <p>
+	 * By default the inline HTML embeds the data of a {@code Resource} at every {@code <en-media>} tag referencing it.
+	 * When the deduplication is enabled, only the first occurrence of each Data URI is embedded and the following ones
+	 * reference it, resolved by a script at the end of the body. Browsers with scripts disabled show the {@code alt}
+	 * text of the repeated images.
+	 * 
+	 * @param inlineDeduplication true to embed each distinct {@code Resource} and icon once, false to embed them at
+	 *            every occurrence
+	 */
+	public final void setInlineDeduplication(final boolean inlineDeduplication) {
+		checkMutable();
+		settings.inlineDeduplication = inlineDeduplication;
+	}
+
+	/**
+	 * Set whether the HTML is written by the serializer dedicated to XHTML rather than the StAX {@code XMLEventWriter}.
+	 * <p>
+	 * The dedicated serializer writes UTF-8 directly, encodes the tags, attribute names and constant attribute values
+	 * only once for all the {@code Note}s, and writes the empty void elements as {@code <br />} rather than
+	 * {@code <br></br>}. It also declares the UTF-8 encoding in the XML declaration, and keeps the non-ASCII characters
+	 * whatever the default charset of the platform. By default the StAX {@code XMLEventWriter} is used.
+	 * 
+	 * @param xhtmlSerializer true to use the dedicated serializer, false to use the StAX {@code XMLEventWriter}
+	 */
+	public final void setXHTMLSerializer(final boolean xhtmlSerializer) {
+		checkMutable();
+		settings.xhtmlSerializer = xhtmlSerializer;
+	}
+
+	/**
+	 * Set whether the ENML content is read by a tokenizer dedicated to ENML rather than the StAX parser.
+	 * <p>
+	 * The dedicated tokenizer handles only what ENML allows (elements, attributes, character references and entities,
+	 * CDATA sections, comments and the {@code DOCTYPE} of the ENML DTD) and doesn't read the DTD for each {@code Note}.
+	 * The content holding anything else, or not well-formed, is read by the StAX parser as usual. The events produced
+	 * are the same as with the StAX parser, except that the adjacent character data are not split at each entity. By
+	 * default the StAX parser is used.
+	 * 
+	 * @param enmlTokenizer true to use the dedicated tokenizer, false to always use the StAX parser
+	 */
+	public final void setENMLTokenizer(final boolean enmlTokenizer) {
+		checkMutable();
+		settings.enmlTokenizer = enmlTokenizer;
+	}
+
+	/**
+	 * Set whether the content of the {@code Note}s with no ENML tag other than {@code <en-note>} is copied in the HTML
+	 * rather than converted.
+	 * <p>
+	 * Such a content is still checked to be well-formed by the tokenizer dedicated to ENML, and converted as usual if
+	 * it isn't or if the tokenizer can't read it, so a malformed content fails as with the regular conversion. The
+	 * content of the {@code <body>} is then written as in the ENML rather than as the StAX {@code XMLEventWriter}
+	 * would write it: the entities and character references are kept rather than replaced by their characters, the
+	 * empty-element tags, CDATA sections, comments and attribute quotes are kept as is, and the {@code DOCTYPE} of the
+	 * content is not resolved (none of the tags allowed in a plain content has a default attribute in the ENML DTD). It
+	 * is only used when the HTML is not written progressively. By default the content is always converted.
+	 * 
+	 * @param plainContentCopy true to copy the content of the plain {@code Note}s, false to always convert it
+	 */
+	public final void setPlainContentCopy(final boolean plainContentCopy) {
+		checkMutable();
+		settings.plainContentCopy = plainContentCopy;
+	}
+
+	/**
+	 * Set the compression level and strategy of the HTML written in a {@link Compression} format.
+	 * <p>
+	 * Lower levels use less CPU time at the cost of a larger output. By default the {@code Deflater} default level and
+	 * strategy are used.
+	 * 
+	 * @param level the compression level, from {@code Deflater.BEST_SPEED} (1) to {@code Deflater.BEST_COMPRESSION}
+	 *            (9), {@code Deflater.NO_COMPRESSION} (0) or {@code Deflater.DEFAULT_COMPRESSION} (-1)
+	 * @param strategy the compression strategy, {@code Deflater.DEFAULT_STRATEGY}, {@code Deflater.FILTERED} or
+	 *            {@code Deflater.HUFFMAN_ONLY}
+	 */
+	public final void setCompression(final int level, final int strategy) {
+		checkMutable();
+		checkCompression(level, strategy);
+		settings.compressionLevel = level;
+		settings.compressionStrategy = strategy;
 	}
 
 	/**
-	 * @return the {@code XMLInputFactory} used to creates the {@code XMLEventWriter} used to write output HTML.
+	 * Creates a {@link Builder} of immutable {@code ENMLProcessor}s.
+	 * 
+	 * @return a new {@code Builder}, with the default converters and settings
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the {@code XMLInputFactory} used to creates the {@code XMLEventReader} used to read input ENML
+	 * @throws IllegalStateException if this {@code ENMLProcessor} has been created by a {@link Builder}, its factories
+	 *             being part of its fixed settings
 	 */
 	public final XMLInputFactory getInputFactory() {
+		checkMutable();
 		return inputFactory;
 	}
 
 	/**
-	 * @return the {@code XMLOutputFactory} used to creates the {@code XMLEventReader} used to read input ENML.
+	 * @return the {@code XMLOutputFactory} used to creates the {@code XMLEventWriter} used to write output HTML
+	 * @throws IllegalStateException if this {@code ENMLProcessor} has been created by a {@link Builder}, its factories
+	 *             being part of its fixed settings
 	 */
 	public final XMLOutputFactory getOutputFactory() {
+		checkMutable();
 		return outputFactory;
 	}
 
+	/**
+	 * Prepares this {@code ENMLProcessor} for its first conversions, to take the one-time initialization out of the
+	 * first {@code Note} converted, typically when the application starts in a short-lived container.
+	 * <p>
+	 * The ENML DTD and its entities are read in memory, the StAX implementation is loaded by reading and writing a
+	 * built-in sample {@code Note}, the dedicated tokenizer is created if enabled, and the icons of the most common
+	 * attachments are read. Then the sample {@code Note} is converted to inline HTML, HTML, plain text, Markdown and
+	 * JSON for the given number of rounds, so the JVM loads and compiles the code of the conversions before the first
+	 * real {@code Note}. The sample is converted with the converters and settings of this {@code ENMLProcessor}.
+	 * 
+	 * @param rounds the number of conversions of the sample {@code Note} in each output mode, 0 to only read the
+	 *            resources and load the StAX implementation
+	 * @throws XMLStreamException if a {@code Converter} fails to convert the sample {@code Note}
+	 */
+	public final void warmUp(final int rounds) throws XMLStreamException {
+		if (rounds < 0) {
+			throw new IllegalArgumentException("The number of warm-up rounds must be positive or zero: " + rounds);
+		}
+		long start = System.currentTimeMillis();
+		Note sample = createSampleNote(true);
+
+		XMLEventReader reader = inputFactory.createXMLEventReader(new StringReader(sample.getContent()));
+		XMLEventWriter writer = createXMLEventWriter(new ByteArrayOutputStream());
+		writer.add(reader);
+		writer.close();
+		reader.close();
+		if (settings.enmlTokenizer) {
+			getTokenizer();
+		}
+		Utils.preloadIcons(WARM_UP_ICONS);
+
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		for (Resource resource : sample.getResources()) {
+			mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+		}
+		Note plain = createSampleNote(false);
+		for (int i = 0; i < rounds; i++) {
+			noteToInlineHTMLString(sample);
+			noteToHTMLString(sample, mapGUIDURL);
+			noteToTextString(sample);
+			noteToMarkdownString(sample, mapGUIDURL);
+			noteToJSONString(sample, mapGUIDURL);
+			noteToHTMLString(parseNote(sample), mapGUIDURL);
+			noteToInlineHTMLString(plain);
+		}
+		log.fine("ENMLProcessor has been warmed up in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Parses the ENML content of a {@code Note} once, to pass the resulting {@code ParsedNote} to the other operations
+	 * of this {@code ENMLProcessor} instead of the {@code Note}.
+	 * <p>
+	 * The updates performed with a {@code ParsedNote} (resources, todos) are applied to the content of the
+	 * {@code Note} and to the {@code ParsedNote}, which therefore stays usable without being parsed again. If the
+	 * content of the {@code Note} is replaced by any other mean, the {@code ParsedNote} is parsed again the next time
+	 * it is used.
+	 * 
+	 * @param note the Note to parse. It has to contain an ENML content
+	 * @return the {@code ParsedNote} representing the ENML content of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final ParsedNote parseNote(final Note note) throws XMLStreamException {
+		long start = System.currentTimeMillis();
+		log.finer("Parsing Note " + note.getGuid());
+
+		ParsedNote parsed = new ParsedNote(note);
+		parse(parsed);
+
+		log.fine("Note " + note.getGuid() + " has been parsed in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return parsed;
+	}
+
+	/**
+	 * Creates an {@code XMLStreamReader} of the ENML content of a {@code Note}, with the parser configuration of this
+	 * {@code ENMLProcessor} (the Evernote DTD read once, and the tokenizer dedicated to ENML if enabled).
+	 * 
+	 * @param note the {@code Note} which ENML content is read
+	 * @return a new {@code XMLStreamReader}, to be closed by the caller
+	 * @throws XMLStreamException if the content can't be read
+	 */
+	public final XMLStreamReader createXMLStreamReader(final Note note) throws XMLStreamException {
+		ParsedNote tokenized = tokenize(note, note.getContent());
+		if (tokenized != null) {
+			return tokenized.createXMLStreamReader();
+		}
+		return inputFactory.createXMLStreamReader(new StringReader(note.getContent()));
+	}
+
 	/**
 	 * Creates an HTML version of the ENML content of a {@code Note}.
 	 * <p>
@@ -295,9 +654,13 @@ public class ENMLProcessor {
 	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
 	 */
 	public final String noteToInlineHTMLString(final Note note) throws XMLStreamException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		noteToInlineHTML(note, baos);
-		return new String(baos.toByteArray(), Charset.forName(CHARSET));
+		BufferPool.Buffer buffer = buffers.acquire(estimateHTMLSize(note, true));
+		try {
+			noteToInlineHTML(note, buffer);
+			return buffer.decode(UTF_8);
+		} finally {
+			buffers.release(buffer);
+		}
 	}
 
 	/**
@@ -322,6 +685,59 @@ public class ENMLProcessor {
 		return noteToHTML(note, null, out, true);
 	}
 
+	/**
+	 * Creates a compressed HTML version of the ENML content of a {@code Note}.
+	 * <p>
+	 * The HTML is the same as with {@link ENMLProcessor#noteToInlineHTML(Note, OutputStream)}, compressed with the
+	 * level and strategy set by {@link ENMLProcessor#setCompression(int, int)}. The compressed data is complete when
+	 * this method returns, but the {@code OutputStream} is not closed.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param out an {@code OutputStream} in which to write the compressed HTML file
+	 * @param compression the compressed format
+	 * @return the {@code OutputStream} in parameter containing the compressed HTML file
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final OutputStream noteToInlineHTML(final Note note, final OutputStream out, final Compression compression)
+			throws XMLStreamException {
+		return compressedNoteToHTML(note, createXMLEventReader(note), null, out, compression, true);
+	}
+
+	/**
+	 * Creates an HTML version of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the HTML from. Its {@code Note} has to contain its list of
+	 *            {@code Resource}s with data
+	 * @return a {@code String} containing the resulting HTML file
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToInlineHTMLString(Note)
+	 */
+	public final String noteToInlineHTMLString(final ParsedNote parsed) throws XMLStreamException {
+		BufferPool.Buffer buffer = buffers.acquire(estimateHTMLSize(parsed.getNote(), true));
+		try {
+			noteToInlineHTML(parsed, buffer);
+			return buffer.decode(UTF_8);
+		} finally {
+			buffers.release(buffer);
+		}
+	}
+
+	/**
+	 * Creates an HTML version of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the HTML from. Its {@code Note} has to contain its list of
+	 *            {@code Resource}s with data
+	 * @param out an {@code OutputStream} in which to write the resulting HTML file
+	 * @return the {@code OutputStream} in parameter containing the resulting HTML file
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToInlineHTML(Note, OutputStream)
+	 */
+	public final OutputStream noteToInlineHTML(final ParsedNote parsed, final OutputStream out)
+			throws XMLStreamException {
+		return noteToHTML(parsed.getNote(), createXMLEventReader(parsed), null, out, true);
+	}
+
 	/**
 	 * Creates an HTML version of the ENML content of a {@code Note}.
 	 * <p>
@@ -349,20 +765,13 @@ public class ENMLProcessor {
 	 */
 	public final String noteToHTMLString(final Note note, final Map<String, String> mapGUIDURL)
 			throws XMLStreamException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-		Map<String, String> hashURLMap = new HashMap<String, String>();
-		if (mapGUIDURL != null) {
-			for (Map.Entry<String, String> mapGUIDURLEntry : mapGUIDURL.entrySet()) {
-				for (Resource resource : note.getResources()) {
-					if (resource.getGuid().equals(mapGUIDURLEntry.getKey())) {
-						hashURLMap.put(Utils.bytesToHex(resource.getData().getBodyHash()), mapGUIDURLEntry.getValue());
-					}
-				}
-			}
+		BufferPool.Buffer buffer = buffers.acquire(estimateHTMLSize(note, false));
+		try {
+			noteToHTML(note, hashURLMap(note, mapGUIDURL), buffer, false);
+			return buffer.decode(UTF_8);
+		} finally {
+			buffers.release(buffer);
 		}
-		noteToHTML(note, hashURLMap, baos, false);
-		return new String(baos.toByteArray(), Charset.forName(CHARSET));
 	}
 
 	/**
@@ -393,107 +802,577 @@ public class ENMLProcessor {
 	 */
 	public final OutputStream noteToHTML(final Note note, final Map<String, String> mapGUIDURL, final OutputStream out)
 			throws XMLStreamException {
-
-		Map<String, String> hashURLMap = new HashMap<String, String>();
-
-		if (mapGUIDURL != null) {
-			for (Map.Entry<String, String> mapGUIDURLEntry : mapGUIDURL.entrySet()) {
-				for (Resource resource : note.getResources()) {
-					if (resource.getGuid().equals(mapGUIDURLEntry.getKey())) {
-						hashURLMap.put(Utils.bytesToHex(resource.getData().getBodyHash()), mapGUIDURLEntry.getValue());
-					}
-				}
-			}
-		}
-		return noteToHTML(note, hashURLMap, out, false);
+		return noteToHTML(note, hashURLMap(note, mapGUIDURL), out, false);
 	}
 
 	/**
-	 * Updates the {@code Note} content with the information of new {@code Resource}s.
+	 * Creates a compressed HTML version of the ENML content of a {@code Note}.
 	 * <p>
-	 * The update consist in replacing the 'hash' attributes of tags {@code <en-media>} in the ENML content of the
-	 * {@code Note}. The attributes are updated based on the mapping represented by {@code Map<Resource, Resource>} in
-	 * parameter. <br>
-	 * For every {@code Resource} that has to be updated this {@code Map} has to contain an entry with:
-	 * <ul>
-	 * <li>
-	 * the {@code Resource} to update (the old Resource)</li>
-	 * <li>the {@code Resource} to update with (the new Resource)</li>
-	 * </ul>
-	 * <br>
-	 * The methods assumes the {@code Note} has an ENML content and the {@code Resource} in the {@code Map} has data (to
-	 * be able to compute the hash). <br>
-	 * If a {@code Resource} in the Map is not in the {@code List<Resource>} of the {@code Note} no update will be
-	 * performed for the {@code Map} entry.<br>
-	 * The methods will take care of removing the old {@code Resource} objects in the {@code Note} list after they have
-	 * been updated.
+	 * The HTML is the same as with {@link ENMLProcessor#noteToHTML(Note, Map, OutputStream)}, compressed with the
+	 * level and strategy set by {@link ENMLProcessor#setCompression(int, int)}. The compressed data is complete when
+	 * this method returns, but the {@code OutputStream} is not closed.
 	 * 
-	 * @param note the Note to update. It has to contain an ENML content.
-	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s
-	 * @return the {@code Note} in parameter with updated content and {@code Resource}
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out an {@code OutputStream} in which to write the compressed HTML file
+	 * @param compression the compressed format
+	 * @return the {@code OutputStream} in parameter containing the compressed HTML file
 	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
-	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
 	 */
-	public final Note updateNoteResources(final Note note, final Map<Resource, Resource> oldNewResourcesMap)
-			throws XMLStreamException, NoSuchAlgorithmException {
-
-		Map<String, Resource> hashResourceMap = new HashMap<String, Resource>();
+	public final OutputStream noteToHTML(final Note note, final Map<String, String> mapGUIDURL, final OutputStream out,
+			final Compression compression) throws XMLStreamException {
+		return compressedNoteToHTML(note, createXMLEventReader(note), hashURLMap(note, mapGUIDURL), out, compression,
+				false);
+	}
 
-		for (Map.Entry<Resource, Resource> oldNewResourcesMapEntry : oldNewResourcesMap.entrySet()) {
-			hashResourceMap.put(Utils.bytesToHex(oldNewResourcesMapEntry.getKey().getData().getBodyHash()),
-					oldNewResourcesMapEntry.getValue());
+	/**
+	 * Creates an HTML version of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the HTML from. Its {@code Note} has to contain its list of
+	 *            {@code Resource}s with data
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @return a {@code String} containing the resulting HTML file
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToHTMLString(Note, Map)
+	 */
+	public final String noteToHTMLString(final ParsedNote parsed, final Map<String, String> mapGUIDURL)
+			throws XMLStreamException {
+		BufferPool.Buffer buffer = buffers.acquire(estimateHTMLSize(parsed.getNote(), false));
+		try {
+			noteToHTML(parsed, mapGUIDURL, buffer);
+			return buffer.decode(UTF_8);
+		} finally {
+			buffers.release(buffer);
 		}
-		return updateNoteResourcesByHash(note, hashResourceMap);
 	}
 
 	/**
-	 * Updates the {@code Note} content with the information of new {@code Resource}s.
-	 * <p>
-	 * The update consist in replacing the 'hash' attributes of tags {@code <en-media>} in the ENML content of the
-	 * {@code Note}. The attributes are updated based on the mapping represented by {@code Map<String, String>} in
-	 * parameter. <br>
-	 * The methods assumes the {@code Note} has an ENML content and it's {@code Resource}s has data (to be able to
-	 * compute the hash). <br>
-	 * For every {@code Resource} that has to be updated this {@code Map} has to contain an entry with:
-	 * <ul>
-	 * <li>the GUID of the {@code Resource} to update (the old Resource)</li>
-	 * <li>the GUID of the {@code Resource} to update with (the new Resource)</li>
-	 * </ul>
-	 * If a {@code Resource}s referenced by its GUID in the Map is not in the {@code List<Resource>} of the {@code Note}
-	 * no update will be performed for the {@code Map} entry.<br>
-	 * The method will take care of removing the old {@code Resource} objects in the {@code Note} list after they have
-	 * been updated.
+	 * Creates an HTML version of a {@code ParsedNote}, without parsing its ENML content again.
 	 * 
-	 * @param note the Note to update. It has to contain an ENML content.
-	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s
-	 * @return the {@code Note} in parameter with updated content and {@code Resource}
-	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
-	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 * @param parsed the {@code ParsedNote} to creates the HTML from. Its {@code Note} has to contain its list of
+	 *            {@code Resource}s with data
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out an {@code OutputStream} in which to write the resulting HTML file
+	 * @return the {@code OutputStream} in parameter containing the resulting HTML file
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToHTML(Note, Map, OutputStream)
 	 */
-	public final Note updateNoteResourcesByGUID(final Note note, final Map<String, String> oldNewResourcesMap)
-			throws XMLStreamException, NoSuchAlgorithmException {
-
-		Map<String, Resource> hashResourceMap = new HashMap<String, Resource>();
-
-		for (Map.Entry<String, String> oldNewResourcesMapEntry : oldNewResourcesMap.entrySet()) {
-			Resource oldResource = null;
-			Resource newResource = null;
-			for (Resource resource : note.getResources()) {
-				if (resource.getGuid().equals(oldNewResourcesMapEntry.getKey())) {
-					oldResource = resource;
-				} else if (resource.getGuid().equals(oldNewResourcesMapEntry.getValue())) {
-					newResource = resource;
-				}
-			}
-			if (oldResource != null & newResource != null) {
-				hashResourceMap.put(Utils.bytesToHex(oldResource.getData().getBodyHash()), newResource);
-			}
-		}
-		return updateNoteResourcesByHash(note, hashResourceMap);
+	public final OutputStream noteToHTML(final ParsedNote parsed, final Map<String, String> mapGUIDURL,
+			final OutputStream out) throws XMLStreamException {
+		return noteToHTML(parsed.getNote(), createXMLEventReader(parsed), hashURLMap(parsed.getNote(), mapGUIDURL),
+				out, false);
 	}
 
 	/**
-	 * Updates the {@code Note} content by removing the information of a {@code List<Resource>}.
+	 * Creates an HTML version of the ENML content of a {@code Note}, produced in chunks as they are read.
+	 * <p>
+	 * The {@code Resource}s of the {@code Note} are generated directly in the HTML using Data URI scheme, as with
+	 * {@link ENMLProcessor#noteToInlineHTML(Note, OutputStream)}. The ENML content is converted only as the chunks are
+	 * read from the {@code HTMLChunkReader}, which bounds the memory used by the conversion and makes the beginning of
+	 * the HTML available before the whole {@code Note} is converted.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param chunkSize the size in bytes of the chunks
+	 * @return an {@code HTMLChunkReader} from which to read the chunks of HTML
+	 * @throws XMLStreamException if the ENML content of the Note can't be read
+	 */
+	public final HTMLChunkReader noteToInlineHTMLChunks(final Note note, final int chunkSize)
+			throws XMLStreamException {
+		return createHTMLChunkReader(note, createXMLEventReader(note), null, chunkSize, true);
+	}
+
+	/**
+	 * Creates an HTML version of the ENML content of a {@code Note}, produced in chunks as they are read.
+	 * <p>
+	 * The {@code Resource}s of the {@code Note} are referenced in the HTML according to the {@code Map} in parameter, as
+	 * with {@link ENMLProcessor#noteToHTML(Note, Map, OutputStream)}. The ENML content is converted only as the chunks
+	 * are read from the {@code HTMLChunkReader}, which bounds the memory used by the conversion and makes the beginning
+	 * of the HTML available before the whole {@code Note} is converted.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param chunkSize the size in bytes of the chunks
+	 * @return an {@code HTMLChunkReader} from which to read the chunks of HTML
+	 * @throws XMLStreamException if the ENML content of the Note can't be read
+	 */
+	public final HTMLChunkReader noteToHTMLChunks(final Note note, final Map<String, String> mapGUIDURL,
+			final int chunkSize) throws XMLStreamException {
+		return createHTMLChunkReader(note, createXMLEventReader(note), hashURLMap(note, mapGUIDURL), chunkSize, false);
+	}
+
+	/**
+	 * Extracts the plain text of the ENML content of a {@code Note}, typically to feed a search engine.
+	 * <p>
+	 * The text is generated based on the {@link TextConverter}s defined by
+	 * {@link ENMLProcessor#setTextConverters(TextConverter, TextConverter, TextConverter, TextConverter)}. <br>
+	 * Only the character data of the ENML content is kept. Block level tags ({@code <div>}, {@code <p>}, {@code <li>},
+	 * {@code <br>}, ...) are replaced by a line break and table cells by a tabulation. The text of {@code <en-crypt>}
+	 * tags is skipped. The file names of the {@code Resource}s and the states of the {@code <en-todo>} tags are
+	 * included.
+	 * 
+	 * @param note the Note to extract the text from. It has to contain an ENML content
+	 * @return a {@code String} containing the text of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final String noteToTextString(final Note note) throws XMLStreamException {
+		StringWriter sw = new StringWriter(note.getContent().length());
+		noteToText(note, sw, true, true);
+		return sw.toString();
+	}
+
+	/**
+	 * Extracts the plain text of the ENML content of a {@code Note}, typically to feed a search engine.
+	 * <p>
+	 * The text is generated based on the {@link TextConverter}s defined by
+	 * {@link ENMLProcessor#setTextConverters(TextConverter, TextConverter, TextConverter, TextConverter)}. <br>
+	 * Only the character data of the ENML content is kept. Block level tags ({@code <div>}, {@code <p>}, {@code <li>},
+	 * {@code <br>}, ...) are replaced by a line break and table cells by a tabulation. The text of {@code <en-crypt>}
+	 * tags is skipped. <br>
+	 * The text is written in the {@code Writer} in parameter as the ENML content is parsed, without building any
+	 * intermediate {@code String}.
+	 * 
+	 * @param note the Note to extract the text from. It has to contain an ENML content
+	 * @param out a {@code Writer} in which to write the text of the {@code Note}
+	 * @param withResources true to include the file names of the {@code Resource}s (the {@code <en-media>} tags)
+	 * @param withTodos true to include the states of the {@code <en-todo>} tags
+	 * @return the {@code Writer} in parameter containing the text of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 *             or an I/O error writing in the {@code Writer}
+	 */
+	public final Writer noteToText(final Note note, final Writer out, final boolean withResources,
+			final boolean withTodos) throws XMLStreamException {
+		return noteToText(note, createXMLStreamReader(note), out, withResources, withTodos);
+	}
+
+	/**
+	 * Extracts the plain text of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to extract the text from
+	 * @return a {@code String} containing the text of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToTextString(Note)
+	 */
+	public final String noteToTextString(final ParsedNote parsed) throws XMLStreamException {
+		StringWriter sw = new StringWriter(parsed.getNote().getContent().length());
+		noteToText(parsed, sw, true, true);
+		return sw.toString();
+	}
+
+	/**
+	 * Extracts the plain text of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to extract the text from
+	 * @param out a {@code Writer} in which to write the text of the {@code Note}
+	 * @param withResources true to include the file names of the {@code Resource}s (the {@code <en-media>} tags)
+	 * @param withTodos true to include the states of the {@code <en-todo>} tags
+	 * @return the {@code Writer} in parameter containing the text of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error or an I/O error writing in the
+	 *             {@code Writer}
+	 * @see ENMLProcessor#noteToText(Note, Writer, boolean, boolean)
+	 */
+	public final Writer noteToText(final ParsedNote parsed, final Writer out, final boolean withResources,
+			final boolean withTodos) throws XMLStreamException {
+		return noteToText(parsed.getNote(), current(parsed).createXMLStreamReader(), out, withResources, withTodos);
+	}
+
+	/**
+	 * Creates a Markdown version of the ENML content of a {@code Note}.
+	 * <p>
+	 * The ENML tags are converted by the {@link MarkdownConverter}s defined by
+	 * {@link ENMLProcessor#setMarkdownConverters(MarkdownConverter, MarkdownConverter, MarkdownConverter, MarkdownConverter)}
+	 * , the {@code Resource}s being referenced by the URLs in parameter. The headings, paragraphs, emphasis, links,
+	 * images, lists, block quotes, preformatted blocks, horizontal rules and tables are converted to their Markdown
+	 * equivalent, the other tags are skipped but their text is kept.
+	 * 
+	 * @param note the Note to creates the Markdown from. It has to contain its list of {@code Resource}s (without data)
+	 *            and an ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @return a {@code String} containing the Markdown of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final String noteToMarkdownString(final Note note, final Map<String, String> mapGUIDURL)
+			throws XMLStreamException {
+		StringWriter sw = new StringWriter(note.getContent().length());
+		noteToMarkdown(note, mapGUIDURL, sw);
+		return sw.toString();
+	}
+
+	/**
+	 * Creates a Markdown version of the ENML content of a {@code Note}.
+	 * <p>
+	 * The ENML tags are converted by the {@link MarkdownConverter}s defined by
+	 * {@link ENMLProcessor#setMarkdownConverters(MarkdownConverter, MarkdownConverter, MarkdownConverter, MarkdownConverter)}
+	 * , the {@code Resource}s being referenced by the URLs in parameter. <br>
+	 * The Markdown is written in the {@code Writer} in parameter as the ENML content is parsed, in a single pass and
+	 * without building any intermediate {@code String}.
+	 * 
+	 * @param note the Note to creates the Markdown from. It has to contain its list of {@code Resource}s (without data)
+	 *            and an ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out a {@code Writer} in which to write the Markdown of the {@code Note}
+	 * @return the {@code Writer} in parameter containing the Markdown of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 *             or an I/O error writing in the {@code Writer}
+	 */
+	public final Writer noteToMarkdown(final Note note, final Map<String, String> mapGUIDURL, final Writer out)
+			throws XMLStreamException {
+		return noteToMarkdown(note, createXMLStreamReader(note), hashURLMap(note, mapGUIDURL), out);
+	}
+
+	/**
+	 * Creates a Markdown version of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the Markdown from
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @return a {@code String} containing the Markdown of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToMarkdownString(Note, Map)
+	 */
+	public final String noteToMarkdownString(final ParsedNote parsed, final Map<String, String> mapGUIDURL)
+			throws XMLStreamException {
+		StringWriter sw = new StringWriter(parsed.getNote().getContent().length());
+		noteToMarkdown(parsed, mapGUIDURL, sw);
+		return sw.toString();
+	}
+
+	/**
+	 * Creates a Markdown version of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the Markdown from
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out a {@code Writer} in which to write the Markdown of the {@code Note}
+	 * @return the {@code Writer} in parameter containing the Markdown of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error or an I/O error writing in the
+	 *             {@code Writer}
+	 * @see ENMLProcessor#noteToMarkdown(Note, Map, Writer)
+	 */
+	public final Writer noteToMarkdown(final ParsedNote parsed, final Map<String, String> mapGUIDURL, final Writer out)
+			throws XMLStreamException {
+		return noteToMarkdown(parsed.getNote(), current(parsed).createXMLStreamReader(),
+				hashURLMap(parsed.getNote(), mapGUIDURL), out);
+	}
+
+	/**
+	 * Creates a JSON tree of the ENML content of a {@code Note}, typically to be rendered by a client.
+	 * <p>
+	 * Each element is an object with its name ({@code n}), its attributes ({@code a}) and its children ({@code c}),
+	 * the text nodes being strings. The {@code <en-media>} elements have an additional {@code r} object describing
+	 * their {@code Resource}: GUID, MIME type, file name, size, dimensions and URL in the mapping in parameter if any.
+	 * 
+	 * @param note the Note to creates the JSON from. It has to contain its list of {@code Resource}s (without data) and
+	 *            an ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @return a {@code String} containing the JSON tree of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final String noteToJSONString(final Note note, final Map<String, String> mapGUIDURL)
+			throws XMLStreamException {
+		StringWriter sw = new StringWriter(note.getContent().length());
+		noteToJSON(note, mapGUIDURL, sw);
+		return sw.toString();
+	}
+
+	/**
+	 * Creates a JSON tree of the ENML content of a {@code Note}, typically to be rendered by a client.
+	 * <p>
+	 * Each element is an object with its name ({@code n}), its attributes ({@code a}) and its children ({@code c}),
+	 * the text nodes being strings. The {@code <en-media>} elements have an additional {@code r} object describing
+	 * their {@code Resource}: GUID, MIME type, file name, size, dimensions and URL in the mapping in parameter if any.
+	 * <br>
+	 * The JSON is written in the {@code Writer} in parameter as the ENML content is parsed, without building the tree
+	 * in memory.
+	 * 
+	 * @param note the Note to creates the JSON from. It has to contain its list of {@code Resource}s (without data) and
+	 *            an ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out a {@code Writer} in which to write the JSON tree of the {@code Note}
+	 * @return the {@code Writer} in parameter containing the JSON tree of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 *             or an I/O error writing in the {@code Writer}
+	 */
+	public final Writer noteToJSON(final Note note, final Map<String, String> mapGUIDURL, final Writer out)
+			throws XMLStreamException {
+		return noteToJSON(note, createXMLStreamReader(note), hashURLMap(note, mapGUIDURL), out);
+	}
+
+	/**
+	 * Creates a JSON tree of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the JSON from
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @return a {@code String} containing the JSON tree of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error
+	 * @see ENMLProcessor#noteToJSONString(Note, Map)
+	 */
+	public final String noteToJSONString(final ParsedNote parsed, final Map<String, String> mapGUIDURL)
+			throws XMLStreamException {
+		StringWriter sw = new StringWriter(parsed.getNote().getContent().length());
+		noteToJSON(parsed, mapGUIDURL, sw);
+		return sw.toString();
+	}
+
+	/**
+	 * Creates a JSON tree of a {@code ParsedNote}, without parsing its ENML content again.
+	 * 
+	 * @param parsed the {@code ParsedNote} to creates the JSON from
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out a {@code Writer} in which to write the JSON tree of the {@code Note}
+	 * @return the {@code Writer} in parameter containing the JSON tree of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error or an I/O error writing in the
+	 *             {@code Writer}
+	 * @see ENMLProcessor#noteToJSON(Note, Map, Writer)
+	 */
+	public final Writer noteToJSON(final ParsedNote parsed, final Map<String, String> mapGUIDURL, final Writer out)
+			throws XMLStreamException {
+		return noteToJSON(parsed.getNote(), current(parsed).createXMLStreamReader(),
+				hashURLMap(parsed.getNote(), mapGUIDURL), out);
+	}
+
+	/**
+	 * Creates asynchronously an HTML version of the ENML content of a {@code Note}, with the {@code Resource}s
+	 * generated directly in the HTML using Data URI scheme.
+	 * <p>
+	 * The conversion runs on the {@code Executor} set with {@link ENMLProcessor#setExecutor(Executor)}.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @return a {@code ConversionFuture} completed with the resulting HTML file
+	 * @see ENMLProcessor#noteToInlineHTMLString(Note)
+	 */
+	public final ConversionFuture<String> noteToInlineHTMLStringAsync(final Note note) {
+		return noteToInlineHTMLStringAsync(note, getExecutor());
+	}
+
+	/**
+	 * Creates asynchronously an HTML version of the ENML content of a {@code Note}, with the {@code Resource}s
+	 * generated directly in the HTML using Data URI scheme.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param conversionExecutor the {@code Executor} running the conversion
+	 * @return a {@code ConversionFuture} completed with the resulting HTML file
+	 * @see ENMLProcessor#noteToInlineHTMLString(Note)
+	 */
+	public final ConversionFuture<String> noteToInlineHTMLStringAsync(final Note note,
+			final Executor conversionExecutor) {
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws XMLStreamException {
+				return noteToInlineHTMLString(note);
+			}
+		}, conversionExecutor);
+	}
+
+	/**
+	 * Creates asynchronously an HTML version of the ENML content of a {@code Note}, with the {@code Resource}s
+	 * referenced according to the {@code Map} in parameter.
+	 * <p>
+	 * The conversion runs on the {@code Executor} set with {@link ENMLProcessor#setExecutor(Executor)}.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @return a {@code ConversionFuture} completed with the resulting HTML file
+	 * @see ENMLProcessor#noteToHTMLString(Note, Map)
+	 */
+	public final ConversionFuture<String> noteToHTMLStringAsync(final Note note, final Map<String, String> mapGUIDURL) {
+		return noteToHTMLStringAsync(note, mapGUIDURL, getExecutor());
+	}
+
+	/**
+	 * Creates asynchronously an HTML version of the ENML content of a {@code Note}, with the {@code Resource}s
+	 * referenced according to the {@code Map} in parameter.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data and an
+	 *            ENML content
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param conversionExecutor the {@code Executor} running the conversion
+	 * @return a {@code ConversionFuture} completed with the resulting HTML file
+	 * @see ENMLProcessor#noteToHTMLString(Note, Map)
+	 */
+	public final ConversionFuture<String> noteToHTMLStringAsync(final Note note, final Map<String, String> mapGUIDURL,
+			final Executor conversionExecutor) {
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws XMLStreamException {
+				return noteToHTMLString(note, mapGUIDURL);
+			}
+		}, conversionExecutor);
+	}
+
+	/**
+	 * Extracts asynchronously the plain text of the ENML content of a {@code Note}.
+	 * <p>
+	 * The extraction runs on the {@code Executor} set with {@link ENMLProcessor#setExecutor(Executor)}.
+	 * 
+	 * @param note the Note to extract the text from. It has to contain an ENML content
+	 * @return a {@code ConversionFuture} completed with the text of the {@code Note}
+	 * @see ENMLProcessor#noteToTextString(Note)
+	 */
+	public final ConversionFuture<String> noteToTextStringAsync(final Note note) {
+		return noteToTextStringAsync(note, getExecutor());
+	}
+
+	/**
+	 * Extracts asynchronously the plain text of the ENML content of a {@code Note}.
+	 * 
+	 * @param note the Note to extract the text from. It has to contain an ENML content
+	 * @param conversionExecutor the {@code Executor} running the extraction
+	 * @return a {@code ConversionFuture} completed with the text of the {@code Note}
+	 * @see ENMLProcessor#noteToTextString(Note)
+	 */
+	public final ConversionFuture<String> noteToTextStringAsync(final Note note, final Executor conversionExecutor) {
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws XMLStreamException {
+				return noteToTextString(note);
+			}
+		}, conversionExecutor);
+	}
+
+	/**
+	 * Opens a session converting to HTML the ENML content of a {@code Note} fed in chunks, with the {@code Resource}s
+	 * generated directly in the HTML using Data URI scheme.
+	 * <p>
+	 * The content of the {@code Note} is not read, it is given to {@link ConversionSession#feed(java.nio.ByteBuffer)}
+	 * as it arrives. The HTML is the same as with {@link ENMLProcessor#noteToInlineHTML(Note, OutputStream)} and is
+	 * written in the {@code OutputStream} as the chunks are converted by the {@code Executor} in parameter. With the
+	 * blocking parser of StAX a session occupies a thread of the {@code Executor} until its end, so the
+	 * {@code Executor} has to be dedicated to the sessions and sized for them, which is why the {@code Executor} set
+	 * by {@link ENMLProcessor#setExecutor(Executor)} is not used.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s with data
+	 * @param out an {@code OutputStream} in which to write the resulting HTML file
+	 * @param conversionExecutor the {@code Executor} running the conversion
+	 * @return the {@code ConversionSession} to feed with the ENML content
+	 * @throws IllegalArgumentException if the {@code Executor} is null
+	 * @see ConversionSession
+	 */
+	public final ConversionSession openInlineHTMLSession(final Note note, final OutputStream out,
+			final Executor conversionExecutor) {
+		return openHTMLSession(note, null, out, true, conversionExecutor);
+	}
+
+	/**
+	 * Opens a session converting to HTML the ENML content of a {@code Note} fed in chunks, with the {@code Resource}s
+	 * referenced according to the {@code Map} in parameter.
+	 * <p>
+	 * The content of the {@code Note} is not read, it is given to {@link ConversionSession#feed(java.nio.ByteBuffer)}
+	 * as it arrives. The HTML is the same as with {@link ENMLProcessor#noteToHTML(Note, Map, OutputStream)} and is
+	 * written in the {@code OutputStream} as the chunks are converted by the {@code Executor} in parameter, dedicated
+	 * to the sessions as described in {@link ENMLProcessor#openInlineHTMLSession(Note, OutputStream, Executor)}.
+	 * 
+	 * @param note the Note to creates the HTML from. It has to contain its list of {@code Resource}s
+	 * @param mapGUIDURL the mapping of {@code Resource}s GUID with their corresponding physical files path
+	 * @param out an {@code OutputStream} in which to write the resulting HTML file
+	 * @param conversionExecutor the {@code Executor} running the conversion
+	 * @return the {@code ConversionSession} to feed with the ENML content
+	 * @throws IllegalArgumentException if the {@code Executor} is null
+	 * @see ConversionSession
+	 */
+	public final ConversionSession openHTMLSession(final Note note, final Map<String, String> mapGUIDURL,
+			final OutputStream out, final Executor conversionExecutor) {
+		return openHTMLSession(note, hashURLMap(note, mapGUIDURL), out, false, conversionExecutor);
+	}
+
+	/**
+	 * Updates the {@code Note} content with the information of new {@code Resource}s.
+	 * <p>
+	 * The update consist in replacing the 'hash' attributes of tags {@code <en-media>} in the ENML content of the
+	 * {@code Note}. The attributes are updated based on the mapping represented by {@code Map<Resource, Resource>} in
+	 * parameter. <br>
+	 * For every {@code Resource} that has to be updated this {@code Map} has to contain an entry with:
+	 * <ul>
+	 * <li>
+	 * the {@code Resource} to update (the old Resource)</li>
+	 * <li>the {@code Resource} to update with (the new Resource)</li>
+	 * </ul>
+	 * <br>
+	 * The methods assumes the {@code Note} has an ENML content and the {@code Resource} in the {@code Map} has data (to
+	 * be able to compute the hash). <br>
+	 * If a {@code Resource} in the Map is not in the {@code List<Resource>} of the {@code Note} no update will be
+	 * performed for the {@code Map} entry.<br>
+	 * The methods will take care of removing the old {@code Resource} objects in the {@code Note} list after they have
+	 * been updated.
+	 * 
+	 * @param note the Note to update. It has to contain an ENML content.
+	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s
+	 * @return the {@code Note} in parameter with updated content and {@code Resource}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 */
+	public final Note updateNoteResources(final Note note, final Map<Resource, Resource> oldNewResourcesMap)
+			throws XMLStreamException, NoSuchAlgorithmException {
+		return updateNoteResourcesByHash(note, null, hashResourceMap(oldNewResourcesMap));
+	}
+
+	/**
+	 * Updates the content of a {@code ParsedNote} with the information of new {@code Resource}s, keeping the
+	 * {@code ParsedNote} up to date.
+	 * 
+	 * @param parsed the {@code ParsedNote} to update
+	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s
+	 * @return the {@code ParsedNote} in parameter, with updated content and {@code Resource} in its {@code Note}
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 * @see ENMLProcessor#updateNoteResources(Note, Map)
+	 */
+	public final ParsedNote updateNoteResources(final ParsedNote parsed,
+			final Map<Resource, Resource> oldNewResourcesMap) throws NoSuchAlgorithmException {
+		updateNoteResourcesByHash(parsed.getNote(), parsed, hashResourceMap(oldNewResourcesMap));
+		return parsed;
+	}
+
+	/**
+	 * Updates the {@code Note} content with the information of new {@code Resource}s.
+	 * <p>
+	 * The update consist in replacing the 'hash' attributes of tags {@code <en-media>} in the ENML content of the
+	 * {@code Note}. The attributes are updated based on the mapping represented by {@code Map<String, String>} in
+	 * parameter. <br>
+	 * The methods assumes the {@code Note} has an ENML content and it's {@code Resource}s has data (to be able to
+	 * compute the hash). <br>
+	 * For every {@code Resource} that has to be updated this {@code Map} has to contain an entry with:
+	 * <ul>
+	 * <li>the GUID of the {@code Resource} to update (the old Resource)</li>
+	 * <li>the GUID of the {@code Resource} to update with (the new Resource)</li>
+	 * </ul>
+	 * If a {@code Resource}s referenced by its GUID in the Map is not in the {@code List<Resource>} of the {@code Note}
+	 * no update will be performed for the {@code Map} entry.<br>
+	 * The method will take care of removing the old {@code Resource} objects in the {@code Note} list after they have
+	 * been updated.
+	 * 
+	 * @param note the Note to update. It has to contain an ENML content.
+	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s
+	 * @return the {@code Note} in parameter with updated content and {@code Resource}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 */
+	public final Note updateNoteResourcesByGUID(final Note note, final Map<String, String> oldNewResourcesMap)
+			throws XMLStreamException, NoSuchAlgorithmException {
+		return updateNoteResourcesByHash(note, null, hashResourceMapByGUID(note, oldNewResourcesMap));
+	}
+
+	/**
+	 * Updates the content of a {@code ParsedNote} with the information of new {@code Resource}s referenced by their
+	 * GUID, keeping the {@code ParsedNote} up to date.
+	 * 
+	 * @param parsed the {@code ParsedNote} to update
+	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s GUID
+	 * @return the {@code ParsedNote} in parameter, with updated content and {@code Resource} in its {@code Note}
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 * @see ENMLProcessor#updateNoteResourcesByGUID(Note, Map)
+	 */
+	public final ParsedNote updateNoteResourcesByGUID(final ParsedNote parsed,
+			final Map<String, String> oldNewResourcesMap) throws NoSuchAlgorithmException {
+		Note note = parsed.getNote();
+		updateNoteResourcesByHash(note, parsed, hashResourceMapByGUID(note, oldNewResourcesMap));
+		return parsed;
+	}
+
+	/**
+	 * Updates the {@code Note} content by removing the information of a {@code List<Resource>}.
 	 * <p>
 	 * The update consist in removing the tags {@code <en-media>} in the ENML content of the {@code Note}. The tags are
 	 * removed based on the {@code List<Resource>} in parameter. <br>
@@ -511,13 +1390,21 @@ public class ENMLProcessor {
 	 */
 	public final Note deleteNoteResources(final Note note, final List<Resource> resourcesToDelete)
 			throws XMLStreamException {
+		return deleteNoteResourcesByHash(note, null, hashes(resourcesToDelete));
+	}
 
-		List<String> hashToDelete = new ArrayList<String>();
-
-		for (Resource resource : resourcesToDelete) {
-			hashToDelete.add(Utils.bytesToHex(resource.getData().getBodyHash()));
-		}
-		return deleteNoteResourcesByHash(note, hashToDelete);
+	/**
+	 * Updates the content of a {@code ParsedNote} by removing the information of a {@code List<Resource>}, keeping the
+	 * {@code ParsedNote} up to date.
+	 * 
+	 * @param parsed the {@code ParsedNote} to update
+	 * @param resourcesToDelete {@code List<Resource>} to remove from the {@code Note}
+	 * @return the {@code ParsedNote} in parameter, with updated content and {@code Resource} in its {@code Note}
+	 * @see ENMLProcessor#deleteNoteResources(Note, List)
+	 */
+	public final ParsedNote deleteNoteResources(final ParsedNote parsed, final List<Resource> resourcesToDelete) {
+		deleteNoteResourcesByHash(parsed.getNote(), parsed, hashes(resourcesToDelete));
+		return parsed;
 	}
 
 	/**
@@ -539,193 +1426,861 @@ public class ENMLProcessor {
 	 */
 	public final Note deleteNoteResourcesByGUID(final Note note, final List<String> guidsToDelete)
 			throws XMLStreamException {
+		return deleteNoteResourcesByHash(note, null, hashesByGUID(note, guidsToDelete));
+	}
+
+	/**
+	 * Updates the content of a {@code ParsedNote} by removing the information of a {@code Resource} represented by a
+	 * {@code List<String>} of GUID, keeping the {@code ParsedNote} up to date.
+	 * 
+	 * @param parsed the {@code ParsedNote} to update
+	 * @param guidsToDelete {@code List<String>} of GUID to remove from the {@code Note}
+	 * @return the {@code ParsedNote} in parameter, with updated content and {@code Resource} in its {@code Note}
+	 * @see ENMLProcessor#deleteNoteResourcesByGUID(Note, List)
+	 */
+	public final ParsedNote deleteNoteResourcesByGUID(final ParsedNote parsed, final List<String> guidsToDelete) {
+		deleteNoteResourcesByHash(parsed.getNote(), parsed, hashesByGUID(parsed.getNote(), guidsToDelete));
+		return parsed;
+	}
+
+	/**
+	 * Updates the {@code Note} content by adding the information of a {@code List<Resource>}.
+	 * <p>
+	 * The update consist in adding the tags {@code <en-media>} in the ENML content of the {@code Note}. The tags are
+	 * added based on the {@code List<Resource>} in parameter. <br>
+	 * The methods assumes the {@code Note} has an ENML content and the {@code Resource}s in the {@code List<Resource}
+	 * in parameter has data (to be able to compute the hash). <br>
+	 * 
+	 * All {@code Resource} present in the {@code Note} will stays untouched both in the ENML content and in the
+	 * {@code Resource} list of the {@code Note} <br>
+	 * The method will take care of adding the added {@code Resource} object to the {@code Note} list. <br>
+	 * The {@code <en-media>} tags are inserted in the ENML content without parsing it, so the rest of the content is
+	 * preserved exactly as it is.
+	 * 
+	 * @param note the Note to update. It has to contain an ENML content.
+	 * @param resourcesToAdd {@code List<Resource>} to add to the {@code Note}
+	 * @param addToTop true to add the {@code <en-media>} at the top of the Note content, false to add it at the bottom
+	 * @return the {@code Note} in parameter with updated content and {@code Resource}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 */
+	public final Note addNoteResources(final Note note, final List<Resource> resourcesToAdd, final boolean addToTop)
+			throws XMLStreamException, NoSuchAlgorithmException {
+		return addNoteResources(note, null, resourcesToAdd, addToTop);
+	}
+
+	/**
+	 * Updates the content of a {@code ParsedNote} by adding the information of a {@code List<Resource>}, keeping the
+	 * {@code ParsedNote} up to date.
+	 * 
+	 * @param parsed the {@code ParsedNote} to update
+	 * @param resourcesToAdd {@code List<Resource>} to add to the {@code Note}
+	 * @param addToTop true to add the {@code <en-media>} at the top of the Note content, false to add it at the bottom
+	 * @return the {@code ParsedNote} in parameter, with updated content and {@code Resource} in its {@code Note}
+	 * @throws XMLStreamException if the ENML content of the {@code Note} has no {@code <en-note>} tag
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 * @see ENMLProcessor#addNoteResources(Note, List, boolean)
+	 */
+	public final ParsedNote addNoteResources(final ParsedNote parsed, final List<Resource> resourcesToAdd,
+			final boolean addToTop) throws XMLStreamException, NoSuchAlgorithmException {
+		addNoteResources(parsed.getNote(), parsed, resourcesToAdd, addToTop);
+		return parsed;
+	}
+
+	/**
+	 * Updates the {@code Note} content by checking or unchecking one of its {@code <en-todo>} tags.
+	 * <p>
+	 * The {@code <en-todo>} tag is located by its index in the ENML content (the first {@code <en-todo>} of the content
+	 * has the index 0). The update consist in setting the 'checked' attribute of the tag to "true" or "false", or in
+	 * adding it if the tag has to be checked and has no 'checked' attribute. <br>
+	 * The content is not parsed: the tag is located with a lightweight scan and only the attribute is replaced, so the
+	 * rest of the ENML content is preserved exactly as it is.
+	 * 
+	 * @param note the Note to update. It has to contain an ENML content.
+	 * @param index the index of the {@code <en-todo>} tag to update
+	 * @param checked true to check the {@code <en-todo>} tag, false to uncheck it
+	 * @return the {@code Note} in parameter with updated content
+	 * @throws IndexOutOfBoundsException if the ENML content contains less than {@code index + 1} {@code <en-todo>} tags
+	 */
+	public final Note updateNoteTodo(final Note note, final int index, final boolean checked) {
+		return updateNoteTodo(note, null, index, checked);
+	}
+
+	/**
+	 * Updates the content of a {@code ParsedNote} by checking or unchecking one of its {@code <en-todo>} tags, keeping
+	 * the {@code ParsedNote} up to date.
+	 * 
+	 * @param parsed the {@code ParsedNote} to update
+	 * @param index the index of the {@code <en-todo>} tag to update
+	 * @param checked true to check the {@code <en-todo>} tag, false to uncheck it
+	 * @return the {@code ParsedNote} in parameter, with updated content in its {@code Note}
+	 * @throws IndexOutOfBoundsException if the ENML content contains less than {@code index + 1} {@code <en-todo>} tags
+	 * @see ENMLProcessor#updateNoteTodo(Note, int, boolean)
+	 */
+	public final ParsedNote updateNoteTodo(final ParsedNote parsed, final int index, final boolean checked) {
+		updateNoteTodo(parsed.getNote(), parsed, index, checked);
+		return parsed;
+	}
+
+	private Note updateNoteTodo(final Note note, final ParsedNote parsed, final int index, final boolean checked) {
+		long start = System.currentTimeMillis();
+		log.finer("Update en-todo " + index + " in ENML content of Note " + note.getGuid());
+
+		String content = note.getContent();
+		int[] todoTokens = parsed != null && !parsed.isStale() ? parsed.findStartElements(TODO) : null;
+		TagScanner scanner = new TagScanner(content);
+		int current = 0;
+		while (scanner.next(TODO)) {
+			if (current++ == index) {
+				int valueStart = scanner.getAttributeValueStart(CHECKED);
+				if (valueStart >= 0) {
+					note.setContent(Utils.splice(content, valueStart, scanner.getAttributeValueEnd(CHECKED),
+							String.valueOf(checked)));
+				} else if (checked) {
+					note.setContent(Utils.splice(content, scanner.getNameEnd(), scanner.getNameEnd(), " " + CHECKED
+							+ "=\"true\""));
+				}
+				if (todoTokens != null && index < todoTokens.length) {
+					if (valueStart >= 0 || checked) {
+						parsed.setAttribute(todoTokens[index], CHECKED, String.valueOf(checked));
+					}
+					parsed.setContent(note.getContent());
+				} else if (parsed != null) {
+					parsed.reset();
+				}
+				log.fine("Note ENML content of " + note.getGuid() + " has been updated with en-todo state in "
+						+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+				return note;
+			}
+		}
+		throw new IndexOutOfBoundsException("The note " + note.getTitle() + " has " + current
+				+ " en-todo tags, no en-todo at index " + index);
+	}
+
+	private Note addNoteResources(final Note note, final ParsedNote parsed, final List<Resource> resourcesToAdd,
+			final boolean addToTop) throws XMLStreamException, NoSuchAlgorithmException {
+		long start = System.currentTimeMillis();
+		log.finer("Add resources from ENML content of Note " + note.getGuid());
+
+		String content = note.getContent();
+		TagScanner scanner = new TagScanner(content);
+		if (!scanner.next(NOTE)) {
+			throw new XMLStreamException("The ENML content of Note " + note.getGuid() + " has no " + NOTE + " tag");
+		}
+		int[] noteTokens = findStartElements(parsed, NOTE, 1);
+		int position = 0;
+		QName mediaName = null;
+		if (noteTokens != null) {
+			position = addToTop ? noteTokens[0] + 1 : parsed.findEndElement(noteTokens[0]);
+			QName noteName = parsed.getName(noteTokens[0]);
+			mediaName = new QName(noteName.getNamespaceURI(), MEDIA, noteName.getPrefix());
+		}
+
+		StringBuilder markup = new StringBuilder();
+		for (Resource resource : resourcesToAdd) {
+			Map<String, String> attrs = new LinkedHashMap<String, String>();
+			if (resource.getWidth() != 0) {
+				attrs.put(WIDTH, String.valueOf(resource.getWidth()));
+			}
+			if (resource.getHeight() != 0) {
+				attrs.put(HEIGHT, String.valueOf(resource.getHeight()));
+			}
+			attrs.put(TYPE, resource.getMime());
+			if (resource.getAttributes() != null && resource.getAttributes().getFileName() != null) {
+				attrs.put(ALT, resource.getAttributes().getFileName());
+			}
+			// Make sure the Resource Data is valid with proper hash and length
+			resource.setData(createData(resource.getData().getBody()));
+			attrs.put(HASH, Utils.bytesToHex(resource.getData().getBodyHash()));
+
+			markup.append('<').append(MEDIA);
+			for (Map.Entry<String, String> attr : attrs.entrySet()) {
+				markup.append(' ').append(attr.getKey()).append("=\"").append(Utils.escapeXml(attr.getValue()))
+						.append('"');
+			}
+			markup.append("/>");
+			if (noteTokens != null) {
+				parsed.insertElement(position, mediaName, attrs);
+				position += 2;
+			}
+			// Add the resource to the note's resources if not already there
+			addResourceObjectToNote(note, resource);
+		}
+
+		if (scanner.isEmptyElement()) {
+			note.setContent(Utils.splice(content, scanner.getEnd() - 2, scanner.getEnd(), ">" + markup + "</" + NOTE
+					+ ">"));
+		} else if (addToTop) {
+			note.setContent(Utils.splice(content, scanner.getEnd(), scanner.getEnd(), markup.toString()));
+		} else {
+			int noteEnd = content.lastIndexOf("</" + NOTE);
+			note.setContent(Utils.splice(content, noteEnd, noteEnd, markup.toString()));
+		}
+		if (noteTokens != null) {
+			parsed.setContent(note.getContent());
+		}
+		log.fine("Note ENML content of " + note.getGuid() + " has been updated with resource mapping in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return note;
+	}
+
+	private Writer noteToText(final Note note, final XMLStreamReader reader, final Writer out,
+			final boolean withResources, final boolean withTodos) throws XMLStreamException {
+
+		long start = System.currentTimeMillis();
+		log.finer("Extracting text of Note " + note.getGuid());
+
+		TextWriter writer = new TextWriter(out);
+		Map<String, TextConverter> dispatch = settings.textConverters;
+
+		// Depth in a tag which text has to be skipped, 0 if the text has to be written
+		int skipDepth = 0;
+		// Number of cells of the current table row, the tabulation being written between the cells
+		int cells = 0;
+
+		try {
+			while (reader.hasNext()) {
+				checkInterrupted(note);
+				int eventType = reader.next();
+				if (eventType == XMLStreamReader.START_ELEMENT) {
+					if (skipDepth > 0) {
+						skipDepth++;
+						continue;
+					}
+					String name = reader.getLocalName();
+					if (BLOCK_TAGS.contains(name)) {
+						writer.newLine();
+						if ("tr".equals(name)) {
+							cells = 0;
+						}
+					} else if (CELL_TAGS.contains(name) && cells++ > 0) {
+						writer.write('\t');
+					}
+					TextConverter converter = dispatch.get(name);
+					if (converter != null) {
+						if ((MEDIA.equals(name) && !withResources) || (TODO.equals(name) && !withTodos)
+								|| !converter.convertElement(createStartElement(reader), note, writer)) {
+							skipDepth = 1;
+						}
+					}
+				} else if (eventType == XMLStreamReader.END_ELEMENT) {
+					if (skipDepth > 0) {
+						skipDepth--;
+					} else if (BLOCK_TAGS.contains(reader.getLocalName())) {
+						writer.newLine();
+					}
+				} else if ((eventType == XMLStreamReader.CHARACTERS || eventType == XMLStreamReader.CDATA)
+						&& skipDepth == 0 && !(writer.isAtLineStart() && reader.isWhiteSpace())) {
+					writer.write(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+			}
+			writer.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			reader.close();
+		}
+		log.fine("Text of Note " + note.getGuid() + " has been extracted in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return out;
+	}
+
+	private Writer noteToMarkdown(final Note note, final XMLStreamReader reader, final Map<String, String> mapHashURL,
+			final Writer out) throws XMLStreamException {
+
+		long start = System.currentTimeMillis();
+		log.finer("Converting Note " + note.getGuid() + " to Markdown");
+
+		try {
+			new MarkdownConversion(note, reader, mapHashURL, settings.markdownConverters, eventFactory, out).run();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			reader.close();
+		}
+		log.fine("Note " + note.getGuid() + " has been converted to Markdown in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return out;
+	}
+
+	private Writer noteToJSON(final Note note, final XMLStreamReader reader, final Map<String, String> mapHashURL,
+			final Writer out) throws XMLStreamException {
+
+		long start = System.currentTimeMillis();
+		log.finer("Converting Note " + note.getGuid() + " to JSON");
+
+		try {
+			new JSONConversion(note, reader, mapHashURL, out).run();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			reader.close();
+		}
+		log.fine("Note " + note.getGuid() + " has been converted to JSON in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return out;
+	}
+
+	/**
+	 * Converts a {@code Note} to HTML, with the fast path if it is enabled and its content has no ENML tag other than
+	 * {@code <en-note>}.
+	 */
+	private OutputStream noteToHTML(final Note note, final Map<String, String> mapHashURL, final OutputStream out,
+			final boolean inline) throws XMLStreamException {
+		if (settings.plainContentCopy && settings.progressiveOutput == null && isPlainContent(note.getContent())
+				&& plainNoteToHTML(note, mapHashURL, out, inline)) {
+			return out;
+		}
+		return noteToHTML(note, createXMLEventReader(note), mapHashURL, out, inline);
+	}
+
+	/**
+	 * Converts a {@code Note} which content has no ENML tag other than {@code <en-note>}, without parsing its content.
+	 * <p>
+	 * Only the tags other than {@code <en-note>} have to be converted, and they are copied as is by the conversion. So
+	 * an ENML content made of the prolog and {@code <en-note>} tag of the {@code Note} around a placeholder is
+	 * converted, and the content of the {@code <en-note>} tag is copied in place of the placeholder. The result is the
+	 * same XHTML, except the content of the {@code <body>} is written as in the ENML (see
+	 * {@link ENMLProcessor#setPlainContentCopy(boolean)}).
+	 * 
+	 * @return true if the {@code Note} has been converted, false if it has to be converted by parsing its content (for
+	 *         example if it is not well-formed or if the {@code <en-note>} {@code Converter} modifies the placeholder)
+	 */
+	private boolean plainNoteToHTML(final Note note, final Map<String, String> mapHashURL, final OutputStream out,
+			final boolean inline) throws XMLStreamException {
+		String content = note.getContent();
+		TagScanner scanner = new TagScanner(content);
+		if (!scanner.next(NOTE) || scanner.isEmptyElement()) {
+			return false;
+		}
+		int bodyStart = scanner.getEnd();
+		int bodyEnd = content.lastIndexOf("</" + NOTE);
+		if (bodyEnd < bodyStart || !new ParsedNote(note).tokenize(getTokenizer(), content)) {
+			log.finer("The content of Note " + note.getGuid() + " is converted rather than copied");
+			return false;
+		}
+
+		String skeleton = content.substring(0, bodyStart) + PLAIN_CONTENT_PLACEHOLDER + content.substring(bodyEnd);
+		BufferPool.Buffer buffer = buffers.acquire(HTML_OVERHEAD);
+		try {
+			// Read as the content of the Note is, so the XML declaration is written the same
+			ParsedNote tokenized = tokenize(note, skeleton);
+			XMLEventReader reader = tokenized != null ? tokenized.createXMLEventReader(eventFactory) : inputFactory
+					.createXMLEventReader(new ByteArrayInputStream(skeleton.getBytes(UTF_8)));
+			noteToHTML(note, reader, mapHashURL, buffer, inline);
+			String html = buffer.decode(UTF_8);
+			int placeholder = html.lastIndexOf(PLAIN_CONTENT_PLACEHOLDER);
+			if (placeholder < 0) {
+				return false;
+			}
+			Writer writer = new OutputStreamWriter(out, UTF_8);
+			writer.write(html, 0, placeholder);
+			writer.write(content, bodyStart, bodyEnd - bodyStart);
+			int suffix = placeholder + PLAIN_CONTENT_PLACEHOLDER.length();
+			writer.write(html, suffix, html.length() - suffix);
+			writer.flush();
+			return true;
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			buffers.release(buffer);
+		}
+	}
+
+	/**
+	 * @return true if an ENML content has no {@code <en-media>}, {@code <en-todo>} nor {@code <en-crypt>} tag
+	 */
+	private static boolean isPlainContent(final String content) {
+		return content.indexOf("<" + MEDIA) < 0 && content.indexOf("<" + TODO) < 0 && content.indexOf("<" + CRYPT) < 0;
+	}
+
+	private OutputStream noteToHTML(final Note note, final XMLEventReader reader, final Map<String, String> mapHashURL,
+			final OutputStream out, final boolean inline) throws XMLStreamException {
+
+		long start = System.nanoTime();
+		log.finer("Converting Note " + note.getGuid() + " to HTML");
+
+		ProgressiveOutput progressive = settings.progressiveOutput;
+		ConversionState state = states.acquire();
+		try {
+			if (progressive == null) {
+				createHTMLConversion(note, reader, mapHashURL, createXMLEventWriter(out, state), inline, state).run();
+			} else {
+				ProgressiveOutput.CountingOutputStream counter = new ProgressiveOutput.CountingOutputStream(out);
+				progressive.run(note, createHTMLConversion(note, reader, mapHashURL,
+						createXMLEventWriter(counter, state), inline, state), counter, start);
+			}
+		} finally {
+			states.release(state);
+		}
+
+		log.fine("Note " + note.getGuid() + " has been converted in "
+				+ Utils.getDurationBreakdown(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		return out;
+	}
+
+	private OutputStream compressedNoteToHTML(final Note note, final XMLEventReader reader,
+			final Map<String, String> mapHashURL, final OutputStream out, final Compression compression,
+			final boolean inline) throws XMLStreamException {
+		DeflaterPool pool = compression == Compression.GZIP ? gzipDeflaters : zlibDeflaters;
+		Deflater deflater = pool.acquire(settings.compressionLevel, settings.compressionStrategy);
+		try {
+			// A progressive output has to flush the data compressed so far, not only the OutputStream
+			CompressedOutputStream compressed = new CompressedOutputStream(out, compression, deflater,
+					settings.progressiveOutput != null);
+			noteToHTML(note, reader, mapHashURL, compressed, inline);
+			compressed.finish();
+			out.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			pool.release(deflater);
+		}
+		return out;
+	}
+
+	private ConversionSession openHTMLSession(final Note note, final Map<String, String> mapHashURL,
+			final OutputStream out, final boolean inline, final Executor conversionExecutor) {
+		if (conversionExecutor == null) {
+			throw new IllegalArgumentException("A session requires an Executor");
+		}
+		if (ASYNC_PARSER && settings.progressiveOutput == null) {
+			try {
+				AsyncConversion conversion = new AsyncConversion(note, getTokenizer(), eventFactory,
+						ConversionSession.CAPACITY, conversionExecutor);
+				return conversion.open(createHTMLConversion(note, conversion.getReader(), mapHashURL,
+						createXMLEventWriter(out), inline), out);
+			} catch (XMLStreamException e) {
+				// The blocking conversion reports the error through its ConversionFuture
+				log.fine("Converting Note " + note.getGuid() + " with the blocking parser: " + e.getMessage());
+			}
+		}
+		final FeedInputStream input = new FeedInputStream(ConversionSession.CAPACITY, null);
+		ConversionFuture<OutputStream> conversion = submit(new Callable<OutputStream>() {
+			@Override
+			public OutputStream call() throws XMLStreamException {
+				try {
+					return noteToHTML(note, inputFactory.createXMLEventReader(input), mapHashURL, out, inline);
+				} finally {
+					// The chunks fed after a failure are discarded rather than accumulated
+					input.close();
+				}
+			}
+		}, conversionExecutor);
+		return new ConversionSession(input, conversion);
+	}
+
+	private HTMLChunkReader createHTMLChunkReader(final Note note, final XMLEventReader reader,
+			final Map<String, String> mapHashURL, final int chunkSize, final boolean inline) throws XMLStreamException {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+		}
+		HTMLChunkReader.ChunkBuffer buffer = new HTMLChunkReader.ChunkBuffer(chunkSize * 2);
+		HTMLConversion conversion = createHTMLConversion(note, reader, mapHashURL, createXMLEventWriter(buffer),
+				inline);
+		return new HTMLChunkReader(conversion, reader, buffer, chunkSize);
+	}
+
+	private XMLEventWriter createXMLEventWriter(final OutputStream out) throws XMLStreamException {
+		return settings.xhtmlSerializer ? new XHTMLEventWriter(out) : outputFactory.createXMLEventWriter(out, CHARSET);
+	}
+
+	private XMLEventWriter createXMLEventWriter(final OutputStream out, final ConversionState state)
+			throws XMLStreamException {
+		return settings.xhtmlSerializer ? state.getWriter(out) : outputFactory.createXMLEventWriter(out, CHARSET);
+	}
+
+	private HTMLConversion createHTMLConversion(final Note note, final XMLEventReader reader,
+			final Map<String, String> mapHashURL, final XMLEventWriter writer, final boolean inline) {
+		return createHTMLConversion(note, reader, mapHashURL, writer, inline, new ConversionState());
+	}
+
+	private HTMLConversion createHTMLConversion(final Note note, final XMLEventReader reader,
+			final Map<String, String> mapHashURL, final XMLEventWriter writer, final boolean inline,
+			final ConversionState state) {
+		return new HTMLConversion(note, reader, mapHashURL, inline ? settings.inlineConverters : settings.converters,
+				eventFactory, writer, inline && settings.inlineDeduplication ? new DataURIDeduplicator(eventFactory)
+						: null, state);
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new IllegalStateException("This ENMLProcessor has been created by a Builder and can't be modified");
+		}
+	}
+
+	private static void checkCompression(final int level, final int strategy) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+				&& strategy != Deflater.HUFFMAN_ONLY) {
+			throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+		}
+	}
+
+	/**
+	 * Creates the unmodifiable map of the {@code Converter}s of an HTML conversion, the null ones being replaced by the
+	 * default {@code Converter}s. Only the default {@code Converter}s are set with the {@code XMLEventFactory} of this
+	 * {@code ENMLProcessor}: the ones given by the caller may be shared with other {@code ENMLProcessor}s, and are left
+	 * untouched with their own {@code XMLEventFactory}.
+	 */
+	private Map<String, Converter> createConverters(final BaseConverter noteConverter,
+			final MediaConverter mediaConverter, final BaseConverter todoConverter, final BaseConverter cryptConverter,
+			final boolean inline) {
+		Map<String, Converter> map = new HashMap<String, Converter>();
+		map.put(NOTE, noteConverter != null ? noteConverter : new DefaultNoteTagConverter()
+				.setEventFactory(eventFactory));
+		if (mediaConverter != null) {
+			map.put(MEDIA, mediaConverter);
+		} else if (inline) {
+			map.put(MEDIA, new DefaultInlineMediaTagConverter().setEventFactory(eventFactory));
+		} else {
+			map.put(MEDIA, new DefaultMediaTagConverter().setEventFactory(eventFactory));
+		}
+		map.put(TODO, todoConverter != null ? todoConverter : new DefaultTodoTagConverter()
+				.setEventFactory(eventFactory));
+		map.put(CRYPT, cryptConverter != null ? cryptConverter : new DefaultCryptTagConverter()
+				.setEventFactory(eventFactory));
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static Map<String, TextConverter> createTextConverters(final TextConverter noteConverter,
+			final TextConverter mediaConverter, final TextConverter todoConverter, final TextConverter cryptConverter) {
+		Map<String, TextConverter> map = new HashMap<String, TextConverter>();
+		map.put(NOTE, noteConverter != null ? noteConverter : new DefaultNoteTagTextConverter());
+		map.put(MEDIA, mediaConverter != null ? mediaConverter : new DefaultMediaTagTextConverter());
+		map.put(TODO, todoConverter != null ? todoConverter : new DefaultTodoTagTextConverter());
+		map.put(CRYPT, cryptConverter != null ? cryptConverter : new DefaultCryptTagTextConverter());
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static Map<String, MarkdownConverter> createMarkdownConverters(final MarkdownConverter noteConverter,
+			final MarkdownConverter mediaConverter, final MarkdownConverter todoConverter,
+			final MarkdownConverter cryptConverter) {
+		Map<String, MarkdownConverter> map = new HashMap<String, MarkdownConverter>();
+		map.put(NOTE, noteConverter != null ? noteConverter : new DefaultNoteTagMarkdownConverter());
+		map.put(MEDIA, mediaConverter != null ? mediaConverter : new DefaultMediaTagMarkdownConverter());
+		map.put(TODO, todoConverter != null ? todoConverter : new DefaultTodoTagMarkdownConverter());
+		map.put(CRYPT, cryptConverter != null ? cryptConverter : new DefaultCryptTagMarkdownConverter());
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Creates a {@code StartElement} from the current START_ELEMENT state of an {@code XMLStreamReader}.
+	 * <p>
+	 * Only used for the ENML tags handled by a {@link TextConverter}, so the other tags don't allocate any event.
+	 */
+	private StartElement createStartElement(final XMLStreamReader reader) {
+		List<Attribute> attrs = new ArrayList<Attribute>(reader.getAttributeCount());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			attrs.add(eventFactory.createAttribute(reader.getAttributeName(i), reader.getAttributeValue(i)));
+		}
+		return eventFactory.createStartElement(reader.getName(), attrs.iterator(), null);
+	}
 
-		List<String> hashToDelete = new ArrayList<String>();
+	private <V> ConversionFuture<V> submit(final Callable<V> conversion, final Executor conversionExecutor) {
+		ConversionFuture<V> future = new ConversionFuture<V>(conversion);
+		conversionExecutor.execute(future);
+		return future;
+	}
 
-		for (String guidToDelete : guidsToDelete) {
-			for (Resource resource : note.getResources()) {
-				if (resource.getGuid().equals(guidToDelete)) {
-					hashToDelete.add(Utils.bytesToHex(resource.getData().getBodyHash()));
+	private static boolean isAsyncParserAvailable() {
+		try {
+			Class.forName("com.fasterxml.aalto.AsyncXMLInputFactory", false, ENMLProcessor.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			// Aalto without the Stax2 API it depends on
+			return false;
+		}
+	}
+
+	private Executor getExecutor() {
+		Executor current = settings.executor;
+		if (current == null) {
+			synchronized (this) {
+				current = settings.executor;
+				if (current == null) {
+					int threads = Runtime.getRuntime().availableProcessors();
+					ThreadFactory threadFactory = new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							Thread thread = new Thread(runnable, "enml4j-conversion-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					};
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE,
+							TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(threads * QUEUED_CONVERSIONS_PER_THREAD),
+							threadFactory);
+					pool.allowCoreThreadTimeOut(true);
+					settings.executor = pool;
+					current = pool;
 				}
 			}
 		}
-		return deleteNoteResourcesByHash(note, hashToDelete);
+		return current;
 	}
 
 	/**
-	 * Updates the {@code Note} content by adding the information of a {@code List<Resource>}.
-	 * <p>
-	 * The update consist in adding the tags {@code <en-media>} in the ENML content of the {@code Note}. The tags are
-	 * added based on the {@code List<Resource>} in parameter. <br>
-	 * The methods assumes the {@code Note} has an ENML content and the {@code Resource}s in the {@code List<Resource}
-	 * in parameter has data (to be able to compute the hash). <br>
-	 * 
-	 * All {@code Resource} present in the {@code Note} will stays untouched both in the ENML content and in the
-	 * {@code Resource} list of the {@code Note} <br>
-	 * The method will take care of adding the added {@code Resource} object to the {@code Note} list.
-	 * 
-	 * @param note the Note to update. It has to contain an ENML content.
-	 * @param resourcesToAdd {@code List<Resource>} to add to the {@code Note}
-	 * @param addToTop true to add the {@code <en-media>} at the top of the Note content, false to add it at the bottom
-	 * @return the {@code Note} in parameter with updated content and {@code Resource}
-	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
-	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
+	 * Stops a conversion running in an interrupted thread, typically a cancelled asynchronous conversion. The
+	 * interrupted status of the thread is kept.
 	 */
-	public final Note addNoteResources(final Note note, final List<Resource> resourcesToAdd, final boolean addToTop)
-			throws XMLStreamException, NoSuchAlgorithmException {
-		long start = System.currentTimeMillis();
-		log.finer("Add resources from ENML content of Note " + note.getGuid());
-
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(note.getContent().getBytes(
-				Charset.forName(CHARSET))));
-		XMLEventWriter writer = outputFactory.createXMLEventWriter(baos);
-
-		while (reader.hasNext()) {
-			XMLEvent event = (XMLEvent) reader.next();
-			if ((addToTop && event.getEventType() == XMLEvent.START_ELEMENT && event.asStartElement().getName()
-					.getLocalPart().equals(NOTE))
-					|| (!addToTop && event.getEventType() == XMLEvent.END_ELEMENT && event.asEndElement().getName()
-							.getLocalPart().equals(NOTE))) {
-				if (addToTop) {
-					writer.add(event);
-				}
-				for (Resource resource : resourcesToAdd) {
-					List<Attribute> attrs = new ArrayList<Attribute>();
-					if (resource.getWidth() != 0) {
-						attrs.add(eventFactory.createAttribute(WIDTH, String.valueOf(resource.getWidth())));
-					}
-					if (resource.getWidth() != 0) {
-						attrs.add(eventFactory.createAttribute(HEIGHT, String.valueOf(resource.getHeight())));
-					}
-					attrs.add(eventFactory.createAttribute(TYPE, resource.getMime()));
-					if (resource.getAttributes() != null) {
-						attrs.add(eventFactory.createAttribute(ALT, resource.getAttributes().getFileName()));
-					}
-					// Make sure the Resource Data is valid with proper hash and length
-					resource.setData(createData(resource.getData().getBody()));
-					attrs.add(eventFactory.createAttribute(HASH, Utils.bytesToHex(resource.getData().getBodyHash())));
-					writer.add(eventFactory.createStartElement("", "", MEDIA, attrs.iterator(), null));
-					writer.add(eventFactory.createEndElement("", "", MEDIA));
-					// Add the resource to the note's resources if not already there
-					addResourceObjectToNote(note, resource);
-				}
-				if (!addToTop) {
-					writer.add(event);
-				}
-
-			} else {
-				writer.add(event);
-			}
+	static void checkInterrupted(final Note note) {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Conversion of Note " + note.getGuid() + " has been interrupted");
 		}
+	}
 
-		note.setContent(new String(baos.toByteArray(), Charset.forName(CHARSET)));
-		log.fine("Note ENML content of " + note.getGuid() + " has been updated with resource mapping in "
-				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
-		return note;
+	private XMLEventReader createXMLEventReader(final Note note) throws XMLStreamException {
+		ParsedNote tokenized = tokenize(note, note.getContent());
+		if (tokenized != null) {
+			return tokenized.createXMLEventReader(eventFactory);
+		}
+		return inputFactory.createXMLEventReader(new ByteArrayInputStream(note.getContent().getBytes(
+				Charset.forName(CHARSET))));
 	}
 
-	private OutputStream noteToHTML(final Note note, final Map<String, String> mapHashURL, final OutputStream out,
-			final boolean inline) throws XMLStreamException {
+	private XMLEventReader createXMLEventReader(final ParsedNote parsed) throws XMLStreamException {
+		return current(parsed).createXMLEventReader(eventFactory);
+	}
 
-		long start = System.currentTimeMillis();
-		log.finer("Converting Note " + note.getGuid() + " to HTML");
+	/**
+	 * Parses again the ENML content of a {@code ParsedNote} if it has been replaced since it has been parsed.
+	 */
+	private ParsedNote current(final ParsedNote parsed) throws XMLStreamException {
+		if (parsed.isStale()) {
+			parse(parsed);
+		}
+		return parsed;
+	}
 
-		Map<String, Converter> currentConverter;
-		if (inline) {
-			currentConverter = inlineConverters;
-		} else {
-			currentConverter = converters;
+	private void parse(final ParsedNote parsed) throws XMLStreamException {
+		if (!settings.enmlTokenizer || !parsed.tokenize(getTokenizer(), parsed.getNote().getContent())) {
+			parsed.parse(inputFactory);
 		}
+	}
 
-		ArrayDeque<EndElement> stack = new ArrayDeque<EndElement>();
-		Map<EndElement, List<XMLEvent>> toInsertAfter = new HashMap<EndElement, List<XMLEvent>>();
+	/**
+	 * @return the tokens of an ENML content read by the {@code ENMLTokenizer}, or null if it is disabled or if the
+	 *         content has to be parsed by StAX
+	 */
+	private ParsedNote tokenize(final Note note, final String content) throws XMLStreamException {
+		if (!settings.enmlTokenizer) {
+			return null;
+		}
+		ParsedNote parsed = new ParsedNote(note);
+		if (parsed.tokenize(getTokenizer(), content)) {
+			return parsed;
+		}
+		log.finer("The content of Note " + note.getGuid() + " is parsed by StAX");
+		return null;
+	}
 
-		XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(note.getContent().getBytes(
-				Charset.forName(CHARSET))));
+	private ENMLTokenizer getTokenizer() throws XMLStreamException {
+		ENMLTokenizer current = tokenizer;
+		if (current == null) {
+			synchronized (this) {
+				current = tokenizer;
+				if (current == null) {
+					current = new ENMLTokenizer(inputFactory);
+					tokenizer = current;
+				}
+			}
+		}
+		return current;
+	}
 
-		XMLEventWriter writer = outputFactory.createXMLEventWriter(out);
+	/**
+	 * Creates the {@code Note} converted by {@link ENMLProcessor#warmUp(int)}: the usual XHTML tags and entities, and
+	 * for the full sample the ENML tags with an image and a PDF {@code Resource}.
+	 */
+	private static Note createSampleNote(final boolean full) {
+		Note note = new Note();
+		note.setGuid("enml4j-warm-up-" + (full ? "full" : "plain"));
+		note.setTitle("ENML4j warm-up");
+		NoteAttributes attributes = new NoteAttributes();
+		attributes.setAuthor("ENML4j");
+		note.setAttributes(attributes);
+		note.setResources(new ArrayList<Resource>());
+		StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n"
+				+ "<en-note style=\"word-wrap: break-word;\"><h1>ENML4j</h1><div>Some <b>bold</b>, <i>italic</i> "
+				+ "and <a href=\"http://www.example.com/?a=1&amp;b=2\">linked</a> text &amp; entities "
+				+ "&eacute;&nbsp;&mdash;&#160;&#x263A;</div><ul><li>First</li><li>Second<ol><li>Nested</li></ol></li>"
+				+ "</ul><table><tr><th>A</th><th>B</th></tr><tr><td>1</td><td>2</td></tr></table>"
+				+ "<blockquote>Quote</blockquote><pre>Preformatted\n  text</pre><br/><hr/>");
+		if (full) {
+			Resource image = createSampleResource(note, "image/png", "image.png",
+					Base64.decodeBase64(Utils.getEncodedIcon("image/png")));
+			Resource pdf = createSampleResource(note, "application/pdf", "document.pdf",
+					"%PDF-1.4\n%%EOF\n".getBytes(Charset.forName(CHARSET)));
+			content.append("<div><en-todo checked=\"true\"/>Done<br/><en-todo/>To do</div><div><en-media type=\"")
+					.append(image.getMime()).append("\" hash=\"")
+					.append(Utils.bytesToHex(image.getData().getBodyHash()))
+					.append("\" width=\"48\" height=\"48\"/></div><div><en-media type=\"").append(pdf.getMime())
+					.append("\" hash=\"").append(Utils.bytesToHex(pdf.getData().getBodyHash()))
+					.append("\"/></div><en-crypt hint=\"warm-up\" cipher=\"AES\" length=\"128\">"
+							+ "RU5DMI1mnQ7fKjBk9f0a57gSc9Nfbuw3uuwMKs32Y+wJGLZa</en-crypt>");
+		}
+		note.setContent(content.append("</en-note>").toString());
+		return note;
+	}
 
-		XMLEvent lastEvent = null;
+	private static Resource createSampleResource(final Note note, final String mime, final String fileName,
+			final byte[] body) {
+		Data data = new Data();
+		data.setBody(body);
+		data.setSize(body.length);
+		try {
+			data.setBodyHash(MessageDigest.getInstance("MD5").digest(body));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not supported by the platform", e);
+		}
+		Resource resource = new Resource();
+		resource.setGuid(note.getGuid() + "-" + note.getResourcesSize());
+		resource.setNoteGuid(note.getGuid());
+		resource.setMime(mime);
+		resource.setData(data);
+		ResourceAttributes attributes = new ResourceAttributes();
+		attributes.setFileName(fileName);
+		resource.setAttributes(attributes);
+		note.addToResources(resource);
+		return resource;
+	}
 
-		while (reader.hasNext()) {
-			XMLEvent event = (XMLEvent) reader.next();
-			if (event.getEventType() == XMLEvent.DTD) {
-				writer.add(eventFactory.createDTD(XHTML_DOCTYPE));
-				StartElement newElement = eventFactory.createStartElement("", "", HTML,
-						Arrays.asList(eventFactory.createAttribute(XMLNS, XHTML_NAMESPACE)).iterator(), null);
-				writer.add(newElement);
-			} else if (event.getEventType() == XMLEvent.START_ELEMENT) {
+	/**
+	 * @return the content of a DTD resource of the library, read once then kept in memory
+	 */
+	private static byte[] getDTDResource(final String resource) throws XMLStreamException {
+		byte[] content = DTD_CONTENTS.get(resource);
+		if (content != null) {
+			return content;
+		}
+		InputStream in = ENMLProcessor.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new XMLStreamException("The DTD resource " + resource + " is missing from the classpath");
+		}
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] data = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(data, 0, data.length)) != -1) {
+				buffer.write(data, 0, read);
+			}
+			content = buffer.toByteArray();
+		} catch (IOException e) {
+			throw new XMLStreamException("Failed to read the DTD resource " + resource, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				log.finer("Failed to close the DTD resource " + resource);
+			}
+		}
+		DTD_CONTENTS.putIfAbsent(resource, content);
+		return content;
+	}
 
-				StartElement startElement = event.asStartElement();
-				if (currentConverter.containsKey(startElement.getName().getLocalPart())) {
+	/**
+	 * Returns the START_ELEMENT tokens of a {@code ParsedNote} corresponding to the tags found by scanning its content.
+	 * <p>
+	 * Returns null if the tokens can't be updated along with the content: no {@code ParsedNote}, a stale one or a scan
+	 * not matching the parse. In the last case the {@code ParsedNote} will be parsed again the next time it is used.
+	 */
+	private int[] findStartElements(final ParsedNote parsed, final String localName, final int scanned) {
+		if (parsed == null || parsed.isStale()) {
+			return null;
+		}
+		int[] found = parsed.findStartElements(localName);
+		if (found.length != scanned) {
+			parsed.reset();
+			return null;
+		}
+		return found;
+	}
 
-					Converter converter = currentConverter.get(startElement.getName().getLocalPart());
+	private Map<String, String> hashURLMap(final Note note, final Map<String, String> mapGUIDURL) {
+		if (mapGUIDURL == null || mapGUIDURL.isEmpty() || note.getResources() == null) {
+			return new HashMap<String, String>();
+		}
+		Map<String, String> hashURLMap = new HashMap<String, String>(note.getResourcesSize() * 2);
+		for (Resource resource : note.getResources()) {
+			String url = mapGUIDURL.get(resource.getGuid());
+			if (url != null) {
+				hashURLMap.put(Utils.bytesToHex(resource.getData().getBodyHash()), url);
+			}
+		}
+		return hashURLMap;
+	}
 
-					List<XMLEvent> elementsToInsert = converter.insertBefore(startElement, note, mapHashURL);
-					if (elementsToInsert != null) {
-						for (XMLEvent element : elementsToInsert) {
-							writer.add(element);
-						}
-					}
-					Elements convertedElements = converter.convertElement(startElement, note, mapHashURL);
-					writer.add(convertedElements.getStartElement());
-					stack.push(convertedElements.getEndElement());
+	/**
+	 * Estimates the size of the HTML of a {@code Note}, to allocate a buffer that doesn't have to grow: the ENML
+	 * content, the head and, for in-line HTML, the {@code Resource}s encoded in Base64.
+	 */
+	private static int estimateHTMLSize(final Note note, final boolean inline) {
+		long size = HTML_OVERHEAD + (note.getContent() != null ? note.getContent().length() : 0);
+		if (inline && note.getResources() != null) {
+			for (Resource resource : note.getResources()) {
+				if (resource.getData() != null) {
+					// Base64 encodes 3 bytes in 4 characters
+					size += (resource.getData().getSize() + 2) / 3 * 4;
+				}
+			}
+		}
+		return (int) Math.min(size, Integer.MAX_VALUE - HTML_OVERHEAD);
+	}
 
-					elementsToInsert = converter.insertAfter(startElement, note, mapHashURL);
-					toInsertAfter.put(convertedElements.getEndElement(), elementsToInsert);
+	private Map<String, Resource> hashResourceMap(final Map<Resource, Resource> oldNewResourcesMap) {
+		Map<String, Resource> hashResourceMap = new HashMap<String, Resource>();
+		for (Map.Entry<Resource, Resource> oldNewResourcesMapEntry : oldNewResourcesMap.entrySet()) {
+			hashResourceMap.put(Utils.bytesToHex(oldNewResourcesMapEntry.getKey().getData().getBodyHash()),
+					oldNewResourcesMapEntry.getValue());
+		}
+		return hashResourceMap;
+	}
 
-					elementsToInsert = converter.insertIn(startElement, note, mapHashURL);
-					if (elementsToInsert != null) {
-						for (XMLEvent element : elementsToInsert) {
-							writer.add(element);
-						}
-					}
-				} else {
-					writer.add(event);
-				}
-			} else if (event.getEventType() == XMLEvent.CHARACTERS) {
-				Characters characters = event.asCharacters();
-				if (lastEvent != null && lastEvent.isStartElement()) {
-					StartElement lastStartElement = lastEvent.asStartElement();
-					if (currentConverter.containsKey(lastStartElement.asStartElement().getName().getLocalPart())) {
-						Converter converter = currentConverter.get(lastStartElement.getName().getLocalPart());
-						Characters convertedCharacter = converter.convertCharacter(characters, lastStartElement, note,
-								mapHashURL);
-						if (convertedCharacter != null) {
-							writer.add(convertedCharacter);
-						} else {
-							writer.add(characters);
-						}
-					} else {
-						writer.add(event);
-					}
-				} else {
-					writer.add(event);
+	private Map<String, Resource> hashResourceMapByGUID(final Note note, final Map<String, String> oldNewResourcesMap) {
+		Map<String, Resource> hashResourceMap = new HashMap<String, Resource>();
+		for (Map.Entry<String, String> oldNewResourcesMapEntry : oldNewResourcesMap.entrySet()) {
+			Resource oldResource = null;
+			Resource newResource = null;
+			for (Resource resource : note.getResources()) {
+				if (resource.getGuid().equals(oldNewResourcesMapEntry.getKey())) {
+					oldResource = resource;
+				} else if (resource.getGuid().equals(oldNewResourcesMapEntry.getValue())) {
+					newResource = resource;
 				}
-			} else if (event.getEventType() == XMLEvent.END_ELEMENT) {
-				if (currentConverter.containsKey(event.asEndElement().getName().getLocalPart())) {
+			}
+			if (oldResource != null & newResource != null) {
+				hashResourceMap.put(Utils.bytesToHex(oldResource.getData().getBodyHash()), newResource);
+			}
+		}
+		return hashResourceMap;
+	}
 
-					EndElement endElement = stack.pop();
-					writer.add(endElement);
+	private List<String> hashes(final List<Resource> resources) {
+		List<String> hashes = new ArrayList<String>();
+		for (Resource resource : resources) {
+			hashes.add(Utils.bytesToHex(resource.getData().getBodyHash()));
+		}
+		return hashes;
+	}
 
-					if (toInsertAfter.containsKey(endElement) && toInsertAfter.get(endElement) != null) {
-						for (XMLEvent element : toInsertAfter.get(endElement)) {
-							writer.add(element);
-						}
-					}
-				} else {
-					writer.add(event);
+	private List<String> hashesByGUID(final Note note, final List<String> guids) {
+		List<String> hashes = new ArrayList<String>();
+		for (String guid : guids) {
+			for (Resource resource : note.getResources()) {
+				if (resource.getGuid().equals(guid)) {
+					hashes.add(Utils.bytesToHex(resource.getData().getBodyHash()));
 				}
-			} else {
-				writer.add(event);
 			}
-			lastEvent = event;
 		}
-		writer.flush();
-		log.fine("Note " + note.getGuid() + " has been converted in "
-				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
-		return out;
+		return hashes;
 	}
 
 	private Data createData(final byte[] dataBody) throws NoSuchAlgorithmException {
@@ -768,127 +2323,104 @@ public class ENMLProcessor {
 	 * </ul>
 	 * The method will take care of removing the old {@code Resource} objects in the {@code Note} list after they have
 	 * been updated.
+	 * <p>
+	 * The ENML content is not parsed: the {@code <en-media>} tags are located with a single scan and only their 'hash'
+	 * and 'type' attribute values are replaced, so the rest of the content is preserved exactly as it is. The 'type'
+	 * attribute is left unchanged if the new {@code Resource} has no MIME type.
 	 * 
 	 * @param note the Note to update. It has to contain an ENML content.
 	 * @param oldNewResourcesMap the mapping of old and new {@code Resource}s
 	 * @return the {@code Note} in parameter with updated content
-	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
 	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm.
 	 */
-	private Note updateNoteResourcesByHash(final Note note, final Map<String, Resource> oldNewResourcesMap)
-			throws XMLStreamException, NoSuchAlgorithmException {
+	private Note updateNoteResourcesByHash(final Note note, final ParsedNote parsed,
+			final Map<String, Resource> oldNewResourcesMap) throws NoSuchAlgorithmException {
 
 		long start = System.currentTimeMillis();
 		log.finer("Update ENML content with Resource mapping of Note " + note.getGuid());
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(note.getContent().getBytes(
-				Charset.forName(CHARSET))));
-
-		XMLEventWriter writer = outputFactory.createXMLEventWriter(baos);
+		MediaTagIndex index = new MediaTagIndex(note.getContent());
+		ContentEditor editor = new ContentEditor(index.getContent());
+		int[] mediaTokens = findStartElements(parsed, MEDIA, index.size());
 
 		List<String> hashToDelete = new ArrayList<String>();
-
-		while (reader.hasNext()) {
-			XMLEvent event = (XMLEvent) reader.next();
-			if (event.getEventType() == XMLEvent.START_ELEMENT) {
-				StartElement startElement = event.asStartElement();
-				if (startElement.getName().getLocalPart().equals(MEDIA)) {
-					for (@SuppressWarnings("unchecked")
-					Iterator<Attribute> iterator = startElement.getAttributes(); iterator.hasNext();) {
-						Attribute attr = iterator.next();
-						if (attr.getName().getLocalPart().equals(HASH)) {
-							// If the resource has to be updated (is in the map)
-							if (oldNewResourcesMap.containsKey(attr.getValue())) {
-								Resource toUpdate = oldNewResourcesMap.get(attr.getValue());
-								List<Attribute> attributes = new ArrayList<Attribute>();
-								// Make sure the Resource Data is valid with proper hash and length
-								toUpdate.setData(createData(toUpdate.getData().getBody()));
-								attributes.add(eventFactory.createAttribute(HASH,
-										Utils.bytesToHex(toUpdate.getData().getBodyHash())));
-								attributes.add(eventFactory.createAttribute(TYPE, toUpdate.getMime()));
-								for (@SuppressWarnings("unchecked")
-								Iterator<Attribute> iterator2 = startElement.getAttributes(); iterator2.hasNext();) {
-									Attribute attribute = iterator2.next();
-									if (!attribute.getName().getLocalPart().equals(HASH)
-											&& !attribute.getName().getLocalPart().equals(TYPE)) {
-										attributes.add(attribute);
-									}
-								}
-								hashToDelete.add(attr.getValue());
-								// Add the resource to the note's resources if not already there
-								addResourceObjectToNote(note, toUpdate);
-								writer.add(eventFactory.createStartElement("", "", MEDIA, attributes.iterator(), null));
-							} else {
-								writer.add(event);
-							}
-						}
-					}
+		Map<Resource, String> newHashes = new IdentityHashMap<Resource, String>();
+
+		for (int i = 0; i < index.size(); i++) {
+			String hash = index.getHash(i);
+			// If the resource has to be updated (is in the map)
+			if (hash != null && oldNewResourcesMap.containsKey(hash)) {
+				Resource toUpdate = oldNewResourcesMap.get(hash);
+				String newHash = newHashes.get(toUpdate);
+				if (newHash == null) {
+					// Make sure the Resource Data is valid with proper hash and length
+					toUpdate.setData(createData(toUpdate.getData().getBody()));
+					newHash = Utils.bytesToHex(toUpdate.getData().getBodyHash());
+					newHashes.put(toUpdate, newHash);
+				}
+				String type = toUpdate.getMime() != null ? Utils.escapeXml(toUpdate.getMime()) : null;
+				// Ranges are registered in ascending order, the 'type' attribute can be before or after the 'hash'
+				if (type == null) {
+					// Without MIME type the 'type' attribute is left as it is
+					editor.replace(index.getHashStart(i), index.getHashEnd(i), newHash);
+				} else if (index.getTypeStart(i) < 0) {
+					editor.insert(index.getNameEnd(i), " " + TYPE + "=\"" + type + "\"");
+					editor.replace(index.getHashStart(i), index.getHashEnd(i), newHash);
+				} else if (index.getTypeStart(i) < index.getHashStart(i)) {
+					editor.replace(index.getTypeStart(i), index.getTypeEnd(i), type);
+					editor.replace(index.getHashStart(i), index.getHashEnd(i), newHash);
 				} else {
-					writer.add(event);
+					editor.replace(index.getHashStart(i), index.getHashEnd(i), newHash);
+					editor.replace(index.getTypeStart(i), index.getTypeEnd(i), type);
 				}
-			} else {
-				writer.add(event);
+				if (mediaTokens != null) {
+					if (type != null) {
+						parsed.setAttribute(mediaTokens[i], TYPE, toUpdate.getMime());
+					}
+					parsed.setAttribute(mediaTokens[i], HASH, newHash);
+				}
+				hashToDelete.add(hash);
+				// Add the resource to the note's resources if not already there
+				addResourceObjectToNote(note, toUpdate);
 			}
 		}
 		// Remove the original resources after they have been updated
 		removeResourceObjectFromNote(note, hashToDelete);
 
-		note.setContent(new String(baos.toByteArray(), Charset.forName(CHARSET)));
+		note.setContent(editor.toString());
+		if (mediaTokens != null) {
+			parsed.setContent(note.getContent());
+		}
 		log.fine("Note ENML content of " + note.getGuid() + " has been updated with resource mapping in "
 				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
 		return note;
 	}
 
-	private Note deleteNoteResourcesByHash(final Note note, final List<String> hashToDelete) throws XMLStreamException {
+	private Note deleteNoteResourcesByHash(final Note note, final ParsedNote parsed, final List<String> hashToDelete) {
 
 		long start = System.currentTimeMillis();
 		log.finer("Delete resources from ENML content of Note " + note.getGuid());
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(note.getContent().getBytes(
-				Charset.forName(CHARSET))));
-		XMLEventWriter writer = outputFactory.createXMLEventWriter(baos);
-		boolean dropNext = false;
-		while (reader.hasNext()) {
-			XMLEvent event = (XMLEvent) reader.next();
-			if (event.getEventType() == XMLEvent.START_ELEMENT) {
-				StartElement startElement = event.asStartElement();
-				if (startElement.getName().getLocalPart().equals(MEDIA)) {
-					for (@SuppressWarnings("unchecked")
-					Iterator<Attribute> iterator = startElement.getAttributes(); iterator.hasNext();) {
-						Attribute attr = iterator.next();
-						if (attr.getName().getLocalPart().equals(HASH)) {
-							// If the resource is in the list to delete
-							if (!hashToDelete.contains(attr.getValue())) {
-								writer.add(event);
-							} else {
-								dropNext = true;
-							}
-						}
-					}
-				} else {
-					if (!dropNext) {
-						writer.add(event);
-					}
-				}
-			} else if (event.getEventType() == XMLEvent.END_ELEMENT) {
-				EndElement endElement = event.asEndElement();
-				if (!dropNext) {
-					writer.add(event);
-				}
-				if (endElement.getName().getLocalPart().equals(MEDIA)) {
-					dropNext = false;
-				}
-			} else {
-				if (!dropNext) {
-					writer.add(event);
+		MediaTagIndex index = new MediaTagIndex(note.getContent());
+		ContentEditor editor = new ContentEditor(index.getContent());
+		int[] mediaTokens = findStartElements(parsed, MEDIA, index.size());
+
+		for (int i = 0; i < index.size(); i++) {
+			String hash = index.getHash(i);
+			// If the resource is in the list to delete
+			if (hash != null && hashToDelete.contains(hash)) {
+				editor.remove(index.getTagStart(i), index.getElementEnd(i));
+				if (mediaTokens != null) {
+					parsed.removeElement(mediaTokens[i]);
 				}
 			}
 		}
 		// Remove the original resources after they have been updated
 		removeResourceObjectFromNote(note, hashToDelete);
-		note.setContent(new String(baos.toByteArray(), Charset.forName(CHARSET)));
+		note.setContent(editor.toString());
+		if (mediaTokens != null) {
+			parsed.setContent(note.getContent());
+		}
 		log.fine("Note ENML content of " + note.getGuid() + " has been updated with resource mapping in "
 				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
 		return note;
@@ -904,4 +2436,379 @@ public class ENMLProcessor {
 			}
 		}
 	}
+
+	/**
+	 * The converters and settings of an {@code ENMLProcessor}, volatile so the setters of a modifiable
+	 * {@code ENMLProcessor} are seen by the conversions started afterwards.
+	 * <p>
+	 * The converter maps are never modified, the setters replace them, so a conversion uses the same converters from
+	 * start to end.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	private static final class Settings {
+
+		/* The converters of each output mode by ENML tag. */
+		private volatile Map<String, Converter> converters;
+		private volatile Map<String, Converter> inlineConverters;
+		private volatile Map<String, TextConverter> textConverters;
+		private volatile Map<String, MarkdownConverter> markdownConverters;
+
+		/** The {@code Executor} running the asynchronous conversions, created on first use if not set. */
+		private volatile Executor executor;
+
+		/** The settings of the progressive HTML output, null to flush the HTML only once it is complete. */
+		private volatile ProgressiveOutput progressiveOutput;
+
+		/** True to replace the repeated Data URIs of the inline HTML by references. */
+		private volatile boolean inlineDeduplication;
+
+		/** True to write the HTML with the {@code XHTMLEventWriter} rather than the StAX {@code XMLEventWriter}. */
+		private volatile boolean xhtmlSerializer;
+
+		/** True to read the ENML content with the {@code ENMLTokenizer}, falling back to StAX when it can't. */
+		private volatile boolean enmlTokenizer;
+
+		/** True to copy the content of the plain {@code Note}s in the HTML rather than converting it. */
+		private volatile boolean plainContentCopy;
+
+		/** The compression level of the compressed HTML output. */
+		private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+		/** The compression strategy of the compressed HTML output. */
+		private volatile int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+	}
+
+	/**
+	 * A builder of immutable {@code ENMLProcessor}s.
+	 * <p>
+	 * Each converter and setting not set on the {@code Builder} keeps its default value, as with the setters of
+	 * {@code ENMLProcessor}. The converters and settings of the built {@code ENMLProcessor} are fixed: each output mode
+	 * has its own table of converters, prepared once by {@link Builder#build()}, and the setters of the
+	 * {@code ENMLProcessor} throw an {@code IllegalStateException}.
+	 * <p>
+	 * A {@code Builder} is not thread-safe, but it can build several {@code ENMLProcessor}s. The converters set on the
+	 * {@code Builder} are shared by those {@code ENMLProcessor}s, so they have to be thread-safe. They are used as
+	 * given, never modified by the {@code ENMLProcessor}s.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	public static final class Builder {
+
+		private BaseConverter noteConverter;
+		private MediaConverter mediaConverter;
+		private BaseConverter todoConverter;
+		private BaseConverter cryptConverter;
+		private BaseConverter inlineNoteConverter;
+		private MediaConverter inlineMediaConverter;
+		private BaseConverter inlineTodoConverter;
+		private BaseConverter inlineCryptConverter;
+		private TextConverter textNoteConverter;
+		private TextConverter textMediaConverter;
+		private TextConverter textTodoConverter;
+		private TextConverter textCryptConverter;
+		private MarkdownConverter markdownNoteConverter;
+		private MarkdownConverter markdownMediaConverter;
+		private MarkdownConverter markdownTodoConverter;
+		private MarkdownConverter markdownCryptConverter;
+		private Executor executor;
+		private ProgressiveOutput progressiveOutput;
+		private boolean inlineDeduplication;
+		private boolean xhtmlSerializer;
+		private boolean enmlTokenizer;
+		private boolean plainContentCopy;
+		private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-note>} tag for HTML conversion with resource
+		 *            reference, null for {@link DefaultNoteTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder noteConverter(final BaseConverter converter) {
+			this.noteConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-media>} tag for HTML conversion with resource
+		 *            reference, null for {@link DefaultMediaTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder mediaConverter(final MediaConverter converter) {
+			this.mediaConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-todo>} tag for HTML conversion with resource
+		 *            reference, null for {@link DefaultTodoTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder todoConverter(final BaseConverter converter) {
+			this.todoConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-crypt>} tag for HTML conversion with resource
+		 *            reference, null for {@link DefaultCryptTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder cryptConverter(final BaseConverter converter) {
+			this.cryptConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-note>} tag for in-line HTML conversion, null for
+		 *            {@link DefaultNoteTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder inlineNoteConverter(final BaseConverter converter) {
+			this.inlineNoteConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-media>} tag for in-line HTML conversion, null for
+		 *            {@link DefaultInlineMediaTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder inlineMediaConverter(final MediaConverter converter) {
+			this.inlineMediaConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-todo>} tag for in-line HTML conversion, null for
+		 *            {@link DefaultTodoTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder inlineTodoConverter(final BaseConverter converter) {
+			this.inlineTodoConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code Converter} of the {@code <en-crypt>} tag for in-line HTML conversion, null for
+		 *            {@link DefaultCryptTagConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder inlineCryptConverter(final BaseConverter converter) {
+			this.inlineCryptConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code TextConverter} of the {@code <en-note>} tag, null for
+		 *            {@link DefaultNoteTagTextConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder textNoteConverter(final TextConverter converter) {
+			this.textNoteConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code TextConverter} of the {@code <en-media>} tag, null for
+		 *            {@link DefaultMediaTagTextConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder textMediaConverter(final TextConverter converter) {
+			this.textMediaConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code TextConverter} of the {@code <en-todo>} tag, null for
+		 *            {@link DefaultTodoTagTextConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder textTodoConverter(final TextConverter converter) {
+			this.textTodoConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code TextConverter} of the {@code <en-crypt>} tag, null for
+		 *            {@link DefaultCryptTagTextConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder textCryptConverter(final TextConverter converter) {
+			this.textCryptConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code MarkdownConverter} of the {@code <en-note>} tag, null for
+		 *            {@link DefaultNoteTagMarkdownConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder markdownNoteConverter(final MarkdownConverter converter) {
+			this.markdownNoteConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code MarkdownConverter} of the {@code <en-media>} tag, null for
+		 *            {@link DefaultMediaTagMarkdownConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder markdownMediaConverter(final MarkdownConverter converter) {
+			this.markdownMediaConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code MarkdownConverter} of the {@code <en-todo>} tag, null for
+		 *            {@link DefaultTodoTagMarkdownConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder markdownTodoConverter(final MarkdownConverter converter) {
+			this.markdownTodoConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param converter the {@code MarkdownConverter} of the {@code <en-crypt>} tag, null for
+		 *            {@link DefaultCryptTagMarkdownConverter}
+		 * @return this {@code Builder}
+		 */
+		public Builder markdownCryptConverter(final MarkdownConverter converter) {
+			this.markdownCryptConverter = converter;
+			return this;
+		}
+
+		/**
+		 * @param conversionExecutor the {@code Executor} running the asynchronous conversions, null to use the default
+		 *            one
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setExecutor(Executor)
+		 */
+		public Builder executor(final Executor conversionExecutor) {
+			this.executor = conversionExecutor;
+			return this;
+		}
+
+		/**
+		 * @param output the settings of the progressive output, null to disable it
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setProgressiveOutput(ProgressiveOutput)
+		 */
+		public Builder progressiveOutput(final ProgressiveOutput output) {
+			this.progressiveOutput = output;
+			return this;
+		}
+
+		/**
+		 * @param deduplication true to embed each distinct {@code Resource} and icon once in the in-line HTML
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setInlineDeduplication(boolean)
+		 */
+		public Builder inlineDeduplication(final boolean deduplication) {
+			this.inlineDeduplication = deduplication;
+			return this;
+		}
+
+		/**
+		 * @param serializer true to write the HTML with the serializer dedicated to XHTML
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setXHTMLSerializer(boolean)
+		 */
+		public Builder xhtmlSerializer(final boolean serializer) {
+			this.xhtmlSerializer = serializer;
+			return this;
+		}
+
+		/**
+		 * @param tokenizer true to read the ENML content with the tokenizer dedicated to ENML
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setENMLTokenizer(boolean)
+		 */
+		public Builder enmlTokenizer(final boolean tokenizer) {
+			this.enmlTokenizer = tokenizer;
+			return this;
+		}
+
+		/**
+		 * @param copy true to copy the content of the plain {@code Note}s in the HTML rather than converting it
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setPlainContentCopy(boolean)
+		 */
+		public Builder plainContentCopy(final boolean copy) {
+			this.plainContentCopy = copy;
+			return this;
+		}
+
+		/**
+		 * @param level the compression level of the compressed HTML output
+		 * @param strategy the compression strategy of the compressed HTML output
+		 * @return this {@code Builder}
+		 * @see ENMLProcessor#setCompression(int, int)
+		 */
+		public Builder compression(final int level, final int strategy) {
+			checkCompression(level, strategy);
+			this.compressionLevel = level;
+			this.compressionStrategy = strategy;
+			return this;
+		}
+
+		/**
+		 * Builds an immutable {@code ENMLProcessor} with the converters and settings of this {@code Builder}.
+		 * 
+		 * @return a new {@code ENMLProcessor}
+		 */
+		public ENMLProcessor build() {
+			return new ENMLProcessor(this, true);
+		}
+	}
+
+	/**
+	 * A {@code Writer} keeping track of the last character written, to avoid writing consecutive line breaks when
+	 * extracting the text of a {@code Note}.
+	 */
+	private static final class TextWriter extends FilterWriter {
+
+		private boolean atLineStart = true;
+
+		private TextWriter(final Writer out) {
+			super(out);
+		}
+
+		private boolean isAtLineStart() {
+			return atLineStart;
+		}
+
+		private void newLine() throws IOException {
+			if (!atLineStart) {
+				write('\n');
+			}
+		}
+
+		@Override
+		public void write(final int c) throws IOException {
+			out.write(c);
+			atLineStart = c == '\n';
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) throws IOException {
+			if (len > 0) {
+				out.write(cbuf, off, len);
+				atLineStart = cbuf[off + len - 1] == '\n';
+			}
+		}
+
+		@Override
+		public void write(final String str, final int off, final int len) throws IOException {
+			if (len > 0) {
+				out.write(str, off, len);
+				atLineStart = str.charAt(off + len - 1) == '\n';
+			}
+		}
+	}
 }
@@ -0,0 +1,781 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A hand-written tokenizer of ENML content, producing the tokens of a {@link ParsedNote} without a StAX parser.
+ * <p>
+ * ENML is a constrained subset of XHTML, so the tokenizer handles only what ENML allows: the XML declaration, a
+ * {@code DOCTYPE} referencing the ENML DTD, elements, attributes, character references, the entities of the DTD,
+ * CDATA sections and comments. It doesn't read the DTD: the entities and the default attributes it declares are
+ * obtained once, when the {@code ENMLTokenizer} is created, by parsing with StAX a document using all of them. The
+ * tokens are therefore the ones the StAX parser produces, except that the adjacent character data are not split at
+ * each entity.
+ * <p>
+ * As soon as the content holds anything else (processing instruction, namespace, internal DTD subset, other DTD,
+ * carriage return in a comment...) or is not well-formed, the tokenization stops and returns false, so the content
+ * is parsed by StAX, which handles it or reports the error.
+ * <p>
+ * This class is thread-safe, an {@code ENMLTokenizer} can be shared by all the conversions.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class ENMLTokenizer {
+
+	/** System identifier of the ENML DTD. */
+	static final String ENML_DTD = "http://xml.evernote.com/pub/enml2.dtd";
+
+	private static final Pattern ELEMENT_DECLARATION = Pattern.compile("<!ELEMENT\\s+([\\w.-]+)");
+	private static final Pattern ENTITY_DECLARATION = Pattern.compile("<!ENTITY\\s+(\\w+)\\s");
+	private static final String[] ENTITY_FILES = { "/dtd/xhtml-lat1.ent", "/dtd/xhtml-symbol.ent",
+			"/dtd/xhtml-special.ent" };
+
+	/** The entities predefined by XML, the only ones available without DTD. */
+	private static final Map<String, char[]> PREDEFINED_ENTITIES = new HashMap<String, char[]>();
+
+	static {
+		PREDEFINED_ENTITIES.put("amp", new char[] { '&' });
+		PREDEFINED_ENTITIES.put("lt", new char[] { '<' });
+		PREDEFINED_ENTITIES.put("gt", new char[] { '>' });
+		PREDEFINED_ENTITIES.put("quot", new char[] { '"' });
+		PREDEFINED_ENTITIES.put("apos", new char[] { '\'' });
+	}
+
+	/** The replacement text of the entities declared by the ENML DTD, by name. */
+	private final Map<String, char[]> entities = new HashMap<String, char[]>(PREDEFINED_ENTITIES);
+
+	/** The attributes added by the StAX parser to the start tags of the elements of the ENML DTD, by element name. */
+	private final Map<String, List<Default>> defaultAttributes = new HashMap<String, List<Default>>();
+
+	/** The attributes added by the StAX parser to the empty element tags, not always the same as the start tags. */
+	private final Map<String, List<Default>> emptyDefaultAttributes = new HashMap<String, List<Default>>();
+
+	/**
+	 * Creates an {@code ENMLTokenizer}, parsing once with StAX a document using every element and entity of the ENML
+	 * DTD, to record the default attributes and the entities.
+	 * 
+	 * @param inputFactory the {@code XMLInputFactory} used to read the ENML content, resolving the ENML DTD
+	 * @throws XMLStreamException if the ENML DTD can't be read
+	 */
+	ENMLTokenizer(final XMLInputFactory inputFactory) throws XMLStreamException {
+		List<String> elementNames = findDeclarations(ELEMENT_DECLARATION, "/dtd/enml2.dtd");
+		List<String> entityNames = new ArrayList<String>();
+		for (String file : ENTITY_FILES) {
+			entityNames.addAll(findDeclarations(ENTITY_DECLARATION, file));
+		}
+
+		StringBuilder probe = new StringBuilder("<?xml version=\"1.0\"?><!DOCTYPE en-note SYSTEM \"" + ENML_DTD
+				+ "\"><en-note>");
+		for (String name : elementNames) {
+			probe.append('<').append(name).append("/><").append(name).append("></").append(name).append('>');
+		}
+		for (String name : entityNames) {
+			probe.append("<div>&").append(name).append(";</div>");
+		}
+		probe.append("</en-note>");
+
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(probe.toString()));
+		try {
+			// Skips the DTD and the root element
+			int event = reader.next();
+			while (event != XMLStreamConstants.START_ELEMENT) {
+				event = reader.next();
+			}
+			for (int i = 0; i < elementNames.size() * 2; i++) {
+				reader.nextTag();
+				List<Default> defaults = new ArrayList<Default>();
+				for (int j = 0; j < reader.getAttributeCount(); j++) {
+					defaults.add(new Default(reader.getAttributeName(j), reader.getAttributeValue(j)));
+				}
+				// An element with a namespace declaration is left to the StAX parser
+				(i % 2 == 0 ? emptyDefaultAttributes : defaultAttributes).put(reader.getLocalName(),
+						reader.getNamespaceCount() > 0 ? null : defaults);
+				reader.nextTag();
+			}
+			for (String name : entityNames) {
+				reader.nextTag();
+				entities.put(name, reader.getElementText().toCharArray());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Tokenizes an ENML content.
+	 * 
+	 * @param content the ENML content to tokenize
+	 * @param parsed the {@code ParsedNote} to which the tokens are appended
+	 * @return true if the content has been tokenized, false if it has to be parsed by StAX
+	 */
+	boolean tokenize(final String content, final ParsedNote parsed) {
+		return new Tokenization(content.toCharArray(), parsed).run();
+	}
+
+	/**
+	 * @param name the name of an entity
+	 * @return the replacement text of the entity, declared by the ENML DTD or predefined by XML, null if undeclared
+	 */
+	char[] getEntity(final String name) {
+		return entities.get(name);
+	}
+
+	/**
+	 * @param element the local name of an element
+	 * @param emptyElement true for an empty-element tag, false for a start tag
+	 * @return the attributes added by the StAX parser to the tag when they are not specified, empty if there are none
+	 *         or if the element is not declared by the ENML DTD
+	 */
+	List<Default> getDefaultAttributes(final String element, final boolean emptyElement) {
+		List<Default> defaults = (emptyElement ? emptyDefaultAttributes : defaultAttributes).get(element);
+		return defaults != null ? defaults : Collections.<Default> emptyList();
+	}
+
+	private static List<String> findDeclarations(final Pattern declaration, final String resource)
+			throws XMLStreamException {
+		InputStream in = ENMLTokenizer.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new XMLStreamException("Missing DTD resource " + resource);
+		}
+		try {
+			Reader reader = new InputStreamReader(in, Charset.forName("UTF-8"));
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[4096];
+			for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+				text.append(buffer, 0, read);
+			}
+			List<String> names = new ArrayList<String>();
+			Matcher matcher = declaration.matcher(text);
+			while (matcher.find()) {
+				names.add(matcher.group(1));
+			}
+			return names;
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Nothing left to read
+			}
+		}
+	}
+
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+	}
+
+	private static boolean isNameStart(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+	}
+
+	private static boolean isNameChar(final char c) {
+		return isNameStart(c) || c >= '0' && c <= '9' || c == '-' || c == '.';
+	}
+
+	private static boolean isXMLChar(final int c) {
+		return c >= 0x20 && c <= 0xD7FF || c == '\t' || c == '\n' || c == '\r' || c >= 0xE000 && c <= 0xFFFD
+				|| c >= 0x10000 && c <= 0x10FFFF;
+	}
+
+	/**
+	 * An attribute added by the StAX parser when it is not specified.
+	 */
+	static final class Default {
+
+		private final QName name;
+		private final String qualifiedName;
+		private final String value;
+
+		private Default(final QName name, final String value) {
+			this.name = name;
+			this.qualifiedName = name.getPrefix().length() > 0 ? name.getPrefix() + ":" + name.getLocalPart() : name
+					.getLocalPart();
+			this.value = value;
+		}
+
+		/**
+		 * @return the name of the attribute
+		 */
+		QName getName() {
+			return name;
+		}
+
+		/**
+		 * @return the value of the attribute
+		 */
+		String getValue() {
+			return value;
+		}
+	}
+
+	/**
+	 * The tokenization of one ENML content.
+	 */
+	private final class Tokenization {
+
+		private final char[] chars;
+		private final ParsedNote parsed;
+		private final ArrayDeque<QName> openElements = new ArrayDeque<QName>();
+		private final Map<String, QName> names = new HashMap<String, QName>();
+		private final List<String> attributeNames = new ArrayList<String>();
+		private StringBuilder value;
+		private int position;
+		private boolean hasDoctype;
+
+		private Tokenization(final char[] chars, final ParsedNote parsed) {
+			this.chars = chars;
+			this.parsed = parsed;
+		}
+
+		private boolean run() {
+			if (!declaration() || !misc()) {
+				return false;
+			}
+			if (startsWith("<!DOCTYPE")) {
+				if (!doctype() || !misc()) {
+					return false;
+				}
+			}
+			// The root element starts the content
+			if (!startsWith("<") || position + 1 >= chars.length || !isNameStart(chars[position + 1]) || !content()
+					|| !misc()) {
+				return false;
+			}
+			if (position < chars.length) {
+				return false;
+			}
+			parsed.appendEndDocument();
+			return true;
+		}
+
+		/**
+		 * Tokenizes the XML declaration. The content without declaration is left to the StAX parser, which reports
+		 * then a START_DOCUMENT event that differs between the parsing and the replay of the tokens.
+		 */
+		private boolean declaration() {
+			if (!startsWith("<?xml") || position + 5 >= chars.length || !isWhitespace(chars[position + 5])) {
+				return false;
+			}
+			position += 5;
+			String version = null;
+			String encoding = null;
+			int standalone = 0;
+			String[] pseudoAttribute = new String[2];
+			while (pseudoAttribute(pseudoAttribute)) {
+				if ("version".equals(pseudoAttribute[0]) && version == null) {
+					version = pseudoAttribute[1];
+				} else if ("encoding".equals(pseudoAttribute[0]) && version != null && encoding == null
+						&& standalone == 0) {
+					encoding = pseudoAttribute[1];
+				} else if ("standalone".equals(pseudoAttribute[0]) && version != null && standalone == 0
+						&& ("yes".equals(pseudoAttribute[1]) || "no".equals(pseudoAttribute[1]))) {
+					standalone = "yes".equals(pseudoAttribute[1]) ? 2 : 1;
+				} else {
+					return false;
+				}
+			}
+			skipWhitespace();
+			if (!"1.0".equals(version) || !startsWith("?>")) {
+				return false;
+			}
+			position += 2;
+			parsed.appendStartDocument(version, encoding, standalone);
+			return true;
+		}
+
+		private boolean pseudoAttribute(final String[] pseudoAttribute) {
+			int start = position;
+			skipWhitespace();
+			if (position == start || position >= chars.length || !isNameStart(chars[position])) {
+				position = start;
+				return false;
+			}
+			String name = name();
+			skipWhitespace();
+			if (position >= chars.length || chars[position] != '=') {
+				return false;
+			}
+			position++;
+			skipWhitespace();
+			if (position >= chars.length || chars[position] != '"' && chars[position] != '\'') {
+				return false;
+			}
+			char quote = chars[position++];
+			int end = indexOf(quote, position);
+			if (end < 0) {
+				return false;
+			}
+			pseudoAttribute[0] = name;
+			pseudoAttribute[1] = new String(chars, position, end - position);
+			position = end + 1;
+			return true;
+		}
+
+		/**
+		 * Skips the whitespaces and tokenizes the comments outside the root element.
+		 */
+		private boolean misc() {
+			while (true) {
+				skipWhitespace();
+				if (startsWith("<!--")) {
+					if (!comment()) {
+						return false;
+					}
+				} else {
+					return !startsWith("<?");
+				}
+			}
+		}
+
+		/**
+		 * Tokenizes a {@code DOCTYPE} referencing the ENML DTD, without internal subset.
+		 */
+		private boolean doctype() {
+			int start = position;
+			position += 9;
+			int end = indexOf('>', position);
+			if (end < 0 || indexOf('[', position, end) >= 0) {
+				return false;
+			}
+			skipWhitespace();
+			if (position >= chars.length || !isNameStart(chars[position])) {
+				return false;
+			}
+			name();
+			skipWhitespace();
+			if (startsWith("PUBLIC")) {
+				position += 6;
+				if (quoted(end) == null) {
+					return false;
+				}
+			} else if (startsWith("SYSTEM")) {
+				position += 6;
+			} else {
+				return false;
+			}
+			if (!ENML_DTD.equals(quoted(end))) {
+				return false;
+			}
+			skipWhitespace();
+			if (position != end) {
+				return false;
+			}
+			position = end + 1;
+			hasDoctype = true;
+			parsed.appendDTD(new String(chars, start, position - start));
+			return true;
+		}
+
+		private String quoted(final int limit) {
+			skipWhitespace();
+			if (position >= limit || chars[position] != '"' && chars[position] != '\'') {
+				return null;
+			}
+			int end = indexOf(chars[position], position + 1, limit);
+			if (end < 0) {
+				return null;
+			}
+			String quoted = new String(chars, position + 1, end - position - 1);
+			position = end + 1;
+			return quoted;
+		}
+
+		/**
+		 * Tokenizes the root element and all its content.
+		 */
+		private boolean content() {
+			do {
+				if (position >= chars.length) {
+					return false;
+				}
+				char c = chars[position];
+				if (c == '<') {
+					char next = position + 1 < chars.length ? chars[position + 1] : 0;
+					boolean tokenized;
+					if (next == '/') {
+						tokenized = endTag();
+					} else if (next == '!') {
+						if (startsWith("<!--")) {
+							tokenized = comment();
+						} else if (startsWith("<![CDATA[")) {
+							tokenized = cdata();
+						} else {
+							tokenized = false;
+						}
+					} else {
+						tokenized = startTag();
+					}
+					if (!tokenized) {
+						return false;
+					}
+				} else if (c == '&') {
+					if (!reference(null)) {
+						return false;
+					}
+				} else if (!text()) {
+					return false;
+				}
+			} while (!openElements.isEmpty());
+			return true;
+		}
+
+		private boolean startTag() {
+			position++;
+			if (position >= chars.length || !isNameStart(chars[position])) {
+				return false;
+			}
+			String localName = name();
+			if (position < chars.length && chars[position] == ':') {
+				return false;
+			}
+			if (hasDoctype
+					&& (defaultAttributes.get(localName) == null || emptyDefaultAttributes.get(localName) == null)) {
+				// Not an ENML element, or one with a namespace
+				return false;
+			}
+			QName name = qname(localName);
+			int token = parsed.appendStartElement(name);
+			attributeNames.clear();
+			while (true) {
+				int start = position;
+				skipWhitespace();
+				if (position >= chars.length) {
+					return false;
+				}
+				char c = chars[position];
+				if (c == '>' || c == '/') {
+					if (c == '/' && (position + 1 >= chars.length || chars[position + 1] != '>')) {
+						return false;
+					}
+					position += c == '/' ? 2 : 1;
+					if (hasDoctype) {
+						Map<String, List<Default>> defaults = c == '/' ? emptyDefaultAttributes : defaultAttributes;
+						for (Default attribute : defaults.get(localName)) {
+							if (!attributeNames.contains(attribute.qualifiedName)) {
+								parsed.appendAttribute(token, attribute.name, attribute.value);
+							}
+						}
+					}
+					if (c == '/') {
+						parsed.appendEndElement(name);
+					} else {
+						openElements.push(name);
+					}
+					return true;
+				}
+				if (position == start || !isNameStart(c) || !attribute(token)) {
+					return false;
+				}
+			}
+		}
+
+		private boolean attribute(final int token) {
+			String attributeName = name();
+			if (position < chars.length && chars[position] == ':' || "xmlns".equals(attributeName)
+					|| attributeNames.contains(attributeName)) {
+				return false;
+			}
+			attributeNames.add(attributeName);
+			skipWhitespace();
+			if (position >= chars.length || chars[position] != '=') {
+				return false;
+			}
+			position++;
+			skipWhitespace();
+			if (position >= chars.length || chars[position] != '"' && chars[position] != '\'') {
+				return false;
+			}
+			char quote = chars[position++];
+			int start = position;
+			// Copies the value as is until it requires to be normalized
+			while (position < chars.length) {
+				char c = chars[position];
+				if (c == quote) {
+					parsed.appendAttribute(token, qname(attributeName), chars, start, position - start);
+					position++;
+					return true;
+				}
+				if (c == '&' || c == '<' || c < 0x20 || c >= 0xD800) {
+					break;
+				}
+				position++;
+			}
+			if (value == null) {
+				value = new StringBuilder();
+			}
+			value.setLength(0);
+			value.append(chars, start, position - start);
+			while (position < chars.length) {
+				char c = chars[position];
+				if (c == quote) {
+					parsed.appendAttribute(token, qname(attributeName), value.toString());
+					position++;
+					return true;
+				} else if (c == '<') {
+					return false;
+				} else if (c == '&') {
+					if (!reference(value)) {
+						return false;
+					}
+				} else if (c == '\r' || c == '\n' || c == '\t') {
+					// A line break is normalized as a single space
+					value.append(' ');
+					position += c == '\r' && position + 1 < chars.length && chars[position + 1] == '\n' ? 2 : 1;
+				} else if (!validCharacter(value)) {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		private boolean endTag() {
+			position += 2;
+			if (position >= chars.length || !isNameStart(chars[position])) {
+				return false;
+			}
+			String localName = name();
+			skipWhitespace();
+			if (position >= chars.length || chars[position] != '>' || openElements.isEmpty()
+					|| !openElements.peek().getLocalPart().equals(localName)) {
+				return false;
+			}
+			position++;
+			parsed.appendEndElement(openElements.pop());
+			return true;
+		}
+
+		/**
+		 * Tokenizes a text until the next markup or reference, normalizing the line breaks.
+		 */
+		private boolean text() {
+			int start = position;
+			while (position < chars.length) {
+				char c = chars[position];
+				if (c == '<' || c == '&') {
+					break;
+				}
+				if (c == ']' && startsWith("]]>")) {
+					return false;
+				}
+				if (c == '\r') {
+					parsed.appendCharacters(chars, start, position - start);
+					parsed.appendCharacters(new char[] { '\n' }, 0, 1);
+					position += position + 1 < chars.length && chars[position + 1] == '\n' ? 2 : 1;
+					start = position;
+				} else if (c < 0x20 && c != '\n' && c != '\t' || c >= 0xD800) {
+					parsed.appendCharacters(chars, start, position - start);
+					if (!validCharacter(null)) {
+						return false;
+					}
+					start = position;
+				} else {
+					position++;
+				}
+			}
+			parsed.appendCharacters(chars, start, position - start);
+			return true;
+		}
+
+		/**
+		 * Checks the character at the current position, a surrogate pair or a character outside of the ASCII
+		 * controls, and appends it to the attribute value being normalized or to the tokens.
+		 */
+		private boolean validCharacter(final StringBuilder normalized) {
+			char c = chars[position];
+			int length = 1;
+			if (Character.isHighSurrogate(c)) {
+				if (position + 1 >= chars.length || !Character.isLowSurrogate(chars[position + 1])) {
+					return false;
+				}
+				length = 2;
+			} else if (!isXMLChar(c) || Character.isLowSurrogate(c)) {
+				return false;
+			}
+			if (normalized != null) {
+				normalized.append(chars, position, length);
+			} else {
+				parsed.appendCharacters(chars, position, length);
+			}
+			position += length;
+			return true;
+		}
+
+		/**
+		 * Replaces a character reference or an entity, in an attribute value being normalized or in the text.
+		 */
+		private boolean reference(final StringBuilder normalized) {
+			int end = indexOf(';', position + 1);
+			if (end < 0 || end == position + 1) {
+				return false;
+			}
+			char[] replacement;
+			if (chars[position + 1] == '#') {
+				int codePoint = 0;
+				boolean hexadecimal = end > position + 2 && chars[position + 2] == 'x';
+				int first = position + (hexadecimal ? 3 : 2);
+				if (first == end || end - first > 8) {
+					return false;
+				}
+				for (int i = first; i < end; i++) {
+					int digit = Character.digit(chars[i], hexadecimal ? 16 : 10);
+					if (digit < 0) {
+						return false;
+					}
+					codePoint = codePoint * (hexadecimal ? 16 : 10) + digit;
+				}
+				if (!isXMLChar(codePoint)) {
+					return false;
+				}
+				replacement = Character.toChars(codePoint);
+			} else {
+				replacement = (hasDoctype ? entities : PREDEFINED_ENTITIES).get(new String(chars, position + 1, end
+						- position - 1));
+				if (replacement == null) {
+					return false;
+				}
+			}
+			if (normalized != null) {
+				normalized.append(replacement);
+			} else {
+				parsed.appendCharacters(replacement, 0, replacement.length);
+			}
+			position = end + 1;
+			return true;
+		}
+
+		private boolean comment() {
+			int start = position + 4;
+			int end = indexOf("--", start);
+			if (end < 0 || end + 2 >= chars.length || chars[end + 2] != '>') {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				if (chars[i] == '\r' || chars[i] < 0x20 && chars[i] != '\n' && chars[i] != '\t' || chars[i] >= 0xD800) {
+					return false;
+				}
+			}
+			parsed.appendComment(chars, start, end - start);
+			position = end + 3;
+			return true;
+		}
+
+		private boolean cdata() {
+			int start = position + 9;
+			int end = indexOf("]]>", start);
+			if (end < 0) {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				if (chars[i] == '\r' || chars[i] < 0x20 && chars[i] != '\n' && chars[i] != '\t' || chars[i] >= 0xD800) {
+					return false;
+				}
+			}
+			parsed.appendCharacters(chars, start, end - start);
+			position = end + 3;
+			return true;
+		}
+
+		private String name() {
+			int start = position;
+			while (position < chars.length && isNameChar(chars[position])) {
+				position++;
+			}
+			return new String(chars, start, position - start);
+		}
+
+		private QName qname(final String localName) {
+			QName name = names.get(localName);
+			if (name == null) {
+				name = new QName(localName);
+				names.put(localName, name);
+			}
+			return name;
+		}
+
+		private void skipWhitespace() {
+			while (position < chars.length && isWhitespace(chars[position])) {
+				position++;
+			}
+		}
+
+		private boolean startsWith(final String prefix) {
+			return matches(position, prefix);
+		}
+
+		private boolean matches(final int at, final String text) {
+			if (at + text.length() > chars.length) {
+				return false;
+			}
+			for (int i = 0; i < text.length(); i++) {
+				if (chars[at + i] != text.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int indexOf(final char c, final int from) {
+			return indexOf(c, from, chars.length);
+		}
+
+		private int indexOf(final char c, final int from, final int to) {
+			for (int i = from; i < to; i++) {
+				if (chars[i] == c) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private int indexOf(final String text, final int from) {
+			for (int i = from; i <= chars.length - text.length(); i++) {
+				if (chars[i] == text.charAt(0) && matches(i, text)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
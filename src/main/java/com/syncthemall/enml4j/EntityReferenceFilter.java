@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Replaces the references to the entities declared by the ENML DTD by character references, in an ENML content fed
+ * in chunks of UTF-8 bytes to a parser that doesn't read the DTD.
+ * <p>
+ * The references are replaced in the text and in the attribute values, the comments, CDATA sections and processing
+ * instructions being copied as is. The character references and the references to undeclared entities are kept. A
+ * reference or the start of a markup split between two chunks is kept until the next chunk.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class EntityReferenceFilter {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** The longest reference replaced, the longer ones being kept as is. */
+	private static final int MAX_REFERENCE_LENGTH = 32;
+
+	/* The markups copied as is, and their ends. */
+	private static final byte[][] STARTS = { ascii("<!--"), ascii("<![CDATA["), ascii("<?") };
+	private static final byte[][] ENDS = { ascii("-->"), ascii("]]>"), ascii("?>") };
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final ENMLTokenizer tokenizer;
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	/** The bytes of the previous chunk not filtered yet. */
+	private byte[] pending = EMPTY;
+
+	/** The end of the markup being copied as is, null in the text and the tags. */
+	private byte[] end;
+
+	/** The number of bytes of {@link #end} already copied. */
+	private int endMatched;
+
+	/**
+	 * @param tokenizer the {@code ENMLTokenizer} knowing the entities of the ENML DTD
+	 */
+	EntityReferenceFilter(final ENMLTokenizer tokenizer) {
+		this.tokenizer = tokenizer;
+	}
+
+	/**
+	 * Filters the next chunk of the ENML content.
+	 * 
+	 * @param chunk the bytes of the chunk
+	 * @param length the number of bytes of the chunk
+	 * @param last true if this is the last chunk, to filter every byte kept so far
+	 * @return the bytes filtered, possibly none
+	 */
+	byte[] filter(final byte[] chunk, final int length, final boolean last) {
+		byte[] in = chunk;
+		int count = length;
+		if (pending.length > 0) {
+			in = Arrays.copyOf(pending, pending.length + length);
+			System.arraycopy(chunk, 0, in, pending.length, length);
+			count = in.length;
+		}
+		out.reset();
+		int position = 0;
+		while (position < count) {
+			if (end != null) {
+				position = copyMarkup(in, position, count);
+			} else if (in[position] == '&') {
+				int next = reference(in, position, count, last);
+				if (next < 0) {
+					break;
+				}
+				position = next;
+			} else if (in[position] == '<') {
+				int next = markupStart(in, position, count, last);
+				if (next < 0) {
+					break;
+				}
+				position = next;
+			} else {
+				out.write(in[position++]);
+			}
+		}
+		pending = position < count ? Arrays.copyOfRange(in, position, count) : EMPTY;
+		return out.toByteArray();
+	}
+
+	/**
+	 * Copies the bytes of a comment, CDATA section or processing instruction, until its end.
+	 * 
+	 * @return the position after the bytes copied
+	 */
+	private int copyMarkup(final byte[] in, final int start, final int count) {
+		int position = start;
+		while (position < count && end != null) {
+			byte b = in[position++];
+			out.write(b);
+			endMatched = matched(end, endMatched, b);
+			if (endMatched == end.length) {
+				end = null;
+				endMatched = 0;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Copies or replaces the reference starting at a position.
+	 * 
+	 * @return the position after the reference, or -1 if it is not complete and has to be kept until the next chunk
+	 */
+	private int reference(final byte[] in, final int start, final int count, final boolean last) {
+		int semicolon = start + 1;
+		while (semicolon < count && semicolon - start <= MAX_REFERENCE_LENGTH && isNameByte(in[semicolon])) {
+			semicolon++;
+		}
+		if (semicolon >= count && !last && semicolon - start <= MAX_REFERENCE_LENGTH) {
+			return -1;
+		}
+		if (semicolon >= count || in[semicolon] != ';' || in[start + 1] == '#') {
+			out.write(in[start]);
+			return start + 1;
+		}
+		char[] replacement = tokenizer.getEntity(new String(in, start + 1, semicolon - start - 1, ASCII));
+		if (replacement == null) {
+			out.write(in, start, semicolon + 1 - start);
+		} else {
+			for (int i = 0; i < replacement.length; i += Character.charCount(Character.codePointAt(replacement, i))) {
+				byte[] characterReference = ascii("&#" + Character.codePointAt(replacement, i) + ";");
+				out.write(characterReference, 0, characterReference.length);
+			}
+		}
+		return semicolon + 1;
+	}
+
+	/**
+	 * Copies the start of a markup, recording the end of the comments, CDATA sections and processing instructions.
+	 * 
+	 * @return the position after the start copied, or -1 if it is not complete and has to be kept until the next chunk
+	 */
+	private int markupStart(final byte[] in, final int start, final int count, final boolean last) {
+		for (int i = 0; i < STARTS.length; i++) {
+			byte[] markup = STARTS[i];
+			int matched = 0;
+			while (matched < markup.length && start + matched < count && in[start + matched] == markup[matched]) {
+				matched++;
+			}
+			if (matched == markup.length) {
+				out.write(markup, 0, markup.length);
+				end = ENDS[i];
+				return start + markup.length;
+			}
+			if (start + matched == count && !last) {
+				return -1;
+			}
+		}
+		out.write(in[start]);
+		return start + 1;
+	}
+
+	/**
+	 * @return the length of the longest start of an end which ends the bytes already matched followed by a byte
+	 */
+	private static int matched(final byte[] end, final int matched, final byte b) {
+		for (int length = matched + 1; length > 0; length--) {
+			if (end[length - 1] == b) {
+				int i = 0;
+				while (i < length - 1 && end[i] == end[matched - length + 1 + i]) {
+					i++;
+				}
+				if (i == length - 1) {
+					return length;
+				}
+			}
+		}
+		return 0;
+	}
+
+	private static boolean isNameByte(final byte b) {
+		return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '#' || b == '_'
+				|| b == '-' || b == '.' || b == ':';
+	}
+
+	private static byte[] ascii(final String text) {
+		return text.getBytes(ASCII);
+	}
+}
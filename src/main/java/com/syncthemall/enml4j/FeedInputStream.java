@@ -0,0 +1,201 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@code InputStream} reading the chunks of bytes fed by another thread.
+ * <p>
+ * Feeding a chunk never blocks: at most {@code capacity} bytes are queued, the others are left to the caller. Reading
+ * blocks until a chunk is fed or the end of the input is signaled.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class FeedInputStream extends InputStream {
+
+	private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+	private final int capacity;
+	private final Runnable listener;
+	private int queued;
+	private byte[] current;
+	private int position;
+	private boolean ended;
+	private boolean closed;
+
+	/**
+	 * @param capacity the maximum number of bytes queued and not yet read
+	 * @param listener the {@code Runnable} run after each chunk fed and at the end of the input, or null
+	 */
+	FeedInputStream(final int capacity, final Runnable listener) {
+		this.capacity = capacity;
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds the remaining bytes of a {@code ByteBuffer} to the input, as many as the free capacity allows. The bytes
+	 * are copied, and discarded if this stream is closed.
+	 * 
+	 * @param chunk the {@code ByteBuffer} containing the bytes to add, from its position to its limit. Its position is
+	 *            advanced by the number of bytes added
+	 * @return true if all the bytes have been added, false if the capacity is reached
+	 */
+	boolean feed(final ByteBuffer chunk) {
+		synchronized (this) {
+			if (ended) {
+				throw new IllegalStateException("The end of the input has already been signaled");
+			}
+			if (closed) {
+				chunk.position(chunk.limit());
+				return true;
+			}
+			int length = Math.min(chunk.remaining(), capacity - queued);
+			if (length <= 0) {
+				return !chunk.hasRemaining();
+			}
+			byte[] bytes = new byte[length];
+			chunk.get(bytes);
+			chunks.add(bytes);
+			queued += length;
+			notifyAll();
+		}
+		if (listener != null) {
+			listener.run();
+		}
+		return !chunk.hasRemaining();
+	}
+
+	/**
+	 * Waits until bytes can be added, or this stream is closed.
+	 * 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if bytes can be added, false if the timeout elapsed before
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	synchronized boolean awaitCapacity(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (queued >= capacity && !closed) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Signals that no more bytes will be fed.
+	 */
+	void end() {
+		synchronized (this) {
+			ended = true;
+			notifyAll();
+		}
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @return true if the end of the input has been signaled
+	 */
+	synchronized boolean isEnded() {
+		return ended;
+	}
+
+	@Override
+	public synchronized int read() throws IOException {
+		if (!next()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!next()) {
+			return -1;
+		}
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public synchronized int available() {
+		return (current != null ? current.length - position : 0) + queued;
+	}
+
+	/**
+	 * Closes the stream. The reads fail and the bytes fed afterward are discarded.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		chunks.clear();
+		queued = 0;
+		current = null;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until there are bytes to read in the current chunk.
+	 * 
+	 * @return true if there are bytes to read, false at the end of the input
+	 * @throws IOException if the stream is closed or the thread is interrupted while waiting
+	 */
+	private boolean next() throws IOException {
+		while (current == null || position == current.length) {
+			if (closed) {
+				throw new IOException("The input has been closed");
+			}
+			current = chunks.poll();
+			position = 0;
+			if (current != null) {
+				queued -= current.length;
+				notifyAll();
+			} else if (ended) {
+				return false;
+			} else {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for input");
+				}
+			}
+		}
+		return true;
+	}
+}
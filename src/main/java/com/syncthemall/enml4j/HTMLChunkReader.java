@@ -0,0 +1,151 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The HTML version of the ENML content of a {@code Note}, produced chunk by chunk as the chunks are read.
+ * <p>
+ * The conversion progresses only when {@link #nextChunk()} is called: it converts ENML events until a chunk is
+ * complete, then stops until the next call. The memory used is therefore bounded by the chunk size (plus the HTML
+ * written for a single ENML event, for example an inline image) whatever the size of the {@code Note}, and the first
+ * chunk is available as soon as it is converted.
+ * <p>
+ * The consumer controls the pace of the conversion, which makes it straightforward to back a reactive stream: each
+ * chunk requested by a subscriber is one call to {@link #nextChunk()}. This class is not thread-safe, the calls to
+ * {@link #nextChunk()} have to be serialized.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class HTMLChunkReader implements Closeable {
+
+	private final HTMLConversion conversion;
+	private final XMLEventReader reader;
+	private final ChunkBuffer buffer;
+	private final int chunkSize;
+	private boolean converted;
+
+	HTMLChunkReader(final HTMLConversion conversion, final XMLEventReader reader, final ChunkBuffer buffer,
+			final int chunkSize) {
+		this.conversion = conversion;
+		this.reader = reader;
+		this.buffer = buffer;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Converts the ENML content until a chunk of HTML is complete.
+	 * 
+	 * @return the next chunk of HTML encoded in UTF-8, with {@code chunkSize} bytes except the last one, or null if all
+	 *         the HTML has been read. The {@code ByteBuffer} is owned by the caller
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public ByteBuffer nextChunk() throws XMLStreamException {
+		if (buffer.available() < chunkSize) {
+			// Only the end of the previous chunks is moved, not the remaining HTML of a large event
+			buffer.compact();
+			while (!converted && buffer.available() < chunkSize) {
+				converted = !conversion.step();
+			}
+		}
+		if (buffer.available() == 0) {
+			return null;
+		}
+		return ByteBuffer.wrap(buffer.take(chunkSize));
+	}
+
+	/**
+	 * @return true if all the HTML has been read, or if this {@code HTMLChunkReader} is closed
+	 */
+	public boolean isComplete() {
+		return converted && buffer.available() == 0;
+	}
+
+	/**
+	 * Stops the conversion and releases the HTML not read yet.
+	 * 
+	 * @throws IOException if the conversion can't be stopped
+	 */
+	@Override
+	public void close() throws IOException {
+		converted = true;
+		try {
+			reader.close();
+			conversion.getWriter().close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			// Closing the writer may have flushed some HTML
+			buffer.reset();
+		}
+	}
+
+	/**
+	 * The {@code OutputStream} receiving the HTML, from which the chunks are taken.
+	 */
+	static final class ChunkBuffer extends ByteArrayOutputStream {
+
+		/** Position of the first byte not read yet. */
+		private int position;
+
+		ChunkBuffer(final int size) {
+			super(size);
+		}
+
+		private int available() {
+			return count - position;
+		}
+
+		private byte[] take(final int max) {
+			int length = Math.min(max, available());
+			byte[] chunk = Arrays.copyOfRange(buf, position, position + length);
+			position += length;
+			return chunk;
+		}
+
+		/**
+		 * Moves the bytes not read yet at the start of the buffer, so it doesn't grow with the size of the HTML.
+		 */
+		private void compact() {
+			if (position > 0) {
+				System.arraycopy(buf, position, buf, 0, count - position);
+				count -= position;
+				position = 0;
+			}
+		}
+
+		@Override
+		public synchronized void reset() {
+			super.reset();
+			position = 0;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static com.syncthemall.enml4j.util.Constants.HTML;
+import static com.syncthemall.enml4j.util.Constants.XMLNS;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.converter.Converter;
+import com.syncthemall.enml4j.util.Elements;
+
+/**
+ * The conversion of the ENML content of a {@code Note} to HTML, processing one ENML event at a time.
+ * <p>
+ * {@link #run()} converts the whole content at once. Calling {@link #step()} repeatedly instead allows to suspend the
+ * conversion between two events, for example while the HTML already written is consumed.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class HTMLConversion {
+
+	/** XHTML Transitional doctype. */
+	private static final String XHTML_DOCTYPE = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">";
+
+	/** XHTML namespace. */
+	private static final String XHTML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+
+	private final Note note;
+	private final XMLEventReader reader;
+	private final Map<String, String> mapHashURL;
+	private final Map<String, Converter> converters;
+	private final XMLEventFactory eventFactory;
+	private final XMLEventWriter writer;
+	private final DataURIDeduplicator deduplicator;
+
+	private final ArrayDeque<EndElement> stack;
+	private final Map<EndElement, List<XMLEvent>> toInsertAfter;
+	private XMLEvent lastEvent;
+	private int elementCount;
+
+	/**
+	 * @param note the {@code Note} to convert
+	 * @param reader the {@code XMLEventReader} reading the ENML content of the {@code Note}
+	 * @param mapHashURL the mapping of {@code Resource}s hash with their URL, or null for an inline conversion
+	 * @param converters the {@code Converter}s of the ENML tags, by tag name
+	 * @param eventFactory the {@code XMLEventFactory} used to create the XHTML doctype and root element
+	 * @param writer the {@code XMLEventWriter} in which to write the HTML
+	 * @param deduplicator the {@code DataURIDeduplicator} replacing the repeated Data URIs, or null to keep them
+	 * @param state the {@code ConversionState} holding the stack of the converted elements, cleared
+	 */
+	HTMLConversion(final Note note, final XMLEventReader reader, final Map<String, String> mapHashURL,
+			final Map<String, Converter> converters, final XMLEventFactory eventFactory, final XMLEventWriter writer,
+			final DataURIDeduplicator deduplicator, final ConversionState state) {
+		this.note = note;
+		this.reader = reader;
+		this.mapHashURL = mapHashURL;
+		this.converters = converters;
+		this.eventFactory = eventFactory;
+		this.writer = writer;
+		this.deduplicator = deduplicator;
+		this.stack = state.getStack();
+		this.toInsertAfter = state.getInsertAfter();
+	}
+
+	/**
+	 * Converts the whole ENML content.
+	 * 
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	void run() throws XMLStreamException {
+		boolean more = true;
+		while (more) {
+			more = step();
+		}
+	}
+
+	/**
+	 * Converts the next event of the ENML content. Once all the events are converted, the {@code XMLEventWriter} is
+	 * flushed.
+	 * 
+	 * @return true if there are more events to convert, false if the conversion is complete
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	boolean step() throws XMLStreamException {
+		if (!reader.hasNext()) {
+			writer.flush();
+			return false;
+		}
+		ENMLProcessor.checkInterrupted(note);
+		XMLEvent event = (XMLEvent) reader.next();
+		if (event.getEventType() == XMLEvent.DTD) {
+			add(eventFactory.createDTD(XHTML_DOCTYPE));
+			StartElement newElement = eventFactory.createStartElement("", "", HTML,
+					Arrays.asList(eventFactory.createAttribute(XMLNS, XHTML_NAMESPACE)).iterator(), null);
+			add(newElement);
+		} else if (event.getEventType() == XMLEvent.START_ELEMENT) {
+
+			elementCount++;
+			StartElement startElement = event.asStartElement();
+			if (converters.containsKey(startElement.getName().getLocalPart())) {
+
+				Converter converter = converters.get(startElement.getName().getLocalPart());
+
+				List<XMLEvent> elementsToInsert = converter.insertBefore(startElement, note, mapHashURL);
+				if (elementsToInsert != null) {
+					for (XMLEvent element : elementsToInsert) {
+						add(element);
+					}
+				}
+				Elements convertedElements = converter.convertElement(startElement, note, mapHashURL);
+				add(convertedElements.getStartElement());
+				stack.push(convertedElements.getEndElement());
+
+				elementsToInsert = converter.insertAfter(startElement, note, mapHashURL);
+				toInsertAfter.put(convertedElements.getEndElement(), elementsToInsert);
+
+				elementsToInsert = converter.insertIn(startElement, note, mapHashURL);
+				if (elementsToInsert != null) {
+					for (XMLEvent element : elementsToInsert) {
+						add(element);
+					}
+				}
+			} else {
+				add(event);
+			}
+		} else if (event.getEventType() == XMLEvent.CHARACTERS) {
+			Characters characters = event.asCharacters();
+			if (lastEvent != null && lastEvent.isStartElement()) {
+				StartElement lastStartElement = lastEvent.asStartElement();
+				if (converters.containsKey(lastStartElement.asStartElement().getName().getLocalPart())) {
+					Converter converter = converters.get(lastStartElement.getName().getLocalPart());
+					characters = mergeFollowingText(characters);
+					Characters convertedCharacter = converter.convertCharacter(characters, lastStartElement, note,
+							mapHashURL);
+					if (convertedCharacter != null) {
+						add(convertedCharacter);
+					} else {
+						add(characters);
+					}
+				} else {
+					add(event);
+				}
+			} else {
+				add(event);
+			}
+		} else if (event.getEventType() == XMLEvent.END_ELEMENT) {
+			if (converters.containsKey(event.asEndElement().getName().getLocalPart())) {
+
+				EndElement endElement = stack.pop();
+				if (stack.isEmpty() && deduplicator != null) {
+					// The root element is closing: last chance to resolve the references in the body
+					for (XMLEvent element : deduplicator.createScript()) {
+						add(element);
+					}
+				}
+				add(endElement);
+
+				if (toInsertAfter.containsKey(endElement) && toInsertAfter.get(endElement) != null) {
+					for (XMLEvent element : toInsertAfter.get(endElement)) {
+						add(element);
+					}
+				}
+			} else {
+				add(event);
+			}
+		} else {
+			add(event);
+		}
+		lastEvent = event;
+		return true;
+	}
+
+	/**
+	 * Merges the text events following a text event, as the parser can split a long text in several events while a
+	 * {@code Converter} must see the whole text of its element, like an encrypted content.
+	 */
+	private Characters mergeFollowingText(final Characters characters) throws XMLStreamException {
+		XMLEvent next = reader.peek();
+		if (next == null || next.getEventType() != XMLEvent.CHARACTERS) {
+			return characters;
+		}
+		StringBuilder text = new StringBuilder(characters.getData());
+		while (next != null && next.getEventType() == XMLEvent.CHARACTERS) {
+			text.append(((XMLEvent) reader.next()).asCharacters().getData());
+			next = reader.peek();
+		}
+		return eventFactory.createCharacters(text.toString());
+	}
+
+	/**
+	 * @return the number of ENML elements converted so far, the root {@code <en-note>} element included
+	 */
+	int getElementCount() {
+		return elementCount;
+	}
+
+	/**
+	 * @return the {@code XMLEventWriter} in which the HTML is written
+	 */
+	XMLEventWriter getWriter() {
+		return writer;
+	}
+
+	private void add(final XMLEvent event) throws XMLStreamException {
+		writer.add(deduplicator != null ? deduplicator.process(event) : event);
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static com.syncthemall.enml4j.util.Constants.HASH;
+import static com.syncthemall.enml4j.util.Constants.MEDIA;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.exception.MissingResourceException;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * The conversion of the ENML content of a {@code Note} to a JSON tree, in a single pass over an
+ * {@code XMLStreamReader}.
+ * <p>
+ * Each element is written as an object with its name ({@code n}), its attributes ({@code a}, omitted if there is none)
+ * and its children ({@code c}, omitted if there is none), the text nodes being written as strings. The
+ * {@code <en-media>} elements have an additional {@code r} object describing their {@code Resource}: GUID, MIME type,
+ * file name, size, dimensions and URL if any. The comments are skipped.
+ * <p>
+ * For example : {@code <en-note><div class="x">Hello <b>world</b></div></en-note>}<br>
+ * will be converted to :<br>
+ * <code>{"n":"en-note","c":[{"n":"div","a":{"class":"x"},"c":["Hello ",{"n":"b","c":["world"]}]}]}</code>
+ * <p>
+ * The tree is never built in memory: an element is written when it starts and closed when it ends, only the state of
+ * the open elements being kept.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class JSONConversion {
+
+	private static final int INITIAL_DEPTH = 32;
+	private static final int CONTROL_CHARS = 0x20;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Note note;
+	private final XMLStreamReader reader;
+	private final Map<String, String> mapHashURL;
+	private final Writer out;
+
+	/** The text read since the last element, as the reader may split it in several events. */
+	private final StringBuilder text = new StringBuilder();
+
+	/** For each open element, true if its list of children has been opened. */
+	private boolean[] hasChildren = new boolean[INITIAL_DEPTH];
+	private int depth;
+
+	/** The {@code Resource}s of the {@code Note} by hash, created on the first {@code <en-media>} tag. */
+	private Map<String, Resource> resources;
+
+	/**
+	 * @param note the {@code Note} to convert
+	 * @param reader the {@code XMLStreamReader} reading the ENML content of the {@code Note}
+	 * @param mapHashURL the mapping of {@code Resource}s hash with their URL
+	 * @param out the {@code Writer} in which to write the JSON
+	 */
+	JSONConversion(final Note note, final XMLStreamReader reader, final Map<String, String> mapHashURL,
+			final Writer out) {
+		this.note = note;
+		this.reader = reader;
+		this.mapHashURL = mapHashURL;
+		this.out = out;
+	}
+
+	/**
+	 * Converts the whole ENML content, and flushes the {@code Writer}.
+	 * 
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 * @throws IOException if an I/O error occurs writing the JSON
+	 */
+	void run() throws XMLStreamException, IOException {
+		while (reader.hasNext()) {
+			ENMLProcessor.checkInterrupted(note);
+			int eventType = reader.next();
+			if (eventType == XMLStreamReader.START_ELEMENT) {
+				writeText();
+				startElement();
+			} else if (eventType == XMLStreamReader.END_ELEMENT) {
+				writeText();
+				endElement();
+			} else if ((eventType == XMLStreamReader.CHARACTERS || eventType == XMLStreamReader.CDATA
+					|| eventType == XMLStreamReader.SPACE) && depth > 0) {
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+		}
+		out.flush();
+	}
+
+	private void startElement() throws IOException {
+		startChild();
+		out.write("{\"n\":");
+		writeString(reader.getLocalName());
+		if (reader.getAttributeCount() > 0) {
+			out.write(",\"a\":{");
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				writeString(reader.getAttributeLocalName(i));
+				out.write(':');
+				writeString(reader.getAttributeValue(i));
+			}
+			out.write('}');
+		}
+		if (MEDIA.equals(reader.getLocalName())) {
+			writeResource(reader.getAttributeValue(null, HASH));
+		}
+		if (depth == hasChildren.length) {
+			boolean[] grown = new boolean[depth * 2];
+			System.arraycopy(hasChildren, 0, grown, 0, depth);
+			hasChildren = grown;
+		}
+		hasChildren[depth++] = false;
+	}
+
+	private void endElement() throws IOException {
+		out.write(hasChildren[--depth] ? "]}" : "}");
+	}
+
+	private void writeText() throws IOException {
+		if (text.length() > 0) {
+			startChild();
+			writeString(text);
+			text.setLength(0);
+		}
+	}
+
+	/**
+	 * Opens the list of children of the current element, or separates the child from the previous one.
+	 */
+	private void startChild() throws IOException {
+		if (depth > 0) {
+			if (hasChildren[depth - 1]) {
+				out.write(',');
+			} else {
+				out.write(",\"c\":[");
+				hasChildren[depth - 1] = true;
+			}
+		}
+	}
+
+	private void writeResource(final String hash) throws IOException {
+		if (resources == null) {
+			resources = new HashMap<String, Resource>();
+			if (note.getResources() != null) {
+				for (Resource resource : note.getResources()) {
+					if (resource.getData() != null && resource.getData().getBodyHash() != null) {
+						resources.put(Utils.bytesToHex(resource.getData().getBodyHash()), resource);
+					}
+				}
+			}
+		}
+		Resource resource = hash != null ? resources.get(hash) : null;
+		if (resource == null) {
+			throw new MissingResourceException(note.getTitle());
+		}
+		out.write(",\"r\":{\"guid\":");
+		writeString(resource.getGuid());
+		out.write(",\"mime\":");
+		writeString(resource.getMime());
+		if (resource.getAttributes() != null && resource.getAttributes().getFileName() != null) {
+			out.write(",\"name\":");
+			writeString(resource.getAttributes().getFileName());
+		}
+		if (resource.getData().isSetSize()) {
+			out.write(",\"size\":" + resource.getData().getSize());
+		}
+		if (resource.isSetWidth() && resource.isSetHeight()) {
+			out.write(",\"width\":" + resource.getWidth() + ",\"height\":" + resource.getHeight());
+		}
+		String url = mapHashURL != null ? mapHashURL.get(hash) : null;
+		if (url != null) {
+			out.write(",\"url\":");
+			writeString(url);
+		}
+		out.write('}');
+	}
+
+	/**
+	 * Writes a JSON string, copying the runs of characters that don't have to be escaped at once.
+	 */
+	private void writeString(final CharSequence value) throws IOException {
+		if (value == null) {
+			out.write("null");
+			return;
+		}
+		String string = value.toString();
+		out.write('"');
+		int copied = 0;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c >= CONTROL_CHARS && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+				continue;
+			}
+			out.write(string, copied, i - copied);
+			copied = i + 1;
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c == '\n') {
+				out.write("\\n");
+			} else if (c == '\r') {
+				out.write("\\r");
+			} else if (c == '\t') {
+				out.write("\\t");
+			} else {
+				// Other control characters, and the line separators that aren't valid in JavaScript strings
+				out.write("\\u");
+				out.write(HEX_DIGITS[(c >> 12) & 0xF]);
+				out.write(HEX_DIGITS[(c >> 8) & 0xF]);
+				out.write(HEX_DIGITS[(c >> 4) & 0xF]);
+				out.write(HEX_DIGITS[c & 0xF]);
+			}
+		}
+		out.write(string, copied, string.length() - copied);
+		out.write('"');
+	}
+}
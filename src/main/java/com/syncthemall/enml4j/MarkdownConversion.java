@@ -0,0 +1,461 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static com.syncthemall.enml4j.util.Constants.ALT;
+import static com.syncthemall.enml4j.util.Constants.HREF;
+import static com.syncthemall.enml4j.util.Constants.SRC;
+import static com.syncthemall.enml4j.util.Constants.TODO;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.converter.MarkdownConverter;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * The conversion of the ENML content of a {@code Note} to Markdown, in a single pass over an {@code XMLStreamReader}.
+ * <p>
+ * The ENML tags are converted by {@link MarkdownConverter}s, the XHTML tags are mapped to their Markdown equivalent:
+ * headings, paragraphs, emphasis, links, images, nested lists, block quotes, preformatted blocks, horizontal rules and
+ * tables (the first row being the header). The other tags are ignored but their text is kept.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class MarkdownConversion {
+
+	private static final Set<String> BLOCK_TAGS = new HashSet<String>(Arrays.asList("address", "center", "div", "dl",
+			"dt", "dd"));
+	private static final Set<String> STRONG_TAGS = new HashSet<String>(Arrays.asList("b", "strong"));
+	private static final Set<String> EMPHASIS_TAGS = new HashSet<String>(Arrays.asList("i", "em", "cite"));
+	private static final Set<String> STRIKE_TAGS = new HashSet<String>(Arrays.asList("s", "strike", "del"));
+	private static final Set<String> CODE_TAGS = new HashSet<String>(Arrays.asList("code", "tt", "kbd", "samp"));
+	private static final Set<String> CELL_TAGS = new HashSet<String>(Arrays.asList("td", "th"));
+
+	/** Characters escaped in the text, as they have a meaning in Markdown. */
+	private static final String ESCAPED = "\\`*_[]";
+
+	/** Characters escaped at the beginning of a line, as they would start a block. */
+	private static final String ESCAPED_AT_LINE_START = "#>-+";
+
+	/** Characters escaped after a number starting a line, as they would start an ordered list. */
+	private static final String ESCAPED_AFTER_LINE_NUMBER = ".)";
+
+	private static final int HEADING_LEVELS = 6;
+	private static final String LIST_INDENT = "    ";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Note note;
+	private final XMLStreamReader reader;
+	private final Map<String, String> mapHashURL;
+	private final Map<String, MarkdownConverter> converters;
+	private final XMLEventFactory eventFactory;
+	private final MarkdownWriter out;
+
+	/** Counters of the items of the enclosing lists, -1 for an unordered list. */
+	private final ArrayDeque<int[]> lists = new ArrayDeque<int[]>();
+	private final ArrayDeque<String> links = new ArrayDeque<String>();
+	private int skipDepth;
+	private int preDepth;
+	private int codeDepth;
+	private int quoteDepth;
+	private int rows;
+	private int cells;
+
+	/**
+	 * @param note the {@code Note} to convert
+	 * @param reader the {@code XMLStreamReader} reading the ENML content of the {@code Note}
+	 * @param mapHashURL the mapping of {@code Resource}s hash with their URL
+	 * @param converters the {@code MarkdownConverter}s of the ENML tags, by tag name
+	 * @param eventFactory the {@code XMLEventFactory} used to create the {@code StartElement}s of the ENML tags
+	 * @param out the {@code Writer} in which to write the Markdown
+	 */
+	MarkdownConversion(final Note note, final XMLStreamReader reader, final Map<String, String> mapHashURL,
+			final Map<String, MarkdownConverter> converters, final XMLEventFactory eventFactory, final Writer out) {
+		this.note = note;
+		this.reader = reader;
+		this.mapHashURL = mapHashURL;
+		this.converters = converters;
+		this.eventFactory = eventFactory;
+		this.out = new MarkdownWriter(out);
+	}
+
+	/**
+	 * Converts the whole ENML content, and flushes the {@code Writer}.
+	 * 
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 * @throws IOException if an I/O error occurs writing the Markdown
+	 */
+	void run() throws XMLStreamException, IOException {
+		while (reader.hasNext()) {
+			ENMLProcessor.checkInterrupted(note);
+			int eventType = reader.next();
+			if (eventType == XMLStreamReader.START_ELEMENT) {
+				if (skipDepth > 0) {
+					skipDepth++;
+				} else {
+					startElement(reader.getLocalName());
+				}
+			} else if (eventType == XMLStreamReader.END_ELEMENT) {
+				if (skipDepth > 0) {
+					skipDepth--;
+				} else {
+					endElement(reader.getLocalName());
+				}
+			} else if ((eventType == XMLStreamReader.CHARACTERS || eventType == XMLStreamReader.CDATA)
+					&& skipDepth == 0) {
+				text(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+		}
+		out.flush();
+	}
+
+	private void startElement(final String name) throws IOException {
+		MarkdownConverter converter = converters.get(name);
+		if (converter != null) {
+			if (TODO.equals(name) && out.isAtLineStart() && lists.isEmpty()) {
+				// A todo starting a line is rendered as a task list item
+				out.write("- ");
+			}
+			if (!converter.convertElement(createStartElement(), note, mapHashURL, out)) {
+				skipDepth = 1;
+			}
+		} else if (getHeadingLevel(name) > 0) {
+			out.blankLine();
+			for (int i = 0; i < getHeadingLevel(name); i++) {
+				out.write('#');
+			}
+			out.write(' ');
+		} else if ("p".equals(name)) {
+			out.blankLine();
+		} else if (BLOCK_TAGS.contains(name)) {
+			out.newLine();
+		} else if ("br".equals(name)) {
+			out.write(out.isAtLineStart() ? "\n" : "  \n");
+		} else if ("hr".equals(name)) {
+			out.blankLine();
+			out.write("---");
+			out.blankLine();
+		} else if (STRONG_TAGS.contains(name)) {
+			out.write("**");
+		} else if (EMPHASIS_TAGS.contains(name)) {
+			out.write('_');
+		} else if (STRIKE_TAGS.contains(name)) {
+			out.write("~~");
+		} else if (CODE_TAGS.contains(name)) {
+			codeDepth++;
+			out.write('`');
+		} else if ("a".equals(name)) {
+			String href = reader.getAttributeValue(null, HREF);
+			links.push(href != null ? href : "");
+			if (href != null) {
+				out.write('[');
+			}
+		} else if ("img".equals(name)) {
+			String alt = reader.getAttributeValue(null, ALT);
+			out.write("![");
+			out.write(alt != null ? Utils.escapeMarkdown(alt) : "");
+			out.write("](");
+			out.write(String.valueOf(reader.getAttributeValue(null, SRC)));
+			out.write(')');
+			skipDepth = 1;
+		} else if ("ul".equals(name) || "ol".equals(name)) {
+			if (lists.isEmpty()) {
+				out.blankLine();
+			} else {
+				out.newLine();
+			}
+			lists.push(new int[] { "ol".equals(name) ? 1 : -1 });
+		} else if ("li".equals(name)) {
+			out.newLine();
+			for (int i = 1; i < lists.size(); i++) {
+				out.write(LIST_INDENT);
+			}
+			int[] counter = lists.isEmpty() ? new int[] { -1 } : lists.peek();
+			out.write(counter[0] < 0 ? "- " : counter[0]++ + ". ");
+		} else if ("blockquote".equals(name)) {
+			out.blankLine();
+			quoteDepth++;
+			out.setQuoteDepth(quoteDepth);
+		} else if ("pre".equals(name)) {
+			out.blankLine();
+			out.write("```\n");
+			preDepth++;
+		} else if ("table".equals(name)) {
+			out.blankLine();
+			rows = 0;
+		} else if ("tr".equals(name)) {
+			out.newLine();
+			cells = 0;
+		} else if (CELL_TAGS.contains(name)) {
+			cells++;
+			out.write("| ");
+			out.setInCell(true);
+		}
+	}
+
+	private void endElement(final String name) throws IOException {
+		if (converters.containsKey(name)) {
+			return;
+		} else if (getHeadingLevel(name) > 0 || "p".equals(name)) {
+			out.blankLine();
+		} else if (BLOCK_TAGS.contains(name)) {
+			out.newLine();
+		} else if (STRONG_TAGS.contains(name)) {
+			out.write("**");
+		} else if (EMPHASIS_TAGS.contains(name)) {
+			out.write('_');
+		} else if (STRIKE_TAGS.contains(name)) {
+			out.write("~~");
+		} else if (CODE_TAGS.contains(name)) {
+			codeDepth--;
+			out.write('`');
+		} else if ("a".equals(name)) {
+			String href = links.pop();
+			if (href.length() > 0) {
+				out.write("](");
+				out.write(href.replace(" ", "%20").replace("(", "%28").replace(")", "%29"));
+				out.write(')');
+			}
+		} else if ("ul".equals(name) || "ol".equals(name)) {
+			lists.pop();
+			if (lists.isEmpty()) {
+				out.blankLine();
+			} else {
+				out.newLine();
+			}
+		} else if ("li".equals(name)) {
+			out.newLine();
+		} else if ("blockquote".equals(name)) {
+			out.blankLine();
+			quoteDepth--;
+			out.setQuoteDepth(quoteDepth);
+		} else if ("pre".equals(name)) {
+			preDepth--;
+			out.newLine();
+			out.write("```");
+			out.blankLine();
+		} else if ("table".equals(name)) {
+			out.blankLine();
+		} else if ("tr".equals(name)) {
+			out.write("|\n");
+			if (rows == 0) {
+				for (int i = 0; i < cells; i++) {
+					out.write("| --- ");
+				}
+				out.write("|\n");
+			}
+			rows++;
+		} else if (CELL_TAGS.contains(name)) {
+			out.setInCell(false);
+			if (!out.isAfterSpace()) {
+				out.write(' ');
+			}
+		}
+	}
+
+	private void text(final char[] text, final int start, final int length) throws IOException {
+		if (preDepth > 0) {
+			out.write(text, start, length);
+			return;
+		}
+		boolean space = false;
+		for (int i = start; i < start + length; i++) {
+			char c = text[i];
+			if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space && !out.isAtLineStart() && !out.isAfterSpace()) {
+				out.write(' ');
+			}
+			space = false;
+			if (codeDepth == 0 && (ESCAPED.indexOf(c) >= 0 || (out.isAtLineStart()
+					&& ESCAPED_AT_LINE_START.indexOf(c) >= 0) || (out.isAfterLineNumber()
+					&& ESCAPED_AFTER_LINE_NUMBER.indexOf(c) >= 0))) {
+				out.write('\\');
+			}
+			out.write(c);
+		}
+		if (space && !out.isAtLineStart() && !out.isAfterSpace()) {
+			out.write(' ');
+		}
+	}
+
+	private static int getHeadingLevel(final String name) {
+		if (name.length() == 2 && name.charAt(0) == 'h' && name.charAt(1) >= '1'
+				&& name.charAt(1) <= '0' + HEADING_LEVELS) {
+			return name.charAt(1) - '0';
+		}
+		return 0;
+	}
+
+	private StartElement createStartElement() {
+		List<Attribute> attrs = new ArrayList<Attribute>(reader.getAttributeCount());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			attrs.add(eventFactory.createAttribute(reader.getAttributeName(i), reader.getAttributeValue(i)));
+		}
+		return eventFactory.createStartElement(reader.getName(), attrs.iterator(), null);
+	}
+
+	/**
+	 * A {@code Writer} keeping track of the lines, to separate the blocks and prefix the lines of the block quotes. In
+	 * a table cell, the {@code |} characters are escaped so they don't end the cell.
+	 */
+	private static final class MarkdownWriter extends Writer {
+
+		private final Writer out;
+		private final StringBuilder buffer = new StringBuilder();
+		private boolean started;
+		private int newLines;
+		private boolean afterSpace;
+		private boolean inCell;
+
+		/** True if only digits have been written since the beginning of the line, and at least one. */
+		private boolean afterLineNumber;
+		private String quotePrefix = "";
+
+		private MarkdownWriter(final Writer out) {
+			this.out = out;
+		}
+
+		private boolean isAtLineStart() {
+			return !started || newLines > 0;
+		}
+
+		private boolean isAfterSpace() {
+			return afterSpace;
+		}
+
+		private boolean isAfterLineNumber() {
+			return afterLineNumber;
+		}
+
+		private void setInCell(final boolean inCell) {
+			this.inCell = inCell;
+		}
+
+		private void setQuoteDepth(final int depth) {
+			StringBuilder prefix = new StringBuilder();
+			for (int i = 0; i < depth; i++) {
+				prefix.append("> ");
+			}
+			quotePrefix = prefix.toString();
+		}
+
+		/**
+		 * Ends the current line, unless it's empty. In a table cell, the lines are separated by a space.
+		 */
+		private void newLine() throws IOException {
+			if (inCell) {
+				if (!afterSpace) {
+					write(' ');
+				}
+			} else if (started && newLines == 0) {
+				write('\n');
+			}
+		}
+
+		/**
+		 * Ends the current line and writes an empty line, unless there is already one.
+		 */
+		private void blankLine() throws IOException {
+			if (inCell) {
+				newLine();
+			}
+			while (started && newLines < 2 && !inCell) {
+				write('\n');
+			}
+		}
+
+		@Override
+		public void write(final int c) throws IOException {
+			if (c == '\n' && inCell) {
+				write(' ');
+			} else if (c == '\n') {
+				buffer.append('\n');
+				newLines++;
+				afterSpace = false;
+			} else {
+				boolean digit = c >= '0' && c <= '9';
+				if (isAtLineStart()) {
+					buffer.append(quotePrefix);
+					afterLineNumber = digit;
+				} else {
+					afterLineNumber &= digit;
+				}
+				if (c == '|' && inCell) {
+					buffer.append('\\');
+				}
+				buffer.append((char) c);
+				started = true;
+				newLines = 0;
+				afterSpace = c == ' ';
+			}
+			if (buffer.length() >= BUFFER_SIZE) {
+				out.write(buffer.toString());
+				buffer.setLength(0);
+			}
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				write(cbuf[i]);
+			}
+		}
+
+		@Override
+		public void write(final String str) throws IOException {
+			for (int i = 0; i < str.length(); i++) {
+				write(str.charAt(i));
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.write(buffer.toString());
+			buffer.setLength(0);
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,900 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.evernote.edam.type.Note;
+
+/**
+ * The ENML content of a {@code Note} parsed once and kept as a compact array of tokens.
+ * <p>
+ * A {@code ParsedNote} is created with {@link ENMLProcessor#parseNote(Note)} and can be passed to every
+ * {@code ENMLProcessor} operation instead of the {@code Note}. The conversions replay the tokens instead of parsing the
+ * ENML content again, and the updates of the content (resources, todos) are applied both to the content and to the
+ * tokens, so a workflow converting, updating and indexing a {@code Note} pays the parse cost only once.
+ * <p>
+ * Each token is a fixed number of {@code int}s. Element and attribute names are shared in a table, text and attribute
+ * values are ranges of a single {@code char} array holding the character data of the content (with the entities
+ * already replaced).
+ * <p>
+ * A {@code ParsedNote} can be persisted next to the ENML content with {@link #writeTo(OutputStream)} and read back
+ * with {@link #readFrom(Note, InputStream)}, converting the {@code Note} then requires no XML parsing at all. The
+ * binary form holds a table of the names, a table of the other strings, then every token as a type byte followed by
+ * variable length integers and UTF-8 text runs.
+ * <p>
+ * If the content of the {@code Note} is replaced by another mean than an {@code ENMLProcessor} operation on this
+ * {@code ParsedNote}, it is parsed again the next time it is used. This class is not thread-safe.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class ParsedNote {
+
+	/** Type of the tokens removed from the content, skipped when replaying the tokens. */
+	static final int REMOVED = -1;
+
+	private static final int TOKEN_SIZE = 6;
+	private static final int TYPE = 0;
+	// Name of an element or an entity reference, target of a processing instruction, declaration of a DTD, version of
+	// a document
+	private static final int NAME = 1;
+	// First attribute of an element, start of the text of a character data, encoding of a document
+	private static final int START = 2;
+	// Number of attributes of an element, length of the text of a character data, standalone state of a document
+	private static final int LENGTH = 3;
+	private static final int NAMESPACE_START = 4;
+	private static final int NAMESPACE_COUNT = 5;
+
+	private static final int ATTRIBUTE_SIZE = 3;
+	private static final int NAMESPACE_SIZE = 2;
+
+	/** First bytes of the binary form: "ENT" followed by the version of the format. */
+	private static final int MAGIC = 0x454E5401;
+
+	/** Maximum ratio between the size of the tokens and the length of the content, checked when reading them. */
+	private static final int MAX_EXPANSION = 2;
+
+	/** Margin added to the maximum size of the tokens, for the very short contents. */
+	private static final int MIN_LIMIT = 16;
+
+	/** Flags of the type byte of an element in the binary form, omitting the count of attributes and namespaces. */
+	private static final int TYPE_MASK = 0x3F;
+	private static final int HAS_ATTRIBUTES = 0x40;
+	private static final int HAS_NAMESPACES = 0x80;
+
+	private final Note note;
+	private String content;
+
+	private int[] tokens;
+	private int tokenCount;
+	private int[] attributes;
+	private int attributeCount;
+	private int[] namespaces;
+	private int namespaceCount;
+	private char[] text;
+	private int textLength;
+
+	private List<QName> names;
+	private Map<QName, Integer> nameIndexes;
+	private List<String> strings;
+
+	/**
+	 * @param note the {@code Note} which content is represented
+	 */
+	ParsedNote(final Note note) {
+		this.note = note;
+	}
+
+	/**
+	 * @return the {@code Note} which content is represented
+	 */
+	public Note getNote() {
+		return note;
+	}
+
+	/**
+	 * @return true if the content of the {@code Note} has been replaced since it has been parsed
+	 */
+	public boolean isStale() {
+		return content == null || content != note.getContent();
+	}
+
+	/**
+	 * Parses the ENML content of the {@code Note}, replacing the current tokens.
+	 * 
+	 * @param inputFactory the {@code XMLInputFactory} used to read the ENML content
+	 * @throws XMLStreamException if the ENML content is malformed
+	 */
+	void parse(final XMLInputFactory inputFactory) throws XMLStreamException {
+		String toParse = note.getContent();
+		prepare(toParse);
+
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(toParse));
+		try {
+			// The reader is initially on the START_DOCUMENT event
+			int token = addToken(XMLStreamConstants.START_DOCUMENT);
+			tokens[token + NAME] = addString(reader.getVersion());
+			tokens[token + START] = addString(reader.getCharacterEncodingScheme());
+			tokens[token + LENGTH] = reader.standaloneSet() ? (reader.isStandalone() ? 2 : 1) : 0;
+			while (reader.hasNext()) {
+				int type = reader.next();
+				token = addToken(type);
+				switch (type) {
+				case XMLStreamConstants.START_ELEMENT:
+					tokens[token + NAME] = addName(reader.getName());
+					tokens[token + START] = attributeCount;
+					tokens[token + LENGTH] = reader.getAttributeCount();
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						addAttribute(reader.getAttributeName(i), reader.getAttributeValue(i));
+					}
+					addNamespaces(token, reader);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					tokens[token + NAME] = addName(reader.getName());
+					addNamespaces(token, reader);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.COMMENT:
+					tokens[token + START] = addText(reader.getTextCharacters(), reader.getTextStart(),
+							reader.getTextLength());
+					tokens[token + LENGTH] = reader.getTextLength();
+					break;
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					tokens[token + NAME] = addString(reader.getLocalName());
+					tokens[token + START] = addText(reader.getText());
+					tokens[token + LENGTH] = reader.getText().length();
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					tokens[token + NAME] = addString(reader.getPITarget());
+					String data = reader.getPIData() != null ? reader.getPIData() : "";
+					tokens[token + START] = addText(data);
+					tokens[token + LENGTH] = data.length();
+					break;
+				case XMLStreamConstants.DTD:
+					tokens[token + NAME] = addString(reader.getText());
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		content = toParse;
+	}
+
+	/**
+	 * Tokenizes an ENML content with an {@code ENMLTokenizer} rather than a StAX parser, replacing the current tokens.
+	 * <p>
+	 * The adjacent character data (text, entities and CDATA sections) are kept as a single CHARACTERS token, where the
+	 * StAX parser splits them at each entity. The conversions produce the same output either way.
+	 * 
+	 * @param tokenizer the {@code ENMLTokenizer} splitting the content into tokens
+	 * @param toParse the ENML content to tokenize, the content of the {@code Note} or a content derived from it
+	 * @return true if the content has been tokenized, false if it has to be parsed with
+	 *         {@link #parse(XMLInputFactory)} as it holds a construct the {@code ENMLTokenizer} doesn't handle
+	 */
+	boolean tokenize(final ENMLTokenizer tokenizer, final String toParse) {
+		prepare(toParse);
+		if (!tokenizer.tokenize(toParse, this)) {
+			content = null;
+			return false;
+		}
+		content = toParse;
+		return true;
+	}
+
+	void appendStartDocument(final String version, final String encoding, final int standalone) {
+		int token = addToken(XMLStreamConstants.START_DOCUMENT);
+		tokens[token + NAME] = addString(version);
+		tokens[token + START] = addString(encoding);
+		tokens[token + LENGTH] = standalone;
+	}
+
+	void appendDTD(final String declaration) {
+		tokens[addToken(XMLStreamConstants.DTD) + NAME] = addString(declaration);
+	}
+
+	/**
+	 * @return the position of the START_ELEMENT token, to which the attributes are then appended
+	 */
+	int appendStartElement(final QName name) {
+		int token = addToken(XMLStreamConstants.START_ELEMENT);
+		tokens[token + NAME] = addName(name);
+		tokens[token + START] = attributeCount;
+		return token;
+	}
+
+	void appendAttribute(final int token, final QName name, final char[] chars, final int start, final int length) {
+		ensureAttributeCapacity();
+		int base = attributeCount * ATTRIBUTE_SIZE;
+		attributes[base] = addName(name);
+		attributes[base + 1] = addText(chars, start, length);
+		attributes[base + 2] = length;
+		attributeCount++;
+		tokens[token + LENGTH]++;
+	}
+
+	void appendAttribute(final int token, final QName name, final String value) {
+		addAttribute(name, value);
+		tokens[token + LENGTH]++;
+	}
+
+	void appendEndElement(final QName name) {
+		tokens[addToken(XMLStreamConstants.END_ELEMENT) + NAME] = addName(name);
+	}
+
+	/**
+	 * Appends character data, extending the last token if it is a CHARACTERS token.
+	 */
+	void appendCharacters(final char[] chars, final int start, final int length) {
+		if (length == 0) {
+			return;
+		}
+		int last = (tokenCount - 1) * TOKEN_SIZE;
+		if (tokenCount > 0 && tokens[last + TYPE] == XMLStreamConstants.CHARACTERS
+				&& tokens[last + START] + tokens[last + LENGTH] == textLength) {
+			addText(chars, start, length);
+			tokens[last + LENGTH] += length;
+			return;
+		}
+		int token = addToken(XMLStreamConstants.CHARACTERS);
+		tokens[token + START] = addText(chars, start, length);
+		tokens[token + LENGTH] = length;
+	}
+
+	void appendComment(final char[] chars, final int start, final int length) {
+		int token = addToken(XMLStreamConstants.COMMENT);
+		tokens[token + START] = addText(chars, start, length);
+		tokens[token + LENGTH] = length;
+	}
+
+	void appendEndDocument() {
+		addToken(XMLStreamConstants.END_DOCUMENT);
+	}
+
+	/**
+	 * Writes the binary form of this {@code ParsedNote}.
+	 * <p>
+	 * The removed tokens are not written. The length and the hash code of the parsed content are written as well, so
+	 * {@link #readFrom(Note, InputStream)} can detect that the content of the {@code Note} has been replaced since.
+	 * 
+	 * @param out the {@code OutputStream} in which to write. It is flushed but not closed
+	 * @throws IOException if an I/O error occurs writing in the {@code OutputStream}
+	 * @throws IllegalStateException if the tokens have been discarded after an inconsistent update
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		if (content == null) {
+			throw new IllegalStateException("The parsed note " + note.getGuid() + " has to be parsed again");
+		}
+		int liveTokens = 0;
+		int liveAttributes = 0;
+		int liveNamespaces = 0;
+		int liveText = 0;
+		for (int i = 0; i < tokenCount; i++) {
+			int type = getType(i);
+			if (type == XMLStreamConstants.START_ELEMENT) {
+				for (int j = getFirstAttribute(i); j < getFirstAttribute(i) + getAttributeCount(i); j++) {
+					liveText += attributes[j * ATTRIBUTE_SIZE + 2];
+				}
+				liveAttributes += getAttributeCount(i);
+				liveNamespaces += getNamespaceCount(i);
+			} else if (type == XMLStreamConstants.END_ELEMENT) {
+				liveNamespaces += getNamespaceCount(i);
+			} else if (hasText(type)) {
+				liveText += getTextLength(i);
+			}
+			if (type != REMOVED) {
+				liveTokens++;
+			}
+		}
+
+		BinaryOutput output = new BinaryOutput(out);
+		output.writeInt(MAGIC);
+		output.writeVarint(content.length());
+		output.writeInt(content.hashCode());
+		output.writeVarint(names.size());
+		for (QName name : names) {
+			output.writeString(name.getNamespaceURI());
+			output.writeString(name.getLocalPart());
+			output.writeString(name.getPrefix());
+		}
+		output.writeVarint(strings.size());
+		for (String string : strings) {
+			output.writeString(string);
+		}
+		output.writeVarint(liveTokens);
+		output.writeVarint(liveAttributes);
+		output.writeVarint(liveNamespaces);
+		output.writeVarint(liveText);
+
+		for (int i = 0; i < tokenCount; i++) {
+			int type = getType(i);
+			if (type == REMOVED) {
+				continue;
+			}
+			int base = i * TOKEN_SIZE;
+			int flags = 0;
+			if (type == XMLStreamConstants.START_ELEMENT || type == XMLStreamConstants.END_ELEMENT) {
+				flags = (tokens[base + NAMESPACE_COUNT] > 0 ? HAS_NAMESPACES : 0)
+						| (type == XMLStreamConstants.START_ELEMENT && tokens[base + LENGTH] > 0 ? HAS_ATTRIBUTES : 0);
+			}
+			output.writeByte(type | flags);
+			switch (type) {
+			case XMLStreamConstants.START_DOCUMENT:
+				output.writeVarint(tokens[base + NAME] + 1);
+				output.writeVarint(tokens[base + START] + 1);
+				output.writeVarint(tokens[base + LENGTH]);
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				output.writeVarint(tokens[base + NAME]);
+				if ((flags & HAS_ATTRIBUTES) != 0) {
+					output.writeVarint(tokens[base + LENGTH]);
+				}
+				for (int j = tokens[base + START]; j < tokens[base + START] + tokens[base + LENGTH]; j++) {
+					output.writeVarint(attributes[j * ATTRIBUTE_SIZE]);
+					output.writeChars(text, attributes[j * ATTRIBUTE_SIZE + 1], attributes[j * ATTRIBUTE_SIZE + 2]);
+				}
+				if ((flags & HAS_NAMESPACES) != 0) {
+					writeNamespaces(output, base);
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				output.writeVarint(tokens[base + NAME]);
+				if ((flags & HAS_NAMESPACES) != 0) {
+					writeNamespaces(output, base);
+				}
+				break;
+			case XMLStreamConstants.ENTITY_REFERENCE:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				output.writeVarint(tokens[base + NAME] + 1);
+				output.writeChars(text, tokens[base + START], tokens[base + LENGTH]);
+				break;
+			case XMLStreamConstants.DTD:
+				output.writeVarint(tokens[base + NAME] + 1);
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				break;
+			default:
+				output.writeChars(text, tokens[base + START], tokens[base + LENGTH]);
+				break;
+			}
+		}
+		output.flush();
+	}
+
+	/**
+	 * Reads a {@code ParsedNote} from its binary form written by {@link #writeTo(OutputStream)}.
+	 * <p>
+	 * The tokens are decoded sequentially, without any XML parsing. If the content of the {@code Note} is not the one
+	 * that was parsed when the binary form was written, the tokens are not read and the {@code ParsedNote} returned is
+	 * stale: it will be parsed again the first time it is used. The counts read are checked against the length of the
+	 * content, so a corrupted binary form fails with an {@code IOException} rather than allocating arbitrary memory.
+	 * 
+	 * @param note the {@code Note} which content is represented by the binary form
+	 * @param in the {@code InputStream} from which to read the binary form. It is not closed
+	 * @return the {@code ParsedNote} of the {@code Note}
+	 * @throws IOException if the binary form is invalid, truncated or corrupted, or if an I/O error occurs reading the
+	 *             {@code InputStream}
+	 */
+	public static ParsedNote readFrom(final Note note, final InputStream in) throws IOException {
+		BinaryInput input = new BinaryInput(in);
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a binary parsed note, or written by an incompatible version");
+		}
+		ParsedNote parsed = new ParsedNote(note);
+		int contentLength = input.readVarint();
+		int contentHash = input.readInt();
+		String current = note.getContent();
+		if (current == null || current.length() != contentLength || current.hashCode() != contentHash) {
+			// The tokens don't represent the current content, which will be parsed on first use
+			return parsed;
+		}
+		// Every name, string, token, attribute and char of text comes from the content, the DTD default attributes
+		// adding a few chars to some elements, so larger counts can only come from a corrupted binary form
+		int limit = MAX_EXPANSION * contentLength + MIN_LIMIT;
+
+		int nameCount = readCount(input, limit, "names");
+		parsed.names = new ArrayList<QName>(nameCount);
+		parsed.nameIndexes = new HashMap<QName, Integer>();
+		for (int i = 0; i < nameCount; i++) {
+			String namespaceURI = input.readString(limit);
+			String localPart = input.readString(limit);
+			String prefix = input.readString(limit);
+			if (namespaceURI == null || localPart == null || prefix == null) {
+				throw new IOException("Invalid name in the binary parsed note");
+			}
+			QName name = new QName(namespaceURI, localPart, prefix);
+			parsed.names.add(name);
+			if (!parsed.nameIndexes.containsKey(name)) {
+				parsed.nameIndexes.put(name, i);
+			}
+		}
+		int stringCount = readCount(input, limit, "strings");
+		parsed.strings = new ArrayList<String>(stringCount);
+		for (int i = 0; i < stringCount; i++) {
+			parsed.strings.add(input.readString(limit));
+		}
+		int tokenTotal = readCount(input, limit, "tokens");
+		parsed.init(tokenTotal, readCount(input, limit, "attributes"), readCount(input, limit, "namespaces"),
+				readCount(input, limit, "chars of text"));
+
+		for (int i = 0; i < tokenTotal; i++) {
+			int flags = input.readByte();
+			int type = flags & TYPE_MASK;
+			int token = parsed.addToken(type);
+			int[] tokens = parsed.tokens;
+			switch (type) {
+			case XMLStreamConstants.START_DOCUMENT:
+				tokens[token + NAME] = parsed.readIndex(input, stringCount + 1) - 1;
+				tokens[token + START] = parsed.readIndex(input, stringCount + 1) - 1;
+				tokens[token + LENGTH] = parsed.readIndex(input, 3);
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				tokens[token + NAME] = parsed.readIndex(input, nameCount);
+				int count = (flags & HAS_ATTRIBUTES) != 0 ? input.readVarint() : 0;
+				if (count > parsed.attributes.length / ATTRIBUTE_SIZE - parsed.attributeCount) {
+					throw new IOException("More attributes than declared in the binary parsed note");
+				}
+				tokens[token + START] = parsed.attributeCount;
+				tokens[token + LENGTH] = count;
+				for (int j = 0; j < count; j++) {
+					int attribute = parsed.attributeCount * ATTRIBUTE_SIZE;
+					parsed.attributes[attribute] = parsed.readIndex(input, nameCount);
+					int length = input.readVarint();
+					parsed.attributes[attribute + 1] = parsed.readText(input, length);
+					parsed.attributes[attribute + 2] = length;
+					parsed.attributeCount++;
+				}
+				if ((flags & HAS_NAMESPACES) != 0) {
+					parsed.readNamespaces(input, token, stringCount);
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				tokens[token + NAME] = parsed.readIndex(input, nameCount);
+				if ((flags & HAS_NAMESPACES) != 0) {
+					parsed.readNamespaces(input, token, stringCount);
+				}
+				break;
+			case XMLStreamConstants.ENTITY_REFERENCE:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				tokens[token + NAME] = parsed.readIndex(input, stringCount + 1) - 1;
+				int length = input.readVarint();
+				tokens[token + START] = parsed.readText(input, length);
+				tokens[token + LENGTH] = length;
+				break;
+			case XMLStreamConstants.DTD:
+				tokens[token + NAME] = parsed.readIndex(input, stringCount + 1) - 1;
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				break;
+			default:
+				if (!hasText(type)) {
+					throw new IOException("Invalid token type " + type + " in the binary parsed note");
+				}
+				length = input.readVarint();
+				tokens[token + START] = parsed.readText(input, length);
+				tokens[token + LENGTH] = length;
+				break;
+			}
+		}
+		parsed.content = current;
+		return parsed;
+	}
+
+	/**
+	 * @return an {@code XMLStreamReader} replaying the tokens
+	 */
+	XMLStreamReader createXMLStreamReader() {
+		return new ParsedNoteReader(this);
+	}
+
+	/**
+	 * @param eventFactory the {@code XMLEventFactory} used to create the events
+	 * @return an {@code XMLEventReader} replaying the tokens
+	 */
+	XMLEventReader createXMLEventReader(final XMLEventFactory eventFactory) {
+		return new StreamEventReader(new ParsedNoteReader(this), eventFactory, true);
+	}
+
+	/**
+	 * Records the content the tokens are now representing, after it has been updated along with the tokens.
+	 * 
+	 * @param updatedContent the updated ENML content, set on the {@code Note}
+	 */
+	void setContent(final String updatedContent) {
+		content = updatedContent;
+	}
+
+	/**
+	 * Discards the tokens, so the content is parsed again the next time it is used.
+	 */
+	void reset() {
+		content = null;
+	}
+
+	/**
+	 * @param localName the local name of the elements to find
+	 * @return the indexes of the START_ELEMENT tokens with the given local name, in document order
+	 */
+	int[] findStartElements(final String localName) {
+		int[] found = new int[8];
+		int count = 0;
+		for (int i = 0; i < tokenCount; i++) {
+			if (getType(i) == XMLStreamConstants.START_ELEMENT && localName.equals(getName(i).getLocalPart())) {
+				if (count == found.length) {
+					found = Arrays.copyOf(found, count * 2);
+				}
+				found[count++] = i;
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * @param startElement the index of a START_ELEMENT token
+	 * @return the index of the matching END_ELEMENT token
+	 */
+	int findEndElement(final int startElement) {
+		int depth = 0;
+		for (int i = startElement; i < tokenCount; i++) {
+			if (getType(i) == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (getType(i) == XMLStreamConstants.END_ELEMENT && --depth == 0) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("No end of element " + getName(startElement));
+	}
+
+	/**
+	 * Sets the value of an attribute of an element, adding the attribute if the element doesn't have it.
+	 * 
+	 * @param startElement the index of the START_ELEMENT token
+	 * @param localName the local name of the attribute
+	 * @param value the value of the attribute
+	 */
+	void setAttribute(final int startElement, final String localName, final String value) {
+		int base = startElement * TOKEN_SIZE;
+		int first = tokens[base + START];
+		int count = tokens[base + LENGTH];
+		for (int i = first; i < first + count; i++) {
+			if (localName.equals(getAttributeName(i).getLocalPart())) {
+				attributes[i * ATTRIBUTE_SIZE + 1] = addText(value);
+				attributes[i * ATTRIBUTE_SIZE + 2] = value.length();
+				return;
+			}
+		}
+		// The attributes of an element are contiguous, so they are copied at the end with the new one
+		tokens[base + START] = attributeCount;
+		tokens[base + LENGTH] = count + 1;
+		for (int i = first; i < first + count; i++) {
+			ensureAttributeCapacity();
+			System.arraycopy(attributes, i * ATTRIBUTE_SIZE, attributes, attributeCount * ATTRIBUTE_SIZE, ATTRIBUTE_SIZE);
+			attributeCount++;
+		}
+		addAttribute(new QName(localName), value);
+	}
+
+	/**
+	 * Removes an element and all its content.
+	 * 
+	 * @param startElement the index of the START_ELEMENT token
+	 */
+	void removeElement(final int startElement) {
+		int end = findEndElement(startElement);
+		for (int i = startElement; i <= end; i++) {
+			tokens[i * TOKEN_SIZE + TYPE] = REMOVED;
+		}
+	}
+
+	/**
+	 * Inserts an empty element.
+	 * 
+	 * @param position the index of the token before which the element is inserted
+	 * @param name the name of the element
+	 * @param elementAttributes the attributes of the element, by local name
+	 */
+	void insertElement(final int position, final QName name, final Map<String, String> elementAttributes) {
+		ensureTokenCapacity(2);
+		System.arraycopy(tokens, position * TOKEN_SIZE, tokens, (position + 2) * TOKEN_SIZE, (tokenCount - position)
+				* TOKEN_SIZE);
+		tokenCount += 2;
+		int nameIndex = addName(name);
+		int base = position * TOKEN_SIZE;
+		Arrays.fill(tokens, base, base + 2 * TOKEN_SIZE, 0);
+		tokens[base + TYPE] = XMLStreamConstants.START_ELEMENT;
+		tokens[base + NAME] = nameIndex;
+		tokens[base + START] = attributeCount;
+		tokens[base + LENGTH] = elementAttributes.size();
+		for (Map.Entry<String, String> attribute : elementAttributes.entrySet()) {
+			addAttribute(new QName(attribute.getKey()), attribute.getValue());
+		}
+		tokens[base + TOKEN_SIZE + TYPE] = XMLStreamConstants.END_ELEMENT;
+		tokens[base + TOKEN_SIZE + NAME] = nameIndex;
+	}
+
+	int getTokenCount() {
+		return tokenCount;
+	}
+
+	int getType(final int token) {
+		return tokens[token * TOKEN_SIZE + TYPE];
+	}
+
+	QName getName(final int token) {
+		return names.get(tokens[token * TOKEN_SIZE + NAME]);
+	}
+
+	String getString(final int token) {
+		return getStringAt(tokens[token * TOKEN_SIZE + NAME]);
+	}
+
+	String getEncoding(final int token) {
+		return getStringAt(tokens[token * TOKEN_SIZE + START]);
+	}
+
+	int getStandalone(final int token) {
+		return tokens[token * TOKEN_SIZE + LENGTH];
+	}
+
+	int getTextStart(final int token) {
+		return tokens[token * TOKEN_SIZE + START];
+	}
+
+	int getTextLength(final int token) {
+		return tokens[token * TOKEN_SIZE + LENGTH];
+	}
+
+	int getFirstAttribute(final int token) {
+		return tokens[token * TOKEN_SIZE + START];
+	}
+
+	int getAttributeCount(final int token) {
+		return tokens[token * TOKEN_SIZE + LENGTH];
+	}
+
+	int getFirstNamespace(final int token) {
+		return tokens[token * TOKEN_SIZE + NAMESPACE_START];
+	}
+
+	int getNamespaceCount(final int token) {
+		return tokens[token * TOKEN_SIZE + NAMESPACE_COUNT];
+	}
+
+	QName getAttributeName(final int attribute) {
+		return names.get(attributes[attribute * ATTRIBUTE_SIZE]);
+	}
+
+	String getAttributeValue(final int attribute) {
+		return new String(text, attributes[attribute * ATTRIBUTE_SIZE + 1], attributes[attribute * ATTRIBUTE_SIZE + 2]);
+	}
+
+	String getNamespacePrefix(final int namespace) {
+		return getStringAt(namespaces[namespace * NAMESPACE_SIZE]);
+	}
+
+	String getNamespaceURI(final int namespace) {
+		return getStringAt(namespaces[namespace * NAMESPACE_SIZE + 1]);
+	}
+
+	char[] getText() {
+		return text;
+	}
+
+	private static boolean hasText(final int type) {
+		return type == XMLStreamConstants.CHARACTERS || type == XMLStreamConstants.CDATA
+				|| type == XMLStreamConstants.SPACE || type == XMLStreamConstants.COMMENT;
+	}
+
+	private void prepare(final String toParse) {
+		// Most of the content is markup, so the text is usually smaller than the content
+		init(Math.max(64, toParse.length() / 8), Math.max(16, toParse.length() / 32), 4, Math.max(64, toParse.length()));
+		names = new ArrayList<QName>();
+		nameIndexes = new HashMap<QName, Integer>();
+		strings = new ArrayList<String>();
+	}
+
+	private void init(final int tokenCapacity, final int attributeCapacity, final int namespaceCapacity,
+			final int textCapacity) {
+		tokens = new int[Math.max(1, tokenCapacity) * TOKEN_SIZE];
+		tokenCount = 0;
+		attributes = new int[Math.max(1, attributeCapacity) * ATTRIBUTE_SIZE];
+		attributeCount = 0;
+		namespaces = new int[Math.max(1, namespaceCapacity) * NAMESPACE_SIZE];
+		namespaceCount = 0;
+		text = new char[Math.max(1, textCapacity)];
+		textLength = 0;
+	}
+
+	private void writeNamespaces(final BinaryOutput output, final int token) throws IOException {
+		output.writeVarint(tokens[token + NAMESPACE_COUNT]);
+		int end = tokens[token + NAMESPACE_START] + tokens[token + NAMESPACE_COUNT];
+		for (int i = tokens[token + NAMESPACE_START]; i < end; i++) {
+			output.writeVarint(namespaces[i * NAMESPACE_SIZE] + 1);
+			output.writeVarint(namespaces[i * NAMESPACE_SIZE + 1] + 1);
+		}
+	}
+
+	private void readNamespaces(final BinaryInput input, final int token, final int stringCount) throws IOException {
+		int count = input.readVarint();
+		if (count > namespaces.length / NAMESPACE_SIZE - namespaceCount) {
+			throw new IOException("More namespaces than declared in the binary parsed note");
+		}
+		tokens[token + NAMESPACE_START] = namespaceCount;
+		tokens[token + NAMESPACE_COUNT] = count;
+		for (int i = 0; i < count; i++) {
+			namespaces[namespaceCount * NAMESPACE_SIZE] = readIndex(input, stringCount + 1) - 1;
+			namespaces[namespaceCount * NAMESPACE_SIZE + 1] = readIndex(input, stringCount + 1) - 1;
+			namespaceCount++;
+		}
+	}
+
+	private static int readCount(final BinaryInput input, final int limit, final String counted) throws IOException {
+		int count = input.readVarint();
+		if (count > limit) {
+			throw new IOException("Invalid number of " + counted + " " + count + " in the binary parsed note");
+		}
+		return count;
+	}
+
+	private int readIndex(final BinaryInput input, final int size) throws IOException {
+		int index = input.readVarint();
+		if (index >= size) {
+			throw new IOException("Invalid index " + index + " in the binary parsed note");
+		}
+		return index;
+	}
+
+	private int readText(final BinaryInput input, final int length) throws IOException {
+		if (length > text.length - textLength) {
+			throw new IOException("More text than declared in the binary parsed note");
+		}
+		int start = textLength;
+		input.readUTF8(text, start, length);
+		textLength += length;
+		return start;
+	}
+
+	private String getStringAt(final int index) {
+		return index < 0 ? null : strings.get(index);
+	}
+
+	private int addToken(final int type) {
+		ensureTokenCapacity(1);
+		int base = tokenCount * TOKEN_SIZE;
+		tokens[base + TYPE] = type;
+		tokens[base + NAME] = 0;
+		tokens[base + START] = 0;
+		tokens[base + LENGTH] = 0;
+		tokens[base + NAMESPACE_START] = 0;
+		tokens[base + NAMESPACE_COUNT] = 0;
+		tokenCount++;
+		return base;
+	}
+
+	private void ensureTokenCapacity(final int count) {
+		if ((tokenCount + count) * TOKEN_SIZE > tokens.length) {
+			tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, (tokenCount + count) * TOKEN_SIZE));
+		}
+	}
+
+	private void ensureAttributeCapacity() {
+		if ((attributeCount + 1) * ATTRIBUTE_SIZE > attributes.length) {
+			attributes = Arrays.copyOf(attributes, attributes.length * 2);
+		}
+	}
+
+	private void addAttribute(final QName name, final String value) {
+		ensureAttributeCapacity();
+		int base = attributeCount * ATTRIBUTE_SIZE;
+		attributes[base] = addName(name);
+		attributes[base + 1] = addText(value);
+		attributes[base + 2] = value.length();
+		attributeCount++;
+	}
+
+	private void addNamespaces(final int token, final XMLStreamReader reader) {
+		tokens[token + NAMESPACE_START] = namespaceCount;
+		tokens[token + NAMESPACE_COUNT] = reader.getNamespaceCount();
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			if ((namespaceCount + 1) * NAMESPACE_SIZE > namespaces.length) {
+				namespaces = Arrays.copyOf(namespaces, namespaces.length * 2);
+			}
+			namespaces[namespaceCount * NAMESPACE_SIZE] = addString(reader.getNamespacePrefix(i));
+			namespaces[namespaceCount * NAMESPACE_SIZE + 1] = addString(reader.getNamespaceURI(i));
+			namespaceCount++;
+		}
+	}
+
+	private int addName(final QName name) {
+		Integer index = nameIndexes.get(name);
+		// QName equality ignores the prefix, which has to be kept to replay the content
+		if (index != null && names.get(index).getPrefix().equals(name.getPrefix())) {
+			return index;
+		}
+		names.add(name);
+		if (index == null) {
+			nameIndexes.put(name, names.size() - 1);
+		}
+		return names.size() - 1;
+	}
+
+	private int addString(final String value) {
+		if (value == null) {
+			return -1;
+		}
+		int index = strings.indexOf(value);
+		if (index < 0) {
+			strings.add(value);
+			index = strings.size() - 1;
+		}
+		return index;
+	}
+
+	private int addText(final String value) {
+		ensureTextCapacity(value.length());
+		int start = textLength;
+		value.getChars(0, value.length(), text, start);
+		textLength += value.length();
+		return start;
+	}
+
+	private int addText(final char[] chars, final int start, final int length) {
+		ensureTextCapacity(length);
+		int textStart = textLength;
+		System.arraycopy(chars, start, text, textStart, length);
+		textLength += length;
+		return textStart;
+	}
+
+	private void ensureTextCapacity(final int length) {
+		if (textLength + length > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ParsedNote[" + note.getGuid() + ", " + tokenCount + " tokens, " + textLength + " chars of text"
+				+ (isStale() ? ", stale]" : "]");
+	}
+}
@@ -0,0 +1,497 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An {@code XMLStreamReader} replaying the tokens of a {@link ParsedNote}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class ParsedNoteReader implements XMLStreamReader, NamespaceContext {
+
+	private static final Location LOCATION = new Location() {
+		@Override
+		public int getLineNumber() {
+			return -1;
+		}
+
+		@Override
+		public int getColumnNumber() {
+			return -1;
+		}
+
+		@Override
+		public int getCharacterOffset() {
+			return -1;
+		}
+
+		@Override
+		public String getPublicId() {
+			return null;
+		}
+
+		@Override
+		public String getSystemId() {
+			return null;
+		}
+	};
+
+	private final ParsedNote parsed;
+
+	/** Index of the current token, the first token is always the START_DOCUMENT. */
+	private int current;
+
+	/** START_ELEMENT tokens of the elements enclosing the current token, to resolve the namespaces. */
+	private int[] elements = new int[16];
+	private int depth;
+
+	ParsedNoteReader(final ParsedNote parsed) {
+		this.parsed = parsed;
+	}
+
+	/**
+	 * @return the index of the current token in the {@code ParsedNote}
+	 */
+	int getToken() {
+		return current;
+	}
+
+	@Override
+	public int next() throws XMLStreamException {
+		if (!hasNext()) {
+			throw new NoSuchElementException("No more tokens in the parsed note");
+		}
+		if (getEventType() == XMLStreamConstants.END_ELEMENT) {
+			depth--;
+		}
+		current = nextToken(current);
+		if (getEventType() == XMLStreamConstants.START_ELEMENT) {
+			if (depth == elements.length) {
+				int[] grown = new int[depth * 2];
+				System.arraycopy(elements, 0, grown, 0, depth);
+				elements = grown;
+			}
+			elements[depth++] = current;
+		}
+		return getEventType();
+	}
+
+	@Override
+	public boolean hasNext() throws XMLStreamException {
+		return nextToken(current) < parsed.getTokenCount();
+	}
+
+	private int nextToken(final int token) {
+		int next = token + 1;
+		while (next < parsed.getTokenCount() && parsed.getType(next) == ParsedNote.REMOVED) {
+			next++;
+		}
+		return next;
+	}
+
+	@Override
+	public int nextTag() throws XMLStreamException {
+		int eventType = next();
+		while ((eventType == XMLStreamConstants.CHARACTERS && isWhiteSpace())
+				|| (eventType == XMLStreamConstants.CDATA && isWhiteSpace()) || eventType == XMLStreamConstants.SPACE
+				|| eventType == XMLStreamConstants.PROCESSING_INSTRUCTION || eventType == XMLStreamConstants.COMMENT) {
+			eventType = next();
+		}
+		if (eventType != XMLStreamConstants.START_ELEMENT && eventType != XMLStreamConstants.END_ELEMENT) {
+			throw new XMLStreamException("Expected a start or end tag");
+		}
+		return eventType;
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		if (getEventType() != XMLStreamConstants.START_ELEMENT) {
+			throw new XMLStreamException("The current event is not a START_ELEMENT");
+		}
+		StringBuilder content = new StringBuilder();
+		int eventType = next();
+		while (eventType != XMLStreamConstants.END_ELEMENT) {
+			if (eventType == XMLStreamConstants.CHARACTERS || eventType == XMLStreamConstants.CDATA
+					|| eventType == XMLStreamConstants.SPACE || eventType == XMLStreamConstants.ENTITY_REFERENCE) {
+				content.append(getTextCharacters(), getTextStart(), getTextLength());
+			} else if (eventType == XMLStreamConstants.START_ELEMENT) {
+				throw new XMLStreamException("The element has a child element");
+			} else if (eventType == XMLStreamConstants.END_DOCUMENT) {
+				throw new XMLStreamException("Unexpected end of document");
+			}
+			eventType = next();
+		}
+		return content.toString();
+	}
+
+	@Override
+	public void require(final int type, final String namespaceURI, final String localName) throws XMLStreamException {
+		if (type != getEventType() || (namespaceURI != null && !namespaceURI.equals(getNamespaceURI()))
+				|| (localName != null && !localName.equals(getLocalName()))) {
+			throw new XMLStreamException("Required event " + type + " " + localName + " doesn't match the current one");
+		}
+	}
+
+	@Override
+	public Object getProperty(final String name) {
+		if (XMLInputFactory.IS_NAMESPACE_AWARE.equals(name)) {
+			return Boolean.TRUE;
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		depth = 0;
+	}
+
+	@Override
+	public int getEventType() {
+		return parsed.getType(current);
+	}
+
+	@Override
+	public boolean isStartElement() {
+		return getEventType() == XMLStreamConstants.START_ELEMENT;
+	}
+
+	@Override
+	public boolean isEndElement() {
+		return getEventType() == XMLStreamConstants.END_ELEMENT;
+	}
+
+	@Override
+	public boolean isCharacters() {
+		return getEventType() == XMLStreamConstants.CHARACTERS;
+	}
+
+	@Override
+	public boolean isWhiteSpace() {
+		if (!hasText() || getEventType() == XMLStreamConstants.COMMENT) {
+			return false;
+		}
+		char[] text = parsed.getText();
+		for (int i = getTextStart(); i < getTextStart() + getTextLength(); i++) {
+			if (text[i] != ' ' && text[i] != '\t' && text[i] != '\n' && text[i] != '\r') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean hasName() {
+		return isStartElement() || isEndElement();
+	}
+
+	@Override
+	public QName getName() {
+		checkName();
+		return parsed.getName(current);
+	}
+
+	@Override
+	public String getLocalName() {
+		if (getEventType() == XMLStreamConstants.ENTITY_REFERENCE) {
+			return parsed.getString(current);
+		}
+		return getName().getLocalPart();
+	}
+
+	@Override
+	public String getNamespaceURI() {
+		if (!hasName()) {
+			return null;
+		}
+		String uri = getName().getNamespaceURI();
+		return uri.length() == 0 ? null : uri;
+	}
+
+	@Override
+	public String getPrefix() {
+		return hasName() ? getName().getPrefix() : null;
+	}
+
+	private void checkName() {
+		if (!hasName()) {
+			throw new IllegalStateException("The current event is not a START_ELEMENT or END_ELEMENT");
+		}
+	}
+
+	@Override
+	public int getAttributeCount() {
+		checkStartElement();
+		return parsed.getAttributeCount(current);
+	}
+
+	@Override
+	public QName getAttributeName(final int index) {
+		return parsed.getAttributeName(attribute(index));
+	}
+
+	@Override
+	public String getAttributeNamespace(final int index) {
+		String uri = getAttributeName(index).getNamespaceURI();
+		return uri.length() == 0 ? null : uri;
+	}
+
+	@Override
+	public String getAttributeLocalName(final int index) {
+		return getAttributeName(index).getLocalPart();
+	}
+
+	@Override
+	public String getAttributePrefix(final int index) {
+		return getAttributeName(index).getPrefix();
+	}
+
+	@Override
+	public String getAttributeType(final int index) {
+		attribute(index);
+		return "CDATA";
+	}
+
+	@Override
+	public String getAttributeValue(final int index) {
+		return parsed.getAttributeValue(attribute(index));
+	}
+
+	@Override
+	public boolean isAttributeSpecified(final int index) {
+		attribute(index);
+		return true;
+	}
+
+	@Override
+	public String getAttributeValue(final String namespaceURI, final String localName) {
+		checkStartElement();
+		for (int i = 0; i < getAttributeCount(); i++) {
+			QName name = getAttributeName(i);
+			if (name.getLocalPart().equals(localName)
+					&& (namespaceURI == null || namespaceURI.equals(name.getNamespaceURI()))) {
+				return getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	private int attribute(final int index) {
+		checkStartElement();
+		if (index < 0 || index >= parsed.getAttributeCount(current)) {
+			throw new IndexOutOfBoundsException("No attribute at index " + index);
+		}
+		return parsed.getFirstAttribute(current) + index;
+	}
+
+	private void checkStartElement() {
+		if (!isStartElement()) {
+			throw new IllegalStateException("The current event is not a START_ELEMENT");
+		}
+	}
+
+	@Override
+	public int getNamespaceCount() {
+		checkName();
+		return parsed.getNamespaceCount(current);
+	}
+
+	@Override
+	public String getNamespacePrefix(final int index) {
+		return parsed.getNamespacePrefix(namespace(index));
+	}
+
+	@Override
+	public String getNamespaceURI(final int index) {
+		return parsed.getNamespaceURI(namespace(index));
+	}
+
+	private int namespace(final int index) {
+		if (index < 0 || index >= getNamespaceCount()) {
+			throw new IndexOutOfBoundsException("No namespace at index " + index);
+		}
+		return parsed.getFirstNamespace(current) + index;
+	}
+
+	@Override
+	public String getNamespaceURI(final String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("The prefix cannot be null");
+		} else if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+			return XMLConstants.XML_NS_URI;
+		} else if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+			return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+		}
+		// Declarations of the current END_ELEMENT are still in scope, they are the ones of its START_ELEMENT
+		for (int i = depth - 1; i >= 0; i--) {
+			int element = elements[i];
+			for (int j = 0; j < parsed.getNamespaceCount(element); j++) {
+				int namespace = parsed.getFirstNamespace(element) + j;
+				String declared = parsed.getNamespacePrefix(namespace);
+				if (prefix.equals(declared == null ? XMLConstants.DEFAULT_NS_PREFIX : declared)) {
+					return parsed.getNamespaceURI(namespace);
+				}
+			}
+		}
+		return prefix.length() == 0 ? XMLConstants.NULL_NS_URI : null;
+	}
+
+	@Override
+	public String getPrefix(final String namespaceURI) {
+		Iterator<String> prefixes = getPrefixes(namespaceURI);
+		return prefixes.hasNext() ? prefixes.next() : null;
+	}
+
+	@Override
+	public Iterator<String> getPrefixes(final String namespaceURI) {
+		List<String> prefixes = new ArrayList<String>();
+		for (int i = depth - 1; i >= 0; i--) {
+			int element = elements[i];
+			for (int j = 0; j < parsed.getNamespaceCount(element); j++) {
+				int namespace = parsed.getFirstNamespace(element) + j;
+				String declared = parsed.getNamespacePrefix(namespace);
+				String prefix = declared == null ? XMLConstants.DEFAULT_NS_PREFIX : declared;
+				if (namespaceURI.equals(parsed.getNamespaceURI(namespace)) && !prefixes.contains(prefix)
+						&& namespaceURI.equals(getNamespaceURI(prefix))) {
+					prefixes.add(prefix);
+				}
+			}
+		}
+		return Collections.unmodifiableList(prefixes).iterator();
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return this;
+	}
+
+	@Override
+	public boolean hasText() {
+		int eventType = getEventType();
+		return eventType == XMLStreamConstants.CHARACTERS || eventType == XMLStreamConstants.CDATA
+				|| eventType == XMLStreamConstants.SPACE || eventType == XMLStreamConstants.COMMENT
+				|| eventType == XMLStreamConstants.ENTITY_REFERENCE || eventType == XMLStreamConstants.DTD;
+	}
+
+	@Override
+	public String getText() {
+		if (getEventType() == XMLStreamConstants.DTD) {
+			return parsed.getString(current);
+		}
+		checkText();
+		return new String(parsed.getText(), parsed.getTextStart(current), parsed.getTextLength(current));
+	}
+
+	@Override
+	public char[] getTextCharacters() {
+		checkText();
+		return parsed.getText();
+	}
+
+	@Override
+	public int getTextCharacters(final int sourceStart, final char[] target, final int targetStart, final int length)
+			throws XMLStreamException {
+		checkText();
+		int copied = Math.min(length, getTextLength() - sourceStart);
+		if (copied <= 0) {
+			return 0;
+		}
+		System.arraycopy(parsed.getText(), getTextStart() + sourceStart, target, targetStart, copied);
+		return copied;
+	}
+
+	@Override
+	public int getTextStart() {
+		checkText();
+		return parsed.getTextStart(current);
+	}
+
+	@Override
+	public int getTextLength() {
+		checkText();
+		return parsed.getTextLength(current);
+	}
+
+	private void checkText() {
+		if (!hasText() || getEventType() == XMLStreamConstants.DTD) {
+			throw new IllegalStateException("The current event has no text");
+		}
+	}
+
+	@Override
+	public String getPITarget() {
+		return getEventType() == XMLStreamConstants.PROCESSING_INSTRUCTION ? parsed.getString(current) : null;
+	}
+
+	@Override
+	public String getPIData() {
+		if (getEventType() != XMLStreamConstants.PROCESSING_INSTRUCTION) {
+			return null;
+		}
+		return new String(parsed.getText(), parsed.getTextStart(current), parsed.getTextLength(current));
+	}
+
+	@Override
+	public String getEncoding() {
+		return null;
+	}
+
+	@Override
+	public String getVersion() {
+		return parsed.getString(0);
+	}
+
+	@Override
+	public boolean isStandalone() {
+		return parsed.getStandalone(0) == 2;
+	}
+
+	@Override
+	public boolean standaloneSet() {
+		return parsed.getStandalone(0) != 0;
+	}
+
+	@Override
+	public String getCharacterEncodingScheme() {
+		return parsed.getEncoding(0);
+	}
+
+	@Override
+	public Location getLocation() {
+		return LOCATION;
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * The settings of the progressive HTML output of an {@link ENMLProcessor}.
+ * <p>
+ * By default the HTML written in an {@code OutputStream} stays in the buffers of the {@code XMLEventWriter} until the
+ * whole {@code Note} is converted. In progressive mode the HTML is flushed as soon as the {@code <head>} and the
+ * opening {@code <body>} tag are written, so a browser can start rendering while the rest of the {@code Note} is
+ * converted, and then every time a given number of bytes or ENML elements has been converted.
+ * <p>
+ * The bytes are counted when they leave the buffers of the {@code XMLEventWriter}, which hold a few kilobytes, so a
+ * byte interval smaller than these buffers is effectively the size of the buffers. An element interval allows a finer
+ * control.
+ * <p>
+ * A {@link Listener} can be notified of each flush, the first one giving the time to first byte of the conversion.
+ * 
+ * @see ENMLProcessor#setProgressiveOutput(ProgressiveOutput)
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class ProgressiveOutput {
+
+	private static Logger log = Logger.getLogger(ProgressiveOutput.class.getName());
+
+	private final int flushBytes;
+	private final int flushElements;
+	private final Listener listener;
+
+	/**
+	 * Receives the flushes of the progressive conversions.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after the HTML of a {@code Note} has been flushed. The first flush of a conversion, after the
+		 * {@code <head>}, gives its time to first byte.
+		 * <p>
+		 * This method is called by the thread running the conversion, and delays it until it returns.
+		 * 
+		 * @param note the {@code Note} converted
+		 * @param flush the number of this flush in the conversion, starting at 1
+		 * @param bytes the total number of bytes written in the {@code OutputStream}
+		 * @param elapsed the time elapsed since the beginning of the conversion, in nanoseconds
+		 */
+		void flushed(Note note, int flush, long bytes, long elapsed);
+	}
+
+	/**
+	 * @param flushBytes the number of bytes written after which the HTML is flushed, 0 to not flush based on bytes
+	 * @param flushElements the number of ENML elements converted after which the HTML is flushed, 0 to not flush
+	 *            based on elements
+	 */
+	public ProgressiveOutput(final int flushBytes, final int flushElements) {
+		this(flushBytes, flushElements, null);
+	}
+
+	/**
+	 * @param flushBytes the number of bytes written after which the HTML is flushed, 0 to not flush based on bytes
+	 * @param flushElements the number of ENML elements converted after which the HTML is flushed, 0 to not flush
+	 *            based on elements
+	 * @param listener the {@code Listener} notified of each flush, or null
+	 */
+	public ProgressiveOutput(final int flushBytes, final int flushElements, final Listener listener) {
+		if (flushBytes < 0) {
+			throw new IllegalArgumentException("The byte interval must not be negative: " + flushBytes);
+		}
+		if (flushElements < 0) {
+			throw new IllegalArgumentException("The element interval must not be negative: " + flushElements);
+		}
+		this.flushBytes = flushBytes;
+		this.flushElements = flushElements;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the number of bytes written after which the HTML is flushed, 0 if not flushed based on bytes
+	 */
+	public int getFlushBytes() {
+		return flushBytes;
+	}
+
+	/**
+	 * @return the number of ENML elements converted after which the HTML is flushed, 0 if not flushed based on
+	 *         elements
+	 */
+	public int getFlushElements() {
+		return flushElements;
+	}
+
+	/**
+	 * @return the {@code Listener} notified of each flush, or null
+	 */
+	public Listener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Runs a conversion writing in a {@code CountingOutputStream}, flushing it after the {@code <head>} and then at
+	 * the configured intervals.
+	 * 
+	 * @param note the {@code Note} converted
+	 * @param conversion the conversion to run
+	 * @param out the {@code CountingOutputStream} in which the conversion writes
+	 * @param start the time at which the conversion started, as given by {@code System.nanoTime()}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	void run(final Note note, final HTMLConversion conversion, final CountingOutputStream out, final long start)
+			throws XMLStreamException {
+		int flushes = 0;
+		long flushedBytes = 0;
+		int flushedElements = 0;
+		while (conversion.step()) {
+			int elements = conversion.getElementCount();
+			boolean flush;
+			if (flushes == 0) {
+				// The head and the opening body tag are written with the root element
+				flush = elements > 0;
+			} else {
+				flush = (flushElements > 0 && elements - flushedElements >= flushElements)
+						|| (flushBytes > 0 && out.getCount() - flushedBytes >= flushBytes);
+			}
+			if (flush) {
+				conversion.getWriter().flush();
+				flushes++;
+				flushedBytes = out.getCount();
+				flushedElements = elements;
+				long elapsed = System.nanoTime() - start;
+				if (flushes == 1) {
+					log.fine("First bytes of Note " + note.getGuid() + " have been flushed in "
+							+ Utils.getDurationBreakdown(TimeUnit.NANOSECONDS.toMillis(elapsed)));
+				}
+				if (listener != null) {
+					try {
+						listener.flushed(note, flushes, flushedBytes, elapsed);
+					} catch (RuntimeException e) {
+						log.log(Level.WARNING, "Progressive output listener failed for Note " + note.getGuid(), e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * An {@code OutputStream} counting the bytes written in another {@code OutputStream}.
+	 */
+	static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		/**
+		 * @param out the {@code OutputStream} in which to write
+		 */
+		CountingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		/**
+		 * @return the number of bytes written
+		 */
+		long getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * An {@code XMLEventReader} creating the events of an {@code XMLStreamReader}, replaying the tokens of a
+ * {@link ParsedNote} or reading the ENML content fed to a {@link ConversionSession}.
+ * <p>
+ * The events are created with the {@code XMLEventFactory} of the {@link ENMLProcessor}, so they are the same the
+ * {@code XMLEventReader} of the stAX implementation would have returned by parsing the ENML content.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class StreamEventReader implements XMLEventReader {
+
+	private final XMLStreamReader reader;
+	private final XMLEventFactory eventFactory;
+
+	/** The attributes of the current element, reused as the {@code XMLEventFactory} copies them in the event. */
+	private final List<Attribute> attributes = new ArrayList<Attribute>();
+
+	/** The namespaces of the current element, reused as the {@code XMLEventFactory} copies them in the event. */
+	private final List<Namespace> namespaces = new ArrayList<Namespace>();
+
+	/** The event returned by {@link #peek()}, not yet consumed. */
+	private XMLEvent peeked;
+
+	/** True until the START_DOCUMENT event, on which the {@code XMLStreamReader} may be initially, is returned. */
+	private boolean atStart;
+
+	/**
+	 * @param reader the {@code XMLStreamReader} which events are created
+	 * @param eventFactory the {@code XMLEventFactory} creating the events
+	 * @param atStart true if the {@code XMLStreamReader} is initially on its START_DOCUMENT event, false if its first
+	 *            event is returned by {@code next()}
+	 */
+	StreamEventReader(final XMLStreamReader reader, final XMLEventFactory eventFactory, final boolean atStart) {
+		this.reader = reader;
+		this.eventFactory = eventFactory;
+		this.atStart = atStart;
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			return peeked != null || atStart || reader.hasNext();
+		} catch (XMLStreamException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public XMLEvent nextEvent() throws XMLStreamException {
+		if (peeked != null) {
+			XMLEvent event = peeked;
+			peeked = null;
+			return event;
+		}
+		if (atStart) {
+			atStart = false;
+		} else if (reader.hasNext()) {
+			reader.next();
+		} else {
+			throw new NoSuchElementException("No more events in the ENML content");
+		}
+		return createEvent();
+	}
+
+	@Override
+	public Object next() {
+		try {
+			return nextEvent();
+		} catch (XMLStreamException e) {
+			NoSuchElementException noSuchElementException = new NoSuchElementException(e.getMessage());
+			noSuchElementException.initCause(e);
+			throw noSuchElementException;
+		}
+	}
+
+	@Override
+	public XMLEvent peek() throws XMLStreamException {
+		if (peeked == null && hasNext()) {
+			peeked = nextEvent();
+		}
+		return peeked;
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		if (peeked != null) {
+			throw new XMLStreamException("getElementText() cannot be called after peek()");
+		}
+		return reader.getElementText();
+	}
+
+	@Override
+	public XMLEvent nextTag() throws XMLStreamException {
+		XMLEvent event = nextEvent();
+		while ((event.isCharacters() && event.asCharacters().isWhiteSpace()) || event.isProcessingInstruction()
+				|| event.getEventType() == XMLStreamConstants.COMMENT) {
+			event = nextEvent();
+		}
+		if (!event.isStartElement() && !event.isEndElement()) {
+			throw new XMLStreamException("Expected a start or end tag");
+		}
+		return event;
+	}
+
+	@Override
+	public Object getProperty(final String name) {
+		return reader.getProperty(name);
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		reader.close();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("The ENML content cannot be modified through its XMLEventReader");
+	}
+
+	private XMLEvent createEvent() {
+		switch (reader.getEventType()) {
+		case XMLStreamConstants.START_ELEMENT:
+			attributes.clear();
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				attributes.add(eventFactory.createAttribute(reader.getAttributeName(i), reader.getAttributeValue(i)));
+			}
+			QName name = reader.getName();
+			return eventFactory.createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(),
+					iterator(attributes), iterator(createNamespaces()));
+		case XMLStreamConstants.END_ELEMENT:
+			name = reader.getName();
+			return eventFactory.createEndElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(),
+					iterator(createNamespaces()));
+		case XMLStreamConstants.CHARACTERS:
+			return eventFactory.createCharacters(reader.getText());
+		case XMLStreamConstants.CDATA:
+			return eventFactory.createCData(reader.getText());
+		case XMLStreamConstants.SPACE:
+			return eventFactory.createIgnorableSpace(reader.getText());
+		case XMLStreamConstants.COMMENT:
+			return eventFactory.createComment(reader.getText());
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			return eventFactory.createProcessingInstruction(reader.getPITarget(), reader.getPIData());
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			return eventFactory.createEntityReference(reader.getLocalName(), null);
+		case XMLStreamConstants.DTD:
+			return eventFactory.createDTD(reader.getText());
+		case XMLStreamConstants.START_DOCUMENT:
+			if (reader.getCharacterEncodingScheme() == null) {
+				return eventFactory.createStartDocument();
+			} else if (reader.getVersion() == null) {
+				return eventFactory.createStartDocument(reader.getCharacterEncodingScheme());
+			} else if (!reader.standaloneSet()) {
+				return eventFactory.createStartDocument(reader.getCharacterEncodingScheme(), reader.getVersion());
+			}
+			return eventFactory.createStartDocument(reader.getCharacterEncodingScheme(), reader.getVersion(),
+					reader.isStandalone());
+		case XMLStreamConstants.END_DOCUMENT:
+			return eventFactory.createEndDocument();
+		default:
+			throw new IllegalStateException("Unexpected token type " + reader.getEventType());
+		}
+	}
+
+	private List<Namespace> createNamespaces() {
+		namespaces.clear();
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			if (reader.getNamespacePrefix(i) == null) {
+				namespaces.add(eventFactory.createNamespace(reader.getNamespaceURI(i)));
+			} else {
+				namespaces.add(eventFactory.createNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i)));
+			}
+		}
+		return namespaces;
+	}
+
+	private static <T> Iterator<T> iterator(final List<T> list) {
+		return list.isEmpty() ? Collections.<T> emptyIterator() : list.iterator();
+	}
+}
@@ -0,0 +1,566 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import com.syncthemall.enml4j.util.Constants;
+
+/**
+ * An {@code XMLEventWriter} dedicated to the XHTML produced by the conversions, writing UTF-8 bytes directly in a
+ * buffer instead of encoding the markup through a {@code Writer}.
+ * <p>
+ * The markup repeated from one {@code Note} to another (the tags and attribute names of ENML and of the XHTML added
+ * by the {@code Converter}s, and the constant attribute values of the default {@code Converter}s like their styles)
+ * is escaped and encoded once when the class is loaded, then copied as bytes. The text and the other names and
+ * attribute values are escaped by copying at once each run of characters that doesn't need to be escaped. The empty
+ * elements of the XHTML void elements ({@code <br>}, {@code <img>}, {@code <input>}, {@code <meta>}...) are written
+ * as {@code <br />}, as expected by HTML parsers, instead of {@code <br></br>}.
+ * <p>
+ * This class is not thread-safe, a conversion at a time uses an {@code XHTMLEventWriter}, which is then
+ * {@linkplain #reset(OutputStream) reset} to be reused with its buffer by the next one.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class XHTMLEventWriter implements XMLEventWriter {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Size in bytes of the buffer, written in the {@code OutputStream} once full. */
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final byte[] XML_DECLARATION = bytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+	private static final byte[] EMPTY_END = bytes(" />");
+	private static final byte[] AMP = bytes("&amp;");
+	private static final byte[] LT = bytes("&lt;");
+	private static final byte[] GT = bytes("&gt;");
+	private static final byte[] QUOT = bytes("&quot;");
+
+	/** The XHTML 1.0 elements declared {@code EMPTY} in the DTD. */
+	private static final Set<String> VOID_ELEMENTS = new HashSet<String>(Arrays.asList("area", "base", "br", "col",
+			"hr", "img", "input", "link", "meta", "param"));
+
+	/** The ASCII characters copied as is in a markup. */
+	private static final boolean[] ALL_SAFE = safeCharacters("");
+
+	/** The ASCII characters copied as is in a text. */
+	private static final boolean[] TEXT_SAFE = safeCharacters("&<>");
+
+	/** The ASCII characters copied as is in an attribute value. */
+	private static final boolean[] ATTRIBUTE_SAFE = safeCharacters("&<>\"");
+
+	/** The elements of the ENML DTD, and the elements of the XHTML added by the {@code Converter}s. */
+	private static final String[] ELEMENT_NAMES = { "en-note", "en-crypt", "en-todo", "en-media", "a", "abbr",
+			"acronym", "address", "area", "b", "bdo", "big", "blockquote", "br", "caption", "center", "cite", "code",
+			"col", "colgroup", "dd", "del", "dfn", "div", "dl", "dt", "em", "font", "h1", "h2", "h3", "h4", "h5", "h6",
+			"hr", "i", "img", "ins", "kbd", "li", "map", "ol", "p", "pre", "q", "s", "samp", "small", "span", "strike",
+			"strong", "sub", "sup", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "tt", "u", "ul", "var",
+			"html", "head", "meta", "title", "body", "input", "script" };
+
+	/** The attributes of the ENML DTD, and the attributes of the XHTML added by the {@code Converter}s. */
+	private static final String[] ATTRIBUTE_NAMES = { "abbr", "align", "alt", "bgcolor", "border", "cellpadding",
+			"cellspacing", "charset", "checked", "cipher", "cite", "class", "clear", "color", "colspan", "compact",
+			"coords", "datetime", "dir", "face", "hash", "height", "hint", "href", "hreflang", "hspace", "id",
+			"ismap", "lang", "length", "longdesc", "name", "nohref", "noshade", "nowrap", "rel", "rev", "rowspan",
+			"shape", "size", "span", "src", "start", "style", "summary", "tabindex", "target", "text", "title", "type",
+			"usemap", "value", "vspace", "width", "xml:lang", "xml:space", "xmlns", "http-equiv", "content" };
+
+	/**
+	 * The constant attribute values of the default {@code Converter}s. A value missing here is escaped as any other,
+	 * only the time to encode it is lost.
+	 */
+	private static final String[] CONSTANT_VALUES = { "", "http://www.w3.org/1999/xhtml", "checkbox",
+			"text/javascript", "Content-Type", "text/html; charset=UTF-8", "exporter-version", Constants.VERSION,
+			"altitude", "author", "created", "latitude", "longitude", "updated",
+			"text-decoration: none;color: #6f6f6f;position: relative; display: block;",
+			"position:absolute;border-color:transparent;", "display: block;line-height: 48px;margin-left: 56px;" };
+
+	/** The start tags of {@link #ELEMENT_NAMES} encoded, without their closing bracket. */
+	private static final Map<String, byte[]> START_TAGS = encode(ELEMENT_NAMES, '<');
+
+	/** The end tags of {@link #ELEMENT_NAMES} encoded. */
+	private static final Map<String, byte[]> END_TAGS = encode(ELEMENT_NAMES, '/');
+
+	/** The names of {@link #ATTRIBUTE_NAMES} encoded with their opening quote. */
+	private static final Map<String, byte[]> ENCODED_ATTRIBUTE_NAMES = encode(ATTRIBUTE_NAMES, '=');
+
+	/** The values of {@link #CONSTANT_VALUES} escaped and encoded with their closing quote. */
+	private static final Map<String, byte[]> ENCODED_VALUES = encode(CONSTANT_VALUES, '"');
+
+	private OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int count;
+
+	/** The qualified names of the elements started and not ended yet. */
+	private final ArrayDeque<String> openElements = new ArrayDeque<String>();
+
+	/** True if the start tag of the last element started is not closed yet. */
+	private boolean startTagOpen;
+
+	private NamespaceContext namespaceContext;
+
+	/**
+	 * @param out the {@code OutputStream} in which to write the XHTML
+	 */
+	XHTMLEventWriter(final OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Prepares this writer for another conversion, discarding what the previous one left unflushed.
+	 * 
+	 * @param output the {@code OutputStream} in which to write the XHTML, or null to only release the previous one
+	 */
+	void reset(final OutputStream output) {
+		out = output;
+		count = 0;
+		openElements.clear();
+		startTagOpen = false;
+		namespaceContext = null;
+	}
+
+	@Override
+	public void add(final XMLEvent event) throws XMLStreamException {
+		try {
+			switch (event.getEventType()) {
+			case XMLEvent.START_ELEMENT:
+				closeStartTag();
+				writeStartElement(event.asStartElement());
+				break;
+			case XMLEvent.END_ELEMENT:
+				writeEndElement(event);
+				break;
+			case XMLEvent.CHARACTERS:
+			case XMLEvent.SPACE:
+			case XMLEvent.CDATA:
+				writeCharacters(event.asCharacters());
+				break;
+			case XMLEvent.ATTRIBUTE:
+				checkStartTag(event);
+				writeAttribute((Attribute) event);
+				break;
+			case XMLEvent.NAMESPACE:
+				checkStartTag(event);
+				writeNamespace((Namespace) event);
+				break;
+			case XMLEvent.COMMENT:
+				closeStartTag();
+				write("<!--");
+				write(((Comment) event).getText());
+				write("-->");
+				break;
+			case XMLEvent.PROCESSING_INSTRUCTION:
+				closeStartTag();
+				ProcessingInstruction instruction = (ProcessingInstruction) event;
+				write("<?");
+				write(instruction.getTarget());
+				if (instruction.getData() != null && instruction.getData().length() > 0) {
+					write(" ");
+					write(instruction.getData());
+				}
+				write("?>");
+				break;
+			case XMLEvent.ENTITY_REFERENCE:
+				closeStartTag();
+				write("&");
+				write(((EntityReference) event).getName());
+				write(";");
+				break;
+			case XMLEvent.DTD:
+				write(((DTD) event).getDocumentTypeDeclaration());
+				break;
+			case XMLEvent.START_DOCUMENT:
+				// The XHTML is always encoded in UTF-8, whatever the encoding of the ENML
+				write(XML_DECLARATION);
+				break;
+			case XMLEvent.END_DOCUMENT:
+				// As with the StAX XMLEventWriter the elements not ended are ended, the <html> element in particular
+				while (!openElements.isEmpty()) {
+					writeEndElement(event);
+				}
+				break;
+			default:
+				throw new XMLStreamException("Unsupported event type: " + event.getEventType(), event.getLocation());
+			}
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void add(final XMLEventReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			add(reader.nextEvent());
+		}
+	}
+
+	/**
+	 * Writes the XHTML buffered so far in the {@code OutputStream}, and flushes it. An element started but not closed
+	 * stays pending, so it can still be written as an empty element.
+	 */
+	@Override
+	public void flush() throws XMLStreamException {
+		try {
+			flushBuffer();
+			out.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	/**
+	 * Flushes the XHTML written so far. As with the StAX {@code XMLEventWriter}, the {@code OutputStream} is not
+	 * closed.
+	 */
+	@Override
+	public void close() throws XMLStreamException {
+		flush();
+	}
+
+	@Override
+	public String getPrefix(final String uri) throws XMLStreamException {
+		return namespaceContext != null ? namespaceContext.getPrefix(uri) : null;
+	}
+
+	@Override
+	public void setPrefix(final String prefix, final String uri) throws XMLStreamException {
+		// The XHTML written has no prefixed elements to bind
+	}
+
+	@Override
+	public void setDefaultNamespace(final String uri) throws XMLStreamException {
+		// The namespace of the XHTML is written as an attribute of the root element
+	}
+
+	@Override
+	public void setNamespaceContext(final NamespaceContext context) throws XMLStreamException {
+		this.namespaceContext = context;
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return namespaceContext;
+	}
+
+	private void writeStartElement(final StartElement start) throws IOException {
+		String name = qualifiedName(start.getName());
+		writeMarkup(START_TAGS, '<', name);
+		for (Iterator<?> namespaces = start.getNamespaces(); namespaces.hasNext();) {
+			writeNamespace((Namespace) namespaces.next());
+		}
+		for (Iterator<?> attributes = start.getAttributes(); attributes.hasNext();) {
+			writeAttribute((Attribute) attributes.next());
+		}
+		openElements.push(name);
+		startTagOpen = true;
+	}
+
+	/**
+	 * Ends the last element started. As with the StAX {@code XMLEventWriter} the name of the {@code EndElement} is
+	 * ignored, some {@code Converter}s ending their elements with another name.
+	 */
+	private void writeEndElement(final XMLEvent event) throws IOException, XMLStreamException {
+		String name = openElements.poll();
+		if (name == null) {
+			throw new XMLStreamException("No element to end", event.getLocation());
+		}
+		if (startTagOpen) {
+			startTagOpen = false;
+			if (VOID_ELEMENTS.contains(name)) {
+				write(EMPTY_END);
+				return;
+			}
+			write(">");
+		}
+		writeMarkup(END_TAGS, '/', name);
+	}
+
+	private void writeAttribute(final Attribute attribute) throws IOException {
+		writeMarkup(ENCODED_ATTRIBUTE_NAMES, '=', qualifiedName(attribute.getName()));
+		writeValue(attribute.getValue());
+	}
+
+	private void writeNamespace(final Namespace namespace) throws IOException {
+		String name = namespace.isDefaultNamespaceDeclaration() ? "xmlns" : "xmlns:" + namespace.getPrefix();
+		writeMarkup(ENCODED_ATTRIBUTE_NAMES, '=', name);
+		writeValue(namespace.getNamespaceURI());
+	}
+
+	/**
+	 * Writes an attribute value and its closing quote.
+	 */
+	private void writeValue(final String value) throws IOException {
+		writeMarkup(ENCODED_VALUES, '"', value);
+	}
+
+	private void writeCharacters(final Characters characters) throws IOException {
+		String data = characters.getData();
+		if (data.length() == 0) {
+			// Keeps a pending start tag open, to write an empty element
+			return;
+		}
+		closeStartTag();
+		if (characters.isCData()) {
+			write("<![CDATA[");
+			write(data);
+			write("]]>");
+		} else {
+			writeEscaped(data, TEXT_SAFE);
+		}
+	}
+
+	private void closeStartTag() throws IOException {
+		if (startTagOpen) {
+			startTagOpen = false;
+			write(">");
+		}
+	}
+
+	private void checkStartTag(final XMLEvent event) throws XMLStreamException {
+		if (!startTagOpen) {
+			throw new XMLStreamException("An attribute or namespace must follow a start element", event.getLocation());
+		}
+	}
+
+	/**
+	 * Writes a markup, copying its bytes if it has been encoded once.
+	 * 
+	 * @param encoded the markups of this kind encoded once
+	 * @param kind the kind of markup: {@code <} for a start tag, {@code /} for an end tag, {@code =} for an attribute
+	 *            name and {@code "} for an attribute value
+	 * @param content the name or value
+	 */
+	private void writeMarkup(final Map<String, byte[]> encoded, final char kind, final String content)
+			throws IOException {
+		byte[] bytes = encoded.get(content);
+		if (bytes != null) {
+			write(bytes);
+			return;
+		}
+		switch (kind) {
+		case '<':
+			write("<");
+			write(content);
+			break;
+		case '/':
+			write("</");
+			write(content);
+			write(">");
+			break;
+		case '=':
+			write(" ");
+			write(content);
+			write("=\"");
+			break;
+		default:
+			writeEscaped(content, ATTRIBUTE_SAFE);
+			write("\"");
+		}
+	}
+
+	private static Map<String, byte[]> encode(final String[] contents, final char kind) {
+		Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+		for (String content : contents) {
+			encoded.put(content, bytes(markup(kind, content)));
+		}
+		return Collections.unmodifiableMap(encoded);
+	}
+
+	private static String markup(final char kind, final String content) {
+		switch (kind) {
+		case '<':
+			return "<" + content;
+		case '/':
+			return "</" + content + ">";
+		case '=':
+			return " " + content + "=\"";
+		default:
+			return escape(content) + "\"";
+		}
+	}
+
+	/**
+	 * Escapes a text, copying at once each run of ASCII characters that doesn't need to be escaped and encoding the
+	 * others in UTF-8.
+	 */
+	private void writeEscaped(final String text, final boolean[] safe) throws IOException {
+		int length = text.length();
+		int index = 0;
+		while (index < length) {
+			int end = index;
+			while (end < length) {
+				char c = text.charAt(end);
+				if (c >= safe.length || !safe[c]) {
+					break;
+				}
+				end++;
+			}
+			writeASCII(text, index, end);
+			if (end == length) {
+				return;
+			}
+			char c = text.charAt(end);
+			index = end + 1;
+			if (c == '&') {
+				write(AMP);
+			} else if (c == '<') {
+				write(LT);
+			} else if (c == '>') {
+				write(GT);
+			} else if (c == '"') {
+				write(QUOT);
+			} else if (Character.isHighSurrogate(c) && index < length && Character.isLowSurrogate(text.charAt(index))) {
+				writeCodePoint(Character.toCodePoint(c, text.charAt(index)));
+				index++;
+			} else if (Character.isSurrogate(c)) {
+				// An unpaired surrogate can't be encoded
+				writeCodePoint('?');
+			} else {
+				writeCodePoint(c);
+			}
+		}
+	}
+
+	private void writeASCII(final String text, final int from, final int to) throws IOException {
+		int index = from;
+		while (index < to) {
+			if (count == buffer.length) {
+				flushBuffer();
+			}
+			int end = Math.min(to, index + buffer.length - count);
+			while (index < end) {
+				buffer[count++] = (byte) text.charAt(index++);
+			}
+		}
+	}
+
+	private void writeCodePoint(final int codePoint) throws IOException {
+		if (count + 4 > buffer.length) {
+			flushBuffer();
+		}
+		if (codePoint < 0x80) {
+			buffer[count++] = (byte) codePoint;
+		} else if (codePoint < 0x800) {
+			buffer[count++] = (byte) (0xC0 | codePoint >> 6);
+			buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+		} else if (codePoint < 0x10000) {
+			buffer[count++] = (byte) (0xE0 | codePoint >> 12);
+			buffer[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+			buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+		} else {
+			buffer[count++] = (byte) (0xF0 | codePoint >> 18);
+			buffer[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+			buffer[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+			buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+		}
+	}
+
+	/**
+	 * Writes a markup that doesn't need to be escaped.
+	 */
+	private void write(final String markup) throws IOException {
+		writeEscaped(markup, ALL_SAFE);
+	}
+
+	private void write(final byte[] bytes) throws IOException {
+		if (bytes.length > buffer.length - count) {
+			flushBuffer();
+			if (bytes.length > buffer.length) {
+				out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	private static String qualifiedName(final QName name) {
+		String prefix = name.getPrefix();
+		return prefix == null || prefix.length() == 0 ? name.getLocalPart() : prefix + ":" + name.getLocalPart();
+	}
+
+	/**
+	 * Escapes an attribute value, for the constant values encoded once.
+	 */
+	private static String escape(final String value) {
+		StringBuilder builder = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String entity = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '"' ? "&quot;" : null;
+			if (entity != null) {
+				if (builder == null) {
+					builder = new StringBuilder(value.length() + 16).append(value, 0, i);
+				}
+				builder.append(entity);
+			} else if (builder != null) {
+				builder.append(c);
+			}
+		}
+		return builder != null ? builder.toString() : value;
+	}
+
+	private static boolean[] safeCharacters(final String escaped) {
+		boolean[] safe = new boolean[128];
+		Arrays.fill(safe, true);
+		for (int i = 0; i < escaped.length(); i++) {
+			safe[escaped.charAt(i)] = false;
+		}
+		return safe;
+	}
+
+	private static byte[] bytes(final String markup) {
+		return markup.getBytes(UTF_8);
+	}
+}
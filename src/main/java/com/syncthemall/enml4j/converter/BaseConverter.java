@@ -32,6 +32,7 @@ import javax.xml.stream.events.XMLEvent;
 
 import com.evernote.edam.type.Note;
 import com.syncthemall.enml4j.util.Elements;
+import com.syncthemall.enml4j.util.StAXFactories;
 
 /**
  * Base class to extends to creates custom converters for {@code <en-note>}, {@code <en-todo>} or {@code <en-crypt>}
@@ -41,7 +42,11 @@ import com.syncthemall.enml4j.util.Elements;
  */
 public abstract class BaseConverter implements Converter {
 
-	private XMLEventFactory eventFactory;
+	/**
+	 * The {@code XMLEventFactory} creating the new events, created with the converter so it can be used by any
+	 * {@code ENMLProcessor} without being modified. Volatile so a factory set later is seen by every conversion.
+	 */
+	private volatile XMLEventFactory eventFactory = StAXFactories.newEventFactory();
 
 	@Override
 	public final Elements convertElement(final StartElement start, final Note note, final Map<String, String> mapHashURL) {
@@ -0,0 +1,71 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.xml.stream.events.StartElement;
+
+import com.evernote.edam.type.Note;
+
+/**
+ * Interface for every Markdown Converter.
+ * <p>
+ * A {@code MarkdownConverter} is used by ENML4j to convert a specific ENML tag to Markdown. Like a
+ * {@link TextConverter} it writes directly in the {@code Writer} receiving the Markdown of the {@code Note}. ENML4j
+ * provide default {@code MarkdownConverter}s, if more specifics conversion are required a {@code MarkdownConverter}
+ * class has to be implemented.
+ * 
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * @see <a href="http://daringfireball.net/projects/markdown/syntax">Markdown syntax</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public interface MarkdownConverter {
+
+	/**
+	 * Convert an ENML tag to Markdown.
+	 * <p>
+	 * This methods writes the Markdown replacing the currently processed ENML tag based on:
+	 * <ul>
+	 * <li>the {@code StartElement} corresponding to the ENML tag currently processed</li>
+	 * <li>the {@code Note} currently processed</li>
+	 * <li>the mapping of the {@code Resource}s hash with their URL</li>
+	 * </ul>
+	 * 
+	 * The methods has to return true if the content of the ENML tag has to be converted as well, false if it has to be
+	 * skipped.
+	 * 
+	 * @param start the {@code StartElement} of the corresponding ENML tag
+	 * @param note the {@code Note} currently converted
+	 * @param mapHashURL the mapping of {@code Resource}s hash with their URL
+	 * @param out the {@code Writer} in which to write the Markdown
+	 * @return true if the content of the ENML tag has to be converted, false otherwise
+	 * @throws IOException if an I/O error occurs writing in the {@code Writer}
+	 */
+	boolean convertElement(StartElement start, Note note, Map<String, String> mapHashURL, Writer out)
+			throws IOException;
+
+}
@@ -32,6 +32,7 @@ import javax.xml.stream.events.XMLEvent;
 
 import com.evernote.edam.type.Note;
 import com.syncthemall.enml4j.util.Elements;
+import com.syncthemall.enml4j.util.StAXFactories;
 
 /**
  * Base class to extends to creates custom converters for {@code <en-media>} ENML tags.
@@ -40,7 +41,11 @@ import com.syncthemall.enml4j.util.Elements;
  */
 public abstract class MediaConverter implements Converter {
 
-	private XMLEventFactory eventFactory;
+	/**
+	 * The {@code XMLEventFactory} creating the new events, created with the converter so it can be used by any
+	 * {@code ENMLProcessor} without being modified. Volatile so a factory set later is seen by every conversion.
+	 */
+	private volatile XMLEventFactory eventFactory = StAXFactories.newEventFactory();
 
 	@Override
 	public abstract Elements convertElement(StartElement start, Note note, Map<String, String> mapHashURL);
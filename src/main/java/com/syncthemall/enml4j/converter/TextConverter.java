@@ -0,0 +1,69 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.stream.events.StartElement;
+
+import com.evernote.edam.type.Note;
+
+/**
+ * Interface for every plain text Converter.
+ * <p>
+ * A {@code TextConverter} is used by ENML4j to convert a specific ENML tag to plain text. Unlike a {@link Converter} it
+ * doesn't produce {@code XMLEvent}s but writes directly in the {@code Writer} receiving the text of the {@code Note}.
+ * ENML4j provide default {@code TextConverter}s to serves generic purpose (typically full-text indexing). If more
+ * specifics conversion are required a {@code TextConverter} class has to be implemented.
+ * 
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public interface TextConverter {
+
+	/**
+	 * Convert an ENML tag to plain text.
+	 * <p>
+	 * This methods writes the text replacing the currently processed ENML tag based on:
+	 * <ul>
+	 * <li>the {@code StartElement} corresponding to the ENML tag currently processed</li>
+	 * <li>the {@code Note} currently processed</li>
+	 * </ul>
+	 * 
+	 * The methods has to return true if the text included in the ENML tag has to be written as well, false if it has
+	 * to be skipped.
+	 * <p>
+	 * For example a {@code TextConverter} designed to convert an {@code <en-crypt>} tag would write nothing and return
+	 * false, as the encrypted text has no meaning once extracted.
+	 * 
+	 * @param start the {@code StartElement} of the corresponding ENML tag
+	 * @param note the {@code Note} currently converted
+	 * @param out the {@code Writer} in which to write the text
+	 * @return true if the text included in the ENML tag has to be written, false otherwise
+	 * @throws IOException if an I/O error occurs writing in the {@code Writer}
+	 */
+	boolean convertElement(StartElement start, Note note, Writer out) throws IOException;
+
+}
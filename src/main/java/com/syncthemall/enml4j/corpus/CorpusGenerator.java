@@ -0,0 +1,470 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.corpus;
+
+import static com.syncthemall.enml4j.util.Constants.CRYPT;
+import static com.syncthemall.enml4j.util.Constants.MEDIA;
+import static com.syncthemall.enml4j.util.Constants.NOTE;
+import static com.syncthemall.enml4j.util.Constants.TODO;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.evernote.edam.type.Data;
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.evernote.edam.type.ResourceAttributes;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * Generates synthetic {@code Note}s with a valid ENML content and their matching {@code Resource}s, to benchmark and
+ * load test ENML4j.
+ * <p>
+ * The content of a {@code Note} is a sequence of blocks, which kind is drawn according to configurable weights:
+ * paragraphs with inline formatting, nested lists, tables, runs of {@code <en-todo>} tags, {@code <en-media>} tags,
+ * {@code <en-crypt>} tags and nested {@code <div>}s. The {@code <en-media>} tags reference new {@code Resource}s with
+ * random bodies, or sometimes a {@code Resource} already referenced.
+ * <p>
+ * The generation is reproducible: a {@code Note} depends only on the seed of the generator, its settings and the
+ * index of the {@code Note}, so the same corpus can be generated again anywhere, or written as an ENEX file with
+ * {@link CorpusGenerator#writeEnex(OutputStream, int, int)}. The bodies of the {@code Resource}s are random bytes, so
+ * the image {@code Resource}s can't be decoded as images.
+ * <p>
+ * This class is not thread-safe while it's configured, but generating {@code Note}s doesn't modify it.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class CorpusGenerator {
+
+	/**
+	 * The kinds of blocks of a generated ENML content.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	public enum Block {
+		/** A {@code <div>} with words, inline formatting, links and entities. */
+		PARAGRAPH,
+		/** An ordered or unordered list, which items can contain another list. */
+		LIST,
+		/** A table of the configured size. */
+		TABLE,
+		/** A run of {@code <div>}s starting with an {@code <en-todo>} tag. */
+		TODO,
+		/** An {@code <en-media>} tag and its {@code Resource}. */
+		MEDIA,
+		/** An {@code <en-crypt>} tag. */
+		CRYPT,
+		/** {@code <div>}s nested up to the configured depth, containing other blocks. */
+		NESTED
+	}
+
+	private static final String[] WORDS = { "lorem", "ipsum", "dolor", "sit", "amet", "note", "meeting", "agenda",
+			"budget", "review", "Evernote", "ENML", "sync", "draft", "todo", "release", "caf\u00e9", "na\u00efve",
+			"\u00fcber", "\u65e5\u672c\u8a9e", "\u0442\u0435\u043a\u0441\u0442", "R&D", "<tag>", "\"quoted\"",
+			"2013-01-01", "42", "x", "item" };
+
+	private static final String[] MEDIA_TYPES = { "image/png", "image/jpeg", "image/gif", "application/pdf",
+			"audio/wav", "application/octet-stream" };
+
+	private static final String[] EXTENSIONS = { "png", "jpg", "gif", "pdf", "wav", "bin" };
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n";
+
+	/** The creation date of the first {@code Note}, 2013-01-01T00:00:00Z. */
+	private static final long BASE_DATE = 1356998400000L;
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private static final int SEED_MULTIPLIER = 31;
+	private static final int PERCENT = 100;
+	private static final int MAX_LIST_ITEMS = 10;
+	private static final int MAX_TODOS = 20;
+	private static final int MAX_WORDS = 40;
+	private static final int MAX_CELL_WORDS = 4;
+	private static final int MAX_CRYPT_BYTES = 256;
+	private static final int MAX_DIMENSION = 2048;
+	private static final int SALT_BYTES = 16;
+
+	private final long seed;
+	private final Map<Block, Integer> weights = new EnumMap<Block, Integer>(Block.class);
+	private int minBlocks = 10;
+	private int maxBlocks = 100;
+	private int maxDepth = 5;
+	private int tableRows = 10;
+	private int tableColumns = 5;
+	private int minResourceSize = 1024;
+	private int maxResourceSize = 256 * 1024;
+	private int repeatedMediaPercent = 20;
+
+	/**
+	 * Construct a {@code CorpusGenerator} with the default settings: 10 to 100 blocks per {@code Note}, mostly
+	 * paragraphs and lists, {@code <div>}s nested up to 5 levels, tables of 10 rows and 5 columns and
+	 * {@code Resource}s of 1 KB to 256 KB.
+	 * 
+	 * @param seed the seed of the generator, the same seed and settings producing the same {@code Note}s
+	 */
+	public CorpusGenerator(final long seed) {
+		this.seed = seed;
+		weights.put(Block.PARAGRAPH, 50);
+		weights.put(Block.LIST, 10);
+		weights.put(Block.TABLE, 5);
+		weights.put(Block.TODO, 10);
+		weights.put(Block.MEDIA, 10);
+		weights.put(Block.CRYPT, 5);
+		weights.put(Block.NESTED, 10);
+	}
+
+	/**
+	 * Set the number of blocks of the generated {@code Note}s, drawn between a minimum and a maximum.
+	 * 
+	 * @param min the minimum number of blocks
+	 * @param max the maximum number of blocks
+	 * @return this {@code CorpusGenerator}
+	 */
+	public final CorpusGenerator setBlockCount(final int min, final int max) {
+		checkRange(min, max, "block count");
+		this.minBlocks = min;
+		this.maxBlocks = max;
+		return this;
+	}
+
+	/**
+	 * Set the weight of a kind of block: the probability of a block to be of this kind is its weight divided by the sum
+	 * of the weights.
+	 * 
+	 * @param block the kind of block
+	 * @param weight the weight of the kind of block, 0 to never generate it
+	 * @return this {@code CorpusGenerator}
+	 */
+	public final CorpusGenerator setWeight(final Block block, final int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("The weight must be positive or zero: " + weight);
+		}
+		weights.put(block, weight);
+		return this;
+	}
+
+	/**
+	 * Set the maximum depth of the nested {@code <div>}s and lists.
+	 * 
+	 * @param depth the maximum depth
+	 * @return this {@code CorpusGenerator}
+	 */
+	public final CorpusGenerator setMaxDepth(final int depth) {
+		checkRange(1, depth, "depth");
+		this.maxDepth = depth;
+		return this;
+	}
+
+	/**
+	 * Set the size of the generated tables.
+	 * 
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @return this {@code CorpusGenerator}
+	 */
+	public final CorpusGenerator setTableSize(final int rows, final int columns) {
+		checkRange(1, rows, "row count");
+		checkRange(1, columns, "column count");
+		this.tableRows = rows;
+		this.tableColumns = columns;
+		return this;
+	}
+
+	/**
+	 * Set the size of the bodies of the generated {@code Resource}s, drawn between a minimum and a maximum.
+	 * 
+	 * @param min the minimum size in bytes
+	 * @param max the maximum size in bytes
+	 * @return this {@code CorpusGenerator}
+	 */
+	public final CorpusGenerator setResourceSize(final int min, final int max) {
+		checkRange(min, max, "resource size");
+		this.minResourceSize = min;
+		this.maxResourceSize = max;
+		return this;
+	}
+
+	/**
+	 * Set the percentage of {@code <en-media>} tags referencing a {@code Resource} already referenced in the
+	 * {@code Note}, rather than a new one.
+	 * 
+	 * @param percent the percentage, from 0 to 100
+	 * @return this {@code CorpusGenerator}
+	 */
+	public final CorpusGenerator setRepeatedMediaPercent(final int percent) {
+		if (percent < 0 || percent > PERCENT) {
+			throw new IllegalArgumentException("The percentage must be between 0 and 100: " + percent);
+		}
+		this.repeatedMediaPercent = percent;
+		return this;
+	}
+
+	/**
+	 * Generates a {@code Note}, with its ENML content and its {@code Resource}s with data.
+	 * 
+	 * @param index the index of the {@code Note} in the corpus
+	 * @return the {@code Note} of the corpus at this index, always the same for a given seed and settings
+	 */
+	public final Note generate(final int index) {
+		Random random = new Random(seed * SEED_MULTIPLIER + index);
+		int total = 0;
+		for (int weight : weights.values()) {
+			total += weight;
+		}
+		if (total == 0) {
+			throw new IllegalStateException("At least one kind of block must have a positive weight");
+		}
+
+		Note note = new Note();
+		note.setGuid("corpus-" + seed + "-" + index);
+		note.setTitle(words(random, 1 + random.nextInt(8)));
+		note.setCreated(BASE_DATE + index * DAY);
+		note.setUpdated(BASE_DATE + index * DAY + random.nextInt((int) DAY));
+		NoteAttributes attributes = new NoteAttributes();
+		attributes.setAuthor("ENML4j corpus");
+		note.setAttributes(attributes);
+		note.setResources(new ArrayList<Resource>());
+
+		StringBuilder content = new StringBuilder(HEADER).append('<').append(NOTE).append('>');
+		int blocks = minBlocks + random.nextInt(maxBlocks - minBlocks + 1);
+		for (int i = 0; i < blocks; i++) {
+			appendBlock(content, note, random, total, 1);
+		}
+		note.setContent(content.append("</").append(NOTE).append('>').toString());
+		return note;
+	}
+
+	/**
+	 * Generates consecutive {@code Note}s of the corpus.
+	 * 
+	 * @param from the index of the first {@code Note}
+	 * @param count the number of {@code Note}s
+	 * @return the {@code Note}s of the corpus from the index {@code from}
+	 */
+	public final List<Note> generate(final int from, final int count) {
+		List<Note> notes = new ArrayList<Note>(count);
+		for (int i = from; i < from + count; i++) {
+			notes.add(generate(i));
+		}
+		return notes;
+	}
+
+	/**
+	 * Generates consecutive {@code Note}s of the corpus and writes them as an ENEX file, one {@code Note} at a time so
+	 * the corpus is never entirely in memory.
+	 * 
+	 * @param out the {@code OutputStream} in which to write the ENEX file. It's not closed.
+	 * @param from the index of the first {@code Note}
+	 * @param count the number of {@code Note}s
+	 * @throws XMLStreamException if an error occurs writing the ENEX file
+	 */
+	public final void writeEnex(final OutputStream out, final int from, final int count) throws XMLStreamException {
+		EnexWriter writer = new EnexWriter(out, BASE_DATE);
+		for (int i = from; i < from + count; i++) {
+			writer.write(generate(i));
+		}
+		writer.close();
+	}
+
+	private void appendBlock(final StringBuilder content, final Note note, final Random random, final int total,
+			final int depth) {
+		switch (drawBlock(random, total)) {
+		case LIST:
+			appendList(content, random, depth);
+			break;
+		case TABLE:
+			appendTable(content, random);
+			break;
+		case TODO:
+			int todos = 1 + random.nextInt(MAX_TODOS);
+			for (int i = 0; i < todos; i++) {
+				content.append("<div><").append(TODO).append(random.nextBoolean() ? " checked=\"true\"/>" : "/>")
+						.append(Utils.escapeXml(words(random, 1 + random.nextInt(8)))).append("</div>");
+			}
+			break;
+		case MEDIA:
+			appendMedia(content, note, random);
+			break;
+		case CRYPT:
+			byte[] cipher = new byte[SALT_BYTES + random.nextInt(MAX_CRYPT_BYTES)];
+			random.nextBytes(cipher);
+			content.append("<div><").append(CRYPT).append(" hint=\"").append(Utils.escapeXml(words(random, 1)))
+					.append("\">").append(Base64.encodeBase64String(cipher)).append("</").append(CRYPT)
+					.append("></div>");
+			break;
+		case NESTED:
+			if (depth < maxDepth) {
+				content.append("<div style=\"margin-left: 20px\">");
+				int children = 1 + random.nextInt(3);
+				for (int i = 0; i < children; i++) {
+					appendBlock(content, note, random, total, depth + 1);
+				}
+				content.append("</div>");
+				break;
+			}
+			appendParagraph(content, random);
+			break;
+		default:
+			appendParagraph(content, random);
+		}
+	}
+
+	private Block drawBlock(final Random random, final int total) {
+		int draw = random.nextInt(total);
+		for (Map.Entry<Block, Integer> entry : weights.entrySet()) {
+			draw -= entry.getValue();
+			if (draw < 0) {
+				return entry.getKey();
+			}
+		}
+		return Block.PARAGRAPH;
+	}
+
+	private void appendParagraph(final StringBuilder content, final Random random) {
+		content.append("<div>");
+		int words = 1 + random.nextInt(MAX_WORDS);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				content.append(random.nextInt(PERCENT) < 5 ? "&nbsp;" : " ");
+			}
+			String word = Utils.escapeXml(WORDS[random.nextInt(WORDS.length)]);
+			switch (random.nextInt(PERCENT / 5)) {
+			case 0:
+				content.append("<b>").append(word).append("</b>");
+				break;
+			case 1:
+				content.append("<i>").append(word).append("</i>");
+				break;
+			case 2:
+				content.append("<a href=\"http://example.com/").append(i).append("\">").append(word).append("</a>");
+				break;
+			case 3:
+				content.append("<span style=\"color: #ff0000\">").append(word).append("</span>");
+				break;
+			default:
+				content.append(word);
+			}
+		}
+		content.append("</div>");
+	}
+
+	private void appendList(final StringBuilder content, final Random random, final int depth) {
+		String tag = random.nextBoolean() ? "ul" : "ol";
+		content.append('<').append(tag).append('>');
+		int items = 1 + random.nextInt(MAX_LIST_ITEMS);
+		for (int i = 0; i < items; i++) {
+			content.append("<li>").append(Utils.escapeXml(words(random, 1 + random.nextInt(8))));
+			if (depth < maxDepth && random.nextInt(PERCENT) < 10) {
+				appendList(content, random, depth + 1);
+			}
+			content.append("</li>");
+		}
+		content.append("</").append(tag).append('>');
+	}
+
+	private void appendTable(final StringBuilder content, final Random random) {
+		content.append("<table border=\"1\">");
+		for (int row = 0; row < tableRows; row++) {
+			content.append("<tr>");
+			for (int column = 0; column < tableColumns; column++) {
+				content.append(row == 0 ? "<th>" : "<td>")
+						.append(Utils.escapeXml(words(random, 1 + random.nextInt(MAX_CELL_WORDS))))
+						.append(row == 0 ? "</th>" : "</td>");
+			}
+			content.append("</tr>");
+		}
+		content.append("</table>");
+	}
+
+	private void appendMedia(final StringBuilder content, final Note note, final Random random) {
+		Resource resource;
+		if (!note.getResources().isEmpty() && random.nextInt(PERCENT) < repeatedMediaPercent) {
+			resource = note.getResources().get(random.nextInt(note.getResources().size()));
+		} else {
+			resource = createResource(note, random);
+			note.addToResources(resource);
+		}
+		content.append("<div><").append(MEDIA).append(" type=\"").append(resource.getMime()).append("\" hash=\"")
+				.append(Utils.bytesToHex(resource.getData().getBodyHash())).append("\"/></div>");
+	}
+
+	private Resource createResource(final Note note, final Random random) {
+		int type = random.nextInt(MEDIA_TYPES.length);
+		byte[] body = new byte[minResourceSize + random.nextInt(maxResourceSize - minResourceSize + 1)];
+		random.nextBytes(body);
+
+		Data data = new Data();
+		data.setBody(body);
+		data.setSize(body.length);
+		try {
+			data.setBodyHash(MessageDigest.getInstance("MD5").digest(body));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not supported by the platform", e);
+		}
+
+		Resource resource = new Resource();
+		resource.setGuid(note.getGuid() + "-" + note.getResourcesSize());
+		resource.setNoteGuid(note.getGuid());
+		resource.setMime(MEDIA_TYPES[type]);
+		resource.setData(data);
+		if (MEDIA_TYPES[type].startsWith("image")) {
+			resource.setWidth((short) (1 + random.nextInt(MAX_DIMENSION)));
+			resource.setHeight((short) (1 + random.nextInt(MAX_DIMENSION)));
+		}
+		ResourceAttributes attributes = new ResourceAttributes();
+		attributes.setFileName(WORDS[random.nextInt(WORDS.length)].replaceAll("[^\\p{L}\\d]", "") + "-"
+				+ note.getResourcesSize() + "." + EXTENSIONS[type]);
+		resource.setAttributes(attributes);
+		return resource;
+	}
+
+	private static String words(final Random random, final int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static void checkRange(final int min, final int max, final String name) {
+		if (min < 0 || max < min) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + min + " to " + max);
+		}
+	}
+}
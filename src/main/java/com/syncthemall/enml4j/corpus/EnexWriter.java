@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.corpus;
+
+import static com.syncthemall.enml4j.util.Constants.CHARSET;
+
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.util.Constants;
+import com.syncthemall.enml4j.util.StAXFactories;
+
+/**
+ * Writes {@code Note}s in the Evernote export format (ENEX), one {@code Note} at a time.
+ * <p>
+ * The title, content, dates, author and {@code Resource}s (data, MIME type, dimensions and file name) of the
+ * {@code Note}s are written. The export date is given rather than taken from the clock, so writing the same
+ * {@code Note}s always produces the same file.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @see <a href="http://xml.evernote.com/pub/evernote-export3.dtd">Evernote export DTD</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class EnexWriter {
+
+	private static final String DOCTYPE = "<!DOCTYPE en-export SYSTEM "
+			+ "\"http://xml.evernote.com/pub/evernote-export3.dtd\">";
+	private static final String CDATA_END = "]]>";
+
+	private final XMLStreamWriter writer;
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+
+	/**
+	 * Construct an {@code EnexWriter} and writes the beginning of the ENEX file.
+	 * 
+	 * @param out the {@code OutputStream} in which to write the ENEX file, in UTF-8. It's not closed.
+	 * @param exportDate the export date written in the ENEX file, in milliseconds since the epoch
+	 * @throws XMLStreamException if an error occurs writing the ENEX file
+	 */
+	public EnexWriter(final OutputStream out, final long exportDate) throws XMLStreamException {
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		writer = StAXFactories.newOutputFactory().createXMLStreamWriter(out, CHARSET);
+		writer.writeStartDocument(CHARSET, "1.0");
+		writer.writeCharacters("\n");
+		writer.writeDTD(DOCTYPE);
+		writer.writeCharacters("\n");
+		writer.writeStartElement("en-export");
+		writer.writeAttribute("export-date", formatDate(exportDate));
+		writer.writeAttribute("application", "ENML4j");
+		writer.writeAttribute("version", Constants.VERSION);
+		writer.writeCharacters("\n");
+	}
+
+	/**
+	 * Writes a {@code Note}.
+	 * 
+	 * @param note the {@code Note} to write. It has to contain an ENML content, and its list of {@code Resource}s with
+	 *            data if any.
+	 * @throws XMLStreamException if an error occurs writing the ENEX file
+	 */
+	public final void write(final Note note) throws XMLStreamException {
+		writer.writeStartElement("note");
+		writeElement("title", note.getTitle());
+		writer.writeStartElement("content");
+		// The content can't contain the end of a CDATA section, so it is split around them
+		String content = note.getContent();
+		int start = 0;
+		for (int end = content.indexOf(CDATA_END); end >= 0; end = content.indexOf(CDATA_END, start)) {
+			writer.writeCData(content.substring(start, end + 2));
+			start = end + 2;
+		}
+		writer.writeCData(content.substring(start));
+		writer.writeEndElement();
+		if (note.isSetCreated()) {
+			writeElement("created", formatDate(note.getCreated()));
+		}
+		if (note.isSetUpdated()) {
+			writeElement("updated", formatDate(note.getUpdated()));
+		}
+		if (note.getAttributes() != null && note.getAttributes().getAuthor() != null) {
+			writer.writeStartElement("note-attributes");
+			writeElement("author", note.getAttributes().getAuthor());
+			writer.writeEndElement();
+		}
+		if (note.getResources() != null) {
+			for (Resource resource : note.getResources()) {
+				writeResource(resource);
+			}
+		}
+		writer.writeEndElement();
+		writer.writeCharacters("\n");
+	}
+
+	/**
+	 * Writes the end of the ENEX file, and flushes it.
+	 * 
+	 * @throws XMLStreamException if an error occurs writing the ENEX file
+	 */
+	public final void close() throws XMLStreamException {
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+	}
+
+	private void writeResource(final Resource resource) throws XMLStreamException {
+		writer.writeStartElement("resource");
+		writer.writeStartElement("data");
+		writer.writeAttribute("encoding", "base64");
+		writer.writeCharacters(Base64.encodeBase64String(resource.getData().getBody()));
+		writer.writeEndElement();
+		writeElement("mime", resource.getMime());
+		if (resource.isSetWidth() && resource.isSetHeight()) {
+			writeElement("width", String.valueOf(resource.getWidth()));
+			writeElement("height", String.valueOf(resource.getHeight()));
+		}
+		if (resource.getAttributes() != null && resource.getAttributes().getFileName() != null) {
+			writer.writeStartElement("resource-attributes");
+			writeElement("file-name", resource.getAttributes().getFileName());
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+	}
+
+	private void writeElement(final String name, final String value) throws XMLStreamException {
+		writer.writeStartElement(name);
+		if (value != null) {
+			writer.writeCharacters(value);
+		}
+		writer.writeEndElement();
+	}
+
+	private String formatDate(final long date) {
+		return dateFormat.format(new Date(date));
+	}
+}
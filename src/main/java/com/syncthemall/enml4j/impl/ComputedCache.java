@@ -0,0 +1,191 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A bounded cache of values computed once per key, such as the thumbnails of the images.
+ * <p>
+ * A thread requesting a value being computed by another thread waits for it rather than computing it again. The least
+ * recently used values are evicted once the cache holds more values than its capacity, or once their total weight
+ * exceeds the maximum weight. A computation that fails or is cancelled is removed from the cache, so the value is
+ * computed again on the next request. This class is thread-safe.
+ * 
+ * @param <V> the type of the cached values
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class ComputedCache<V> {
+
+	/**
+	 * Computes the weight of the values kept in a {@code ComputedCache}, such as their size in bytes.
+	 * 
+	 * @param <V> the type of the cached values
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	interface Weigher<V> {
+
+		/**
+		 * @param value a computed value
+		 * @return the weight of the value, or a negative weight if the value must not be kept in the cache
+		 */
+		long weigh(V value);
+	}
+
+	private final int capacity;
+	private final long maxWeight;
+	private final Weigher<V> weigher;
+
+	/** The values in access order, guarded by itself. */
+	private final Map<String, Entry> values = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** The total weight of the computed values in the cache, guarded by {@link #values}. */
+	private long weight;
+
+	/**
+	 * Creates a cache bounded by the number of values only.
+	 * 
+	 * @param capacity the maximum number of values kept in the cache
+	 */
+	ComputedCache(final int capacity) {
+		this(capacity, Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * @param capacity the maximum number of values kept in the cache
+	 * @param maxWeight the maximum total weight of the values kept in the cache
+	 * @param weigher the {@code Weigher} of the values, or null if the values have no weight
+	 */
+	ComputedCache(final int capacity, final long maxWeight, final Weigher<V> weigher) {
+		this.capacity = capacity;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Returns the value of a key, computing it in the calling thread if it's not in the cache.
+	 * 
+	 * @param key the key of the value
+	 * @param computation the computation of the value, used if the value is not in the cache
+	 * @return the value
+	 * @throws ExecutionException if the computation of the value failed
+	 * @throws InterruptedException if the thread is interrupted while waiting for another thread computing the value
+	 */
+	V get(final String key, final Callable<V> computation) throws ExecutionException, InterruptedException {
+		FutureTask<V> value = task(key, computation);
+		value.run();
+		return value.get();
+	}
+
+	/**
+	 * Starts computing the value of a key with an {@code Executor} if it's not in the cache.
+	 * 
+	 * @param key the key of the value
+	 * @param computation the computation of the value, used if the value is not in the cache
+	 * @param executor the {@code Executor} computing the value
+	 */
+	void prefetch(final String key, final Callable<V> computation, final Executor executor) {
+		FutureTask<V> value = task(key, computation);
+		if (!value.isDone()) {
+			executor.execute(value);
+		}
+	}
+
+	private FutureTask<V> task(final String key, final Callable<V> computation) {
+		synchronized (values) {
+			Entry value = values.get(key);
+			if (value == null) {
+				value = new Entry(key, computation);
+				values.put(key, value);
+				evict();
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Removes the least recently used values while the cache exceeds its capacity or its maximum weight.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = values.values().iterator();
+		while ((values.size() > capacity || weight > maxWeight) && iterator.hasNext()) {
+			weight -= iterator.next().weight;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * The computation of a value, which updates the cache once it completes.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	private final class Entry extends FutureTask<V> {
+
+		private final String key;
+
+		/** The weight of the value once computed and kept in the cache, guarded by {@link #values}. */
+		private long weight;
+
+		private Entry(final String key, final Callable<V> computation) {
+			super(computation);
+			this.key = key;
+		}
+
+		@Override
+		protected void done() {
+			long valueWeight = -1;
+			if (!isCancelled()) {
+				try {
+					V value = get();
+					valueWeight = weigher != null ? weigher.weigh(value) : 0;
+				} catch (ExecutionException e) {
+					valueWeight = -1;
+				} catch (InterruptedException e) {
+					// Can't happen as the computation is done
+					Thread.currentThread().interrupt();
+				}
+			}
+			synchronized (values) {
+				if (values.get(key) != this) {
+					// Already evicted while it was computed
+					return;
+				}
+				if (valueWeight < 0 || valueWeight > maxWeight) {
+					values.remove(key);
+				} else {
+					weight = valueWeight;
+					ComputedCache.this.weight += valueWeight;
+					evict();
+				}
+			}
+		}
+	}
+}
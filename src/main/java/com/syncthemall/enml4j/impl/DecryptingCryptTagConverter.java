@@ -0,0 +1,325 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import static com.syncthemall.enml4j.util.Constants.CHARSET;
+import static com.syncthemall.enml4j.util.Constants.CIPHER;
+import static com.syncthemall.enml4j.util.Constants.CRYPT;
+import static com.syncthemall.enml4j.util.Constants.HINT;
+import static com.syncthemall.enml4j.util.Constants.SPAN;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.converter.BaseConverter;
+import com.syncthemall.enml4j.converter.Converter;
+import com.syncthemall.enml4j.util.Elements;
+import com.syncthemall.enml4j.util.TagScanner;
+
+/**
+ * {@code Converter} implementation decrypting the {@code <en-crypt>} ENML tags.
+ * <p>
+ * This {@link Converter} will replace an {@code <en-crypt>} tag with an {@code <span></span>} HTML tag containing the
+ * decrypted text, stripped of its markup. The passphrase of each tag is given by a {@link PassphraseProvider}, based
+ * on the hint of the tag.
+ * <p>
+ * Only the AES cipher ({@code cipher="AES"}) is supported: the keys are derived from the passphrase with PBKDF2
+ * (HMAC-SHA256, 50000 iterations), the integrity of the content is checked with HMAC-SHA256 and the text is decrypted
+ * with AES-128 in CBC mode. The tags encrypted with the legacy RC2 cipher, the tags without passphrase and the tags
+ * that can't be decrypted are replaced by the text <i>[Encrypted in Evernote]</i>, as with
+ * {@link DefaultCryptTagConverter}.
+ * <p>
+ * As the key derivation is the expensive part of the decryption, the derived keys are kept in a bounded cache, shared
+ * by the conversions using this {@code Converter}. If an {@code Executor} is given, the keys of all the
+ * {@code <en-crypt>} tags of a {@code Note} are derived in parallel when its first {@code <en-crypt>} tag is
+ * converted.
+ * 
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * @see <a href="http://docs.oracle.com/javaee/5/tutorial/doc/bnbdv.html">Streaming API for XML</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class DecryptingCryptTagConverter extends BaseConverter {
+
+	private static Logger log = Logger.getLogger(DecryptingCryptTagConverter.class.getName());
+
+	/** Default maximum number of derived keys kept in the cache. */
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	private static final String PLACEHOLDER = "[Encrypted in Evernote]";
+	private static final String AES = "AES";
+	private static final String AES_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	private static final String HMAC_SHA256 = "HmacSHA256";
+	private static final String END_TAG = "</" + CRYPT + ">";
+
+	/** Encrypted content: magic number, salt, HMAC salt, IV, encrypted text, HMAC of all the preceding bytes. */
+	private static final byte[] MAGIC = { 'E', 'N', 'C', '0' };
+	private static final int SALT_LENGTH = 16;
+	private static final int IV_LENGTH = 16;
+	private static final int HMAC_LENGTH = 32;
+	private static final int SALT_OFFSET = MAGIC.length;
+	private static final int HMAC_SALT_OFFSET = SALT_OFFSET + SALT_LENGTH;
+	private static final int IV_OFFSET = HMAC_SALT_OFFSET + SALT_LENGTH;
+	private static final int TEXT_OFFSET = IV_OFFSET + IV_LENGTH;
+
+	private static final int ITERATIONS = 50000;
+	private static final int KEY_LENGTH = 16;
+
+	private final PassphraseProvider passphrases;
+	private final Executor executor;
+	private final DerivedKeyCache keys;
+
+	/** The last {@code Note} for which the keys have been prefetched. */
+	private volatile Note prefetched;
+
+	/**
+	 * Provides the passphrases of the {@code <en-crypt>} tags.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	public interface PassphraseProvider {
+
+		/**
+		 * Returns the passphrase of an {@code <en-crypt>} tag. This method can be called concurrently.
+		 * 
+		 * @param note the {@code Note} containing the {@code <en-crypt>} tag
+		 * @param hint the hint of the {@code <en-crypt>} tag, or null if it has none
+		 * @return the passphrase, or null if it is unknown
+		 */
+		String getPassphrase(Note note, String hint);
+	}
+
+	/**
+	 * Creates a {@code Converter} deriving the keys in the conversion thread, with a cache of
+	 * {@value #DEFAULT_CACHE_SIZE} keys.
+	 * 
+	 * @param passphrases the {@code PassphraseProvider} giving the passphrases of the {@code <en-crypt>} tags
+	 */
+	public DecryptingCryptTagConverter(final PassphraseProvider passphrases) {
+		this(passphrases, null, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param passphrases the {@code PassphraseProvider} giving the passphrases of the {@code <en-crypt>} tags
+	 * @param executor the {@code Executor} deriving in parallel the keys of the {@code <en-crypt>} tags of a
+	 *            {@code Note}, or null to derive them in the conversion thread
+	 * @param cacheSize the maximum number of derived keys kept in the cache. Each {@code <en-crypt>} tag uses two
+	 *            keys.
+	 */
+	public DecryptingCryptTagConverter(final PassphraseProvider passphrases, final Executor executor,
+			final int cacheSize) {
+		if (passphrases == null) {
+			throw new IllegalArgumentException("The PassphraseProvider is required");
+		}
+		this.passphrases = passphrases;
+		this.executor = executor;
+		this.keys = new DerivedKeyCache(cacheSize, ITERATIONS, KEY_LENGTH);
+	}
+
+	/**
+	 * Replace an {@code <en-crypt>} tag by an {@code <span></span>} tag.
+	 */
+	public final Elements convertElement(final StartElement start, final Note note) {
+		if (executor != null && prefetched != note) {
+			prefetched = note;
+			prefetch(note);
+		}
+		return new Elements(getEventFactory().createStartElement("", "", SPAN), getEventFactory().createEndElement(
+				"", "", SPAN));
+	}
+
+	/**
+	 * This {@code Converter} does not add any tag after the {@code <span></span>} tag created.
+	 */
+	public final List<XMLEvent> insertAfter(final StartElement start, final Note note) {
+		return null;
+	}
+
+	/**
+	 * This {@code Converter} does not add any tag before the {@code <span></span>} tag created.
+	 */
+	public final List<XMLEvent> insertBefore(final StartElement start, final Note note) {
+		return null;
+	}
+
+	/**
+	 * This {@code Converter} does not insert any tag in the {@code <span></span>} tag created.
+	 */
+	public final List<XMLEvent> insertIn(final StartElement start, final Note note) {
+		return null;
+	}
+
+	/**
+	 * Replace the encrypted text in {@code <en-crypt></en-crypt>} by the decrypted text, or by <i>[Encrypted in
+	 * Evernote]</i> if it can't be decrypted.
+	 */
+	public final Characters convertCharacter(final Characters characters, final StartElement start, final Note note) {
+		String text = null;
+		if (AES.equalsIgnoreCase(getAttributeValue(start, CIPHER))) {
+			String passphrase = passphrases.getPassphrase(note, getAttributeValue(start, HINT));
+			if (passphrase != null && passphrase.length() > 0) {
+				text = decrypt(characters.getData(), passphrase);
+			}
+		}
+		return getEventFactory().createCharacters(text != null ? text : PLACEHOLDER);
+	}
+
+	/**
+	 * Starts deriving the keys of all the {@code <en-crypt>} tags of a {@code Note}.
+	 */
+	private void prefetch(final Note note) {
+		String content = note.getContent();
+		if (content == null) {
+			return;
+		}
+		TagScanner scanner = new TagScanner(content);
+		while (scanner.next(CRYPT)) {
+			// The hint is read escaped, which at worst prevents the prefetch of its keys
+			if (scanner.isEmptyElement() || !AES.equalsIgnoreCase(scanner.getAttributeValue(CIPHER))) {
+				continue;
+			}
+			String passphrase = passphrases.getPassphrase(note, scanner.getAttributeValue(HINT));
+			int end = content.indexOf(END_TAG, scanner.getEnd());
+			if (passphrase == null || passphrase.length() == 0 || end < 0) {
+				continue;
+			}
+			byte[] data = Base64.decodeBase64(content.substring(scanner.getEnd(), end));
+			if (isEncrypted(data)) {
+				keys.prefetch(passphrase, Arrays.copyOfRange(data, SALT_OFFSET, SALT_OFFSET + SALT_LENGTH), executor);
+				keys.prefetch(passphrase, Arrays.copyOfRange(data, HMAC_SALT_OFFSET, HMAC_SALT_OFFSET + SALT_LENGTH),
+						executor);
+			}
+		}
+	}
+
+	/**
+	 * @return the decrypted text stripped of its markup, or null if it can't be decrypted
+	 */
+	private String decrypt(final String encrypted, final String passphrase) {
+		byte[] data = Base64.decodeBase64(encrypted.trim());
+		if (!isEncrypted(data)) {
+			log.fine("Unsupported encrypted content");
+			return null;
+		}
+		try {
+			int hmacOffset = data.length - HMAC_LENGTH;
+			Mac mac = Mac.getInstance(HMAC_SHA256);
+			mac.init(new SecretKeySpec(keys.get(passphrase,
+					Arrays.copyOfRange(data, HMAC_SALT_OFFSET, HMAC_SALT_OFFSET + SALT_LENGTH)), HMAC_SHA256));
+			mac.update(data, 0, hmacOffset);
+			if (!MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(data, hmacOffset, data.length))) {
+				log.fine("Wrong passphrase or corrupted encrypted content");
+				return null;
+			}
+			Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+			cipher.init(Cipher.DECRYPT_MODE,
+					new SecretKeySpec(keys.get(passphrase, Arrays.copyOfRange(data, SALT_OFFSET, SALT_OFFSET
+							+ SALT_LENGTH)), AES), new IvParameterSpec(data, IV_OFFSET, IV_LENGTH));
+			return stripMarkup(new String(cipher.doFinal(data, TEXT_OFFSET, hmacOffset - TEXT_OFFSET),
+					Charset.forName(CHARSET)));
+		} catch (GeneralSecurityException e) {
+			log.fine("Can't decrypt the encrypted content: " + e);
+			return null;
+		} catch (InterruptedException e) {
+			// The conversion is cancelled, the interruption is handled by the conversion loop
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static boolean isEncrypted(final byte[] data) {
+		return data.length >= TEXT_OFFSET + IV_LENGTH + HMAC_LENGTH
+				&& Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC);
+	}
+
+	private static String getAttributeValue(final StartElement start, final String name) {
+		Attribute attribute = start.getAttributeByName(new QName(name));
+		return attribute != null ? attribute.getValue() : null;
+	}
+
+	/**
+	 * Removes the tags of the decrypted HTML fragment and resolves its character references.
+	 */
+	private static String stripMarkup(final String html) {
+		StringBuilder text = new StringBuilder(html.length());
+		int i = 0;
+		while (i < html.length()) {
+			char c = html.charAt(i);
+			int end;
+			if (c == '<' && (end = html.indexOf('>', i)) > 0) {
+				i = end + 1;
+			} else if (c == '&' && (end = html.indexOf(';', i)) > 0 && end - i <= 10) {
+				text.append(resolveReference(html.substring(i + 1, end), html.substring(i, end + 1)));
+				i = end + 1;
+			} else {
+				text.append(c);
+				i++;
+			}
+		}
+		return text.toString();
+	}
+
+	private static String resolveReference(final String name, final String reference) {
+		try {
+			if (name.startsWith("#x") || name.startsWith("#X")) {
+				return new String(Character.toChars(Integer.parseInt(name.substring(2), 16)));
+			} else if (name.startsWith("#")) {
+				return new String(Character.toChars(Integer.parseInt(name.substring(1))));
+			}
+		} catch (IllegalArgumentException e) {
+			return reference;
+		}
+		if ("lt".equals(name)) {
+			return "<";
+		} else if ("gt".equals(name)) {
+			return ">";
+		} else if ("amp".equals(name)) {
+			return "&";
+		} else if ("quot".equals(name)) {
+			return "\"";
+		} else if ("apos".equals(name)) {
+			return "'";
+		} else if ("nbsp".equals(name)) {
+			return "\u00a0";
+		}
+		return reference;
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.xml.stream.events.StartElement;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.converter.MarkdownConverter;
+
+/**
+ * Default {@code MarkdownConverter} implementation to convert {@code <en-crypt>} ENML tags.
+ * <p>
+ * This {@link MarkdownConverter} will replace an {@code <en-crypt>} tag with the emphasized text <i>Encrypted in
+ * Evernote</i>, and skip the encrypted text.
+ * <p>
+ * For example : {@code <en-crypt hint="My Cat's Name">NKLHX5yK1MlpzemJQijAN6C4545s2EODxQ8Bg1r==</en-crypt>} <br>
+ * will be replaced by : <br>
+ * {@code _Encrypted in Evernote_}
+ * 
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class DefaultCryptTagMarkdownConverter implements MarkdownConverter {
+
+	/**
+	 * Replace an {@code <en-crypt>} tag by <i>Encrypted in Evernote</i>.
+	 */
+	public final boolean convertElement(final StartElement start, final Note note,
+			final Map<String, String> mapHashURL, final Writer out) throws IOException {
+		out.write("_Encrypted in Evernote_");
+		return false;
+	}
+
+}
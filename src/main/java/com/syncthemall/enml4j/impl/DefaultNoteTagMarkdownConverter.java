@@ -0,0 +1,63 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.xml.stream.events.StartElement;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.converter.MarkdownConverter;
+
+/**
+ * Default {@code MarkdownConverter} implementation to convert {@code <en-note>} ENML tags.
+ * <p>
+ * This {@link MarkdownConverter} will write the title of the {@code Note} as a level 1 heading, followed by the
+ * content of the {@code <en-note>} tag.
+ * <p>
+ * For example : {@code <en-note>...</en-note>}<br>
+ * will be replaced by :<br>
+ * {@code # Mark XLVII Schematic}
+ * 
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class DefaultNoteTagMarkdownConverter implements MarkdownConverter {
+
+	/**
+	 * Write the title of the {@code Note} and keep the content of the {@code <en-note>} tag.
+	 */
+	public final boolean convertElement(final StartElement start, final Note note,
+			final Map<String, String> mapHashURL, final Writer out) throws IOException {
+		if (note.getTitle() != null) {
+			out.write("# ");
+			out.write(note.getTitle());
+			out.write("\n\n");
+		}
+		return true;
+	}
+
+}
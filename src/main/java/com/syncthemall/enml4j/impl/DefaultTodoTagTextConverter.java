@@ -0,0 +1,67 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import static com.syncthemall.enml4j.util.Constants.CHECKED;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.converter.TextConverter;
+
+/**
+ * Default {@code TextConverter} implementation to convert {@code <en-todo>} ENML tags.
+ * <p>
+ * This {@link TextConverter} will replace an {@code <en-todo>} tag with the text <i>[x] </i> if it is checked and
+ * <i>[ ] </i> otherwise.
+ * <p>
+ * For example : {@code <en-todo checked="true"></en-todo>}<br>
+ * will be replaced by :<br>
+ * {@code [x] }
+ * 
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class DefaultTodoTagTextConverter implements TextConverter {
+
+	/**
+	 * Replace an {@code <en-todo>} tag by <i>[x] </i> or <i>[ ] </i>.
+	 */
+	public final boolean convertElement(final StartElement start, final Note note, final Writer out)
+			throws IOException {
+		Attribute checkedAttr = start.getAttributeByName(new QName(CHECKED));
+		if (checkedAttr != null && Boolean.parseBoolean(checkedAttr.getValue())) {
+			out.write("[x] ");
+		} else {
+			out.write("[ ] ");
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.syncthemall.enml4j.util.Constants;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * A bounded cache of the keys derived from a passphrase and a salt with PBKDF2 (HMAC-SHA256).
+ * <p>
+ * The derivation is deliberately expensive, so each key is derived once: a thread requesting a key being derived by
+ * another thread waits for it rather than deriving it again. The least recently used keys are evicted once the cache
+ * is full. This class is thread-safe.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class DerivedKeyCache {
+
+	private static final String HMAC_SHA256 = "HmacSHA256";
+
+	private static final String SHA256 = "SHA-256";
+
+	private final int iterations;
+	private final int keyLength;
+	private final ComputedCache<byte[]> keys;
+
+	/**
+	 * @param capacity the maximum number of keys kept in the cache
+	 * @param iterations the number of iterations of the derivation
+	 * @param keyLength the length of the derived keys, in bytes
+	 */
+	DerivedKeyCache(final int capacity, final int iterations, final int keyLength) {
+		this.iterations = iterations;
+		this.keyLength = keyLength;
+		this.keys = new ComputedCache<byte[]>(capacity);
+	}
+
+	/**
+	 * Returns the key derived from a passphrase and a salt, deriving it in the calling thread if it's not in the cache.
+	 * 
+	 * @param passphrase the passphrase
+	 * @param salt the salt
+	 * @return the derived key
+	 * @throws GeneralSecurityException if HMAC-SHA256 is not available
+	 * @throws InterruptedException if the thread is interrupted while waiting for another thread deriving the key
+	 */
+	byte[] get(final String passphrase, final byte[] salt) throws GeneralSecurityException, InterruptedException {
+		try {
+			return keys.get(cacheKey(passphrase, salt), derivation(passphrase, salt));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof GeneralSecurityException) {
+				throw (GeneralSecurityException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Starts deriving a key with an {@code Executor} if it's not in the cache, so a later {@link #get(String, byte[])}
+	 * doesn't have to wait for the whole derivation.
+	 * 
+	 * @param passphrase the passphrase
+	 * @param salt the salt
+	 * @param executor the {@code Executor} deriving the key
+	 */
+	void prefetch(final String passphrase, final byte[] salt, final Executor executor) {
+		keys.prefetch(cacheKey(passphrase, salt), derivation(passphrase, salt), executor);
+	}
+
+	/**
+	 * The key of the cache is a SHA-256 digest of the salt and the passphrase, so the cache doesn't keep the
+	 * passphrases in memory. The length of the salt is digested first, so different salts and passphrases can't be
+	 * confused.
+	 */
+	private static String cacheKey(final String passphrase, final byte[] salt) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance(SHA256);
+			digest.update(new byte[] { (byte) (salt.length >>> 24), (byte) (salt.length >>> 16),
+					(byte) (salt.length >>> 8), (byte) salt.length });
+			digest.update(salt);
+			return Utils.bytesToHex(digest.digest(passphrase.getBytes(Charset.forName(Constants.CHARSET))));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Callable<byte[]> derivation(final String passphrase, final byte[] salt) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws GeneralSecurityException {
+				return derive(passphrase.getBytes(Charset.forName(Constants.CHARSET)), salt);
+			}
+		};
+	}
+
+	/**
+	 * PBKDF2 with HMAC-SHA256 as defined by RFC 2898, which is not provided by the {@code SecretKeyFactory} of Java 7.
+	 */
+	private byte[] derive(final byte[] password, final byte[] salt) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(HMAC_SHA256);
+		mac.init(new SecretKeySpec(password, HMAC_SHA256));
+		byte[] result = new byte[keyLength];
+		int blockLength = mac.getMacLength();
+		for (int block = 1, offset = 0; offset < keyLength; block++, offset += blockLength) {
+			mac.update(salt);
+			mac.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block });
+			byte[] u = mac.doFinal();
+			byte[] t = u.clone();
+			for (int i = 1; i < iterations; i++) {
+				u = mac.doFinal(u);
+				for (int j = 0; j < t.length; j++) {
+					t[j] ^= u[j];
+				}
+			}
+			System.arraycopy(t, 0, result, offset, Math.min(blockLength, keyLength - offset));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,415 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import static com.syncthemall.enml4j.util.Constants.ALT;
+import static com.syncthemall.enml4j.util.Constants.BASE64;
+import static com.syncthemall.enml4j.util.Constants.DATA;
+import static com.syncthemall.enml4j.util.Constants.HASH;
+import static com.syncthemall.enml4j.util.Constants.IMAGE;
+import static com.syncthemall.enml4j.util.Constants.IMG;
+import static com.syncthemall.enml4j.util.Constants.SRC;
+import static com.syncthemall.enml4j.util.Constants.TYPE;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.converter.Converter;
+import com.syncthemall.enml4j.converter.MediaConverter;
+import com.syncthemall.enml4j.exception.MissingResourceException;
+import com.syncthemall.enml4j.util.Elements;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * {@code Converter} implementation to convert {@code <en-media>} ENML tags in inline HTML, with the images downscaled.
+ * <p>
+ * This {@link Converter} works as {@link DefaultInlineMediaTagConverter}, except that the images larger than a maximum
+ * dimension or a maximum size in bytes are decoded, downscaled and re-encoded before being generated in the HTML using
+ * Data URI scheme. The images are re-encoded in PNG if they have transparency, in JPEG otherwise, with a lower JPEG
+ * quality or smaller dimensions as long as they exceed the maximum size. The images that can't be decoded by
+ * {@code javax.imageio} are generated unchanged.
+ * <p>
+ * The thumbnails are kept in a cache bounded by the length of their Data URIs, by body hash and MIME type, shared by
+ * the conversions using this {@code Converter}. The images generated unchanged are not cached: the dimensions of an
+ * image within the maximum dimension and size are read without decoding it. If an {@code Executor} is given, the
+ * thumbnails of all the images of a {@code Note} are generated in parallel when its first {@code <en-media>} tag is
+ * converted.
+ * <p>
+ * The display size of the images is unchanged, as the {@code width} and {@code height} attributes of the
+ * {@code <en-media>} tags are kept.
+ * 
+ * @see <a href="http://en.wikipedia.org/wiki/Data_URI_scheme">Data_URI_scheme</a>
+ * @see <a href="http://dev.evernote.com/start/core/enml.php">Understanding the Evernote Markup Language</a>
+ * @see <a href="http://docs.oracle.com/javaee/5/tutorial/doc/bnbdv.html">Streaming API for XML</a>
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ThumbnailMediaTagConverter extends MediaConverter {
+
+	private static Logger log = Logger.getLogger(ThumbnailMediaTagConverter.class.getName());
+
+	/** Default maximum total length of the Data URIs of the thumbnails kept in the cache. */
+	public static final long DEFAULT_CACHE_BYTES = 16 * 1024 * 1024;
+
+	/** JPEG qualities tried in turn until a thumbnail fits the maximum size. */
+	private static final float[] JPEG_QUALITIES = { 0.85f, 0.7f, 0.5f };
+
+	/** Smallest dimension to which a thumbnail is reduced to fit the maximum size. */
+	private static final int MIN_DIMENSION = 16;
+
+	private static final String JPEG = "jpeg";
+	private static final String PNG = "png";
+
+	private final int maxDimension;
+	private final int maxBytes;
+	private final Executor executor;
+	private final ComputedCache<Thumbnail> thumbnails;
+	private final DefaultInlineMediaTagConverter fallback = new DefaultInlineMediaTagConverter();
+
+	/** The last {@code Note} for which the thumbnails have been prefetched. */
+	private volatile Note prefetched;
+
+	/**
+	 * Creates a {@code Converter} generating the thumbnails in the conversion thread, with a cache of
+	 * {@value #DEFAULT_CACHE_BYTES} bytes of thumbnails.
+	 * 
+	 * @param maxDimension the maximum width and height of the images, in pixels, 0 for no maximum
+	 * @param maxBytes the maximum size of the images, in bytes, 0 for no maximum
+	 */
+	public ThumbnailMediaTagConverter(final int maxDimension, final int maxBytes) {
+		this(maxDimension, maxBytes, null, DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * @param maxDimension the maximum width and height of the images, in pixels, 0 for no maximum
+	 * @param maxBytes the maximum size of the images, in bytes, 0 for no maximum
+	 * @param executor the {@code Executor} generating in parallel the thumbnails of the images of a {@code Note}, or
+	 *            null to generate them in the conversion thread
+	 * @param cacheBytes the maximum total length of the Data URIs of the thumbnails kept in the cache, in bytes
+	 */
+	public ThumbnailMediaTagConverter(final int maxDimension, final int maxBytes, final Executor executor,
+			final long cacheBytes) {
+		if (maxDimension < 0 || maxBytes < 0 || cacheBytes < 0) {
+			throw new IllegalArgumentException("The maximum dimension and sizes must not be negative");
+		}
+		this.maxDimension = maxDimension;
+		this.maxBytes = maxBytes;
+		this.executor = executor;
+		this.thumbnails = new ComputedCache<Thumbnail>(Integer.MAX_VALUE, cacheBytes, new ThumbnailWeigher());
+	}
+
+	/**
+	 * Replace an {@code <en-media>} tag of an image by an {@code <img>} tag with the thumbnail of the image, and the
+	 * other {@code <en-media>} tags as {@link DefaultInlineMediaTagConverter}.
+	 */
+	@Override
+	public final Elements convertElement(final StartElement start, final Note note,
+			final Map<String, String> mapHashURL) {
+		Attribute type = start.getAttributeByName(new QName(TYPE));
+		if (!type.getValue().contains(IMAGE)) {
+			return fallback().convertElement(start, note);
+		}
+		if (executor != null && prefetched != note) {
+			prefetched = note;
+			prefetch(note);
+		}
+
+		String hash = start.getAttributeByName(new QName(HASH)).getValue();
+		Resource currentResource = null;
+		for (Resource resource : note.getResources()) {
+			if (Utils.bytesToHex(resource.getData().getBodyHash()).equals(hash)) {
+				currentResource = resource;
+			}
+		}
+		if (currentResource == null) {
+			throw new MissingResourceException(note.getTitle());
+		}
+		Thumbnail thumbnail = getThumbnail(currentResource, type.getValue());
+
+		List<Attribute> newAttrs = new ArrayList<Attribute>();
+		for (@SuppressWarnings("unchecked")
+		Iterator<Attribute> iterator = start.getAttributes(); iterator.hasNext();) {
+			Attribute attr = iterator.next();
+			if (HASH.equals(attr.getName().getLocalPart())) {
+				newAttrs.add(getEventFactory().createAttribute(SRC, thumbnail.dataURI));
+			} else if (!TYPE.equals(attr.getName().getLocalPart())) {
+				// type is not a supported attribute for img tag.
+				newAttrs.add(attr);
+			}
+		}
+		newAttrs.add(getEventFactory().createAttribute(ALT,
+				currentResource.getAttributes().getFileName() != null ? currentResource.getAttributes().getFileName()
+						: ""));
+		return new Elements(getEventFactory().createStartElement("", "", IMG, newAttrs.iterator(),
+				start.getNamespaces()), getEventFactory().createEndElement("", "", IMG));
+	}
+
+	/**
+	 * Insert the icon of the files as {@link DefaultInlineMediaTagConverter}.
+	 */
+	@Override
+	public final List<XMLEvent> insertIn(final StartElement start, final Note note,
+			final Map<String, String> mapHashURL) {
+		return fallback().insertIn(start, note);
+	}
+
+	/**
+	 * This {@code Converter} does not add any tag before the {@code <img>} or {@code <a>} tag created.
+	 */
+	@Override
+	public final List<XMLEvent> insertBefore(final StartElement start, final Note note,
+			final Map<String, String> mapHashURL) {
+		return null;
+	}
+
+	/**
+	 * This {@code Converter} does not add any tag after the {@code <img>} or {@code <a>} tag created.
+	 */
+	@Override
+	public final List<XMLEvent> insertAfter(final StartElement start, final Note note,
+			final Map<String, String> mapHashURL) {
+		return null;
+	}
+
+	/**
+	 * This {@code Converter} does not change the text in the {@code <en-media>} tag.
+	 */
+	@Override
+	public final Characters convertCharacter(final Characters characters, final StartElement start,
+			final Note note, final Map<String, String> mapHashURL) {
+		return characters;
+	}
+
+	private DefaultInlineMediaTagConverter fallback() {
+		// The event factory can only be set on this Converter, so it's passed to the fallback on use
+		fallback.setEventFactory(getEventFactory());
+		return fallback;
+	}
+
+	/**
+	 * Starts generating the thumbnails of all the images of a {@code Note}.
+	 */
+	private void prefetch(final Note note) {
+		if (note.getResources() == null) {
+			return;
+		}
+		for (Resource resource : note.getResources()) {
+			if (resource.getMime() != null && resource.getMime().contains(IMAGE) && resource.getData() != null
+					&& resource.getData().getBody() != null) {
+				thumbnails.prefetch(cacheKey(resource, resource.getMime()),
+						thumbnailGeneration(resource.getData().getBody(), resource.getMime()), executor);
+			}
+		}
+	}
+
+	private Thumbnail getThumbnail(final Resource resource, final String type) {
+		byte[] body = resource.getData().getBody();
+		try {
+			return thumbnails.get(cacheKey(resource, type), thumbnailGeneration(body, type));
+		} catch (ExecutionException e) {
+			log.log(Level.FINE, "Can't create the thumbnail of Resource " + resource.getGuid(), e.getCause());
+		} catch (InterruptedException e) {
+			// The conversion is cancelled, the interruption is handled by the conversion loop
+			Thread.currentThread().interrupt();
+		}
+		return new Thumbnail(type, body);
+	}
+
+	private static String cacheKey(final Resource resource, final String type) {
+		return Utils.bytesToHex(resource.getData().getBodyHash()) + ':' + type;
+	}
+
+	private Callable<Thumbnail> thumbnailGeneration(final byte[] body, final String type) {
+		return new Callable<Thumbnail>() {
+			@Override
+			public Thumbnail call() throws IOException {
+				return createThumbnail(body, type);
+			}
+		};
+	}
+
+	/**
+	 * Downscales and re-encodes an image if it exceeds the maximum dimension or size.
+	 */
+	private Thumbnail createThumbnail(final byte[] body, final String type) throws IOException {
+		boolean tooBig = maxBytes > 0 && body.length > maxBytes;
+		ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(body));
+		BufferedImage image;
+		int largest;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return new Thumbnail(type, body);
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				// The dimensions are read from the header, so an image generated unchanged is never decoded
+				largest = Math.max(reader.getWidth(0), reader.getHeight(0));
+				if (!tooBig && (maxDimension == 0 || largest <= maxDimension)) {
+					return new Thumbnail(type, body);
+				}
+				image = reader.read(0);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+
+		int target = maxDimension > 0 ? Math.min(largest, maxDimension) : largest;
+		boolean alpha = image.getColorModel().hasAlpha();
+		byte[] encoded = null;
+		while (true) {
+			BufferedImage scaled = scale(image, target, alpha);
+			if (alpha) {
+				encoded = encode(scaled, PNG, 0);
+			} else {
+				for (float quality : JPEG_QUALITIES) {
+					encoded = encode(scaled, JPEG, quality);
+					if (maxBytes == 0 || encoded.length <= maxBytes) {
+						break;
+					}
+				}
+			}
+			if (maxBytes == 0 || encoded.length <= maxBytes || target / 2 < MIN_DIMENSION) {
+				break;
+			}
+			target /= 2;
+		}
+		if (encoded.length >= body.length && !(maxDimension > 0 && largest > maxDimension)) {
+			return new Thumbnail(type, body);
+		}
+		return new Thumbnail(alpha ? "image/png" : "image/jpeg", encoded, false);
+	}
+
+	/**
+	 * Scales an image so its largest dimension is {@code target}, halving it as long as it's twice larger than the
+	 * target, for a better quality than a single bilinear scaling.
+	 */
+	private static BufferedImage scale(final BufferedImage image, final int target, final boolean alpha) {
+		int imageType = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		double ratio = (double) target / Math.max(image.getWidth(), image.getHeight());
+		int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+		int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage result = image;
+		do {
+			width = Math.max(targetWidth, width / 2);
+			height = Math.max(targetHeight, height / 2);
+			BufferedImage step = new BufferedImage(width, height, imageType);
+			Graphics2D graphics = step.createGraphics();
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+						RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.drawImage(result, 0, 0, width, height, null);
+			} finally {
+				graphics.dispose();
+			}
+			result = step;
+		} while (width > targetWidth || height > targetHeight);
+		return result;
+	}
+
+	private static byte[] encode(final BufferedImage image, final String format, final float quality)
+			throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageOutputStream out = new MemoryCacheImageOutputStream(baos);
+		try {
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (quality > 0) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(quality);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * An image generated in the HTML, kept as its Data URI so it's encoded in base64 once.
+	 */
+	private static final class Thumbnail {
+
+		private final String dataURI;
+
+		/** True if the image is generated unchanged, in which case it's not worth caching. */
+		private final boolean original;
+
+		private Thumbnail(final String type, final byte[] body) {
+			this(type, body, true);
+		}
+
+		private Thumbnail(final String type, final byte[] body, final boolean original) {
+			this.dataURI = DATA + type + BASE64 + Utils.encodeFileToBase64Binary(body);
+			this.original = original;
+		}
+	}
+
+	/**
+	 * Weighs the thumbnails by the length of their Data URI, and keeps the images generated unchanged out of the cache.
+	 */
+	private static final class ThumbnailWeigher implements ComputedCache.Weigher<Thumbnail> {
+
+		@Override
+		public long weigh(final Thumbnail thumbnail) {
+			return thumbnail.original ? -1 : thumbnail.dataURI.length();
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * An embeddable, in memory, full-text inverted index of {@code Note}s.
+ * <p>
+ * The indexed text of a {@code Note} is made of its title, the file names of its {@code Resource}s and the text of its
+ * ENML content as extracted by {@link ENMLProcessor#noteToText(Note, java.io.Writer, boolean, boolean)}. The text is
+ * split into terms while the ENML content is parsed, in a single pass.
+ * <p>
+ * {@code Note}s are identified by their GUID. Indexing a {@code Note} already in the index replaces it, unless the
+ * indexed version has an equal or higher {@code updateSequenceNum}, so {@code Note}s can be added in any order during
+ * a synchronization. Removed and replaced {@code Note}s are only marked as deleted, and purged from the postings lists
+ * by {@link NoteIndex#compact()}, automatically called when half of the documents are deleted.
+ * <p>
+ * The postings lists are stored in compact {@code int[]}. This class is thread-safe: searches can run concurrently,
+ * updates are exclusive.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class NoteIndex {
+
+	private static Logger log = Logger.getLogger(NoteIndex.class.getName());
+
+	private final ENMLProcessor processor;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<String, Postings> terms = new HashMap<String, Postings>();
+
+	/** The mapping of the GUID of every live {@code Note} with its document id. */
+	private final Map<String, Integer> docIds = new HashMap<String, Integer>();
+
+	/** The GUID of every document, by document id. */
+	private String[] guids = new String[16];
+
+	/** The {@code updateSequenceNum} of every document, by document id. */
+	private int[] usns = new int[16];
+
+	private final BitSet deleted = new BitSet();
+
+	private int maxDoc;
+
+	/**
+	 * Construct a {@code NoteIndex} extracting the text of the {@code Note}s with an {@code ENMLProcessor}.
+	 * 
+	 * @param processor the {@code ENMLProcessor} used to extract the text of the {@code Note}s ENML content
+	 */
+	public NoteIndex(final ENMLProcessor processor) {
+		this.processor = processor;
+	}
+
+	/**
+	 * Add or update a {@code Note} in the index.
+	 * <p>
+	 * If a {@code Note} with the same GUID is already indexed with an {@code updateSequenceNum} equal or higher than the
+	 * one of the {@code Note} in parameter, the index is left untouched. Otherwise the previous version is replaced.
+	 * 
+	 * @param note the {@code Note} to index. It has to contain a GUID and an ENML content.
+	 * @return true if the {@code Note} has been indexed, false if the index already contains an up to date version
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final boolean add(final Note note) throws XMLStreamException {
+		long start = System.currentTimeMillis();
+
+		lock.readLock().lock();
+		try {
+			Integer existing = docIds.get(note.getGuid());
+			if (existing != null && usns[existing] >= note.getUpdateSequenceNum()) {
+				return false;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		// The ENML content is parsed outside the lock, so searches are not blocked during the parsing
+		TermCounter counter = new TermCounter();
+		counter.add(note.getTitle());
+		if (note.getResources() != null) {
+			for (Resource resource : note.getResources()) {
+				if (resource.getAttributes() != null) {
+					counter.add(resource.getAttributes().getFileName());
+				}
+			}
+		}
+		processor.noteToText(note, counter, false, false);
+		Map<String, int[]> frequencies = counter.getFrequencies();
+
+		lock.writeLock().lock();
+		try {
+			Integer existing = docIds.get(note.getGuid());
+			if (existing != null) {
+				if (usns[existing] >= note.getUpdateSequenceNum()) {
+					return false;
+				}
+				deleted.set(existing);
+			}
+			int doc = newDoc(note.getGuid(), note.getUpdateSequenceNum());
+			for (Map.Entry<String, int[]> entry : frequencies.entrySet()) {
+				Postings postings = terms.get(entry.getKey());
+				if (postings == null) {
+					postings = new Postings();
+					terms.put(entry.getKey(), postings);
+				}
+				postings.add(doc, entry.getValue()[0]);
+			}
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		log.fine("Note " + note.getGuid() + " has been indexed in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return true;
+	}
+
+	/**
+	 * Remove a {@code Note} from the index.
+	 * 
+	 * @param guid the GUID of the {@code Note} to remove
+	 * @return true if the {@code Note} was in the index, false otherwise
+	 */
+	public final boolean delete(final String guid) {
+		lock.writeLock().lock();
+		try {
+			Integer doc = docIds.remove(guid);
+			if (doc == null) {
+				return false;
+			}
+			deleted.set(doc);
+			compactIfNeeded();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the {@code updateSequenceNum} of the indexed version of a {@code Note}.
+	 * 
+	 * @param guid the GUID of the {@code Note}
+	 * @return the {@code updateSequenceNum} of the indexed {@code Note}, or -1 if the {@code Note} is not indexed
+	 */
+	public final int getUpdateSequenceNum(final String guid) {
+		lock.readLock().lock();
+		try {
+			Integer doc = docIds.get(guid);
+			return doc != null ? usns[doc] : -1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of {@code Note}s in the index
+	 */
+	public final int size() {
+		lock.readLock().lock();
+		try {
+			return docIds.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Search the {@code Note}s containing all the terms of a query.
+	 * <p>
+	 * The query is split into terms the same way the indexed text is. The {@code Note}s are ranked by relevance, based
+	 * on the number of occurrences of the terms in the {@code Note} and on the rarity of the terms in the index.
+	 * 
+	 * @param query the text to search
+	 * @param maxResults the maximum number of GUID to return, 0 returning no result
+	 * @return the GUID of the matching {@code Note}s, the most relevant first
+	 * @throws IllegalArgumentException if {@code maxResults} is negative
+	 */
+	public final List<String> search(final String query, final int maxResults) {
+		if (maxResults < 0) {
+			throw new IllegalArgumentException("The maximum number of results must be positive or zero: " + maxResults);
+		}
+		Set<String> queryTerms = TermCounter.terms(query);
+		if (queryTerms.isEmpty() || maxResults == 0) {
+			return Collections.emptyList();
+		}
+
+		lock.readLock().lock();
+		try {
+			List<Postings> postingsList = new ArrayList<Postings>(queryTerms.size());
+			for (String term : queryTerms) {
+				Postings postings = terms.get(term);
+				if (postings == null) {
+					return Collections.emptyList();
+				}
+				postingsList.add(postings);
+			}
+			// Intersect starting from the rarest term
+			Collections.sort(postingsList, new Comparator<Postings>() {
+				@Override
+				public int compare(final Postings p1, final Postings p2) {
+					return p1.size() - p2.size();
+				}
+			});
+
+			int liveDocs = Math.max(docIds.size(), 1);
+			Postings rarest = postingsList.get(0);
+			int[] candidates = new int[rarest.size()];
+			double[] scores = new double[rarest.size()];
+			int count = 0;
+			int[] positions = new int[postingsList.size()];
+
+			for (int i = 0; i < rarest.size(); i++) {
+				int doc = rarest.doc(i);
+				if (deleted.get(doc)) {
+					continue;
+				}
+				double score = 0;
+				boolean match = true;
+				for (int t = 0; t < postingsList.size() && match; t++) {
+					Postings postings = postingsList.get(t);
+					int position = advance(postings, positions[t], doc);
+					positions[t] = position;
+					if (position < postings.size() && postings.doc(position) == doc) {
+						score += postings.frequency(position) * Math.log(1 + (double) liveDocs / postings.size());
+					} else {
+						match = false;
+					}
+				}
+				if (match) {
+					candidates[count] = doc;
+					scores[count] = score;
+					count++;
+				}
+			}
+			return topGuids(candidates, scores, count, maxResults);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Purge the deleted and replaced {@code Note}s from the postings lists.
+	 */
+	public final void compact() {
+		lock.writeLock().lock();
+		try {
+			long start = System.currentTimeMillis();
+			int[] newIds = new int[maxDoc];
+			int next = 0;
+			for (int doc = 0; doc < maxDoc; doc++) {
+				if (deleted.get(doc)) {
+					newIds[doc] = -1;
+				} else {
+					newIds[doc] = next;
+					guids[next] = guids[doc];
+					usns[next] = usns[doc];
+					docIds.put(guids[next], next);
+					next++;
+				}
+			}
+			Arrays.fill(guids, next, maxDoc, null);
+			maxDoc = next;
+			deleted.clear();
+			for (Iterator<Postings> iterator = terms.values().iterator(); iterator.hasNext();) {
+				if (iterator.next().compact(newIds) == 0) {
+					iterator.remove();
+				}
+			}
+			log.fine("Index has been compacted in " + Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private int newDoc(final String guid, final int usn) {
+		if (maxDoc == guids.length) {
+			int capacity = maxDoc + (maxDoc >> 1);
+			guids = Arrays.copyOf(guids, capacity);
+			usns = Arrays.copyOf(usns, capacity);
+		}
+		int doc = maxDoc++;
+		guids[doc] = guid;
+		usns[doc] = usn;
+		docIds.put(guid, doc);
+		return doc;
+	}
+
+	private void compactIfNeeded() {
+		if (deleted.cardinality() > maxDoc / 2) {
+			compact();
+		}
+	}
+
+	/**
+	 * Returns the index of the first posting with a document id greater or equal to {@code doc}, using a galloping
+	 * search from {@code from}.
+	 */
+	private static int advance(final Postings postings, final int from, final int doc) {
+		int low = from;
+		int step = 1;
+		int high = from;
+		while (high < postings.size() && postings.doc(high) < doc) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, postings.size());
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (postings.doc(mid) < doc) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private List<String> topGuids(final int[] candidates, final double[] scores, final int count, final int maxResults) {
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer i1, final Integer i2) {
+				return Double.compare(scores[i2], scores[i1]);
+			}
+		});
+		List<String> result = new ArrayList<String>(Math.min(count, maxResults));
+		for (int i = 0; i < count && i < maxResults; i++) {
+			result.add(guids[candidates[order[i]]]);
+		}
+		return result;
+	}
+}
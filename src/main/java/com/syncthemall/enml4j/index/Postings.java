@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.index;
+
+import java.util.Arrays;
+
+/**
+ * The postings list of a term: the documents containing the term and the number of occurrences in each of them.
+ * <p>
+ * Postings are stored in two parallel {@code int[]}, sorted by document id. As document ids are allocated in
+ * increasing order, adding a document only appends at the end of the arrays.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class Postings {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private int[] docs = new int[INITIAL_CAPACITY];
+	private int[] frequencies = new int[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * @return the number of documents in this {@code Postings}
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param i the index of the posting
+	 * @return the document id of the posting at index {@code i}
+	 */
+	int doc(final int i) {
+		return docs[i];
+	}
+
+	/**
+	 * @param i the index of the posting
+	 * @return the number of occurrences of the term in the document at index {@code i}
+	 */
+	int frequency(final int i) {
+		return frequencies[i];
+	}
+
+	/**
+	 * Append a document. The document id has to be greater than every document id already added.
+	 * 
+	 * @param doc the document id
+	 * @param frequency the number of occurrences of the term in the document
+	 */
+	void add(final int doc, final int frequency) {
+		if (size == docs.length) {
+			int capacity = size + (size >> 1) + 1;
+			docs = Arrays.copyOf(docs, capacity);
+			frequencies = Arrays.copyOf(frequencies, capacity);
+		}
+		docs[size] = doc;
+		frequencies[size] = frequency;
+		size++;
+	}
+
+	/**
+	 * Remove the deleted documents and renumber the remaining ones.
+	 * 
+	 * @param newIds the new id of every document, -1 for deleted documents
+	 * @return the number of remaining documents
+	 */
+	int compact(final int[] newIds) {
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			int newId = newIds[docs[i]];
+			if (newId >= 0) {
+				docs[j] = newId;
+				frequencies[j] = frequencies[i];
+				j++;
+			}
+		}
+		size = j;
+		if (docs.length > size + INITIAL_CAPACITY) {
+			docs = Arrays.copyOf(docs, Math.max(size, INITIAL_CAPACITY));
+			frequencies = Arrays.copyOf(frequencies, Math.max(size, INITIAL_CAPACITY));
+		}
+		return size;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.index;
+
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code Writer} splitting the text written in it into lower case terms and counting their occurrences.
+ * <p>
+ * A term is a sequence of letters or digits. This {@code Writer} is fed directly by
+ * {@code ENMLProcessor#noteToText(Note, Writer, boolean, boolean)} so the text of a {@code Note} is never materialized
+ * as a {@code String}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+final class TermCounter extends Writer {
+
+	/** Terms longer than this are truncated. */
+	private static final int MAX_TERM_LENGTH = 64;
+
+	private final Map<String, int[]> frequencies = new HashMap<String, int[]>();
+	private final char[] term = new char[MAX_TERM_LENGTH];
+	private int length;
+
+	/**
+	 * @return the mapping of every term written with its number of occurrences
+	 */
+	Map<String, int[]> getFrequencies() {
+		endTerm();
+		return frequencies;
+	}
+
+	/**
+	 * Split and count a text without going through the {@code Writer} API.
+	 * 
+	 * @param text the text to add
+	 */
+	void add(final String text) {
+		if (text != null) {
+			for (int i = 0; i < text.length(); i++) {
+				addChar(text.charAt(i));
+			}
+			endTerm();
+		}
+	}
+
+	@Override
+	public void write(final char[] cbuf, final int off, final int len) {
+		for (int i = off; i < off + len; i++) {
+			addChar(cbuf[i]);
+		}
+	}
+
+	@Override
+	public void write(final int c) {
+		addChar((char) c);
+	}
+
+	@Override
+	public void write(final String str, final int off, final int len) {
+		for (int i = off; i < off + len; i++) {
+			addChar(str.charAt(i));
+		}
+	}
+
+	@Override
+	public void flush() {
+		endTerm();
+	}
+
+	@Override
+	public void close() {
+		endTerm();
+	}
+
+	/**
+	 * Split a text into lower case terms.
+	 * 
+	 * @param text the text to split
+	 * @return the distinct terms of the text
+	 */
+	static Set<String> terms(final String text) {
+		TermCounter counter = new TermCounter();
+		counter.add(text);
+		return counter.getFrequencies().keySet();
+	}
+
+	private void addChar(final char c) {
+		if (Character.isLetterOrDigit(c)) {
+			if (length < MAX_TERM_LENGTH) {
+				term[length++] = Character.toLowerCase(c);
+			}
+		} else {
+			endTerm();
+		}
+	}
+
+	private void endTerm() {
+		if (length > 0) {
+			String key = new String(term, 0, length);
+			int[] frequency = frequencies.get(key);
+			if (frequency == null) {
+				frequencies.put(key, new int[] { 1 });
+			} else {
+				frequency[0]++;
+			}
+			length = 0;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.inspect;
+
+import static com.syncthemall.enml4j.util.Constants.BLOCK_TAGS;
+import static com.syncthemall.enml4j.util.Constants.CELL_TAGS;
+import static com.syncthemall.enml4j.util.Constants.CHECKED;
+import static com.syncthemall.enml4j.util.Constants.CRYPT;
+import static com.syncthemall.enml4j.util.Constants.MEDIA;
+import static com.syncthemall.enml4j.util.Constants.TODO;
+import static com.syncthemall.enml4j.util.Constants.TYPE;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * Collects the structural statistics of a {@code Note} ENML content in a single streaming pass.
+ * <p>
+ * The word count, the number of {@code <en-todo>} tags (total and checked), the number of {@code <en-media>} tags by
+ * mime type and the number of {@code <en-crypt>} tags are computed while parsing the content once, without creating
+ * any {@code XMLEvent} nor rendering any HTML. It is cheap enough to be run on every {@code Note} synchronized.
+ * <p>
+ * The ENML content is read by an {@link ENMLProcessor}, so the Evernote DTD is shared and parsed only once. This
+ * class is thread-safe as long as the {@code ENMLProcessor} is.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class NoteInspector {
+
+	private static Logger log = Logger.getLogger(NoteInspector.class.getName());
+
+	private final ENMLProcessor processor;
+
+	/**
+	 * Construct a {@code NoteInspector} sharing the parser configuration of an {@code ENMLProcessor}.
+	 * 
+	 * @param processor the {@code ENMLProcessor} used to read the ENML content
+	 */
+	public NoteInspector(final ENMLProcessor processor) {
+		this.processor = processor;
+	}
+
+	/**
+	 * Collects the structural statistics of the ENML content of a {@code Note}.
+	 * 
+	 * @param note the Note to inspect. It has to contain an ENML content.
+	 * @return the {@code NoteStatistics} of the {@code Note}
+	 * @throws XMLStreamException if there is an unexpected processing error, like a malformed ENML content in the Note
+	 */
+	public final NoteStatistics inspect(final Note note) throws XMLStreamException {
+		long start = System.currentTimeMillis();
+		log.finer("Inspecting Note " + note.getGuid());
+
+		XMLStreamReader reader = processor.createXMLStreamReader(note);
+
+		int wordCount = 0;
+		int todoCount = 0;
+		int checkedTodoCount = 0;
+		int cryptCount = 0;
+		Map<String, Integer> mediaCountByType = new HashMap<String, Integer>();
+
+		// Depth in an <en-crypt> tag, which text is not counted
+		int cryptDepth = 0;
+		// Inline tags like <b> don't end a word, only the tags separating the text as in the plain text extraction
+		boolean inWord = false;
+
+		try {
+			while (reader.hasNext()) {
+				int eventType = reader.next();
+				if (eventType == XMLStreamReader.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (isSeparator(name)) {
+						inWord = false;
+					}
+					if (cryptDepth > 0) {
+						cryptDepth++;
+					} else if (CRYPT.equals(name)) {
+						cryptCount++;
+						cryptDepth = 1;
+					} else if (TODO.equals(name)) {
+						todoCount++;
+						if (Boolean.parseBoolean(reader.getAttributeValue(null, CHECKED))) {
+							checkedTodoCount++;
+						}
+					} else if (MEDIA.equals(name)) {
+						String type = reader.getAttributeValue(null, TYPE);
+						Integer count = mediaCountByType.get(type);
+						mediaCountByType.put(type, count == null ? 1 : count + 1);
+					}
+				} else if (eventType == XMLStreamReader.END_ELEMENT) {
+					if (isSeparator(reader.getLocalName())) {
+						inWord = false;
+					}
+					if (cryptDepth > 0) {
+						cryptDepth--;
+					}
+				} else if ((eventType == XMLStreamReader.CHARACTERS || eventType == XMLStreamReader.CDATA)
+						&& cryptDepth == 0) {
+					char[] text = reader.getTextCharacters();
+					int end = reader.getTextStart() + reader.getTextLength();
+					for (int i = reader.getTextStart(); i < end; i++) {
+						if (Character.isLetterOrDigit(text[i])) {
+							if (!inWord) {
+								wordCount++;
+								inWord = true;
+							}
+						} else {
+							inWord = false;
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		NoteStatistics statistics = new NoteStatistics(wordCount, todoCount, checkedTodoCount, cryptCount,
+				mediaCountByType);
+		log.fine("Note " + note.getGuid() + " has been inspected in "
+				+ Utils.getDurationBreakdown(System.currentTimeMillis() - start));
+		return statistics;
+	}
+
+	private static boolean isSeparator(final String name) {
+		return BLOCK_TAGS.contains(name) || CELL_TAGS.contains(name);
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.inspect;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The structural statistics of a {@code Note} ENML content, collected by {@link NoteInspector}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class NoteStatistics {
+
+	private final int wordCount;
+	private final int todoCount;
+	private final int checkedTodoCount;
+	private final int cryptCount;
+	private final Map<String, Integer> mediaCountByType;
+
+	/**
+	 * @param wordCount the number of words in the text of the {@code Note}
+	 * @param todoCount the number of {@code <en-todo>} tags
+	 * @param checkedTodoCount the number of checked {@code <en-todo>} tags
+	 * @param cryptCount the number of {@code <en-crypt>} tags
+	 * @param mediaCountByType the number of {@code <en-media>} tags by mime type
+	 */
+	public NoteStatistics(final int wordCount, final int todoCount, final int checkedTodoCount, final int cryptCount,
+			final Map<String, Integer> mediaCountByType) {
+		this.wordCount = wordCount;
+		this.todoCount = todoCount;
+		this.checkedTodoCount = checkedTodoCount;
+		this.cryptCount = cryptCount;
+		this.mediaCountByType = Collections.unmodifiableMap(mediaCountByType);
+	}
+
+	/**
+	 * @return the number of words in the text of the {@code Note}, excluding the encrypted text
+	 */
+	public final int getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * @return the number of {@code <en-todo>} tags
+	 */
+	public final int getTodoCount() {
+		return todoCount;
+	}
+
+	/**
+	 * @return the number of checked {@code <en-todo>} tags
+	 */
+	public final int getCheckedTodoCount() {
+		return checkedTodoCount;
+	}
+
+	/**
+	 * @return the number of {@code <en-crypt>} tags
+	 */
+	public final int getCryptCount() {
+		return cryptCount;
+	}
+
+	/**
+	 * @return the total number of {@code <en-media>} tags
+	 */
+	public final int getMediaCount() {
+		int count = 0;
+		for (Integer typeCount : mediaCountByType.values()) {
+			count += typeCount;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of {@code <en-media>} tags by mime type (ie image/png, application/pdf, ...)
+	 */
+	public final Map<String, Integer> getMediaCountByType() {
+		return mediaCountByType;
+	}
+
+	@Override
+	public final String toString() {
+		return "NoteStatistics [wordCount=" + wordCount + ", todoCount=" + todoCount + ", checkedTodoCount="
+				+ checkedTodoCount + ", cryptCount=" + cryptCount + ", mediaCountByType=" + mediaCountByType + "]";
+	}
+
+}
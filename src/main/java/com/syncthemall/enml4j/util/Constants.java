@@ -25,6 +25,11 @@
  */
 package com.syncthemall.enml4j.util;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Constant class.
  * 
@@ -122,6 +127,12 @@ public final class Constants {
 	/** The attribute {@code xmlns}. */
 	public static final String XMLNS = "xmlns";
 
+	/** The attribute {@code hint}. */
+	public static final String HINT = "hint";
+
+	/** The attribute {@code cipher}. */
+	public static final String CIPHER = "cipher";
+
 	/** The attribute {@code checked}. */
 	public static final String CHECKED = "checked";
 
@@ -140,6 +151,15 @@ public final class Constants {
 	/** Buffer size to convert image stream in base64. Defined to 16 KB. */
 	public static final int BUFFER_SIZE = 16384;
 
+	/** XHTML tags rendered as a block, separated by a line break in plain text. */
+	public static final Set<String> BLOCK_TAGS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"address", "blockquote", "br", "caption", "center", "dd", "div", "dl", "dt", "h1", "h2", "h3", "h4", "h5",
+			"h6", "hr", "li", "ol", "p", "pre", "table", "tr", "ul", NOTE)));
+
+	/** XHTML tags rendered as a table cell, separated by a tabulation in plain text. */
+	public static final Set<String> CELL_TAGS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("td",
+			"th")));
+
 	private Constants() {
 		super();
 	}
@@ -0,0 +1,122 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.util;
+
+import java.util.Arrays;
+
+/**
+ * Builds a new version of a content by splicing replacement ranges, copying the unchanged parts only once.
+ * <p>
+ * Replacements have to be registered in ascending order and must not overlap. The new content is built in a single
+ * pre-sized buffer when {@link ContentEditor#toString()} is called.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class ContentEditor {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private final String content;
+	private int[] ranges = new int[INITIAL_CAPACITY * 2];
+	private String[] replacements = new String[INITIAL_CAPACITY];
+	private int size;
+	private int delta;
+
+	/**
+	 * @param content the content to edit
+	 */
+	public ContentEditor(final String content) {
+		this.content = content;
+	}
+
+	/**
+	 * Replace a range of the content.
+	 * 
+	 * @param start the beginning index of the range to replace, inclusive
+	 * @param end the ending index of the range to replace, exclusive
+	 * @param replacement the text to insert in place of the range
+	 * @return the invoked {@code ContentEditor}
+	 * @throws IllegalArgumentException if the range starts before the end of the previous one
+	 */
+	public ContentEditor replace(final int start, final int end, final String replacement) {
+		if (start > end || (size > 0 && start < ranges[size * 2 - 1])) {
+			throw new IllegalArgumentException("Replacement ranges must be ascending and must not overlap");
+		}
+		if (size == replacements.length) {
+			ranges = Arrays.copyOf(ranges, ranges.length * 2);
+			replacements = Arrays.copyOf(replacements, replacements.length * 2);
+		}
+		ranges[size * 2] = start;
+		ranges[size * 2 + 1] = end;
+		replacements[size] = replacement;
+		delta += replacement.length() - (end - start);
+		size++;
+		return this;
+	}
+
+	/**
+	 * Insert a text in the content.
+	 * 
+	 * @param index the index at which to insert the text
+	 * @param text the text to insert
+	 * @return the invoked {@code ContentEditor}
+	 */
+	public ContentEditor insert(final int index, final String text) {
+		return replace(index, index, text);
+	}
+
+	/**
+	 * Remove a range of the content.
+	 * 
+	 * @param start the beginning index of the range to remove, inclusive
+	 * @param end the ending index of the range to remove, exclusive
+	 * @return the invoked {@code ContentEditor}
+	 */
+	public ContentEditor remove(final int start, final int end) {
+		return replace(start, end, "");
+	}
+
+	/**
+	 * @return true if at least one replacement has been registered
+	 */
+	public boolean isModified() {
+		return size > 0;
+	}
+
+	/**
+	 * @return the edited content
+	 */
+	@Override
+	public String toString() {
+		if (size == 0) {
+			return content;
+		}
+		StringBuilder sb = new StringBuilder(content.length() + delta);
+		int pos = 0;
+		for (int i = 0; i < size; i++) {
+			sb.append(content, pos, ranges[i * 2]).append(replacements[i]);
+			pos = ranges[i * 2 + 1];
+		}
+		return sb.append(content, pos, content.length()).toString();
+	}
+}
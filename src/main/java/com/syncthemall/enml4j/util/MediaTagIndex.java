@@ -0,0 +1,179 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.util;
+
+import static com.syncthemall.enml4j.util.Constants.HASH;
+import static com.syncthemall.enml4j.util.Constants.MEDIA;
+import static com.syncthemall.enml4j.util.Constants.TYPE;
+
+import java.util.Arrays;
+
+/**
+ * The character offsets of every {@code <en-media>} tag of an ENML content, and of their 'hash' and 'type'
+ * attributes.
+ * <p>
+ * The index is built with a single {@link TagScanner} pass over the content. It is used with a {@link ContentEditor}
+ * to update or remove {@code <en-media>} tags by splicing only the relevant ranges of the content.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class MediaTagIndex {
+
+	private static final int INITIAL_CAPACITY = 8;
+	private static final int FIELDS = 8;
+
+	private static final int TAG_START = 0;
+	private static final int NAME_END = 1;
+	private static final int TAG_END = 2;
+	private static final int ELEMENT_END = 3;
+	private static final int HASH_START = 4;
+	private static final int HASH_END = 5;
+	private static final int TYPE_START = 6;
+	private static final int TYPE_END = 7;
+
+	private final String content;
+	private int[] offsets = new int[INITIAL_CAPACITY * FIELDS];
+	private int size;
+
+	/**
+	 * Index the {@code <en-media>} tags of an ENML content.
+	 * 
+	 * @param content the ENML content
+	 */
+	public MediaTagIndex(final String content) {
+		this.content = content;
+		TagScanner scanner = new TagScanner(content);
+		while (scanner.next(MEDIA)) {
+			if (size * FIELDS == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			int base = size * FIELDS;
+			offsets[base + TAG_START] = scanner.getStart();
+			offsets[base + NAME_END] = scanner.getNameEnd();
+			offsets[base + TAG_END] = scanner.getEnd();
+			offsets[base + ELEMENT_END] = scanner.getElementEnd();
+			offsets[base + HASH_START] = scanner.getAttributeValueStart(HASH);
+			offsets[base + HASH_END] = scanner.getAttributeValueEnd(HASH);
+			offsets[base + TYPE_START] = scanner.getAttributeValueStart(TYPE);
+			offsets[base + TYPE_END] = scanner.getAttributeValueEnd(TYPE);
+			size++;
+		}
+	}
+
+	/**
+	 * @return the indexed ENML content
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * @return the number of {@code <en-media>} tags in the content
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the value of the 'hash' attribute of the tag, or null if it has none
+	 */
+	public String getHash(final int i) {
+		int start = offsets[i * FIELDS + HASH_START];
+		return start < 0 ? null : content.substring(start, offsets[i * FIELDS + HASH_END]);
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return true if the value of the 'hash' attribute of the tag is equal to {@code hash}
+	 */
+	public boolean hasHash(final int i, final String hash) {
+		int start = offsets[i * FIELDS + HASH_START];
+		return start >= 0 && offsets[i * FIELDS + HASH_END] - start == hash.length()
+				&& content.startsWith(hash, start);
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset of the {@code '<'} of the tag
+	 */
+	public int getTagStart(final int i) {
+		return offsets[i * FIELDS + TAG_START];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset following the name of the tag
+	 */
+	public int getNameEnd(final int i) {
+		return offsets[i * FIELDS + NAME_END];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset following the {@code '>'} of the tag
+	 */
+	public int getTagEnd(final int i) {
+		return offsets[i * FIELDS + TAG_END];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset following the end of the element (including its end tag if any)
+	 */
+	public int getElementEnd(final int i) {
+		return offsets[i * FIELDS + ELEMENT_END];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset of the value of the 'hash' attribute, or -1 if the tag has none
+	 */
+	public int getHashStart(final int i) {
+		return offsets[i * FIELDS + HASH_START];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset of the closing quote of the 'hash' attribute, or -1 if the tag has none
+	 */
+	public int getHashEnd(final int i) {
+		return offsets[i * FIELDS + HASH_END];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset of the value of the 'type' attribute, or -1 if the tag has none
+	 */
+	public int getTypeStart(final int i) {
+		return offsets[i * FIELDS + TYPE_START];
+	}
+
+	/**
+	 * @param i the index of the {@code <en-media>} tag
+	 * @return the offset of the closing quote of the 'type' attribute, or -1 if the tag has none
+	 */
+	public int getTypeEnd(final int i) {
+		return offsets[i * FIELDS + TYPE_END];
+	}
+}
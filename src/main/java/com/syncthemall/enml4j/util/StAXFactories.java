@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.util;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * Creates the StAX factories of the platform, ignoring the implementations registered by the libraries in the class
+ * path.
+ * <p>
+ * ENML4j relies on a parser expanding the entities of the ENML DTD, like {@code &nbsp;}. A library of the class path
+ * can register another StAX implementation as a service, which {@code XMLInputFactory.newInstance()} would then
+ * return: Aalto, used by the non-blocking sessions, doesn't expand the entities of an external DTD and would fail every
+ * conversion. The factories are therefore the default ones of the platform ({@code newDefaultFactory()} since Java 9,
+ * the implementation of the JDK before). An implementation explicitly chosen with the
+ * {@code javax.xml.stream.XMLInputFactory}, {@code javax.xml.stream.XMLOutputFactory} or
+ * {@code javax.xml.stream.XMLEventFactory} system property is still used, as well as the registered one if the
+ * platform has no default implementation.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class StAXFactories {
+
+	/** The implementation of {@code XMLInputFactory} of the JDK before Java 9. */
+	private static final String JDK_INPUT_FACTORY = "com.sun.xml.internal.stream.XMLInputFactoryImpl";
+
+	/** The implementation of {@code XMLOutputFactory} of the JDK before Java 9. */
+	private static final String JDK_OUTPUT_FACTORY = "com.sun.xml.internal.stream.XMLOutputFactoryImpl";
+
+	/** The implementation of {@code XMLEventFactory} of the JDK before Java 9. */
+	private static final String JDK_EVENT_FACTORY = "com.sun.xml.internal.stream.events.XMLEventFactoryImpl";
+
+	private StAXFactories() {
+		super();
+	}
+
+	/**
+	 * @return a new {@code XMLInputFactory} of the platform, or of the implementation configured by the system
+	 */
+	public static XMLInputFactory newInputFactory() {
+		XMLInputFactory factory = newDefaultFactory(XMLInputFactory.class, JDK_INPUT_FACTORY);
+		return factory != null ? factory : XMLInputFactory.newInstance();
+	}
+
+	/**
+	 * @return a new {@code XMLOutputFactory} of the platform, or of the implementation configured by the system
+	 */
+	public static XMLOutputFactory newOutputFactory() {
+		XMLOutputFactory factory = newDefaultFactory(XMLOutputFactory.class, JDK_OUTPUT_FACTORY);
+		return factory != null ? factory : XMLOutputFactory.newInstance();
+	}
+
+	/**
+	 * @return a new {@code XMLEventFactory} of the platform, or of the implementation configured by the system
+	 */
+	public static XMLEventFactory newEventFactory() {
+		XMLEventFactory factory = newDefaultFactory(XMLEventFactory.class, JDK_EVENT_FACTORY);
+		return factory != null ? factory : XMLEventFactory.newInstance();
+	}
+
+	/**
+	 * @return the default factory of the platform, or null if the implementation is configured by a system property
+	 *         or if the platform has no default implementation
+	 */
+	private static <T> T newDefaultFactory(final Class<T> type, final String jdkImplementation) {
+		if (System.getProperty(type.getName()) != null) {
+			return null;
+		}
+		try {
+			return type.cast(type.getMethod("newDefaultFactory").invoke(null));
+		} catch (NoSuchMethodException e) {
+			// Before Java 9, the implementation of the JDK is accessible
+			try {
+				return type.cast(Class.forName(jdkImplementation).getConstructor().newInstance());
+			} catch (ReflectiveOperationException e1) {
+				return null;
+			} catch (LinkageError e1) {
+				return null;
+			}
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,336 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.util;
+
+/**
+ * A lightweight scanner locating start tags and their attributes in an ENML content, without parsing it.
+ * <p>
+ * The scanner only looks for {@code '<'} characters and skips comments, CDATA sections, processing instructions, the
+ * DOCTYPE and end tags. For every start tag found it records the character offsets of the tag, of its name and of
+ * its attributes values, so the content can be edited by splicing only the relevant ranges (see
+ * {@link Utils#splice(String, int, int, String)}). Everything else in the content is preserved byte for byte.
+ * <p>
+ * The content is assumed to be well-formed. This class is not thread-safe.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class TagScanner {
+
+	private static final int INITIAL_ATTRIBUTES = 8;
+
+	private final String content;
+	private int pos;
+
+	private int start;
+	private int nameEnd;
+	private int end;
+	private boolean empty;
+
+	/** Offsets of the attributes of the current tag: name start, name end, value start, value end. */
+	private int[] attributes = new int[INITIAL_ATTRIBUTES * 4];
+	private int attributeCount;
+
+	/**
+	 * @param content the ENML content to scan
+	 */
+	public TagScanner(final String content) {
+		this.content = content;
+	}
+
+	/**
+	 * Advance to the next start tag with a given name.
+	 * 
+	 * @param name the name of the tag to look for (ie en-media, en-todo)
+	 * @return true if a tag has been found, false if the end of the content has been reached
+	 */
+	public boolean next(final String name) {
+		while (next()) {
+			if (nameEnd - start - 1 == name.length() && content.startsWith(name, start + 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Advance to the next start tag.
+	 * 
+	 * @return true if a tag has been found, false if the end of the content has been reached
+	 */
+	public boolean next() {
+		while (true) {
+			int lt = content.indexOf('<', pos);
+			if (lt < 0 || lt + 1 >= content.length()) {
+				pos = content.length();
+				return false;
+			}
+			char c = content.charAt(lt + 1);
+			if (c == '!') {
+				if (content.startsWith("<!--", lt)) {
+					pos = skipTo("-->", lt + 4);
+				} else if (content.startsWith("<![CDATA[", lt)) {
+					pos = skipTo("]]>", lt + 9);
+				} else {
+					pos = skipDeclaration(lt + 2);
+				}
+			} else if (c == '?') {
+				pos = skipTo("?>", lt + 2);
+			} else if (c == '/') {
+				pos = skipTo(">", lt + 2);
+			} else {
+				readStartTag(lt);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the offset of the {@code '<'} of the current tag
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the offset following the name of the current tag
+	 */
+	public int getNameEnd() {
+		return nameEnd;
+	}
+
+	/**
+	 * @return the offset following the {@code '>'} of the current tag
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return true if the current tag is an empty-element tag ({@code <tag/>})
+	 */
+	public boolean isEmptyElement() {
+		return empty;
+	}
+
+	/**
+	 * Returns the offset following the end of the element of the current tag: the end of the tag itself for an
+	 * empty-element tag, the end of the corresponding end tag otherwise.
+	 * <p>
+	 * Nested elements with the same name are not supported, which is fine for the ENML tags {@code <en-media>} and
+	 * {@code <en-todo>}.
+	 * 
+	 * @return the offset following the end of the current element
+	 */
+	public int getElementEnd() {
+		if (empty) {
+			return end;
+		}
+		String endTag = "</" + content.substring(start + 1, nameEnd);
+		int endTagStart = content.indexOf(endTag, end);
+		if (endTagStart < 0) {
+			return end;
+		}
+		return content.indexOf('>', endTagStart + endTag.length()) + 1;
+	}
+
+	/**
+	 * @return the number of attributes of the current tag
+	 */
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	/**
+	 * @param index the index of the attribute
+	 * @return the name of the attribute at index {@code index}
+	 */
+	public String getAttributeName(final int index) {
+		return content.substring(attributes[index * 4], attributes[index * 4 + 1]);
+	}
+
+	/**
+	 * @param index the index of the attribute
+	 * @return the offset of the name of the attribute at index {@code index}
+	 */
+	public int getAttributeStart(final int index) {
+		return attributes[index * 4];
+	}
+
+	/**
+	 * @param index the index of the attribute
+	 * @return the offset following the closing quote of the attribute at index {@code index}
+	 */
+	public int getAttributeEnd(final int index) {
+		return attributes[index * 4 + 3] + 1;
+	}
+
+	/**
+	 * Returns the index of an attribute of the current tag.
+	 * 
+	 * @param name the name of the attribute
+	 * @return the index of the attribute, or -1 if the current tag has no such attribute
+	 */
+	public int getAttributeIndex(final String name) {
+		for (int i = 0; i < attributeCount; i++) {
+			int nameStart = attributes[i * 4];
+			if (attributes[i * 4 + 1] - nameStart == name.length() && content.startsWith(name, nameStart)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param name the name of the attribute
+	 * @return the offset of the value (after the opening quote) of the attribute, or -1 if the current tag has no such
+	 *         attribute
+	 */
+	public int getAttributeValueStart(final String name) {
+		int index = getAttributeIndex(name);
+		return index < 0 ? -1 : attributes[index * 4 + 2];
+	}
+
+	/**
+	 * @param name the name of the attribute
+	 * @return the offset of the closing quote of the value of the attribute, or -1 if the current tag has no such
+	 *         attribute
+	 */
+	public int getAttributeValueEnd(final String name) {
+		int index = getAttributeIndex(name);
+		return index < 0 ? -1 : attributes[index * 4 + 3];
+	}
+
+	/**
+	 * Returns the raw value of an attribute of the current tag. Entity and character references are not resolved.
+	 * 
+	 * @param name the name of the attribute
+	 * @return the raw value of the attribute, or null if the current tag has no such attribute
+	 */
+	public String getAttributeValue(final String name) {
+		int index = getAttributeIndex(name);
+		return index < 0 ? null : content.substring(attributes[index * 4 + 2], attributes[index * 4 + 3]);
+	}
+
+	private void readStartTag(final int lt) {
+		start = lt;
+		attributeCount = 0;
+		int i = lt + 1;
+		int length = content.length();
+		while (i < length && !isNameEnd(content.charAt(i))) {
+			i++;
+		}
+		nameEnd = i;
+		while (i < length) {
+			char c = content.charAt(i);
+			if (c == '>') {
+				end = i + 1;
+				empty = content.charAt(i - 1) == '/';
+				pos = end;
+				return;
+			} else if (c == '/' || Character.isWhitespace(c)) {
+				i++;
+			} else {
+				i = readAttribute(i);
+			}
+		}
+		end = length;
+		empty = false;
+		pos = length;
+	}
+
+	private int readAttribute(final int nameStart) {
+		int length = content.length();
+		int i = nameStart;
+		while (i < length && !isNameEnd(content.charAt(i)) && content.charAt(i) != '=') {
+			i++;
+		}
+		int attrNameEnd = i;
+		i = content.indexOf('=', i);
+		int quote = i < 0 ? -1 : indexOfQuote(i + 1);
+		if (quote < 0) {
+			return length;
+		}
+		char quoteChar = content.charAt(quote);
+		int valueEnd = content.indexOf(quoteChar, quote + 1);
+		if (valueEnd < 0) {
+			return length;
+		}
+		if (attributeCount * 4 == attributes.length) {
+			int[] grown = new int[attributes.length * 2];
+			System.arraycopy(attributes, 0, grown, 0, attributes.length);
+			attributes = grown;
+		}
+		attributes[attributeCount * 4] = nameStart;
+		attributes[attributeCount * 4 + 1] = attrNameEnd;
+		attributes[attributeCount * 4 + 2] = quote + 1;
+		attributes[attributeCount * 4 + 3] = valueEnd;
+		attributeCount++;
+		return valueEnd + 1;
+	}
+
+	private int indexOfQuote(final int from) {
+		for (int i = from; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c == '"' || c == '\'') {
+				return i;
+			} else if (!Character.isWhitespace(c)) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private int skipTo(final String delimiter, final int from) {
+		int index = content.indexOf(delimiter, from);
+		return index < 0 ? content.length() : index + delimiter.length();
+	}
+
+	/**
+	 * Skip a markup declaration (ie the DOCTYPE), including its internal subset.
+	 */
+	private int skipDeclaration(final int from) {
+		int depth = 0;
+		char quote = 0;
+		for (int i = from; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			} else if (c == '>' && depth <= 0) {
+				return i + 1;
+			}
+		}
+		return content.length();
+	}
+
+	private static boolean isNameEnd(final char c) {
+		return c == '>' || c == '/' || Character.isWhitespace(c);
+	}
+}
@@ -29,6 +29,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Base64;
@@ -43,6 +44,15 @@ public final class Utils {
 	/** The base64 encoded {@code String} of an unknown icon (an icon with a question mark). **/
 	private static final String UNKNOWN_ICON = "iVBORw0KGgoAAAANSUhEUgAAADAAAAAwCAYAAABXAvmHAAAEoUlEQVR42t2aSWscRxiG5QUSZTmY7IuTH5BTrtYl4NxiYoJxTOI4wTGOiXNTDvoJ+QE+5O6/okskBEIj0Ir2fd93iU49TX/DNx9V1d0ajT32wIuk6erq56n6uro0TEuSJC2vclpeKwH3uuLytss1l/eaLNcytiteAfd6o62t7ctKpfLv9vb20unpadJMgQk2GGGtEchG/uPOzs7nJycnyfHxcXJ0dNRUgQk2GGGVmRCBd1y+Xl5eXi3SUSOTd30YYYVZC1Bf34Y6aDR0GRnehxVmLfC+y3c0ODw8rMnLngEfD6wwa4EPXG7ZE17mLIQkMoFbMEcFYvDcTI1IEYmYwPc0ODg48M5CmdErAld0BjSLsMFat0DeaMr6Xe/olxG4bQV88Hkg6+vryezsbDI1NZWMjY2l4Xfe41gZESuhBG5bgQ9dfqDB/v5+2lAa55WQXHhzczOZmJhIQRcWFpK1tbX05/z8fDUzMzNpG/dUzS0tDS88wgYrzF4BnaICwDPKAkrpnJ2dpeGiWoLQlvfLCkhCAnfKCsgoMupzc3PV8Lcui8XFxZrjktgs5Ajc8QowKhIt4XugiRRtKQ2gJYywrndmSB8n09PT1T58feu6l/KR+ATYHN09jwA/AUJCB2gZTWreHid7e3vnFbgLsxX4kQ4lWiRvawEsIyoBTpfd0tJSzXFJDFzghUOzweoTuFdEICRBu5WVlVRGw/P75ORkWlY63BexLUOOwL26BELbDfu/hMzO+Ph4KqFD3yHw8wr8tLu7m0isREwkJsj9wdqvs7Ozk8rFwC28ZoO1kIBI2KW1aAAdHR1NZ0BmgT6KwIuAcOQJfOJy/yIFGH1uZtlOsO7nlUwJgfswW4FfGDGJlbAisQDC0jk8PJzOgMD7IH2xdQ+LZoO14QLuf9dkZGSkuqQWAa9H4FOXB1bA3sxFJYBl1JkBnsjngbc3rxF4ALMV+JVpl1gJKxKKgLBpGxoaSvvywcVi6x4WzQarFfjM5betra26BbSELp2i5+YJwAgrzFbgYZ5AmVkIPZCKwucIPPQK8NSkgYj47odYBIItxcDAQNLT05OuQvTnAwzF1r2AExgbJkA4r7e3N+nv769mcHCwMHw9Ar9vbGykDUREl5MW8UUuzrJZqVRq0tfXl65G9oEUigYXeOGCEVYr8LnLo4sQYOsMsA39XKDAI5itwGMrYEupqASjThlJmBVKqAy8r3SUwGOfwB9MMw1CM2FlfBERPpHgOUBfAp93rl3vLTiBEVYrcF0ErISeiVB8ErLf920FfLA2euQ1vBK4bgWe+ASKSuTNUtFzQ2VjBJ5YgS9c/uTDKCINYzKNSgiaCB+sMAcF8iQanRh8TOCpbhSS0LloYJ0QfCbw1CfwFwdXV1drEpNqROz1fDywekuoq6try57gk3hR8bHA6Cuhj1x+7ujo+C904osUiV0fRlhh1gLvutxobW39p729vb+7u3sndg/YGg4ts6El1K44vnvBlhVMsMEIK8xa4FL20cpNl79dnrk8b7I8y9huZqyX7FcNLmffSfgqM/ymyXIjY4PxcvDbKu511eVNl7eaLDBdtbz/A5FFGbor5DzMAAAAAElFTkSuQmCC";
 
+	/**
+	 * The base64 encoded icons already read, by mime type. Only the icons found are cached, so the cache can't hold
+	 * more entries than the icons of the library.
+	 */
+	private static final ConcurrentHashMap<String, String> ICONS = new ConcurrentHashMap<String, String>();
+
+	/** Characters escaped by {@link #escapeMarkdown(String)}, as they have a meaning in Markdown inline text. */
+	private static final String MARKDOWN_ESCAPED = "\\`*_[]";
+
 	private Utils() {
 		super();
 	}
@@ -81,20 +91,45 @@ public final class Utils {
 
 	/**
 	 * Return a base64 encoded icon for a given mime type. If the mime type is unknown or the icon is unavailable,
-	 * returns the base64 encoded {@code String} of an unknown icon (an icon with a question mark).
+	 * returns the base64 encoded {@code String} of an unknown icon (an icon with a question mark). The icons are read
+	 * once, then kept in memory.
 	 * 
 	 * @param mimeType the mime type (ie application/rtf, image/bmp, ...)
 	 * @return a base64 encoded {@code String} of the icon corresponding to the mime type in parameter
 	 */
 	public static String getEncodedIcon(final String mimeType) {
+		String encoded = ICONS.get(mimeType);
+		if (encoded != null) {
+			return encoded;
+		}
 		InputStream icon = Utils.class.getResourceAsStream("/icons/" + mimeType.replaceFirst("/", "-") + ".png");
 		if (icon == null) {
 			return UNKNOWN_ICON;
 		}
 		try {
-			return encodeToBase64Binary(icon);
+			encoded = encodeToBase64Binary(icon);
 		} catch (IOException e) {
 			return UNKNOWN_ICON;
+		} finally {
+			try {
+				icon.close();
+			} catch (IOException e) {
+				// The icon has been read, or the reading error is already handled
+			}
+		}
+		ICONS.putIfAbsent(mimeType, encoded);
+		return encoded;
+	}
+
+	/**
+	 * Reads and encodes the icons of some mime types, so the first conversions embedding them don't have to.
+	 * 
+	 * @param mimeTypes the mime types (ie application/rtf, image/bmp, ...)
+	 * @see Utils#getEncodedIcon(String)
+	 */
+	public static void preloadIcons(final String... mimeTypes) {
+		for (String mimeType : mimeTypes) {
+			getEncodedIcon(mimeType);
 		}
 	}
 
@@ -116,6 +151,86 @@ public final class Utils {
 		return sb.toString();
 	}
 
+	/**
+	 * Replace a range of a {@code String} by another {@code String}, copying the rest of the source only once.
+	 * 
+	 * @param source the {@code String} to splice
+	 * @param start the beginning index of the range to replace, inclusive
+	 * @param end the ending index of the range to replace, exclusive
+	 * @param replacement the {@code String} to insert in place of the range
+	 * @return the spliced {@code String}
+	 */
+	public static String splice(final String source, final int start, final int end, final String replacement) {
+		return new StringBuilder(source.length() - (end - start) + replacement.length()).append(source, 0, start)
+				.append(replacement).append(source, end, source.length()).toString();
+	}
+
+	/**
+	 * Escape the characters of a {@code String} that can't appear as is in an XML text or attribute value, whether the
+	 * value is delimited by double or single quotes.
+	 * 
+	 * @param text the text to escape
+	 * @return the escaped text, or the text in parameter if it contains no character to escape
+	 */
+	public static String escapeXml(final String text) {
+		StringBuilder sb = null;
+		for (int i = 0; i < text.length(); i++) {
+			String replacement;
+			switch (text.charAt(i)) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			case '\'':
+				replacement = "&apos;";
+				break;
+			default:
+				replacement = null;
+			}
+			if (replacement != null) {
+				if (sb == null) {
+					sb = new StringBuilder(text.length() + 16).append(text, 0, i);
+				}
+				sb.append(replacement);
+			} else if (sb != null) {
+				sb.append(text.charAt(i));
+			}
+		}
+		return sb == null ? text : sb.toString();
+	}
+
+	/**
+	 * Escape the characters of a {@code String} that have a meaning in Markdown inline text: {@code \}, {@code `},
+	 * {@code *}, {@code _}, {@code [} and {@code ]}. The escaped text can be written as text or as the text of a link.
+	 * 
+	 * @param text the text to escape
+	 * @return the escaped text, or the text in parameter if it contains no character to escape
+	 */
+	public static String escapeMarkdown(final String text) {
+		StringBuilder sb = null;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (MARKDOWN_ESCAPED.indexOf(c) >= 0) {
+				if (sb == null) {
+					sb = new StringBuilder(text.length() + 16).append(text, 0, i);
+				}
+				sb.append('\\');
+			}
+			if (sb != null) {
+				sb.append(c);
+			}
+		}
+		return sb == null ? text : sb.toString();
+	}
+
 	/**
 	 * Convert a millisecond duration to a string format.
 	 * 
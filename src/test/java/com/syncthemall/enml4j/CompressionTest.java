@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * Checks that the compressed HTML decompresses to the uncompressed HTML, in both formats, with or without a
+ * {@code ProgressiveOutput} flushing the compressed data.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class CompressionTest {
+
+	private final List<Note> corpus = new CorpusGenerator(5).setBlockCount(1, 50).generate(0, 10);
+
+	@Test
+	public void compressedHTMLDecompressesToTheHTML() throws Exception {
+		checkRoundTrip(new ENMLProcessor());
+	}
+
+	@Test
+	public void progressiveCompressedHTMLDecompressesToTheHTML() throws Exception {
+		checkRoundTrip(ENMLProcessor.builder().progressiveOutput(new ProgressiveOutput(100, 0))
+				.compression(Deflater.BEST_SPEED, Deflater.FILTERED).build());
+	}
+
+	private void checkRoundTrip(final ENMLProcessor processor) throws Exception {
+		for (Note note : corpus) {
+			ByteArrayOutputStream html = new ByteArrayOutputStream();
+			processor.noteToInlineHTML(note, html);
+			for (Compression compression : Compression.values()) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				processor.noteToInlineHTML(note, compressed, compression);
+				assertArrayEquals(note.getGuid() + " " + compression, html.toByteArray(),
+						decompress(compressed.toByteArray(), compression));
+			}
+		}
+	}
+
+	private static byte[] decompress(final byte[] data, final Compression compression) throws IOException {
+		InputStream in = compression == Compression.GZIP ? new GZIPInputStream(new ByteArrayInputStream(data))
+				: new InflaterInputStream(new ByteArrayInputStream(data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * Checks that a {@code ConversionSession} fed in small chunks writes the same HTML as the conversion of the whole
+ * content, converts without blocking a thread when Aalto is on the classpath, and bounds the bytes it holds.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ConversionSessionTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n";
+
+	/** An {@code Executor} running the tasks in the thread submitting them. */
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			command.run();
+		}
+	};
+
+	private final ENMLProcessor processor = new ENMLProcessor();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void sessionWritesTheHTMLOfTheContent() throws Exception {
+		for (Note note : corpus()) {
+			Map<String, String> mapGUIDURL = mapGUIDURL(note);
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			processor.noteToHTML(note, mapGUIDURL, expected);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ConversionSession session = processor.openHTMLSession(note, mapGUIDURL, out, executor);
+			feed(session, note.getContent().getBytes(UTF_8), 7);
+			assertArrayEquals(note.getGuid(), expected.toByteArray(), toByteArray(session));
+
+			expected = new ByteArrayOutputStream();
+			processor.noteToInlineHTML(note, expected);
+			out = new ByteArrayOutputStream();
+			session = processor.openInlineHTMLSession(note, out, executor);
+			feed(session, note.getContent().getBytes(UTF_8), 1);
+			assertArrayEquals(note.getGuid(), expected.toByteArray(), toByteArray(session));
+		}
+	}
+
+	@Test
+	public void sessionDoesNotBlockAThread() throws Exception {
+		// With the blocking parser, the conversion would wait in the feeding thread for chunks never fed
+		Note note = corpus().get(0);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		processor.noteToInlineHTML(note, expected);
+		ConversionSession session = processor.openInlineHTMLSession(note, new ByteArrayOutputStream(), SAME_THREAD);
+		byte[] content = note.getContent().getBytes(UTF_8);
+		for (int offset = 0; offset < content.length; offset += 64) {
+			assertTrue(session.feed(ByteBuffer.wrap(content, offset, Math.min(64, content.length - offset))));
+			assertFalse(session.getConversion().isDone());
+		}
+		session.endOfInput();
+		assertTrue(session.getConversion().isDone());
+		assertArrayEquals(expected.toByteArray(), toByteArray(session));
+	}
+
+	@Test
+	public void feedStopsAtTheCapacity() throws Exception {
+		Executor never = new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				// The conversion never runs
+			}
+		};
+		ConversionSession session = processor.openInlineHTMLSession(corpus().get(0), new ByteArrayOutputStream(),
+				never);
+		ByteBuffer chunk = ByteBuffer.allocate(ConversionSession.CAPACITY / 4 + 1);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(session.feed(chunk));
+			chunk.clear();
+		}
+		assertFalse(session.feed(chunk));
+		assertEquals(4, chunk.remaining());
+		assertFalse(session.awaitCapacity(10, TimeUnit.MILLISECONDS));
+		session.close();
+		assertTrue(session.awaitCapacity(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void malformedContentFailsTheConversion() throws Exception {
+		Note note = corpus().get(0);
+		note.setContent(HEADER + "<en-note><div>Unclosed</en-note>");
+		ConversionSession session = processor.openInlineHTMLSession(note, new ByteArrayOutputStream(), executor);
+		feed(session, note.getContent().getBytes(UTF_8), 5);
+		try {
+			session.getConversion().get(10, TimeUnit.SECONDS);
+			fail("A malformed content has been converted");
+		} catch (ExecutionException e) {
+			assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof XMLStreamException);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void sessionRequiresAnExecutor() {
+		processor.openInlineHTMLSession(corpus().get(0), new ByteArrayOutputStream(), null);
+	}
+
+	private static void feed(final ConversionSession session, final byte[] content, final int chunkSize)
+			throws InterruptedException {
+		for (int offset = 0; offset < content.length; offset += chunkSize) {
+			ByteBuffer chunk = ByteBuffer.wrap(content, offset, Math.min(chunkSize, content.length - offset));
+			while (!session.feed(chunk)) {
+				session.awaitCapacity(1, TimeUnit.SECONDS);
+			}
+		}
+		session.endOfInput();
+	}
+
+	private static byte[] toByteArray(final ConversionSession session) throws Exception {
+		OutputStream out = session.getConversion().get(10, TimeUnit.SECONDS);
+		return ((ByteArrayOutputStream) out).toByteArray();
+	}
+
+	private List<Note> corpus() {
+		List<Note> corpus = new ArrayList<Note>(new CorpusGenerator(11).setBlockCount(1, 30).generate(0, 10));
+		Note note = new Note();
+		note.setGuid("entities");
+		note.setTitle("Entities");
+		note.setAttributes(new NoteAttributes());
+		note.setContent(HEADER + "<en-note><div title=\"caf&eacute; &amp; th&eacute;\">&eacute;&nbsp;&#x263A; "
+				+ "<![CDATA[<raw> &eacute;]]><!-- &eacute; --><en-todo checked=\"true\"/><en-crypt>secret</en-crypt>"
+				+ "<br/>&undefined;\u00e9\u20ac<?target &eacute;?></div></en-note>");
+		note.setResources(new ArrayList<Resource>());
+		corpus.add(note);
+		return corpus;
+	}
+
+	private static Map<String, String> mapGUIDURL(final Note note) {
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		for (Resource resource : note.getResources()) {
+			mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+		}
+		return mapGUIDURL;
+	}
+}
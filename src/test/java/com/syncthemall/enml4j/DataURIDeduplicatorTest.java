@@ -0,0 +1,102 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@code id}s generated by {@link DataURIDeduplicator}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class DataURIDeduplicatorTest {
+
+	private static final String DATA_URI;
+
+	static {
+		StringBuilder dataURI = new StringBuilder("data:image/png;base64,");
+		while (dataURI.length() < DataURIDeduplicator.MIN_LENGTH) {
+			dataURI.append("AAAA");
+		}
+		DATA_URI = dataURI.toString();
+	}
+
+	private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+	private final DataURIDeduplicator deduplicator = new DataURIDeduplicator(eventFactory);
+
+	@Test
+	public void generatedIdIsDifferentFromTheIdsSeen() {
+		deduplicator.process(element("div", "id", "enml4j-0"));
+		StartElement first = process(element("img", "src", DATA_URI));
+		StartElement second = process(element("img", "src", DATA_URI));
+		assertEquals("enml4j-1", value(first, "id"));
+		assertEquals("enml4j-1", value(second, "data-enml4j-src"));
+		assertNull(value(second, "src"));
+	}
+
+	@Test
+	public void laterElementLosesTheGeneratedId() {
+		StartElement first = process(element("img", "src", DATA_URI));
+		StartElement other = process(element("div", "id", "enml4j-0", "title", "kept"));
+		StartElement second = process(element("img", "src", DATA_URI));
+		assertEquals("enml4j-0", value(first, "id"));
+		assertNull(value(other, "id"));
+		assertEquals("kept", value(other, "title"));
+		assertEquals("enml4j-0", value(second, "data-enml4j-src"));
+	}
+
+	@Test
+	public void existingIdOfTheFirstElementIsReferenced() {
+		process(element("img", "id", "photo", "src", DATA_URI));
+		StartElement second = process(element("img", "src", DATA_URI));
+		assertEquals("photo", value(second, "data-enml4j-src"));
+	}
+
+	private StartElement process(final StartElement start) {
+		return deduplicator.process(start).asStartElement();
+	}
+
+	private StartElement element(final String name, final String... attributes) {
+		List<Attribute> list = new ArrayList<Attribute>();
+		for (int i = 0; i < attributes.length; i += 2) {
+			list.add(eventFactory.createAttribute(attributes[i], attributes[i + 1]));
+		}
+		return eventFactory.createStartElement("", "", name, list.iterator(), null);
+	}
+
+	private static String value(final StartElement start, final String name) {
+		Attribute attribute = start.getAttributeByName(new QName(name));
+		return attribute != null ? attribute.getValue() : null;
+	}
+}
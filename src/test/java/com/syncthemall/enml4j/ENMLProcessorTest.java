@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+
+import javax.xml.stream.XMLEventFactory;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+
+import com.syncthemall.enml4j.converter.BaseConverter;
+import com.syncthemall.enml4j.impl.DefaultTodoTagConverter;
+
+/**
+ * Checks the settings of the {@code ENMLProcessor}s created by a {@code Builder}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ENMLProcessorTest {
+
+	@Test
+	public void builtProcessorsDontModifyTheirConverters() throws Exception {
+		BaseConverter todoConverter = new DefaultTodoTagConverter();
+		XMLEventFactory eventFactory = todoConverter.getEventFactory();
+		ENMLProcessor first = ENMLProcessor.builder().todoConverter(todoConverter).build();
+		ENMLProcessor second = ENMLProcessor.builder().todoConverter(todoConverter).build();
+		assertSame(eventFactory, todoConverter.getEventFactory());
+
+		String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n"
+				+ "<en-note><div><en-todo checked=\"true\"/>Done</div></en-note>";
+		Note note = new Note();
+		note.setGuid("todo");
+		note.setTitle("Todo");
+		note.setContent(content);
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		assertEquals(first.noteToHTMLString(note, null), second.noteToHTMLString(note, null));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void builtProcessorsDontExposeTheirInputFactory() {
+		ENMLProcessor.builder().build().getInputFactory();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void builtProcessorsDontExposeTheirOutputFactory() {
+		ENMLProcessor.builder().build().getOutputFactory();
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+
+/**
+ * Checks that the {@link ENMLTokenizer} and the {@link EntityReferenceFilter} of the non-blocking parser produce the
+ * same events and output as the StAX parser, and that the tokenizer leaves to StAX the contents it doesn't handle.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ENMLTokenizerTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n";
+
+	private static final Map<String, String> NO_RESOURCES = Collections.emptyMap();
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** An {@code Executor} running the tasks in the thread submitting them. */
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			command.run();
+		}
+	};
+
+	private final ENMLProcessor stax = ENMLProcessor.builder().enmlTokenizer(false).build();
+
+	private final ENMLProcessor tokenizer = ENMLProcessor.builder().enmlTokenizer(true).build();
+
+	@Test
+	public void entities() throws Exception {
+		checkSameOutput("<div>&eacute;&nbsp;&amp;&lt;&gt;&quot;&apos;&#233;&#x263A;&euro; caf&eacute;</div>", true);
+	}
+
+	@Test
+	public void cdata() throws Exception {
+		checkSameOutput("<div>before<![CDATA[<raw> &eacute; ]]>after<![CDATA[]]></div>", true);
+	}
+
+	@Test
+	public void comments() throws Exception {
+		checkSameOutput("<!-- first --><div>text<!-- &eacute; <b> --></div><!---->", true);
+	}
+
+	@Test
+	public void attributesWithWhitespace() throws Exception {
+		checkSameOutput("<div  title = 'single &amp; quoted'\n\tstyle=\"a:\tb;\nc: d\" ><en-todo\r\nchecked=\"true\""
+				+ " /><a href=\"http://x/?a=1&amp;b=2\" >link</a ></div >", true);
+	}
+
+	@Test
+	public void lineBreaks() throws Exception {
+		checkSameOutput("<div>CR LF\r\nCR\rLF\n</div>\r\n<pre>\r\n  indented\r\n</pre>", true);
+	}
+
+	@Test
+	public void defaultAttributes() throws Exception {
+		checkSameOutput("<div><en-todo/><en-crypt>c2VjcmV0</en-crypt><table><tr><td>cell</td></tr></table></div>",
+				true);
+	}
+
+	@Test
+	public void unsupportedContentFallsBackToStAX() throws Exception {
+		String[] unsupported = { "<div>text<?target data?></div>", "<div><!-- CR\r\nin a comment --></div>",
+				"<div xmlns:x=\"urn:x\">text</div>" };
+		for (String content : unsupported) {
+			checkSameOutput(content, false);
+		}
+		assertFalse(new ParsedNote(createNote("")).tokenize(createTokenizer(), HEADER
+				.replace("enml2.dtd\">", "enml2.dtd\" [<!ENTITY x \"y\">]>") + "<en-note>&x;</en-note>"));
+	}
+
+	/**
+	 * Checks that the tokenizer, or the StAX parser it falls back to, and the non-blocking parser of a
+	 * {@code ConversionSession} give the same events and the same output as the StAX parser.
+	 */
+	private void checkSameOutput(final String content, final boolean tokenized) throws Exception {
+		Note note = createNote(content);
+		assertEquals(content, tokenized, new ParsedNote(note).tokenize(createTokenizer(), note.getContent()));
+		assertEquals(content, events(stax, note), events(tokenizer, note));
+		assertEquals(content, stax.noteToHTMLString(note, NO_RESOURCES), tokenizer.noteToHTMLString(note,
+				NO_RESOURCES));
+		assertEquals(content, stax.noteToInlineHTMLString(note), tokenizer.noteToInlineHTMLString(note));
+		assertEquals(content, stax.noteToTextString(note), tokenizer.noteToTextString(note));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		stax.noteToInlineHTML(note, expected);
+		ConversionSession session = tokenizer.openInlineHTMLSession(note, new ByteArrayOutputStream(), SAME_THREAD);
+		session.feed(ByteBuffer.wrap(note.getContent().getBytes(UTF_8)));
+		session.endOfInput();
+		ByteArrayOutputStream out = (ByteArrayOutputStream) session.getConversion().get(10, TimeUnit.SECONDS);
+		assertEquals(content, expected.toString("UTF-8"), out.toString("UTF-8"));
+	}
+
+	/**
+	 * Lists the events read from the content of a {@code Note}, the adjacent character data being merged as the
+	 * tokenizer doesn't split them at each entity.
+	 */
+	private static List<String> events(final ENMLProcessor processor, final Note note) throws XMLStreamException {
+		List<String> events = new ArrayList<String>();
+		XMLStreamReader reader = processor.createXMLStreamReader(note);
+		try {
+			StringBuilder text = new StringBuilder();
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+					text.append(reader.getText());
+					continue;
+				}
+				if (text.length() > 0) {
+					events.add("text " + text);
+					text.setLength(0);
+				}
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					List<String> attributes = new ArrayList<String>();
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						attributes.add(reader.getAttributeName(i) + "=" + reader.getAttributeValue(i));
+					}
+					Collections.sort(attributes);
+					events.add("start " + reader.getName() + " " + attributes);
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					events.add("end " + reader.getName());
+				} else if (event == XMLStreamConstants.CDATA || event == XMLStreamConstants.COMMENT) {
+					events.add(event + " " + reader.getText());
+				} else if (event != XMLStreamConstants.DTD && event != XMLStreamConstants.END_DOCUMENT) {
+					events.add(String.valueOf(event));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return events;
+	}
+
+	private ENMLTokenizer createTokenizer() throws XMLStreamException {
+		return new ENMLTokenizer(new ENMLProcessor().getInputFactory());
+	}
+
+	private static Note createNote(final String content) {
+		Note note = new Note();
+		note.setGuid("tokenized");
+		note.setTitle("Tokenized");
+		note.setContent(HEADER + "<en-note>" + content + "</en-note>");
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return note;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import com.evernote.edam.type.Data;
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.evernote.edam.type.ResourceAttributes;
+
+/**
+ * Checks that the text of a {@code Note} with a meaning in Markdown is escaped in its conversion to Markdown.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class MarkdownConversionTest {
+
+	private static final String HASH = "f03c1c2d96bc67eda02968c8b5af9008";
+
+	private final ENMLProcessor processor = new ENMLProcessor();
+
+	@Test
+	public void pipeInCellIsEscaped() throws Exception {
+		String markdown = convert("<table><tr><td>a|b</td><td>c</td></tr></table>", null);
+		assertTrue(markdown, markdown.contains("\n| a\\|b | c |\n| --- | --- |\n"));
+	}
+
+	@Test
+	public void numberStartingLineIsNotAList() throws Exception {
+		assertTrue(convert("<p>1986. A good year</p>", null).contains("\n1986\\. A good year\n"));
+		assertTrue(convert("<p>2) Second</p>", null).contains("\n2\\) Second\n"));
+		assertTrue(convert("<p>Version 2.0</p>", null).contains("\nVersion 2.0\n"));
+	}
+
+	@Test
+	public void fileNameIsEscapedInLinkText() throws Exception {
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		mapGUIDURL.put("pdf", "files/report.pdf");
+		String markdown = convert("<en-media type=\"application/pdf\" hash=\"" + HASH + "\"/>", mapGUIDURL);
+		assertTrue(markdown, markdown.contains("[report \\[draft\\]\\\\v\\_2.pdf](files/report.pdf)"));
+	}
+
+	private String convert(final String body, final Map<String, String> mapGUIDURL) throws Exception {
+		Note note = new Note();
+		note.setGuid("markdown");
+		note.setTitle("Markdown");
+		note.setContent("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n<en-note>" + body
+				+ "</en-note>");
+		note.setAttributes(new NoteAttributes());
+		List<Resource> resources = new ArrayList<Resource>();
+		if (mapGUIDURL != null) {
+			Resource resource = new Resource();
+			resource.setGuid("pdf");
+			resource.setMime("application/pdf");
+			Data data = new Data();
+			data.setBody(new byte[] { 1 });
+			data.setBodyHash(Hex.decodeHex(HASH.toCharArray()));
+			resource.setData(data);
+			ResourceAttributes attributes = new ResourceAttributes();
+			attributes.setFileName("report [draft]\\v_2.pdf");
+			resource.setAttributes(attributes);
+			resources.add(resource);
+		}
+		note.setResources(resources);
+		return processor.noteToMarkdownString(note, mapGUIDURL != null ? mapGUIDURL : Collections
+				.<String, String> emptyMap());
+	}
+}
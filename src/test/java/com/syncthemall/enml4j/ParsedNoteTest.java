@@ -0,0 +1,170 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * Checks that a {@code ParsedNote} written in its binary form and read back converts exactly as the content of its
+ * {@code Note}, and that a truncated or corrupted binary form fails with an {@code IOException}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ParsedNoteTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n";
+
+	private final ENMLProcessor processor = new ENMLProcessor();
+
+	@Test
+	public void roundTripConvertsAsTheContent() throws Exception {
+		for (Note note : corpus()) {
+			ParsedNote parsed = ParsedNote.readFrom(note, new ByteArrayInputStream(write(note)));
+			assertFalse(parsed.isStale());
+			Map<String, String> mapGUIDURL = mapGUIDURL(note);
+			assertEquals(processor.noteToHTMLString(note, mapGUIDURL), processor.noteToHTMLString(parsed, mapGUIDURL));
+			assertEquals(processor.noteToInlineHTMLString(note), processor.noteToInlineHTMLString(parsed));
+			assertEquals(processor.noteToTextString(note), processor.noteToTextString(parsed));
+			assertEquals(processor.noteToMarkdownString(note, mapGUIDURL),
+					processor.noteToMarkdownString(parsed, mapGUIDURL));
+			assertEquals(processor.noteToJSONString(note, mapGUIDURL), processor.noteToJSONString(parsed, mapGUIDURL));
+		}
+	}
+
+	@Test
+	public void replacedContentIsParsedAgain() throws Exception {
+		Note note = corpus().get(0);
+		byte[] binary = write(note);
+		Note replaced = new Note(note);
+		replaced.setContent(HEADER + "<en-note><div>Replaced</div></en-note>");
+		ParsedNote parsed = ParsedNote.readFrom(replaced, new ByteArrayInputStream(binary));
+		assertTrue(parsed.isStale());
+		assertEquals(processor.noteToTextString(replaced), processor.noteToTextString(parsed));
+	}
+
+	@Test
+	public void truncatedBinaryFormFails() throws Exception {
+		Note note = corpus().get(0);
+		byte[] binary = write(note);
+		for (int length = 0; length < binary.length; length++) {
+			try {
+				ParsedNote.readFrom(note, new ByteArrayInputStream(Arrays.copyOf(binary, length)));
+				fail("A binary form truncated to " + length + " bytes has been read");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void corruptedBinaryFormFailsWithIOException() throws Exception {
+		Note note = corpus().get(0);
+		byte[] binary = write(note);
+		int[] values = { 0x00, 0x7F, 0x80, 0xFF };
+		for (int i = 0; i < binary.length; i++) {
+			for (int value : values) {
+				byte[] corrupted = binary.clone();
+				corrupted[i] = (byte) value;
+				try {
+					ParsedNote.readFrom(note, new ByteArrayInputStream(corrupted));
+				} catch (IOException e) {
+					// Expected, unless the corruption still decodes
+				}
+			}
+		}
+	}
+
+	@Test
+	public void hugeCountsFailWithIOException() throws Exception {
+		Note note = corpus().get(0);
+		byte[] binary = write(note);
+		// The magic number and the hash are 4 bytes each, the content length a varint, followed by the name count
+		int nameCount = 8 + varintLength(note.getContent().length());
+		byte[] huge = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(binary, 0, nameCount);
+		out.write(huge);
+		out.write(binary, nameCount + 1, binary.length - nameCount - 1);
+		try {
+			ParsedNote.readFrom(note, new ByteArrayInputStream(out.toByteArray()));
+			fail("A binary form with " + Integer.MAX_VALUE + " names has been read");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid number of names"));
+		}
+	}
+
+	private List<Note> corpus() {
+		List<Note> corpus = new ArrayList<Note>(new CorpusGenerator(7).setBlockCount(1, 30).generate(0, 20));
+		Note note = new Note();
+		note.setGuid("entities");
+		note.setTitle("Entities");
+		note.setAttributes(new NoteAttributes());
+		note.setContent(HEADER + "<en-note><div title=\"a &amp; b\">&eacute;&nbsp;&#x263A; <![CDATA[<raw>]]>"
+				+ "<!-- comment --><en-todo/><en-crypt>secret</en-crypt><br/>\u00e9\u20ac</div></en-note>");
+		note.setResources(new ArrayList<Resource>());
+		corpus.add(note);
+		return corpus;
+	}
+
+	private byte[] write(final Note note) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		processor.parseNote(note).writeTo(out);
+		return out.toByteArray();
+	}
+
+	private static Map<String, String> mapGUIDURL(final Note note) {
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		for (Resource resource : note.getResources()) {
+			mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+		}
+		return mapGUIDURL;
+	}
+
+	private static int varintLength(final int value) {
+		int length = 1;
+		for (int rest = value >>> 7; rest != 0; rest >>>= 7) {
+			length++;
+		}
+		return length;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Data;
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.evernote.edam.type.ResourceAttributes;
+import com.syncthemall.enml4j.util.Utils;
+
+/**
+ * Checks the 'type' attribute written by {@link ENMLProcessor#updateNoteResources(Note, Map)}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ResourceUpdateTest {
+
+	private final ENMLProcessor processor = new ENMLProcessor();
+
+	@Test
+	public void apostropheIsEscapedInSingleQuotedType() throws Exception {
+		Note note = createNote("<en-media type='image/png' hash='%s'/>");
+		Resource resource = createResource("image/x-o'brien", 2);
+		String content = update(note, resource);
+		assertTrue(content, content.contains("type='image/x-o&apos;brien' hash='" + hash(resource) + "'"));
+		// The content is still well-formed
+		processor.noteToHTMLString(note, Collections.<String, String> emptyMap());
+	}
+
+	@Test
+	public void typeIsUnchangedWithoutMimeType() throws Exception {
+		Note note = createNote("<en-media type=\"image/png\" hash=\"%s\"/>");
+		Resource resource = createResource(null, 2);
+		String content = update(note, resource);
+		assertTrue(content, content.contains("<en-media type=\"image/png\" hash=\"" + hash(resource) + "\"/>"));
+		assertEquals(1, note.getResourcesSize());
+	}
+
+	private String update(final Note note, final Resource resource) throws Exception {
+		Map<Resource, Resource> update = new HashMap<Resource, Resource>();
+		update.put(note.getResources().get(0), resource);
+		return processor.updateNoteResources(note, update).getContent();
+	}
+
+	private static Note createNote(final String media) throws Exception {
+		Resource resource = createResource("image/png", 1);
+		Note note = new Note();
+		note.setGuid("update");
+		note.setTitle("Update");
+		note.setContent("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n<en-note><div>"
+				+ String.format(media, hash(resource)) + "</div></en-note>");
+		note.setAttributes(new NoteAttributes());
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(resource);
+		note.setResources(resources);
+		return note;
+	}
+
+	private static Resource createResource(final String mime, final int content) throws Exception {
+		byte[] body = new byte[] { (byte) content };
+		Data data = new Data();
+		data.setBody(body);
+		data.setBodyHash(MessageDigest.getInstance("MD5").digest(body));
+		data.setSize(body.length);
+		Resource resource = new Resource();
+		resource.setGuid("resource-" + content);
+		resource.setMime(mime);
+		resource.setData(data);
+		resource.setAttributes(new ResourceAttributes());
+		return resource;
+	}
+
+	private static String hash(final Resource resource) {
+		return Utils.bytesToHex(resource.getData().getBodyHash());
+	}
+}
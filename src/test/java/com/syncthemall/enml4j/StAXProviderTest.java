@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+
+/**
+ * Checks that the conversions work when another StAX implementation, Aalto, is registered in the class path. The build
+ * doesn't choose the StAX implementation, so this runs as in an application depending on Aalto for the non-blocking
+ * sessions.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class StAXProviderTest {
+
+	private static final String CONTENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n"
+			+ "<en-note><div>a&nbsp;b&eacute;&copy;</div></en-note>";
+
+	@Test
+	public void aaltoIsTheRegisteredImplementation() {
+		assertTrue(XMLInputFactory.newInstance().getClass().getName().startsWith("com.fasterxml.aalto"));
+	}
+
+	@Test
+	public void conversionsExpandTheDTDEntities() throws Exception {
+		ENMLProcessor processor = new ENMLProcessor();
+		Note note = createNote();
+		String html = processor.noteToHTMLString(note, Collections.<String, String> emptyMap());
+		assertTrue(html, html.contains("a\u00a0b\u00e9\u00a9"));
+		assertEquals(html, processor.noteToHTMLString(processor.parseNote(note),
+				Collections.<String, String> emptyMap()));
+		assertTrue(processor.noteToInlineHTMLString(note).contains("a\u00a0b\u00e9\u00a9"));
+		assertTrue(processor.noteToTextString(note).contains("a\u00a0b\u00e9\u00a9"));
+	}
+
+	@Test
+	public void warmUpSucceeds() throws Exception {
+		ENMLProcessor.builder().build().warmUp(1);
+	}
+
+	private static Note createNote() {
+		Note note = new Note();
+		note.setGuid("entities");
+		note.setTitle("Entities");
+		note.setContent(CONTENT);
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return note;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+
+/**
+ * Checks the layout of the text extracted from a {@code Note} by {@link ENMLProcessor#noteToTextString(Note)}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class TextConversionTest {
+
+	private final ENMLProcessor processor = new ENMLProcessor();
+
+	@Test
+	public void cellsAreSeparatedByTabulations() throws XMLStreamException {
+		assertEquals("a\tb\tc\nd\te\tf\n", convert("<table><tr><th>a</th><th>b</th><th>c</th></tr>"
+				+ "<tr><td>d</td><td>e</td><td>f</td></tr></table>"));
+	}
+
+	@Test
+	public void emptyCellsKeepTheirColumn() throws XMLStreamException {
+		assertEquals("\tb\na\t\n", convert("<table><tr><td></td><td>b</td></tr><tr><td>a</td><td/></tr></table>"));
+	}
+
+	@Test
+	public void nestedTablesStartNewRows() throws XMLStreamException {
+		assertEquals("a\n1\t2\n\tb\n", convert("<table><tr><td>a<table><tr><td>1</td><td>2</td></tr></table></td>"
+				+ "<td>b</td></tr></table>"));
+	}
+
+	@Test
+	public void blocksAreSeparatedByLineBreaks() throws XMLStreamException {
+		assertEquals("one\ntwo\nthree\n", convert("<div>one</div><p>two<br/>three</p>"));
+	}
+
+	private String convert(final String body) throws XMLStreamException {
+		Note note = new Note();
+		note.setGuid("text");
+		note.setTitle("Text");
+		note.setContent("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n<en-note>" + body
+				+ "</en-note>");
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return processor.noteToTextString(note);
+	}
+}
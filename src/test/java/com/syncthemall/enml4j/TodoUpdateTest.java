@@ -0,0 +1,140 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+
+/**
+ * Checks the edition of the {@code <en-todo>} tags by {@link ENMLProcessor#updateNoteTodo(Note, int, boolean)}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class TodoUpdateTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n";
+
+	private static final Map<String, String> NO_RESOURCES = Collections.emptyMap();
+
+	private final ENMLProcessor processor = new ENMLProcessor();
+
+	@Test
+	public void existingCheckedAttributeIsReplaced() {
+		Note note = createNote("<div><en-todo checked=\"false\"/>a</div><div><en-todo checked=\"true\" />b</div>");
+		processor.updateNoteTodo(note, 0, true);
+		processor.updateNoteTodo(note, 1, false);
+		assertEquals(content("<div><en-todo checked=\"true\"/>a</div><div><en-todo checked=\"false\" />b</div>"),
+				note.getContent());
+	}
+
+	@Test
+	public void missingCheckedAttributeIsAddedOnlyToCheck() {
+		Note note = createNote("<div><en-todo/>a</div><div><en-todo></en-todo>b</div>");
+		processor.updateNoteTodo(note, 1, false);
+		assertEquals(content("<div><en-todo/>a</div><div><en-todo></en-todo>b</div>"), note.getContent());
+		processor.updateNoteTodo(note, 0, true);
+		processor.updateNoteTodo(note, 1, true);
+		assertEquals(content("<div><en-todo checked=\"true\"/>a</div><div><en-todo checked=\"true\"></en-todo>b</div>"),
+				note.getContent());
+	}
+
+	@Test
+	public void singleQuotedValueKeepsItsQuotes() {
+		Note note = createNote("<div><en-todo checked='true' style='x'/>a</div>");
+		processor.updateNoteTodo(note, 0, false);
+		assertEquals(content("<div><en-todo checked='false' style='x'/>a</div>"), note.getContent());
+	}
+
+	@Test
+	public void todosInCommentsAndCDATAAreIgnored() {
+		Note note = createNote("<!-- <en-todo checked=\"false\"/> --><div><![CDATA[<en-todo/>]]><en-todo/>a</div>"
+				+ "<div><en-todo checked=\"false\"/>b</div>");
+		processor.updateNoteTodo(note, 1, true);
+		assertEquals(content("<!-- <en-todo checked=\"false\"/> --><div><![CDATA[<en-todo/>]]><en-todo/>a</div>"
+				+ "<div><en-todo checked=\"true\"/>b</div>"), note.getContent());
+	}
+
+	@Test
+	public void outOfRangeIndexIsRejected() {
+		Note note = createNote("<!-- <en-todo/> --><div><en-todo/>a</div>");
+		try {
+			processor.updateNoteTodo(note, 1, true);
+			fail("A missing en-todo has been updated");
+		} catch (IndexOutOfBoundsException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("1 en-todo tags"));
+		}
+		assertEquals(content("<!-- <en-todo/> --><div><en-todo/>a</div>"), note.getContent());
+	}
+
+	@Test
+	public void parsedNoteIsKeptInSync() throws XMLStreamException {
+		Note note = createNote("<div><en-todo/>a</div><div><en-todo checked='true'/>b</div>");
+		ParsedNote parsed = processor.parseNote(note);
+		processor.updateNoteTodo(parsed, 0, true);
+		processor.updateNoteTodo(parsed, 1, false);
+		assertFalse(parsed.isStale());
+
+		Note reparsed = createNote("<div><en-todo checked=\"true\"/>a</div><div><en-todo checked='false'/>b</div>");
+		assertEquals(reparsed.getContent(), note.getContent());
+		assertEquals(processor.noteToHTMLString(reparsed, NO_RESOURCES), processor.noteToHTMLString(parsed,
+				NO_RESOURCES));
+		assertEquals(processor.noteToTextString(reparsed), processor.noteToTextString(parsed));
+
+		try {
+			processor.updateNoteTodo(parsed, 2, true);
+			fail("A missing en-todo has been updated");
+		} catch (IndexOutOfBoundsException e) {
+			assertEquals(processor.noteToHTMLString(reparsed, NO_RESOURCES), processor.noteToHTMLString(parsed,
+					NO_RESOURCES));
+		}
+	}
+
+	private static String content(final String body) {
+		return HEADER + "<en-note>" + body + "</en-note>";
+	}
+
+	private static Note createNote(final String body) {
+		Note note = new Note();
+		note.setGuid("todo");
+		note.setTitle("Todo");
+		note.setContent(content(body));
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return note;
+	}
+}
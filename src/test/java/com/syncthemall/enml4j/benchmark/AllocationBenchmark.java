@@ -0,0 +1,170 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+import com.syncthemall.enml4j.corpus.CorpusGenerator.Block;
+
+/**
+ * Measures the memory allocated and the garbage collections caused by the conversions of a large {@code Note} to an
+ * HTML {@code String}, to evaluate the pooling of the per-conversion state.
+ * <p>
+ * The allocated memory is measured with the {@code ThreadMXBean} of the platform for the thread running the
+ * conversions, and the collections with the {@code GarbageCollectorMXBean}s, after a number of warm-up conversions:
+ * 
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.AllocationBenchmark"
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.AllocationBenchmark
+ *         --conversions=2000 --enml-tokenizer --xhtml-serializer"
+ * </pre>
+ * 
+ * The {@code Note} is generated by a {@link CorpusGenerator} with a fixed seed, with 200 blocks, few of them media,
+ * and {@code Resource}s of 200 KB. The benchmark prints for each conversion the bytes allocated and the time spent per
+ * conversion, and the number and duration of the collections per thousand conversions.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class AllocationBenchmark {
+
+	/** The seed of the {@code CorpusGenerator} creating the converted {@code Note}. */
+	private static final long SEED = 42;
+
+	/** The number of blocks of the converted {@code Note}. */
+	private static final int BLOCKS = 200;
+
+	/** The size in bytes of the {@code Resource}s of the converted {@code Note}. */
+	private static final int RESOURCE_SIZE = 200 * 1024;
+
+	private static final int DEFAULT_CONVERSIONS = 1000;
+
+	private static final int DEFAULT_WARMUP_CONVERSIONS = 200;
+
+	/** The number of nanoseconds in a microsecond. */
+	private static final long NANOS_PER_MICRO = 1000;
+
+	private AllocationBenchmark() {
+		super();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args {@code --conversions=<count>} and {@code --warm-up=<count>} to set the number of conversions
+	 *            measured and run before, {@code --enml-tokenizer} and {@code --xhtml-serializer} to enable the
+	 *            corresponding settings
+	 * @throws XMLStreamException if the conversion of the {@code Note} fails
+	 */
+	public static void main(final String[] args) throws XMLStreamException {
+		int conversions = DEFAULT_CONVERSIONS;
+		int warmUp = DEFAULT_WARMUP_CONVERSIONS;
+		ENMLProcessor.Builder builder = ENMLProcessor.builder();
+		for (String arg : args) {
+			if (arg.startsWith("--conversions=")) {
+				conversions = Integer.parseInt(arg.substring("--conversions=".length()));
+			} else if (arg.startsWith("--warm-up=")) {
+				warmUp = Integer.parseInt(arg.substring("--warm-up=".length()));
+			} else if ("--enml-tokenizer".equals(arg)) {
+				builder.enmlTokenizer(true);
+			} else if ("--xhtml-serializer".equals(arg)) {
+				builder.xhtmlSerializer(true);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		if (!ConversionBudget.isAllocationMeasurementSupported()) {
+			throw new IllegalStateException("The JVM doesn't measure the memory allocated by a thread");
+		}
+		ENMLProcessor processor = builder.build();
+		Note note = new CorpusGenerator(SEED).setBlockCount(BLOCKS, BLOCKS).setWeight(Block.MEDIA, 1)
+				.setResourceSize(RESOURCE_SIZE, RESOURCE_SIZE).generate(0);
+		Map<String, String> mapGUIDURL = mapGUIDURL(note);
+
+		for (boolean inline : new boolean[] { false, true }) {
+			for (int i = 0; i < warmUp; i++) {
+				convert(processor, note, mapGUIDURL, inline);
+			}
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+			long threadId = Thread.currentThread().getId();
+			long collections = collectionCount();
+			long collectionTime = collectionTime();
+			long allocated = bean.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			for (int i = 0; i < conversions; i++) {
+				convert(processor, note, mapGUIDURL, inline);
+			}
+			long nanos = System.nanoTime() - start;
+			allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+			collections = collectionCount() - collections;
+			collectionTime = collectionTime() - collectionTime;
+
+			System.out.println((inline ? "noteToInlineHTMLString" : "noteToHTMLString") + ": "
+					+ allocated / conversions + " bytes and " + nanos / conversions / NANOS_PER_MICRO
+					+ " us per conversion, " + collections * 1000 / conversions + " collections and "
+					+ collectionTime * 1000 / conversions + " ms of collection per 1000 conversions");
+		}
+	}
+
+	private static void convert(final ENMLProcessor processor, final Note note, final Map<String, String> mapGUIDURL,
+			final boolean inline) throws XMLStreamException {
+		if (inline) {
+			processor.noteToInlineHTMLString(note);
+		} else {
+			processor.noteToHTMLString(note, mapGUIDURL);
+		}
+	}
+
+	private static long collectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long collectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+
+	private static Map<String, String> mapGUIDURL(final Note note) {
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		for (Resource resource : note.getResources()) {
+			mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+		}
+		return mapGUIDURL;
+	}
+}
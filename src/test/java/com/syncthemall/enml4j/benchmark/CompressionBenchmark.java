@@ -0,0 +1,187 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.Compression;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * Measures the size and the time of the compressed HTML conversions for each compression level from 1 to 9 and for
+ * the {@code DEFAULT_STRATEGY} and {@code FILTERED} strategies, to choose the settings of
+ * {@link ENMLProcessor#setCompression(int, int)}:
+ * 
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.CompressionBenchmark"
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.CompressionBenchmark
+ *         --notes=50 --rounds=10 --inline --deflate"
+ * </pre>
+ * 
+ * The {@code Note}s are generated by a {@link CorpusGenerator} with a fixed seed. After a few rounds warming up the
+ * JVM, the benchmark measures the conversions without compression, then for each setting runs a warm-up round and
+ * measures the following rounds. It prints the
+ * size of the compressed HTML relative to the uncompressed HTML, the time per {@code Note} and the throughput in
+ * uncompressed HTML per second.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class CompressionBenchmark {
+
+	/** The seed of the {@code CorpusGenerator} creating the converted {@code Note}s. */
+	private static final long SEED = 42;
+
+	private static final int DEFAULT_NOTES = 20;
+
+	private static final int DEFAULT_ROUNDS = 5;
+
+	/** The number of rounds converting the corpus with and without compression before the measure. */
+	private static final int WARMUP_ROUNDS = 10;
+
+	/** The strategies measured, with their names. */
+	private static final int[] STRATEGIES = { Deflater.DEFAULT_STRATEGY, Deflater.FILTERED };
+	private static final String[] STRATEGY_NAMES = { "DEFAULT_STRATEGY", "FILTERED" };
+
+	/** The number of nanoseconds in a microsecond. */
+	private static final long NANOS_PER_MICRO = 1000;
+
+	private CompressionBenchmark() {
+		super();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args {@code --notes=<count>} and {@code --rounds=<count>} to set the number of {@code Note}s converted and
+	 *            of measured rounds, {@code --inline} to measure the inline HTML rather than the HTML referencing the
+	 *            {@code Resource}s, {@code --deflate} to measure the zlib format rather than gzip
+	 * @throws XMLStreamException if the conversion of a {@code Note} fails
+	 */
+	public static void main(final String[] args) throws XMLStreamException {
+		int notes = DEFAULT_NOTES;
+		int rounds = DEFAULT_ROUNDS;
+		boolean inline = false;
+		Compression compression = Compression.GZIP;
+		for (String arg : args) {
+			if (arg.startsWith("--notes=")) {
+				notes = Integer.parseInt(arg.substring("--notes=".length()));
+			} else if (arg.startsWith("--rounds=")) {
+				rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+			} else if ("--inline".equals(arg)) {
+				inline = true;
+			} else if ("--deflate".equals(arg)) {
+				compression = Compression.DEFLATE;
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		List<Note> corpus = new CorpusGenerator(SEED).generate(0, notes);
+
+		// A single processor, so each setting is measured with the same warm caches
+		ENMLProcessor processor = new ENMLProcessor();
+		long htmlSize = 0;
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			htmlSize = convert(processor, corpus, null, inline);
+			processor.setCompression(round % Deflater.BEST_COMPRESSION + 1, STRATEGIES[round % STRATEGIES.length]);
+			convert(processor, corpus, compression, inline);
+		}
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			convert(processor, corpus, null, inline);
+		}
+		print("uncompressed", htmlSize, htmlSize, System.nanoTime() - start, rounds, notes);
+
+		for (int s = 0; s < STRATEGIES.length; s++) {
+			for (int level = 1; level <= Deflater.BEST_COMPRESSION; level++) {
+				processor.setCompression(level, STRATEGIES[s]);
+				long size = convert(processor, corpus, compression, inline);
+				start = System.nanoTime();
+				for (int round = 0; round < rounds; round++) {
+					convert(processor, corpus, compression, inline);
+				}
+				print("level " + level + ", " + STRATEGY_NAMES[s], size, htmlSize, System.nanoTime() - start, rounds,
+						notes);
+			}
+		}
+	}
+
+	/**
+	 * Converts the {@code Note}s of the corpus.
+	 * 
+	 * @return the total size in bytes of the HTML
+	 */
+	private static long convert(final ENMLProcessor processor, final List<Note> corpus, final Compression compression,
+			final boolean inline) throws XMLStreamException {
+		long size = 0;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Note note : corpus) {
+			out.reset();
+			OutputStream result;
+			if (inline) {
+				result = compression != null ? processor.noteToInlineHTML(note, out, compression) : processor
+						.noteToInlineHTML(note, out);
+			} else {
+				result = compression != null ? processor.noteToHTML(note, mapGUIDURL(note), out, compression)
+						: processor.noteToHTML(note, mapGUIDURL(note), out);
+			}
+			size += ((ByteArrayOutputStream) result).size();
+		}
+		return size;
+	}
+
+	/**
+	 * Prints the measure of a setting.
+	 * 
+	 * @param setting the name of the setting
+	 * @param size the size of the HTML of the corpus with the setting
+	 * @param htmlSize the size of the uncompressed HTML of the corpus
+	 * @param nanos the time spent by the measured rounds
+	 * @param rounds the number of measured rounds
+	 * @param notes the number of {@code Note}s of the corpus
+	 */
+	private static void print(final String setting, final long size, final long htmlSize, final long nanos,
+			final int rounds, final int notes) {
+		System.out.println(String.format(Locale.ROOT, "%-28s %6.2f %% of the HTML, %8d us per note, %7.1f MB/s",
+				setting, 100.0 * size / htmlSize, nanos / rounds / notes / NANOS_PER_MICRO, htmlSize * rounds * 1e3
+						/ nanos));
+	}
+
+	private static Map<String, String> mapGUIDURL(final Note note) {
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		for (Resource resource : note.getResources()) {
+			mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+		}
+		return mapGUIDURL;
+	}
+}
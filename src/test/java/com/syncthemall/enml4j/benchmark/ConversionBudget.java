@@ -0,0 +1,319 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * Measures the memory allocated and the time spent by the operations of an {@code ENMLProcessor} on a corpus of
+ * {@code Note}s, and checks them against budgets, to detect the regressions of a change or of a library upgrade.
+ * <p>
+ * The allocated memory is measured with the {@code ThreadMXBean} of the platform, for the current thread only: each
+ * operation runs on the thread calling {@link ConversionBudget#measure()}. The operations run first on the whole corpus
+ * for a number of warm-up rounds, so the measure excludes the one-time initialization (DTD loading, class loading, JIT
+ * compilation). The resource edit operations modify the {@code Note}s, so they run on a copy made outside of the
+ * measure.
+ * <p>
+ * It is used by {@link ConversionBudgetTest} on a corpus created by a {@link CorpusGenerator} with a fixed seed:
+ * 
+ * <pre>
+ * new ConversionBudget(processor, new CorpusGenerator(42).generate(0, 50))
+ *         .setAllocationBudget(Operation.HTML, 2000000).setAllocationBudget(Operation.INLINE_HTML, 5000000).check();
+ * </pre>
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ConversionBudget {
+
+	private static Logger log = Logger.getLogger(ConversionBudget.class.getName());
+
+	/**
+	 * The operations measured by a {@code ConversionBudget}.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	public enum Operation {
+		/** {@link ENMLProcessor#noteToHTMLString(Note, Map)}. */
+		HTML,
+		/** {@link ENMLProcessor#noteToInlineHTMLString(Note)}. */
+		INLINE_HTML,
+		/** {@link ENMLProcessor#updateNoteResources(Note, Map)} of the first {@code Resource} of the {@code Note}. */
+		UPDATE_RESOURCES,
+		/** {@link ENMLProcessor#deleteNoteResources(Note, List)} of the first {@code Resource} of the {@code Note}. */
+		DELETE_RESOURCES,
+		/** {@link ENMLProcessor#addNoteResources(Note, List, boolean)} of a new {@code Resource}. */
+		ADD_RESOURCES
+	}
+
+	/**
+	 * The average memory allocated and time spent by an operation, per {@code Note}.
+	 * 
+	 * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+	 */
+	public static final class Measurement {
+
+		private final long allocatedBytes;
+		private final long nanos;
+		private final int count;
+
+		private Measurement(final long allocatedBytes, final long nanos, final int count) {
+			this.allocatedBytes = allocatedBytes;
+			this.nanos = nanos;
+			this.count = count;
+		}
+
+		/**
+		 * @return the average number of bytes allocated per {@code Note}
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * @return the average time spent per {@code Note}, in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return the number of {@code Note}s measured, some operations requiring a {@code Note} with resources
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return allocatedBytes + " bytes, " + nanos + " ns per note (" + count + " notes)";
+		}
+	}
+
+	private static final int DEFAULT_WARMUP_ROUNDS = 5;
+
+	private final ENMLProcessor processor;
+	private final List<Note> corpus;
+	private final Map<Operation, Long> allocationBudgets = new EnumMap<Operation, Long>(Operation.class);
+	private final Map<Operation, Long> latencyBudgets = new EnumMap<Operation, Long>(Operation.class);
+	private int warmupRounds = DEFAULT_WARMUP_ROUNDS;
+
+	/**
+	 * Construct a {@code ConversionBudget} measuring an {@code ENMLProcessor} on a corpus of {@code Note}s.
+	 * 
+	 * @param processor the {@code ENMLProcessor} to measure
+	 * @param corpus the {@code Note}s to convert and edit. They have to contain their {@code Resource}s with data.
+	 */
+	public ConversionBudget(final ENMLProcessor processor, final List<Note> corpus) {
+		this.processor = processor;
+		this.corpus = corpus;
+	}
+
+	/**
+	 * @return true if the platform measures the memory allocated by a thread, false if only the time can be measured
+	 */
+	public static boolean isAllocationMeasurementSupported() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+	}
+
+	/**
+	 * Set the number of times the operations are run on the whole corpus before being measured.
+	 * 
+	 * @param rounds the number of warm-up rounds, 5 by default
+	 * @return this {@code ConversionBudget}
+	 */
+	public final ConversionBudget setWarmupRounds(final int rounds) {
+		if (rounds < 0) {
+			throw new IllegalArgumentException("The number of warm-up rounds must be positive or zero: " + rounds);
+		}
+		this.warmupRounds = rounds;
+		return this;
+	}
+
+	/**
+	 * Set the maximum average number of bytes an operation can allocate per {@code Note}.
+	 * 
+	 * @param operation the operation
+	 * @param bytes the maximum average number of bytes allocated per {@code Note}
+	 * @return this {@code ConversionBudget}
+	 */
+	public final ConversionBudget setAllocationBudget(final Operation operation, final long bytes) {
+		allocationBudgets.put(operation, bytes);
+		return this;
+	}
+
+	/**
+	 * Set the maximum average time an operation can spend per {@code Note}. The time depends on the machine and its
+	 * load, so the budget should leave a large margin.
+	 * 
+	 * @param operation the operation
+	 * @param nanos the maximum average time spent per {@code Note}, in nanoseconds
+	 * @return this {@code ConversionBudget}
+	 */
+	public final ConversionBudget setLatencyBudget(final Operation operation, final long nanos) {
+		latencyBudgets.put(operation, nanos);
+		return this;
+	}
+
+	/**
+	 * Measures the operations with a budget, or every operation if no budget is set.
+	 * 
+	 * @return the {@code Measurement} of each operation
+	 * @throws XMLStreamException if an operation fails on a {@code Note} of the corpus
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm
+	 */
+	public final Map<Operation, Measurement> measure() throws XMLStreamException, NoSuchAlgorithmException {
+		Map<Operation, Measurement> measurements = new EnumMap<Operation, Measurement>(Operation.class);
+		for (Operation operation : getOperations()) {
+			for (int i = 0; i < warmupRounds; i++) {
+				run(operation, false);
+			}
+			Measurement measurement = run(operation, true);
+			log.fine(operation + ": " + measurement);
+			measurements.put(operation, measurement);
+		}
+		return measurements;
+	}
+
+	/**
+	 * Measures the operations with a budget, and checks that none exceeds its budget.
+	 * 
+	 * @return the {@code Measurement} of each operation
+	 * @throws IllegalStateException if an operation exceeds one of its budgets, with every budget exceeded in the
+	 *             message
+	 * @throws XMLStreamException if an operation fails on a {@code Note} of the corpus
+	 * @throws NoSuchAlgorithmException if no Provider supports a MessageDigestSpi implementation for MD5 algorithm
+	 */
+	public final Map<Operation, Measurement> check() throws XMLStreamException, NoSuchAlgorithmException {
+		Map<Operation, Measurement> measurements = measure();
+		StringBuilder exceeded = new StringBuilder();
+		for (Map.Entry<Operation, Measurement> entry : measurements.entrySet()) {
+			Long bytes = allocationBudgets.get(entry.getKey());
+			if (bytes != null && isAllocationMeasurementSupported() && entry.getValue().getAllocatedBytes() > bytes) {
+				exceeded.append("\n  ").append(entry.getKey()).append(" allocated ")
+						.append(entry.getValue().getAllocatedBytes()).append(" bytes per note, budget ").append(bytes);
+			}
+			Long nanos = latencyBudgets.get(entry.getKey());
+			if (nanos != null && entry.getValue().getNanos() > nanos) {
+				exceeded.append("\n  ").append(entry.getKey()).append(" took ").append(entry.getValue().getNanos())
+						.append(" ns per note, budget ").append(nanos);
+			}
+		}
+		if (exceeded.length() > 0) {
+			throw new IllegalStateException("Conversion budgets exceeded:" + exceeded);
+		}
+		return measurements;
+	}
+
+	private Iterable<Operation> getOperations() {
+		if (allocationBudgets.isEmpty() && latencyBudgets.isEmpty()) {
+			return EnumSet.allOf(Operation.class);
+		}
+		Set<Operation> operations = EnumSet.noneOf(Operation.class);
+		operations.addAll(allocationBudgets.keySet());
+		operations.addAll(latencyBudgets.keySet());
+		return operations;
+	}
+
+	private Measurement run(final Operation operation, final boolean measured) throws XMLStreamException,
+			NoSuchAlgorithmException {
+		boolean allocation = measured && isAllocationMeasurementSupported();
+		com.sun.management.ThreadMXBean bean = allocation ? (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean() : null;
+		long threadId = Thread.currentThread().getId();
+		long allocatedBytes = 0;
+		long nanos = 0;
+		int count = 0;
+		for (Note source : corpus) {
+			boolean edit = operation != Operation.HTML && operation != Operation.INLINE_HTML;
+			if (edit && source.getResourcesSize() == 0) {
+				continue;
+			}
+			// The copies are made before the measure, as they are not part of the operation
+			Note note = edit ? new Note(source) : source;
+			Resource resource = edit ? createResource(note) : null;
+			long allocatedBefore = allocation ? bean.getThreadAllocatedBytes(threadId) : 0;
+			long start = System.nanoTime();
+			switch (operation) {
+			case HTML:
+				processor.noteToHTMLString(note, Collections.<String, String> emptyMap());
+				break;
+			case INLINE_HTML:
+				processor.noteToInlineHTMLString(note);
+				break;
+			case UPDATE_RESOURCES:
+				Map<Resource, Resource> update = new HashMap<Resource, Resource>();
+				update.put(note.getResources().get(0), resource);
+				processor.updateNoteResources(note, update);
+				break;
+			case DELETE_RESOURCES:
+				processor.deleteNoteResources(note, Collections.singletonList(note.getResources().get(0)));
+				break;
+			default:
+				processor.addNoteResources(note, Collections.singletonList(resource), false);
+			}
+			nanos += System.nanoTime() - start;
+			if (allocation) {
+				allocatedBytes += bean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			}
+			count++;
+		}
+		return count == 0 ? new Measurement(0, 0, 0) : new Measurement(allocatedBytes / count, nanos / count, count);
+	}
+
+	/**
+	 * Creates a copy of the first {@code Resource} of a {@code Note} with a different body, used to update and add
+	 * resources.
+	 */
+	private static Resource createResource(final Note note) throws NoSuchAlgorithmException {
+		Resource resource = new Resource(note.getResources().get(0));
+		byte[] body = Arrays.copyOf(resource.getData().getBody(), resource.getData().getBody().length + 1);
+		resource.getData().setBody(body);
+		resource.getData().setSize(body.length);
+		resource.getData().setBodyHash(MessageDigest.getInstance("MD5").digest(body));
+		resource.setGuid(resource.getGuid() + "-copy");
+		return resource;
+	}
+}
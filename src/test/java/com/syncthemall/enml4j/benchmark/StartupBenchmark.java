@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * Measures the time to the first {@code Note} converted to HTML by a new JVM, with or without a call to
+ * {@link ENMLProcessor#warmUp(int)}, to evaluate the cold start of an application running in short-lived containers.
+ * <p>
+ * Each run has to start a new JVM, as the one-time initialization happens only once per JVM:
+ * 
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.StartupBenchmark"
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.StartupBenchmark
+ *         --warm-up=20 --enml-tokenizer --xhtml-serializer"
+ * </pre>
+ * 
+ * The {@code Note}s converted are generated by a {@link CorpusGenerator} with a fixed seed before the measure. The
+ * benchmark prints the time spent by the JVM before the benchmark starts, to create the {@code ENMLProcessor}, to warm
+ * it up, to convert the first {@code Note} and then a second one, and the uptime of the JVM once the first {@code Note}
+ * is converted.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public final class StartupBenchmark {
+
+	/** The seed of the {@code CorpusGenerator} creating the converted {@code Note}s. */
+	private static final long SEED = 42;
+
+	/** The number of nanoseconds in a microsecond. */
+	private static final long NANOS_PER_MICRO = 1000;
+
+	private StartupBenchmark() {
+		super();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args {@code --warm-up=<rounds>} to warm up the {@code ENMLProcessor} with this number of rounds,
+	 *            {@code --enml-tokenizer} and {@code --xhtml-serializer} to enable the corresponding settings
+	 * @throws XMLStreamException if the conversion of a {@code Note} fails
+	 */
+	public static void main(final String[] args) throws XMLStreamException {
+		long mainStart = System.currentTimeMillis();
+		int rounds = -1;
+		ENMLProcessor.Builder builder = ENMLProcessor.builder();
+		for (String arg : args) {
+			if (arg.startsWith("--warm-up=")) {
+				rounds = Integer.parseInt(arg.substring("--warm-up=".length()));
+			} else if ("--enml-tokenizer".equals(arg)) {
+				builder.enmlTokenizer(true);
+			} else if ("--xhtml-serializer".equals(arg)) {
+				builder.xhtmlSerializer(true);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		CorpusGenerator generator = new CorpusGenerator(SEED);
+		Note first = generator.generate(0);
+		Note second = generator.generate(1);
+
+		long start = System.nanoTime();
+		ENMLProcessor processor = builder.build();
+		long created = System.nanoTime();
+		if (rounds >= 0) {
+			processor.warmUp(rounds);
+		}
+		long warmedUp = System.nanoTime();
+		processor.noteToHTMLString(first, mapGUIDURL(first));
+		long firstConverted = System.nanoTime();
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		processor.noteToHTMLString(second, mapGUIDURL(second));
+		long secondConverted = System.nanoTime();
+
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		String warmUp = rounds >= 0 ? " (" + rounds + " rounds): " + (warmedUp - created) / NANOS_PER_MICRO + " us"
+				: ": none";
+		System.out.println("JVM start to benchmark: " + (mainStart - jvmStart) + " ms, processor creation: "
+				+ (created - start) / NANOS_PER_MICRO + " us, warm-up" + warmUp + ", first note: "
+				+ (firstConverted - warmedUp) / NANOS_PER_MICRO + " us, second note: "
+				+ (secondConverted - firstConverted) / NANOS_PER_MICRO + " us, JVM uptime at first note: " + uptime
+				+ " ms");
+	}
+
+	private static Map<String, String> mapGUIDURL(final Note note) {
+		Map<String, String> mapGUIDURL = new HashMap<String, String>();
+		for (Resource resource : note.getResources()) {
+			mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+		}
+		return mapGUIDURL;
+	}
+}
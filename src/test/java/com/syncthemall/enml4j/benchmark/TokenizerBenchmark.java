@@ -0,0 +1,167 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+import com.syncthemall.enml4j.corpus.CorpusGenerator;
+
+/**
+ * JMH benchmark comparing the tokenizer dedicated to ENML with the StAX parser, over a corpus of {@code Note}s
+ * generated by a {@link CorpusGenerator} with a fixed seed.
+ * <p>
+ * {@link #parse(Blackhole)} only reads the events of the ENML content, {@link #convert(Blackhole)} converts the
+ * {@code Note}s to HTML. Each benchmark runs with the StAX parser and with the dedicated tokenizer:
+ * 
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.args="-cp %classpath com.syncthemall.enml4j.benchmark.TokenizerBenchmark"
+ * </pre>
+ * 
+ * The arguments, if any, are passed to the JMH {@code Runner} (for example {@code -f 1 -wi 3 -i 5}) in place of the
+ * default options.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class TokenizerBenchmark {
+
+	/** The seed of the {@code CorpusGenerator} creating the converted {@code Note}s. */
+	private static final long SEED = 42;
+
+	/** The number of {@code Note}s in the corpus. */
+	private static final int NOTES = 20;
+
+	/** The parser reading the ENML content: {@code stax} or {@code tokenizer}. */
+	@Param({ "stax", "tokenizer" })
+	private String parser;
+
+	/** The {@code ENMLProcessor} configured with the benchmarked parser. */
+	private ENMLProcessor processor;
+
+	/** The {@code Note}s of the corpus. */
+	private List<Note> corpus;
+
+	/** The mapping of the {@code Resource}s GUID with their URL, for each {@code Note} of the corpus. */
+	private List<Map<String, String>> mapGUIDURLs;
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the options of the JMH {@code Runner}, or none for the defaults of this class
+	 * @throws RunnerException if the benchmark fails
+	 * @throws IOException if the options can't be parsed
+	 */
+	public static void main(final String[] args) throws RunnerException, IOException {
+		if (args.length > 0) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		Options options = new OptionsBuilder().include(TokenizerBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+	/**
+	 * Creates the {@code ENMLProcessor} and the corpus.
+	 * 
+	 * @throws XMLStreamException if the warm-up of the {@code ENMLProcessor} fails
+	 */
+	@Setup
+	public void setUp() throws XMLStreamException {
+		processor = ENMLProcessor.builder().enmlTokenizer("tokenizer".equals(parser)).build();
+		corpus = new CorpusGenerator(SEED).generate(0, NOTES);
+		mapGUIDURLs = new ArrayList<Map<String, String>>(NOTES);
+		for (Note note : corpus) {
+			Map<String, String> mapGUIDURL = new HashMap<String, String>();
+			for (Resource resource : note.getResources()) {
+				mapGUIDURL.put(resource.getGuid(), "resources/" + resource.getGuid());
+			}
+			mapGUIDURLs.add(mapGUIDURL);
+		}
+	}
+
+	/**
+	 * Reads all the events of the ENML content of the {@code Note}s.
+	 * 
+	 * @param blackhole consumes the events
+	 * @throws XMLStreamException if a content can't be read
+	 */
+	@Benchmark
+	public void parse(final Blackhole blackhole) throws XMLStreamException {
+		for (Note note : corpus) {
+			XMLStreamReader reader = processor.createXMLStreamReader(note);
+			try {
+				while (reader.hasNext()) {
+					blackhole.consume(reader.next());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Converts the {@code Note}s to HTML.
+	 * 
+	 * @param blackhole consumes the HTML
+	 * @throws XMLStreamException if a conversion fails
+	 */
+	@Benchmark
+	public void convert(final Blackhole blackhole) throws XMLStreamException {
+		for (int i = 0; i < NOTES; i++) {
+			blackhole.consume(processor.noteToHTMLString(corpus.get(i), mapGUIDURLs.get(i)));
+		}
+	}
+}
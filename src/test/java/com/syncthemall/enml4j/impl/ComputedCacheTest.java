@@ -0,0 +1,119 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests of the bounds of {@link ComputedCache} and of the values it doesn't keep.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class ComputedCacheTest {
+
+	/** Weighs the strings by their length, and doesn't keep the empty ones. */
+	private static final ComputedCache.Weigher<String> LENGTH = new ComputedCache.Weigher<String>() {
+		@Override
+		public long weigh(final String value) {
+			return value.isEmpty() ? -1 : value.length();
+		}
+	};
+
+	private final AtomicInteger computations = new AtomicInteger();
+
+	@Test
+	public void failedComputationIsComputedAgain() throws Exception {
+		ComputedCache<String> cache = new ComputedCache<String>(10);
+		try {
+			cache.get("key", failing());
+			fail("The failure of the computation is expected");
+		} catch (ExecutionException e) {
+			assertEquals(IOException.class, e.getCause().getClass());
+		}
+		assertEquals("key", cache.get("key", computation("key")));
+		assertEquals("key", cache.get("key", computation("key")));
+		assertEquals(2, computations.get());
+	}
+
+	@Test
+	public void valueWithNegativeWeightIsNotKept() throws Exception {
+		ComputedCache<String> cache = new ComputedCache<String>(10, 100, LENGTH);
+		cache.get("key", computation(""));
+		cache.get("key", computation(""));
+		assertEquals(2, computations.get());
+	}
+
+	@Test
+	public void leastRecentlyUsedValuesAreEvictedBeyondTheMaximumWeight() throws Exception {
+		ComputedCache<String> cache = new ComputedCache<String>(10, 10, LENGTH);
+		cache.get("a", computation("aaaa"));
+		cache.get("b", computation("bbbb"));
+		cache.get("a", computation("aaaa"));
+		cache.get("c", computation("cccc"));
+		assertEquals(3, computations.get());
+		// b, the least recently used, has been evicted
+		cache.get("a", computation("aaaa"));
+		cache.get("c", computation("cccc"));
+		assertEquals(3, computations.get());
+		cache.get("b", computation("bbbb"));
+		assertEquals(4, computations.get());
+	}
+
+	@Test
+	public void valueHeavierThanTheMaximumWeightIsNotKept() throws Exception {
+		ComputedCache<String> cache = new ComputedCache<String>(10, 10, LENGTH);
+		cache.get("a", computation("aaaa"));
+		cache.get("big", computation("bigger than the cache"));
+		cache.get("big", computation("bigger than the cache"));
+		cache.get("a", computation("aaaa"));
+		assertEquals(3, computations.get());
+	}
+
+	private Callable<String> computation(final String value) {
+		return new Callable<String>() {
+			@Override
+			public String call() {
+				computations.incrementAndGet();
+				return value;
+			}
+		};
+	}
+
+	private Callable<String> failing() {
+		return new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				computations.incrementAndGet();
+				throw new IOException("failed");
+			}
+		};
+	}
+}
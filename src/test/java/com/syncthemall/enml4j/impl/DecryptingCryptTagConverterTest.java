@@ -0,0 +1,159 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+
+/**
+ * Checks that {@link DecryptingCryptTagConverter} decrypts the {@code <en-crypt>} tags, whatever their length.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class DecryptingCryptTagConverterTest {
+
+	private static final String PASSPHRASE = "secret";
+
+	/** Long enough for the base64 content to exceed the parser buffers and be read in several text events. */
+	private static final int TEXT_LENGTH = 60000;
+
+	private static final DecryptingCryptTagConverter.PassphraseProvider PASSPHRASES =
+			new DecryptingCryptTagConverter.PassphraseProvider() {
+				@Override
+				public String getPassphrase(final Note note, final String hint) {
+					return PASSPHRASE;
+				}
+			};
+
+	@Test
+	public void shortBlockIsDecrypted() throws Exception {
+		checkDecrypted("A short secret", false);
+	}
+
+	@Test
+	public void multiKilobyteBlockIsDecrypted() throws Exception {
+		checkDecrypted(createText(TEXT_LENGTH), false);
+	}
+
+	@Test
+	public void multiKilobyteBlockIsDecryptedByTheTokenizer() throws Exception {
+		checkDecrypted(createText(TEXT_LENGTH), true);
+	}
+
+	@Test
+	public void wrongPassphraseGivesOnePlaceholder() throws Exception {
+		Note note = createNote(encrypt(createText(TEXT_LENGTH), "other"));
+		String html = createProcessor(false).noteToHTMLString(note, Collections.<String, String> emptyMap());
+		assertEquals(html.indexOf("[Encrypted in Evernote]"), html.lastIndexOf("[Encrypted in Evernote]"));
+		assertTrue(html.contains("<span>[Encrypted in Evernote]</span>"));
+	}
+
+	private static void checkDecrypted(final String text, final boolean tokenizer) throws Exception {
+		Note note = createNote(encrypt(text, PASSPHRASE));
+		String html = createProcessor(tokenizer).noteToHTMLString(note, Collections.<String, String> emptyMap());
+		assertTrue(html.contains("<span>" + text + "</span>"));
+		assertFalse(html.contains("[Encrypted in Evernote]"));
+	}
+
+	private static ENMLProcessor createProcessor(final boolean tokenizer) {
+		return ENMLProcessor.builder().cryptConverter(new DecryptingCryptTagConverter(PASSPHRASES))
+				.enmlTokenizer(tokenizer).build();
+	}
+
+	private static String createText(final int length) {
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; text.length() < length; i++) {
+			text.append("word").append(i).append(' ');
+		}
+		return text.toString().trim();
+	}
+
+	private static Note createNote(final String encrypted) {
+		Note note = new Note();
+		note.setGuid("crypt");
+		note.setTitle("Crypt");
+		note.setContent("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n"
+				+ "<en-note><div><en-crypt cipher=\"AES\" length=\"128\" hint=\"hint\">" + encrypted
+				+ "</en-crypt></div></en-note>");
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return note;
+	}
+
+	/**
+	 * Encrypts a text as Evernote: magic number, salt, HMAC salt, IV, AES-128-CBC encrypted text and HMAC-SHA256 of
+	 * all the preceding bytes, the keys being derived with PBKDF2 (HMAC-SHA256, 50000 iterations).
+	 */
+	private static String encrypt(final String text, final String passphrase) throws Exception {
+		SecureRandom random = new SecureRandom();
+		byte[] salt = new byte[16];
+		byte[] hmacSalt = new byte[16];
+		byte[] iv = new byte[16];
+		random.nextBytes(salt);
+		random.nextBytes(hmacSalt);
+		random.nextBytes(iv);
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derive(passphrase, salt), "AES"), new IvParameterSpec(iv));
+		byte[] encrypted = cipher.doFinal(text.getBytes(Charset.forName("UTF-8")));
+
+		byte[] data = new byte[4 + 48 + encrypted.length + 32];
+		System.arraycopy(new byte[] { 'E', 'N', 'C', '0' }, 0, data, 0, 4);
+		System.arraycopy(salt, 0, data, 4, 16);
+		System.arraycopy(hmacSalt, 0, data, 20, 16);
+		System.arraycopy(iv, 0, data, 36, 16);
+		System.arraycopy(encrypted, 0, data, 52, encrypted.length);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(derive(passphrase, hmacSalt), "HmacSHA256"));
+		mac.update(data, 0, data.length - 32);
+		byte[] hmac = mac.doFinal();
+		System.arraycopy(hmac, 0, data, data.length - 32, 32);
+		return Base64.encodeBase64String(data);
+	}
+
+	private static byte[] derive(final String passphrase, final byte[] salt) throws Exception {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		return factory.generateSecret(new PBEKeySpec(passphrase.toCharArray(), salt, 50000, 128)).getEncoded();
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+
+/**
+ * Checks the indexing, the ranking and the updates of {@link NoteIndex}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class NoteIndexTest {
+
+	private final NoteIndex index = new NoteIndex(ENMLProcessor.builder().build());
+
+	@Test
+	public void searchMatchesAllTerms() throws XMLStreamException {
+		index.add(createNote("1", 1, "Groceries", "Apples and <b>pears</b>"));
+		index.add(createNote("2", 1, "Orchard", "Apples and cherries"));
+
+		assertEquals(Arrays.asList("1"), index.search("apples PEARS", 10));
+		assertEquals(Arrays.asList("1"), index.search("groceries", 10));
+		assertEquals(Collections.emptyList(), index.search("apples bananas", 10));
+		assertEquals(Collections.emptyList(), index.search(" ,; ", 10));
+	}
+
+	@Test
+	public void mostRelevantNotesComeFirst() throws XMLStreamException {
+		index.add(createNote("once", 1, "Once", "<div>apple pie</div>"));
+		index.add(createNote("thrice", 1, "Thrice", "<div>apple</div><div>apple juice, apple pie</div>"));
+		index.add(createNote("twice", 1, "Twice", "<div>apple tart and apple pie</div>"));
+		index.add(createNote("none", 1, "None", "<div>cherry pie</div>"));
+
+		assertEquals(Arrays.asList("thrice", "twice", "once"), index.search("apple", 10));
+		assertEquals(Arrays.asList("thrice", "twice", "once"), index.search("apple pie", 10));
+		assertEquals(4, index.search("pie", 10).size());
+	}
+
+	@Test
+	public void maxResultsLimitsTheResults() throws XMLStreamException {
+		for (int i = 1; i <= 5; i++) {
+			StringBuilder content = new StringBuilder();
+			for (int j = 0; j < i; j++) {
+				content.append("<div>note</div>");
+			}
+			index.add(createNote(String.valueOf(i), 1, "Title", content.toString()));
+		}
+
+		assertEquals(Arrays.asList("5", "4"), index.search("note", 2));
+		assertEquals(5, index.search("note", 10).size());
+		assertEquals(Collections.emptyList(), index.search("note", 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeMaxResultsIsRejected() {
+		index.search("note", -1);
+	}
+
+	@Test
+	public void updateReplacesThePreviousVersion() throws XMLStreamException {
+		assertTrue(index.add(createNote("1", 2, "Note", "first version")));
+		assertFalse(index.add(createNote("1", 1, "Note", "stale version")));
+		assertFalse(index.add(createNote("1", 2, "Note", "same version")));
+		assertEquals(2, index.getUpdateSequenceNum("1"));
+		assertEquals(Arrays.asList("1"), index.search("first", 10));
+		assertEquals(Collections.emptyList(), index.search("stale", 10));
+
+		assertTrue(index.add(createNote("1", 3, "Note", "second version")));
+		assertEquals(1, index.size());
+		assertEquals(3, index.getUpdateSequenceNum("1"));
+		assertEquals(Collections.emptyList(), index.search("first", 10));
+		assertEquals(Arrays.asList("1"), index.search("second", 10));
+		assertEquals(Arrays.asList("1"), index.search("version", 10));
+	}
+
+	@Test
+	public void deletedNotesAreNotFound() throws XMLStreamException {
+		for (int i = 0; i < 10; i++) {
+			index.add(createNote(String.valueOf(i), 1, "Note", "shared word" + i));
+		}
+		assertTrue(index.delete("3"));
+		assertFalse(index.delete("3"));
+		assertFalse(index.delete("unknown"));
+		assertEquals(9, index.size());
+		assertEquals(-1, index.getUpdateSequenceNum("3"));
+		assertEquals(Collections.emptyList(), index.search("word3", 10));
+		assertEquals(9, index.search("shared", 10).size());
+
+		// Deleting more than half of the notes compacts the index
+		for (int i = 4; i < 10; i++) {
+			index.delete(String.valueOf(i));
+		}
+		index.compact();
+		assertEquals(3, index.size());
+		assertEquals(3, index.search("shared", 10).size());
+		assertEquals(Arrays.asList("2"), index.search("word2", 10));
+		assertEquals(Collections.emptyList(), index.search("word9", 10));
+	}
+
+	private static Note createNote(final String guid, final int usn, final String title, final String content) {
+		Note note = new Note();
+		note.setGuid(guid);
+		note.setUpdateSequenceNum(usn);
+		note.setTitle(title);
+		note.setContent("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n<en-note>" + content
+				+ "</en-note>");
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return note;
+	}
+}
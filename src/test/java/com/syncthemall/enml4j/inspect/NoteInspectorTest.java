@@ -0,0 +1,92 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.inspect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.NoteAttributes;
+import com.evernote.edam.type.Resource;
+import com.syncthemall.enml4j.ENMLProcessor;
+
+/**
+ * Checks the statistics collected by {@link NoteInspector}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class NoteInspectorTest {
+
+	private final NoteInspector inspector = new NoteInspector(ENMLProcessor.builder().build());
+
+	@Test
+	public void inlineTagsDoNotSplitWords() throws XMLStreamException {
+		assertEquals(1, inspect("<div>foo<b>bar</b></div>").getWordCount());
+		assertEquals(2, inspect("<div>foo <i>bar</i>baz</div>").getWordCount());
+	}
+
+	@Test
+	public void blockTagsSplitWords() throws XMLStreamException {
+		assertEquals(2, inspect("<div>foo</div><div>bar</div>").getWordCount());
+		assertEquals(4, inspect("<p>one<br/>two</p><table><tr><td>three</td><td>four</td></tr></table>")
+				.getWordCount());
+		assertEquals(2, inspect("<ul><li>foo</li><li>bar</li></ul>").getWordCount());
+	}
+
+	@Test
+	public void cryptTextIsNotCounted() throws XMLStreamException {
+		NoteStatistics statistics = inspect("<div>visible<en-crypt cipher=\"AES\">c2VjcmV0</en-crypt> text</div>");
+		assertEquals(2, statistics.getWordCount());
+		assertEquals(1, statistics.getCryptCount());
+	}
+
+	@Test
+	public void todosAndMediaAreCounted() throws XMLStreamException {
+		NoteStatistics statistics = inspect("<div><en-todo checked=\"true\"/>done</div><div><en-todo/>todo</div>"
+				+ "<div><en-todo checked=\"false\"/>later</div><en-media type=\"image/png\" hash=\"00\"/>"
+				+ "<en-media type=\"image/png\" hash=\"01\"/><en-media type=\"application/pdf\" hash=\"02\"/>");
+		assertEquals(3, statistics.getWordCount());
+		assertEquals(3, statistics.getTodoCount());
+		assertEquals(1, statistics.getCheckedTodoCount());
+		assertEquals(3, statistics.getMediaCount());
+		assertEquals(Integer.valueOf(2), statistics.getMediaCountByType().get("image/png"));
+		assertEquals(Integer.valueOf(1), statistics.getMediaCountByType().get("application/pdf"));
+	}
+
+	private NoteStatistics inspect(final String content) throws XMLStreamException {
+		Note note = new Note();
+		note.setGuid("inspected");
+		note.setTitle("Inspected");
+		note.setContent("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE en-note SYSTEM \"http://xml.evernote.com/pub/enml2.dtd\">\n<en-note>" + content
+				+ "</en-note>");
+		note.setResources(new ArrayList<Resource>());
+		note.setAttributes(new NoteAttributes());
+		return inspector.inspect(note);
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * The MIT License
+ * Copyright (c) 2013 Pierre-Denis Vanduynslager
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.syncthemall.enml4j.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the tags and attributes located by {@link TagScanner}.
+ * 
+ * @author Pierre-Denis Vanduynslager <pierre.denis.vanduynslager@gmail.com>
+ */
+public class TagScannerTest {
+
+	@Test
+	public void attributesAreLocated() {
+		String content = "<en-note><en-todo  checked = 'true'\n style=\"a:b\"/></en-note>";
+		TagScanner scanner = new TagScanner(content);
+		assertTrue(scanner.next("en-todo"));
+		assertEquals(content.indexOf("<en-todo"), scanner.getStart());
+		assertEquals(content.indexOf("  checked"), scanner.getNameEnd());
+		assertTrue(scanner.isEmptyElement());
+		assertEquals(2, scanner.getAttributeCount());
+		assertEquals("checked", scanner.getAttributeName(0));
+		assertEquals("true", scanner.getAttributeValue("checked"));
+		assertEquals("a:b", scanner.getAttributeValue("style"));
+		assertEquals(content.indexOf("true"), scanner.getAttributeValueStart("checked"));
+		assertEquals(content.indexOf("'\n"), scanner.getAttributeValueEnd("checked"));
+		assertEquals(-1, scanner.getAttributeValueStart("hash"));
+		assertNull(scanner.getAttributeValue("hash"));
+		assertFalse(scanner.next("en-todo"));
+	}
+
+	@Test
+	public void commentsCDATAAndInstructionsAreSkipped() {
+		String content = "<!DOCTYPE en-note [<!ENTITY x '<en-todo/>'>]><en-note><!-- <en-todo/> -->"
+				+ "<![CDATA[<en-todo/>]]><?pi <en-todo/>?><en-todo/></en-todo-list></en-note>";
+		TagScanner scanner = new TagScanner(content);
+		assertTrue(scanner.next("en-todo"));
+		assertEquals(content.lastIndexOf("<en-todo/>"), scanner.getStart());
+		assertFalse(scanner.next("en-todo"));
+	}
+
+	@Test
+	public void namesAreMatchedExactly() {
+		TagScanner scanner = new TagScanner("<en-note><en-todos/><en-tod/><en-todo>text</en-todo></en-note>");
+		assertTrue(scanner.next("en-todo"));
+		assertFalse(scanner.isEmptyElement());
+		assertFalse(scanner.next("en-todo"));
+	}
+}